@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxExceptions;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The evaluation of typical Sirius expressions on the root of a synthetic
+ * model, as the Sirius interpreter does it : the expression is parsed once,
+ * then evaluated in "run" mode without text mapping.
+ *
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int size;
+
+    @Param({ "<%name%>", "<%packages.classes.nSize()%>", "<%eAllContents(\"Attribute\").nSize()%>", "<%eAllContents(\"Class\")[abstract].name.sep(\", \")%>",
+            "<%packages.classes.nSort(\"name\").nFirst().name%>" })
+    String expression;
+
+    private EObject root;
+
+    private Template template;
+
+    @Setup
+    public void setUp() throws TemplateSyntaxExceptions, ENodeException {
+        root = SyntheticModel.create(size).getRoot();
+        final SpecificScript script = new SpecificScript();
+        script.reset(SyntheticModel.getScriptHeader());
+        template = Template.from(expression, script, root);
+    }
+
+    @Benchmark
+    public ENode evaluate() throws ENodeException, ENodeCastException, FactoryException {
+        final ENode result = template.evaluate(root, LaunchManager.create("run", false, false)); //$NON-NLS-1$
+        if (result.isList()) {
+            result.getList().size();
+        }
+        return result;
+    }
+
+}
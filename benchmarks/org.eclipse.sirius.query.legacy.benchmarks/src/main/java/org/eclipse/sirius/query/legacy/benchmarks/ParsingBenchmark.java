@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxExceptions;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The parsing of the expressions and of the scripts.
+ *
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    /**
+     * An expression to parse, in the context of a script.
+     */
+    @State(Scope.Benchmark)
+    public static class ExpressionState {
+
+        @Param({ "<%name%>", "name : <%name%> (<%eContainer().name%>)", "<%eAllContents(\"Class\")[abstract].name.sep(\", \")%>",
+                "<%if (packages.nSize() > 0){%><%packages.classes.nSort(\"name\").nFirst().name%><%}else{%><%name.toUpperCase()%><%}%>" })
+        String expression;
+
+        SpecificScript script;
+
+        EObject target;
+
+        @Setup
+        public void setUp() throws TemplateSyntaxExceptions {
+            script = new SpecificScript();
+            script.reset(SyntheticModel.getScriptHeader());
+            target = SyntheticModel.create(100).getRoot();
+        }
+
+    }
+
+    /**
+     * A script to parse.
+     */
+    @State(Scope.Benchmark)
+    public static class ScriptState {
+
+        @Param({ "10", "100" })
+        int templates;
+
+        String text;
+
+        @Setup
+        public void setUp() {
+            text = SyntheticModel.getScript(templates);
+        }
+
+    }
+
+    @Benchmark
+    public Template parseExpression(final ExpressionState state) throws ENodeException {
+        return Template.from(state.expression, state.script, state.target);
+    }
+
+    @Benchmark
+    public SpecificScript parseScript(final ScriptState state) throws TemplateSyntaxExceptions {
+        final SpecificScript script = new SpecificScript();
+        script.reset(state.text);
+        return script;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxExceptions;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services.ENodeServices;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services.EObjectServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The system services called directly, and the dispatch of the calls to the
+ * java services.
+ *
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServicesBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int size;
+
+    private EObjectServices eObjectServices;
+
+    private ENodeServices eNodeServices;
+
+    private ENode root;
+
+    private ENode classes;
+
+    private EObject firstClass;
+
+    private Template dispatch;
+
+    @Setup
+    public void setUp() throws TemplateSyntaxExceptions, FactoryException, ENodeException {
+        final SyntheticModel model = SyntheticModel.create(size);
+        final SpecificScript script = new SpecificScript();
+        script.reset(SyntheticModel.getScriptHeader());
+        eObjectServices = new EObjectServices(script);
+        eNodeServices = new ENodeServices(script);
+        root = new ENode(model.getRoot());
+        final ENodeList list = eObjectServices.eAllContents(root, "Class"); //$NON-NLS-1$
+        list.size();
+        classes = new ENode(list, root);
+        firstClass = model.getFirstClass();
+        dispatch = Template.from("<%name.toUpperCase().substring(1).toLowerCase().length()%>", script, firstClass); //$NON-NLS-1$
+    }
+
+    @Benchmark
+    public int typedEAllContents() throws FactoryException {
+        return eObjectServices.eAllContents(root, "Attribute").size(); //$NON-NLS-1$
+    }
+
+    @Benchmark
+    public ENode sep() throws ENodeCastException, FactoryException {
+        return eNodeServices.sep(classes, ", "); //$NON-NLS-1$
+    }
+
+    @Benchmark
+    public ENode nSort() throws ENodeCastException {
+        return eNodeServices.nSort(classes, "name"); //$NON-NLS-1$
+    }
+
+    @Benchmark
+    public ENode serviceDispatch() throws ENodeException, FactoryException {
+        return dispatch.evaluate(firstClass, LaunchManager.create("run", false, false)); //$NON-NLS-1$
+    }
+
+}
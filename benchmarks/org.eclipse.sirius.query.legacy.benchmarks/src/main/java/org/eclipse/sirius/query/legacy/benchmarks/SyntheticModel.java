@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.benchmarks;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.ResourceImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateConstants;
+
+/**
+ * A generated model of a given size, instance of a small dynamic metamodel
+ * close to the ones found in the Sirius viewpoints : a model contains nested
+ * packages, which contain classes, which contain attributes.
+ * <p>
+ * The model is generated with a fixed seed : two models of the same size are
+ * identical.
+ *
+ *
+ */
+public final class SyntheticModel {
+
+    /**
+     * The URI of the metamodel.
+     */
+    public static final String NS_URI = "http://www.obeo.fr/acceleo/benchmark/1.0"; //$NON-NLS-1$
+
+    /**
+     * The number of attributes of a class.
+     */
+    private static final int ATTRIBUTES = 4;
+
+    /**
+     * The number of classes of a package.
+     */
+    private static final int CLASSES = 10;
+
+    /**
+     * The number of sub-packages of a package.
+     */
+    private static final int PACKAGES = 3;
+
+    private static final String[] TYPES = { "String", "int", "boolean", "double", "Date" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
+    private static EPackage metamodel;
+
+    private static EClass modelClass;
+
+    private static EClass packageClass;
+
+    private static EClass classClass;
+
+    private static EClass attributeClass;
+
+    private static EAttribute name;
+
+    private static EAttribute isAbstract;
+
+    private static EAttribute type;
+
+    private static EReference classes;
+
+    private static EReference attributes;
+
+    private static EReference superTypes;
+
+    private final EObject root;
+
+    private final int size;
+
+    private final Random random = new Random(42);
+
+    private SyntheticModel(final int size) {
+        this.size = size;
+        this.root = EcoreUtil.create(SyntheticModel.modelClass);
+        root.eSet(SyntheticModel.name, "model"); //$NON-NLS-1$
+    }
+
+    /**
+     * Creates a model.
+     *
+     * @param size
+     *            is the approximate number of elements
+     * @return the model
+     */
+    public static SyntheticModel create(final int size) {
+        SyntheticModel.initMetamodel();
+        final SyntheticModel model = new SyntheticModel(size);
+        int count = 1;
+        int index = 0;
+        while (count < size) {
+            count += model.fillPackage(model.root, "p" + index++, 0, size - count); //$NON-NLS-1$
+        }
+        final Resource resource = new ResourceImpl(URI.createURI("synthetic-" + size + ".bench")); //$NON-NLS-1$ //$NON-NLS-2$
+        resource.getContents().add(model.root);
+        return model;
+    }
+
+    private int fillPackage(final EObject parent, final String packageName, final int depth, final int remaining) {
+        final EObject ePackage = EcoreUtil.create(SyntheticModel.packageClass);
+        ePackage.eSet(SyntheticModel.name, packageName);
+        SyntheticModel.add(parent, (EReference) parent.eClass().getEStructuralFeature("packages"), ePackage); //$NON-NLS-1$
+        int count = 1;
+        for (int i = 0; i < SyntheticModel.CLASSES && count < remaining; i++) {
+            final EObject eClass = EcoreUtil.create(SyntheticModel.classClass);
+            eClass.eSet(SyntheticModel.name, "C" + Integer.toHexString(random.nextInt())); //$NON-NLS-1$
+            eClass.eSet(SyntheticModel.isAbstract, Boolean.valueOf(random.nextInt(4) == 0));
+            SyntheticModel.add(ePackage, SyntheticModel.classes, eClass);
+            count++;
+            for (int j = 0; j < SyntheticModel.ATTRIBUTES && count < remaining; j++) {
+                final EObject eAttribute = EcoreUtil.create(SyntheticModel.attributeClass);
+                eAttribute.eSet(SyntheticModel.name, "a" + j); //$NON-NLS-1$
+                eAttribute.eSet(SyntheticModel.type, SyntheticModel.TYPES[random.nextInt(SyntheticModel.TYPES.length)]);
+                SyntheticModel.add(eClass, SyntheticModel.attributes, eAttribute);
+                count++;
+            }
+            final List<?> siblings = (List<?>) ePackage.eGet(SyntheticModel.classes);
+            if (siblings.size() > 1) {
+                SyntheticModel.add(eClass, SyntheticModel.superTypes, siblings.get(random.nextInt(siblings.size() - 1)));
+            }
+        }
+        if (depth < 2) {
+            for (int i = 0; i < SyntheticModel.PACKAGES && count < remaining; i++) {
+                count += fillPackage(ePackage, packageName + '_' + i, depth + 1, remaining - count);
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(final EObject owner, final EReference reference, final Object value) {
+        ((List<Object>) owner.eGet(reference)).add(value);
+    }
+
+    private static synchronized void initMetamodel() {
+        if (SyntheticModel.metamodel != null) {
+            return;
+        }
+        final EcoreFactory factory = EcoreFactory.eINSTANCE;
+        final EPackage result = factory.createEPackage();
+        result.setName("benchmark"); //$NON-NLS-1$
+        result.setNsPrefix("benchmark"); //$NON-NLS-1$
+        result.setNsURI(SyntheticModel.NS_URI);
+        final EClass namedElement = SyntheticModel.createClass(result, "NamedElement", null); //$NON-NLS-1$
+        namedElement.setAbstract(true);
+        SyntheticModel.name = SyntheticModel.createAttribute(namedElement, "name", EcorePackage.eINSTANCE.getEString()); //$NON-NLS-1$
+        SyntheticModel.modelClass = SyntheticModel.createClass(result, "Model", namedElement); //$NON-NLS-1$
+        SyntheticModel.packageClass = SyntheticModel.createClass(result, "Package", namedElement); //$NON-NLS-1$
+        SyntheticModel.classClass = SyntheticModel.createClass(result, "Class", namedElement); //$NON-NLS-1$
+        SyntheticModel.attributeClass = SyntheticModel.createClass(result, "Attribute", namedElement); //$NON-NLS-1$
+        SyntheticModel.isAbstract = SyntheticModel.createAttribute(SyntheticModel.classClass, "abstract", EcorePackage.eINSTANCE.getEBoolean()); //$NON-NLS-1$
+        SyntheticModel.type = SyntheticModel.createAttribute(SyntheticModel.attributeClass, "type", EcorePackage.eINSTANCE.getEString()); //$NON-NLS-1$
+        SyntheticModel.createReference(SyntheticModel.modelClass, "packages", SyntheticModel.packageClass, true); //$NON-NLS-1$
+        SyntheticModel.createReference(SyntheticModel.packageClass, "packages", SyntheticModel.packageClass, true); //$NON-NLS-1$
+        SyntheticModel.classes = SyntheticModel.createReference(SyntheticModel.packageClass, "classes", SyntheticModel.classClass, true); //$NON-NLS-1$
+        SyntheticModel.attributes = SyntheticModel.createReference(SyntheticModel.classClass, "attributes", SyntheticModel.attributeClass, true); //$NON-NLS-1$
+        SyntheticModel.superTypes = SyntheticModel.createReference(SyntheticModel.classClass, "superTypes", SyntheticModel.classClass, false); //$NON-NLS-1$
+        EPackage.Registry.INSTANCE.put(SyntheticModel.NS_URI, result);
+        SyntheticModel.metamodel = result;
+    }
+
+    private static EClass createClass(final EPackage ePackage, final String className, final EClass superType) {
+        final EClass result = EcoreFactory.eINSTANCE.createEClass();
+        result.setName(className);
+        if (superType != null) {
+            result.getESuperTypes().add(superType);
+        }
+        ePackage.getEClassifiers().add(result);
+        return result;
+    }
+
+    private static EAttribute createAttribute(final EClass eClass, final String attributeName, final EDataType eType) {
+        final EAttribute result = EcoreFactory.eINSTANCE.createEAttribute();
+        result.setName(attributeName);
+        result.setEType(eType);
+        eClass.getEStructuralFeatures().add(result);
+        return result;
+    }
+
+    private static EReference createReference(final EClass eClass, final String referenceName, final EClass eType, final boolean containment) {
+        final EReference result = EcoreFactory.eINSTANCE.createEReference();
+        result.setName(referenceName);
+        result.setEType(eType);
+        result.setUpperBound(-1);
+        result.setContainment(containment);
+        eClass.getEStructuralFeatures().add(result);
+        return result;
+    }
+
+    /**
+     * Gets the header of a script on the metamodel of the synthetic models,
+     * as the one of the Sirius interpreter.
+     *
+     * @return the header of a script
+     */
+    public static String getScriptHeader() {
+        SyntheticModel.initMetamodel();
+        TemplateConstants.initConstants();
+        return TemplateConstants.IMPORT_BEGIN + '\n' + TemplateConstants.MODELTYPE_WORD + ' ' + SyntheticModel.NS_URI + " \n\n" + TemplateConstants.IMPORT_END; //$NON-NLS-1$
+    }
+
+    /**
+     * Gets a script of text templates on the metamodel of the synthetic
+     * models, to parse a realistic text.
+     *
+     * @param templates
+     *            is the number of templates of the script
+     * @return the text of the script
+     */
+    public static String getScript(final int templates) {
+        final String[] types = { "Package", "Class", "Attribute" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        final StringBuffer buffer = new StringBuffer(SyntheticModel.getScriptHeader());
+        buffer.append('\n');
+        for (int i = 0; i < templates; i++) {
+            buffer.append("<%script type=\"").append(types[i % types.length]).append("\" name=\"template").append(i).append("\"%>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            buffer.append("<%if (name.startsWith(\"C\")){%>\n"); //$NON-NLS-1$
+            buffer.append("  <%name.toUpperCase()%> : <%eContainer().name%>\n"); //$NON-NLS-1$
+            buffer.append("<%}else{%>\n"); //$NON-NLS-1$
+            buffer.append("  <%for (eContents()){%><%name%>, <%}%>\n"); //$NON-NLS-1$
+            buffer.append("<%}%>\n"); //$NON-NLS-1$
+            buffer.append("<%-- comment ").append(i).append(" --%>\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * @return the root of the model
+     */
+    public EObject getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the approximate number of elements
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the first class of the model.
+     *
+     * @return a class of the model
+     */
+    public EObject getFirstClass() {
+        for (final Iterator<EObject> it = root.eAllContents(); it.hasNext();) {
+            final EObject next = it.next();
+            if (next.eClass() == SyntheticModel.classClass) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.sirius.query.legacy.gen.template.TemplateConstants;
+import org.eclipse.sirius.query.legacy.tools.strings.Int2;
+import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The scanning of a script text, as the parser does it.
+ *
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextSearchBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int templates;
+
+    private String buffer;
+
+    private final TextSearch search = TextSearch.getDefaultSearch();
+
+    @Setup
+    public void setUp() {
+        TemplateConstants.initConstants();
+        buffer = SyntheticModel.getScript(templates);
+    }
+
+    /**
+     * Finds the end of each statement, ignoring the nested statements, as
+     * the parser does it.
+     */
+    @Benchmark
+    public int statementEnds() {
+        int count = 0;
+        Int2 begin = search.indexIn(buffer, TemplateConstants.FEATURE_BEGIN, 0, buffer.length());
+        while (begin.b() > -1) {
+            final Int2 end = search.blockIndexEndIn(buffer, TemplateConstants.FEATURE_BEGIN, TemplateConstants.FEATURE_END, begin.b(), buffer.length(), true, null, TemplateConstants.INHIBS_STATEMENT);
+            if (end.b() == -1) {
+                break;
+            }
+            count++;
+            begin = search.indexIn(buffer, TemplateConstants.FEATURE_BEGIN, end.e(), buffer.length());
+        }
+        return count;
+    }
+
+    /**
+     * Finds the end of each expression, ignoring the literals and the
+     * parentheses.
+     */
+    @Benchmark
+    public int expressionEnds() {
+        int count = 0;
+        Int2 begin = search.indexIn(buffer, TemplateConstants.FEATURE_BEGIN, 0, buffer.length());
+        while (begin.b() > -1) {
+            final Int2 end = search.indexIn(buffer, TemplateConstants.FEATURE_END, begin.e(), buffer.length(), TemplateConstants.SPEC, TemplateConstants.INHIBS_EXPRESSION);
+            if (end.b() == -1) {
+                break;
+            }
+            count++;
+            begin = search.indexIn(buffer, TemplateConstants.FEATURE_BEGIN, end.e(), buffer.length());
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int lines() {
+        return search.allIndexOf(buffer, "\n").length; //$NON-NLS-1$
+    }
+
+    @Benchmark
+    public int lineNumber() {
+        return search.lineNumber(buffer, buffer.length() - 1);
+    }
+
+}
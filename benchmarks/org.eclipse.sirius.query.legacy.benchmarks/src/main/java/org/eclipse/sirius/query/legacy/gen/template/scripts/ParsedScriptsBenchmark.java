@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxExceptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cold start of a script : parsing its text, or reading the templates
+ * parsed in a previous session. Both load the imports of the header.
+ *
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParsedScriptsBenchmark {
+
+    @Param({ "10", "100" })
+    int templates;
+
+    String text;
+
+    File file;
+
+    @Setup
+    public void setUp() throws TemplateSyntaxExceptions, IOException {
+        text = SyntheticModel.getScript(templates);
+        final SpecificScript script = new SpecificScript();
+        script.reset(text);
+        file = File.createTempFile("parsedScript", ".ser"); //$NON-NLS-1$ //$NON-NLS-2$
+        ParsedScripts.write(file, script);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public SpecificScript parseScript() throws TemplateSyntaxExceptions {
+        final SpecificScript script = new SpecificScript();
+        script.reset(text);
+        return script;
+    }
+
+    @Benchmark
+    public SpecificScript readScript() throws TemplateSyntaxExceptions, IOException, ClassNotFoundException {
+        final SpecificScript script = new SpecificScript();
+        script.reset(SyntheticModel.getScriptHeader());
+        ParsedScripts.read(file, script);
+        return script;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Evaluates the same expressions with and without text mapping : the results
+ * must be the same, only the mappings differ.
+ */
+@RunWith(Parameterized.class)
+public class TextMappingTest {
+
+    private static EObject root;
+
+    private static SpecificScript script;
+
+    private final String expression;
+
+    public TextMappingTest(final String expression) {
+        this.expression = expression;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> expressions() {
+        return Arrays.asList(new Object[][] { { "<%name%>" }, //$NON-NLS-1$
+                { "model <%name%> : <%packages.classes.nSize()%> classes" }, //$NON-NLS-1$
+                { "<%eAllContents(\"Attribute\").nSize()%>" }, //$NON-NLS-1$
+                { "<%eAllContents(\"Class\")[abstract].name.sep(\", \")%>" }, //$NON-NLS-1$
+                { "<%packages.classes.nSort(\"name\").nFirst().name%>" }, //$NON-NLS-1$
+                { "<%packages.classes%>" }, //$NON-NLS-1$
+                { "<%for (packages){%><%name%> (<%classes.nSize()%>), <%}%>" }, //$NON-NLS-1$
+                { "<%for (packages.classes){%><%if (name.startsWith(\"C\")){%><%name.toUpperCase()%> : <%eContainer().name%>\n<%}else{%>-<%}%><%}%>" }, //$NON-NLS-1$
+                { "<%-- comment --%><%name.length()%>" }, //$NON-NLS-1$
+        });
+    }
+
+    @BeforeClass
+    public static void setUpModel() throws Exception {
+        root = SyntheticModel.create(1000).getRoot();
+        script = new SpecificScript();
+        script.reset(SyntheticModel.getScriptHeader());
+    }
+
+    @Test
+    public void sameResult() throws Exception {
+        final ENode withMapping = evaluate(true);
+        final ENode withoutMapping = evaluate(false);
+        assertEquals(withMapping.getType(), withoutMapping.getType());
+        if (withMapping.isList()) {
+            final ENodeList expected = withMapping.getList();
+            final ENodeList actual = withoutMapping.getList();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameValue(expected.get(i), actual.get(i));
+            }
+        } else {
+            assertSameValue(withMapping, withoutMapping);
+        }
+        assertEquals(withMapping.toString(), withoutMapping.toString());
+    }
+
+    @Test
+    public void noMapping() throws Exception {
+        final ENode withMapping = evaluate(true);
+        final ENode withoutMapping = evaluate(false);
+        if (withMapping.isString()) {
+            assertNotNull(withMapping.getTextModelMapping());
+        }
+        assertNull(withoutMapping.getTextModelMapping());
+        assertNull(withoutMapping.getTextTemplateElementMapping());
+    }
+
+    /**
+     * Model elements are compared by identity, the other values by equality.
+     */
+    private static void assertSameValue(final ENode expected, final ENode actual) {
+        if (expected.isEObject()) {
+            assertSame(expected.getValue(), actual.getValue());
+        } else {
+            assertEquals(expected.getValue(), actual.getValue());
+        }
+    }
+
+    private ENode evaluate(final boolean textMapping) throws Exception {
+        final Template template = Template.from(expression, script, root);
+        return template.evaluate(root, LaunchManager.create("run", false, textMapping)); //$NON-NLS-1$
+    }
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The parsed templates are found by script and expression, until their script
+ * is invalidated or they are evicted from the cache shared by all the scripts.
+ */
+public class CompiledExpressionCacheTest {
+
+    private SpecificScript script;
+
+    private SpecificScript otherScript;
+
+    @Before
+    public void setUp() throws Exception {
+        script = CompiledExpressionCacheTest.createScript();
+        otherScript = CompiledExpressionCacheTest.createScript();
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        final CompiledExpressionCache cache = new CompiledExpressionCache(10);
+        final Template template = parse(script, "<%name%>", cache); //$NON-NLS-1$
+        assertSame(template, cache.get(script, "<%name%>")); //$NON-NLS-1$
+        assertNull(cache.get(script, "<%name %>")); //$NON-NLS-1$
+        assertNull(cache.get(otherScript, "<%name%>")); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getHitCount());
+        assertEquals(2, cache.getStatistics().getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        final CompiledExpressionCache cache = new CompiledExpressionCache(10);
+        parse(script, "<%name%>", cache); //$NON-NLS-1$
+        parse(script, "<%eContents()%>", cache); //$NON-NLS-1$
+        final Template other = parse(otherScript, "<%name%>", cache); //$NON-NLS-1$
+        assertEquals(3, cache.size());
+
+        cache.invalidate(script);
+        assertNull(cache.get(script, "<%name%>")); //$NON-NLS-1$
+        assertNull(cache.get(script, "<%eContents()%>")); //$NON-NLS-1$
+        assertSame(other, cache.get(otherScript, "<%name%>")); //$NON-NLS-1$
+        assertEquals(1, cache.size());
+
+        cache.invalidateAll();
+        assertNull(cache.get(otherScript, "<%name%>")); //$NON-NLS-1$
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        final CompiledExpressionCache cache = new CompiledExpressionCache(2);
+        final Template first = parse(script, "<%first%>", cache); //$NON-NLS-1$
+        parse(script, "<%second%>", cache); //$NON-NLS-1$
+        // The first template becomes the most recently used
+        assertSame(first, cache.get(script, "<%first%>")); //$NON-NLS-1$
+        final Template third = parse(script, "<%third%>", cache); //$NON-NLS-1$
+        assertSame(first, cache.get(script, "<%first%>")); //$NON-NLS-1$
+        assertNull(cache.get(script, "<%second%>")); //$NON-NLS-1$
+        assertSame(third, cache.get(script, "<%third%>")); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictionAcrossScripts() throws Exception {
+        final CompiledExpressionCache cache = new CompiledExpressionCache(2);
+        final Template first = parse(script, "<%name%>", cache); //$NON-NLS-1$
+        parse(otherScript, "<%name%>", cache); //$NON-NLS-1$
+        assertSame(first, cache.get(script, "<%name%>")); //$NON-NLS-1$
+        // The bound applies to all the scripts together
+        final Template third = parse(otherScript, "<%eContents()%>", cache); //$NON-NLS-1$
+        assertNull(cache.get(otherScript, "<%name%>")); //$NON-NLS-1$
+        assertSame(first, cache.get(script, "<%name%>")); //$NON-NLS-1$
+        assertSame(third, cache.get(otherScript, "<%eContents()%>")); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+        assertEquals(1, cache.getTemplates(script).size());
+        assertEquals(2, cache.size());
+    }
+
+    private static Template parse(final SpecificScript script, final String expression, final CompiledExpressionCache cache) throws Exception {
+        final Template result = Template.from(expression, script, null);
+        cache.put(script, expression, result);
+        return result;
+    }
+
+    private static SpecificScript createScript() throws Exception {
+        final SpecificScript result = new SpecificScript();
+        result.reset(SyntheticModel.getScriptHeader());
+        return result;
+    }
+
+}
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The results of the calls must be discarded when the model they have read
+ * changes, and only then.
+ */
+public class EvaluationCacheTest {
+
+    private static final ENode[] NO_ARGS = new ENode[0];
+
+    private EvaluationCache cache;
+
+    private EObject root;
+
+    private EObject firstPackage;
+
+    private EObject secondPackage;
+
+    private EObject eClass;
+
+    @Before
+    public void setUp() {
+        cache = new EvaluationCache();
+        root = SyntheticModel.create(1000).getRoot();
+        firstPackage = EvaluationCacheTest.list(root, "packages").get(0); //$NON-NLS-1$
+        secondPackage = EvaluationCacheTest.list(root, "packages").get(1); //$NON-NLS-1$
+        eClass = EvaluationCacheTest.list(firstPackage, "classes").get(0); //$NON-NLS-1$
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void featureRead() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, EvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        final ENode result = put(recording, eClass, "name"); //$NON-NLS-1$
+        assertSame(result, get(eClass, "name")); //$NON-NLS-1$
+
+        EvaluationCacheTest.toggleAbstract(eClass);
+        EvaluationCacheTest.list(eClass, "attributes").clear(); //$NON-NLS-1$
+        assertSame(result, get(eClass, "name")); //$NON-NLS-1$
+        eClass.eSet(EvaluationCacheTest.feature(eClass, "name"), "Renamed"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(get(eClass, "name")); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getInvalidationCount());
+        assertEquals(0, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void objectRead() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.objectRead(eClass);
+        final ENode result = put(recording, eClass, "eGet"); //$NON-NLS-1$
+
+        EvaluationCacheTest.list(firstPackage, "classes").get(1).eSet(EvaluationCacheTest.feature(eClass, "name"), "Renamed"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertSame(result, get(eClass, "eGet")); //$NON-NLS-1$
+        EvaluationCacheTest.toggleAbstract(eClass);
+        assertNull(get(eClass, "eGet")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void contentsRead() {
+        cacheContents(firstPackage);
+        cacheContents(secondPackage);
+        // The attributes aren't containment features
+        final EObject attribute = EvaluationCacheTest.list(eClass, "attributes").get(0); //$NON-NLS-1$
+        attribute.eSet(EvaluationCacheTest.feature(attribute, "name"), "renamed"); //$NON-NLS-1$ //$NON-NLS-2$
+        EvaluationCacheTest.toggleAbstract(eClass);
+        assertNotNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+
+        // The order of the contents changes
+        final EList<EObject> classes = EvaluationCacheTest.list(firstPackage, "classes"); //$NON-NLS-1$
+        classes.move(0, classes.size() - 1);
+        assertNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+        assertNotNull(get(secondPackage, "eAllContents")); //$NON-NLS-1$
+
+        // A deep content is added
+        cacheContents(firstPackage);
+        final EObject subPackage = EvaluationCacheTest.list(secondPackage, "packages").get(0); //$NON-NLS-1$
+        final EObject deepClass = EvaluationCacheTest.list(subPackage, "classes").get(0); //$NON-NLS-1$
+        EvaluationCacheTest.list(deepClass, "attributes").add(EcoreUtil.create(attribute.eClass())); //$NON-NLS-1$
+        assertNotNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+        assertNull(get(secondPackage, "eAllContents")); //$NON-NLS-1$
+
+        // An element is moved from one tree to the other
+        cacheContents(secondPackage);
+        EvaluationCacheTest.list(firstPackage, "packages").add(subPackage); //$NON-NLS-1$
+        assertNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+        assertNull(get(secondPackage, "eAllContents")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void contentsRemoved() {
+        cacheContents(firstPackage);
+        cacheContents(root);
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(secondPackage, EvaluationCacheTest.feature(secondPackage, "name")); //$NON-NLS-1$
+        put(recording, secondPackage, "name"); //$NON-NLS-1$
+
+        EcoreUtil.remove(firstPackage);
+        assertNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+        assertNull(get(root, "eAllContents")); //$NON-NLS-1$
+        assertNotNull(get(secondPackage, "name")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void changedDuringEvaluation() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, EvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        eClass.eSet(EvaluationCacheTest.feature(eClass, "name"), "Renamed"); //$NON-NLS-1$ //$NON-NLS-2$
+        put(recording, eClass, "name"); //$NON-NLS-1$
+        assertNull(get(eClass, "name")); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getInvalidationCount());
+    }
+
+    @Test
+    public void untracked() {
+        ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, EvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        EDependencyRecorder.untrackedRead();
+        put(recording, eClass, "service"); //$NON-NLS-1$
+        recording = cache.start();
+        EDependencyRecorder.variableRead("variable", "value"); //$NON-NLS-1$ //$NON-NLS-2$
+        put(recording, eClass, "variable"); //$NON-NLS-1$
+        assertNull(get(eClass, "service")); //$NON-NLS-1$
+        assertNull(get(eClass, "variable")); //$NON-NLS-1$
+        assertEquals(2, cache.getStatistics().getUntrackedCount());
+    }
+
+    @Test
+    public void arguments() {
+        final ENode context = new ENode(eClass);
+        final ModelDependencies.Recording recording = cache.start();
+        recording.stop();
+        final ENode result = new ENode("result", context); //$NON-NLS-1$
+        cache.put(context, "call", new ENode[] { new ENode("argument", context), new ENode(firstPackage, context) }, recording, result); //$NON-NLS-1$ //$NON-NLS-2$
+        cache.end(recording);
+
+        assertSame(result, cache.get(new ENode(eClass), "call", new ENode[] { new ENode("argument", context), new ENode(firstPackage, context) })); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get(new ENode(eClass), "call", new ENode[] { new ENode("other", context), new ENode(firstPackage, context) })); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get(new ENode(eClass), "call", new ENode[] { new ENode("argument", context), new ENode(secondPackage, context) })); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get(new ENode(firstPackage), "call", new ENode[] { new ENode("argument", context), new ENode(firstPackage, context) })); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void replay() {
+        cacheContents(firstPackage);
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, EvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        put(recording, eClass, "name"); //$NON-NLS-1$
+
+        final EDependencyRecorder outer = EDependencyRecorder.start();
+        try {
+            assertNotNull(get(eClass, "name")); //$NON-NLS-1$
+            assertNotNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+        } finally {
+            outer.stop();
+        }
+        assertTrue(outer.isTracked());
+        assertTrue(outer.getFeatures().containsKey(eClass));
+        assertTrue(outer.getContents().contains(firstPackage));
+    }
+
+    @Test
+    public void eviction() {
+        cache = new EvaluationCache(3);
+        final EList<EObject> classes = EvaluationCacheTest.list(firstPackage, "classes"); //$NON-NLS-1$
+        final ENode[] results = new ENode[4];
+        for (int i = 0; i < 3; i++) {
+            results[i] = put(cache.start(), classes.get(i), "name"); //$NON-NLS-1$
+        }
+        // The first result becomes the most recently used
+        assertSame(results[0], get(classes.get(0), "name")); //$NON-NLS-1$
+        results[3] = put(cache.start(), classes.get(3), "name"); //$NON-NLS-1$
+        assertSame(results[0], get(classes.get(0), "name")); //$NON-NLS-1$
+        assertNull(get(classes.get(1), "name")); //$NON-NLS-1$
+        assertSame(results[2], get(classes.get(2), "name")); //$NON-NLS-1$
+        assertSame(results[3], get(classes.get(3), "name")); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+        assertEquals(3, cache.getStatistics().getWeight());
+
+        // A list weighs its elements
+        final ENode context = new ENode(eClass);
+        final ENodeList list = new ENodeList();
+        list.add(new ENode("a", context)); //$NON-NLS-1$
+        final ModelDependencies.Recording recording = cache.start();
+        recording.stop();
+        cache.put(context, "list", EvaluationCacheTest.NO_ARGS, recording, new ENode(list, context)); //$NON-NLS-1$
+        cache.end(recording);
+        assertEquals(2, cache.getStatistics().getSize());
+        assertEquals(3, cache.getStatistics().getWeight());
+    }
+
+    @Test
+    public void clear() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, EvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        cacheContents(firstPackage);
+        put(recording, eClass, "name"); //$NON-NLS-1$
+        assertNotNull(EcoreUtil.getExistingAdapter(eClass, EvaluationCache.class));
+        assertNotNull(EcoreUtil.getExistingAdapter(root, EvaluationCache.class));
+
+        // The adapters stay on the model when a result is discarded
+        eClass.eSet(EvaluationCacheTest.feature(eClass, "name"), "Renamed"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotNull(EcoreUtil.getExistingAdapter(eClass, EvaluationCache.class));
+
+        cache.clear();
+        assertNull(get(firstPackage, "eAllContents")); //$NON-NLS-1$
+        assertEquals(0, EvaluationCacheTest.countAdapters(root));
+    }
+
+    @Test
+    public void clearedDuringEvaluation() {
+        final ModelDependencies.Recording recording = cache.start();
+        cache.clear();
+        EDependencyRecorder.featureRead(eClass, EvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        EDependencyRecorder.contentsRead(firstPackage);
+        put(recording, eClass, "name"); //$NON-NLS-1$
+        assertNull(get(eClass, "name")); //$NON-NLS-1$
+        assertEquals(0, EvaluationCacheTest.countAdapters(root));
+    }
+
+    /**
+     * Caches a result which has read the contents of an element.
+     */
+    private void cacheContents(final EObject container) {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.contentsRead(container);
+        put(recording, container, "eAllContents"); //$NON-NLS-1$
+    }
+
+    /**
+     * Ends an evaluation and caches its result, as the interpreter does.
+     */
+    private ENode put(final ModelDependencies.Recording recording, final EObject object, final String evaluation) {
+        final ENode context = new ENode(object);
+        final ENode result = new ENode(evaluation, context);
+        try {
+            recording.stop();
+            cache.put(context, evaluation, EvaluationCacheTest.NO_ARGS, recording, result);
+        } finally {
+            cache.end(recording);
+        }
+        return result;
+    }
+
+    private ENode get(final EObject object, final String evaluation) {
+        return cache.get(new ENode(object), evaluation, EvaluationCacheTest.NO_ARGS);
+    }
+
+    /**
+     * Counts the adapters of the cache on the tree.
+     */
+    private static int countAdapters(final EObject root) {
+        int result = EcoreUtil.getExistingAdapter(root, EvaluationCache.class) != null ? 1 : 0;
+        for (final Iterator<EObject> it = root.eAllContents(); it.hasNext();) {
+            if (EcoreUtil.getExistingAdapter(it.next(), EvaluationCache.class) != null) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static void toggleAbstract(final EObject eClass) {
+        final EStructuralFeature isAbstract = EvaluationCacheTest.feature(eClass, "abstract"); //$NON-NLS-1$
+        eClass.eSet(isAbstract, Boolean.valueOf(!((Boolean) eClass.eGet(isAbstract)).booleanValue()));
+    }
+
+    private static EStructuralFeature feature(final EObject object, final String featureName) {
+        return object.eClass().getEStructuralFeature(featureName);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EList<EObject> list(final EObject owner, final String featureName) {
+        return (EList<EObject>) owner.eGet(EvaluationCacheTest.feature(owner, featureName));
+    }
+
+}
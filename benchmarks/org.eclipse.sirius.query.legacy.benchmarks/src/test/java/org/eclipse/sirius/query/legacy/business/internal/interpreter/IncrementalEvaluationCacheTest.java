@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The results of the expressions must be discarded when the model or the
+ * variables they have read change, and only then.
+ */
+public class IncrementalEvaluationCacheTest {
+
+    private IncrementalEvaluationCache cache;
+
+    private final Map<String, ENode> values = new HashMap<String, ENode>();
+
+    private final IncrementalEvaluationCache.Variables variables = new IncrementalEvaluationCache.Variables() {
+        public ENode getValue(final String name) {
+            return values.get(name);
+        }
+    };
+
+    private EObject root;
+
+    private EObject firstPackage;
+
+    private EObject eClass;
+
+    @Before
+    public void setUp() {
+        cache = new IncrementalEvaluationCache();
+        root = SyntheticModel.create(1000).getRoot();
+        firstPackage = IncrementalEvaluationCacheTest.list(root, "packages").get(0); //$NON-NLS-1$
+        eClass = IncrementalEvaluationCacheTest.list(firstPackage, "classes").get(0); //$NON-NLS-1$
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void featureRead() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, IncrementalEvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        final ENode result = put(recording, eClass, "<%name%>"); //$NON-NLS-1$
+        assertSame(result, cache.get("<%name%>", eClass, variables)); //$NON-NLS-1$
+        assertNull(cache.get("<%name%>", firstPackage, variables)); //$NON-NLS-1$
+        assertNull(cache.get("<%name.toUpperCase()%>", eClass, variables)); //$NON-NLS-1$
+
+        IncrementalEvaluationCacheTest.list(eClass, "attributes").remove(0); //$NON-NLS-1$
+        assertSame(result, cache.get("<%name%>", eClass, variables)); //$NON-NLS-1$
+        eClass.eSet(IncrementalEvaluationCacheTest.feature(eClass, "name"), "Renamed"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get("<%name%>", eClass, variables)); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getInvalidationCount());
+    }
+
+    @Test
+    public void variableRead() {
+        final ENode context = new ENode(eClass);
+        values.put("text", new ENode("value", context)); //$NON-NLS-1$ //$NON-NLS-2$
+        values.put("element", new ENode(firstPackage, context)); //$NON-NLS-1$
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.variableRead("text", "value"); //$NON-NLS-1$ //$NON-NLS-2$
+        EDependencyRecorder.variableRead("element", firstPackage); //$NON-NLS-1$
+        EDependencyRecorder.variableRead("unset", null); //$NON-NLS-1$
+        final ENode result = put(recording, eClass, "<%text%><%element.name%><%unset%>"); //$NON-NLS-1$
+        assertSame(result, cache.get("<%text%><%element.name%><%unset%>", eClass, variables)); //$NON-NLS-1$
+
+        // Equal values
+        values.put("text", new ENode(new String("value"), context)); //$NON-NLS-1$ //$NON-NLS-2$
+        values.put("other", new ENode("other", context)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertSame(result, cache.get("<%text%><%element.name%><%unset%>", eClass, variables)); //$NON-NLS-1$
+
+        values.put("text", new ENode("changed", context)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get("<%text%><%element.name%><%unset%>", eClass, variables)); //$NON-NLS-1$
+        values.put("text", new ENode("value", context)); //$NON-NLS-1$ //$NON-NLS-2$
+        values.put("element", new ENode(IncrementalEvaluationCacheTest.list(root, "packages").get(1), context)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get("<%text%><%element.name%><%unset%>", eClass, variables)); //$NON-NLS-1$
+        values.put("element", new ENode(firstPackage, context)); //$NON-NLS-1$
+        values.put("unset", new ENode("set", context)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get("<%text%><%element.name%><%unset%>", eClass, variables)); //$NON-NLS-1$
+        values.remove("unset"); //$NON-NLS-1$
+        assertSame(result, cache.get("<%text%><%element.name%><%unset%>", eClass, variables)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void contentsMoved() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.contentsRead(firstPackage);
+        final ENode result = put(recording, firstPackage, "<%eAllContents().name%>"); //$NON-NLS-1$
+        assertSame(result, cache.get("<%eAllContents().name%>", firstPackage, variables)); //$NON-NLS-1$
+
+        final EList<EObject> attributes = IncrementalEvaluationCacheTest.list(eClass, "attributes"); //$NON-NLS-1$
+        attributes.move(attributes.size() - 1, 0);
+        assertNull(cache.get("<%eAllContents().name%>", firstPackage, variables)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void untracked() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.untrackedRead();
+        put(recording, eClass, "<%service()%>"); //$NON-NLS-1$
+        assertNull(cache.get("<%service()%>", eClass, variables)); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getUntrackedCount());
+    }
+
+    @Test
+    public void eviction() {
+        cache = new IncrementalEvaluationCache(2);
+        final ENode first = put(cache.start(), eClass, "<%first%>"); //$NON-NLS-1$
+        put(cache.start(), eClass, "<%second%>"); //$NON-NLS-1$
+        assertSame(first, cache.get("<%first%>", eClass, variables)); //$NON-NLS-1$
+        final ENode third = put(cache.start(), eClass, "<%third%>"); //$NON-NLS-1$
+        assertSame(first, cache.get("<%first%>", eClass, variables)); //$NON-NLS-1$
+        assertNull(cache.get("<%second%>", eClass, variables)); //$NON-NLS-1$
+        assertSame(third, cache.get("<%third%>", eClass, variables)); //$NON-NLS-1$
+        assertEquals(1, cache.getStatistics().getEvictionCount());
+        assertEquals(2, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void clear() {
+        final ModelDependencies.Recording recording = cache.start();
+        EDependencyRecorder.featureRead(eClass, IncrementalEvaluationCacheTest.feature(eClass, "name")); //$NON-NLS-1$
+        EDependencyRecorder.contentsRead(firstPackage);
+        put(recording, eClass, "<%name%>"); //$NON-NLS-1$
+        cache.clear();
+        assertNull(cache.get("<%name%>", eClass, variables)); //$NON-NLS-1$
+        assertNull(EcoreUtil.getExistingAdapter(eClass, IncrementalEvaluationCache.class));
+        assertNull(EcoreUtil.getExistingAdapter(root, IncrementalEvaluationCache.class));
+    }
+
+    /**
+     * Ends an evaluation and caches its result, as the interpreter does.
+     */
+    private ENode put(final ModelDependencies.Recording recording, final EObject target, final String expression) {
+        final ENode result = new ENode(expression, new ENode(target));
+        try {
+            recording.stop();
+            cache.put(expression, target, recording, result);
+        } finally {
+            cache.end(recording);
+        }
+        return result;
+    }
+
+    private static EStructuralFeature feature(final EObject object, final String featureName) {
+        return object.eClass().getEStructuralFeature(featureName);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EList<EObject> list(final EObject owner, final String featureName) {
+        return (EList<EObject>) owner.eGet(IncrementalEvaluationCacheTest.feature(owner, featureName));
+    }
+
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The inverse references found by the index must stay the ones found by a
+ * walk of the model after the edits of the references and of the contents.
+ */
+public class InverseReferenceIndexTest {
+
+    private EObject root;
+
+    private List<EObject> classes;
+
+    @Before
+    public void setUp() {
+        root = SyntheticModel.create(1000).getRoot();
+        classes = new ArrayList<EObject>();
+        for (final Iterator<EObject> it = root.eAllContents(); it.hasNext();) {
+            final EObject next = it.next();
+            if ("Class".equals(next.eClass().getName())) { //$NON-NLS-1$
+                classes.add(next);
+            }
+        }
+        assertIndexed();
+    }
+
+    @Test
+    public void addReference() {
+        InverseReferenceIndexTest.superTypes(classes.get(3)).add(classes.get(40));
+        InverseReferenceIndexTest.superTypes(classes.get(4)).addAll(classes.subList(40, 43));
+        assertIndexed();
+    }
+
+    @Test
+    public void removeReference() {
+        final EObject eClass = firstWithSuperTypes();
+        final EObject superType = InverseReferenceIndexTest.superTypes(eClass).get(0);
+        InverseReferenceIndexTest.superTypes(eClass).remove(0);
+        assertFalse(InverseReferenceIndex.getInverseReferences(superType, "superTypes").contains(eClass)); //$NON-NLS-1$
+        InverseReferenceIndexTest.superTypes(classes.get(5)).addAll(classes.subList(40, 43));
+        InverseReferenceIndexTest.superTypes(classes.get(5)).clear();
+        assertIndexed();
+    }
+
+    @Test
+    public void setReference() {
+        final EObject eClass = firstWithSuperTypes();
+        InverseReferenceIndexTest.superTypes(eClass).set(0, classes.get(50));
+        eClass.eUnset(eClass.eClass().getEStructuralFeature("superTypes")); //$NON-NLS-1$
+        InverseReferenceIndexTest.superTypes(classes.get(6)).add(classes.get(50));
+        assertIndexed();
+    }
+
+    @Test
+    public void removeReferencing() {
+        final EObject eClass = firstWithSuperTypes();
+        EcoreUtil.remove(eClass);
+        classes.remove(eClass);
+        final EObject subPackage = InverseReferenceIndexTest.list(InverseReferenceIndexTest.list(root, "packages").get(1), "packages").get(0); //$NON-NLS-1$ //$NON-NLS-2$
+        EcoreUtil.remove(subPackage);
+        for (final Iterator<EObject> it = subPackage.eAllContents(); it.hasNext();) {
+            classes.remove(it.next());
+        }
+        assertIndexed();
+        // The references of the removed elements are no longer observed
+        InverseReferenceIndexTest.superTypes(eClass).add(classes.get(0));
+        assertIndexed();
+    }
+
+    @Test
+    public void addReferencing() {
+        final EObject eClass = EcoreUtil.create((EClass) classes.get(0).eClass());
+        InverseReferenceIndexTest.superTypes(eClass).add(classes.get(0));
+        InverseReferenceIndexTest.list(classes.get(0).eContainer(), "classes").add(eClass); //$NON-NLS-1$
+        classes.add(eClass);
+        // A tree removed then added again
+        final EObject eContainer = classes.get(10).eContainer();
+        EcoreUtil.remove(eContainer);
+        InverseReferenceIndexTest.superTypes(classes.get(10)).add(classes.get(0));
+        InverseReferenceIndexTest.list(root, "packages").add(eContainer); //$NON-NLS-1$
+        assertIndexed();
+    }
+
+    @Test
+    public void move() {
+        final EObject subPackage = InverseReferenceIndexTest.list(InverseReferenceIndexTest.list(root, "packages").get(1), "packages").get(0); //$NON-NLS-1$ //$NON-NLS-2$
+        InverseReferenceIndexTest.list(InverseReferenceIndexTest.list(root, "packages").get(0), "packages").add(subPackage); //$NON-NLS-1$ //$NON-NLS-2$
+        final EList<EObject> packageClasses = InverseReferenceIndexTest.list(classes.get(0).eContainer(), "classes"); //$NON-NLS-1$
+        packageClasses.move(0, packageClasses.size() - 1);
+        assertIndexed();
+        // The moved elements are still observed
+        InverseReferenceIndexTest.superTypes(InverseReferenceIndexTest.list(subPackage, "classes").get(0)).add(classes.get(0)); //$NON-NLS-1$
+        InverseReferenceIndexTest.superTypes(packageClasses.get(0)).add(classes.get(1));
+        assertIndexed();
+    }
+
+    @Test
+    public void container() {
+        final EObject eClass = classes.get(0);
+        assertEquals(Collections.singletonList(eClass.eContainer()), new ArrayList<EObject>(InverseReferenceIndex.getInverseReferences(eClass, "classes"))); //$NON-NLS-1$
+        InverseReferenceIndexTest.list(InverseReferenceIndexTest.list(root, "packages").get(1), "classes").add(eClass); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(Collections.singletonList(eClass.eContainer()), new ArrayList<EObject>(InverseReferenceIndex.getInverseReferences(eClass, "classes"))); //$NON-NLS-1$
+    }
+
+    private EObject firstWithSuperTypes() {
+        for (final EObject eClass : classes) {
+            if (!InverseReferenceIndexTest.superTypes(eClass).isEmpty()) {
+                return eClass;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Asserts that the inverse references of each class are the walked ones.
+     */
+    private void assertIndexed() {
+        for (final EObject target : classes) {
+            final Set<EObject> expected = new HashSet<EObject>();
+            for (final Iterator<EObject> it = root.eAllContents(); it.hasNext();) {
+                final EObject next = it.next();
+                final EStructuralFeature feature = next.eClass().getEStructuralFeature("superTypes"); //$NON-NLS-1$
+                if (feature != null && ((List<?>) next.eGet(feature)).contains(target)) {
+                    expected.add(next);
+                }
+            }
+            final Set<EObject> actual = new HashSet<EObject>(InverseReferenceIndex.getInverseReferences(target, "superTypes")); //$NON-NLS-1$
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static EList<EObject> superTypes(final EObject eClass) {
+        return InverseReferenceIndexTest.list(eClass, "superTypes"); //$NON-NLS-1$
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EList<EObject> list(final EObject owner, final String featureName) {
+        return (EList<EObject>) owner.eGet(owner.eClass().getEStructuralFeature(featureName));
+    }
+
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.ecore.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.eclipse.sirius.query.legacy.ecore.factories.EFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The lists of an index must stay equal to the contents walked in document
+ * order after the edits of the model, without collecting the indexed
+ * containers again.
+ */
+public class EContentTypeIndexTest {
+
+    private EObject root;
+
+    private EObject firstPackage;
+
+    private EObject secondPackage;
+
+    /**
+     * The number of calls of the collector.
+     */
+    private int collected;
+
+    private final EContentTypeIndex.Collector collector = new EContentTypeIndex.Collector() {
+        public List<EObject> collect(final EObject object, final String type) {
+            collected++;
+            return EContentTypeIndexTest.walk(object, type);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        root = SyntheticModel.create(1000).getRoot();
+        firstPackage = EContentTypeIndexTest.list(root, "packages").get(0); //$NON-NLS-1$
+        secondPackage = EContentTypeIndexTest.list(root, "packages").get(1); //$NON-NLS-1$
+        EContentTypeIndexTest.assertIndexCount(root, 0);
+        getContents(root, "Attribute"); //$NON-NLS-1$
+        getContents(root, "Class"); //$NON-NLS-1$
+        getContents(firstPackage, "Attribute"); //$NON-NLS-1$
+        getContents(secondPackage, "NamedElement"); //$NON-NLS-1$
+    }
+
+    @Test
+    public void queriedOnce() {
+        final int before = collected;
+        assertIndexed();
+        assertEquals(before, collected);
+        EContentTypeIndexTest.assertIndexCount(root, 1);
+    }
+
+    @Test
+    public void add() {
+        final EObject eClass = EContentTypeIndexTest.list(firstPackage, "classes").get(3); //$NON-NLS-1$
+        EContentTypeIndexTest.list(eClass, "attributes").add(1, EContentTypeIndexTest.create(eClass, "Attribute", "added")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        final EObject newClass = EContentTypeIndexTest.create(firstPackage, "Class", "NewClass"); //$NON-NLS-1$ //$NON-NLS-2$
+        EContentTypeIndexTest.list(newClass, "attributes").add(EContentTypeIndexTest.create(newClass, "Attribute", "a0")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        EContentTypeIndexTest.list(secondPackage, "classes").add(0, newClass); //$NON-NLS-1$
+        assertIndexed();
+    }
+
+    @Test
+    public void addMany() {
+        final List<EObject> added = new ArrayList<EObject>();
+        for (int i = 0; i < 3; i++) {
+            final EObject newClass = EContentTypeIndexTest.create(firstPackage, "Class", "NewClass" + i); //$NON-NLS-1$ //$NON-NLS-2$
+            EContentTypeIndexTest.list(newClass, "attributes").add(EContentTypeIndexTest.create(newClass, "Attribute", "a0")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            added.add(newClass);
+        }
+        EContentTypeIndexTest.list(firstPackage, "classes").addAll(2, added); //$NON-NLS-1$
+        assertIndexed();
+    }
+
+    @Test
+    public void remove() {
+        EContentTypeIndexTest.list(firstPackage, "classes").remove(2); //$NON-NLS-1$
+        EContentTypeIndexTest.list(root, "packages").remove(secondPackage); //$NON-NLS-1$
+        assertIndexed();
+        getContents(secondPackage, "NamedElement"); //$NON-NLS-1$
+    }
+
+    @Test
+    public void removeMany() {
+        final List<EObject> classes = EContentTypeIndexTest.list(firstPackage, "classes"); //$NON-NLS-1$
+        classes.removeAll(new ArrayList<EObject>(classes.subList(1, 4)));
+        assertIndexed();
+    }
+
+    @Test
+    public void set() {
+        final EObject newClass = EContentTypeIndexTest.create(firstPackage, "Class", "NewClass"); //$NON-NLS-1$ //$NON-NLS-2$
+        EContentTypeIndexTest.list(newClass, "attributes").add(EContentTypeIndexTest.create(newClass, "Attribute", "a0")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        EContentTypeIndexTest.list(firstPackage, "classes").set(1, newClass); //$NON-NLS-1$
+        assertIndexed();
+    }
+
+    @Test
+    public void moveInList() {
+        final EList<EObject> classes = EContentTypeIndexTest.list(firstPackage, "classes"); //$NON-NLS-1$
+        classes.move(0, classes.size() - 1);
+        classes.move(classes.size() - 1, 1);
+        final EList<EObject> packages = EContentTypeIndexTest.list(root, "packages"); //$NON-NLS-1$
+        packages.move(packages.size() - 1, 0);
+        assertIndexed();
+    }
+
+    @Test
+    public void moveToOtherContainer() {
+        final EObject subPackage = EContentTypeIndexTest.list(firstPackage, "packages").get(0); //$NON-NLS-1$
+        EContentTypeIndexTest.list(secondPackage, "packages").add(0, subPackage); //$NON-NLS-1$
+        final EObject eClass = EContentTypeIndexTest.list(secondPackage, "classes").get(5); //$NON-NLS-1$
+        EContentTypeIndexTest.list(firstPackage, "classes").add(eClass); //$NON-NLS-1$
+        assertIndexed();
+    }
+
+    @Test
+    public void removedWhenEmpty() {
+        root = SyntheticModel.create(200).getRoot();
+        final EObject eClass = EContentTypeIndexTest.list(EContentTypeIndexTest.list(root, "packages").get(0), "classes").get(0); //$NON-NLS-1$ //$NON-NLS-2$
+        getContents(eClass, "Attribute"); //$NON-NLS-1$
+        EContentTypeIndexTest.assertIndexCount(root, 1);
+        EcoreUtil.remove(eClass);
+        EContentTypeIndexTest.assertIndexCount(root, 0);
+        for (final Iterator<EObject> it = root.eAllContents(); it.hasNext();) {
+            EContentTypeIndexTest.assertIndexCount(it.next(), 0);
+        }
+        EContentTypeIndexTest.assertIndexCount(eClass, 0);
+    }
+
+    @Test
+    public void previousRoot() {
+        root = SyntheticModel.create(200).getRoot();
+        final EObject detached = EContentTypeIndexTest.list(root, "packages").get(0); //$NON-NLS-1$
+        EcoreUtil.remove(detached);
+        getContents(detached, "Attribute"); //$NON-NLS-1$
+        EContentTypeIndexTest.assertIndexCount(detached, 1);
+        EContentTypeIndexTest.list(root, "packages").add(detached); //$NON-NLS-1$
+        getContents(root, "Attribute"); //$NON-NLS-1$
+        getContents(detached, "Attribute"); //$NON-NLS-1$
+        // The index of the detached tree is replaced by the one of the model
+        EContentTypeIndexTest.assertIndexCount(root, 1);
+        EContentTypeIndexTest.assertIndexCount(detached, 1);
+        assertSame(EContentTypeIndexTest.getIndex(root), EContentTypeIndexTest.getIndex(detached));
+    }
+
+    @Test
+    public void eviction() {
+        root = SyntheticModel.create(EContentTypeIndex.MAXIMUM_SIZE + EContentTypeIndex.MAXIMUM_SIZE / 5).getRoot();
+        final List<EObject> packages = EContentTypeIndexTest.list(root, "packages"); //$NON-NLS-1$
+
+        // A list larger than the index isn't kept
+        int before = collected;
+        getContents(root, "NamedElement"); //$NON-NLS-1$
+        getContents(root, "NamedElement"); //$NON-NLS-1$
+        assertEquals(before + 2, collected);
+
+        for (int i = 0; i < packages.size(); i++) {
+            getContents(packages.get(i), "NamedElement"); //$NON-NLS-1$
+        }
+        before = collected;
+        getContents(packages.get(packages.size() - 1), "NamedElement"); //$NON-NLS-1$
+        assertEquals(before, collected);
+        getContents(packages.get(0), "NamedElement"); //$NON-NLS-1$
+        assertEquals(before + 1, collected);
+        // The package queried again is the most recently used
+        getContents(packages.get(0), "NamedElement"); //$NON-NLS-1$
+        assertEquals(before + 1, collected);
+    }
+
+    private List<EObject> getContents(final EObject container, final String type) {
+        final List<EObject> result = EContentTypeIndexTest.cast(EContentTypeIndex.getContents(container, type, collector));
+        assertEquals(EContentTypeIndexTest.walk(container, type), result);
+        return result;
+    }
+
+    /**
+     * Asserts that the lists queried by the set up are the walked ones, and
+     * that they are still indexed.
+     */
+    private void assertIndexed() {
+        final int before = collected;
+        getContents(root, "Attribute"); //$NON-NLS-1$
+        getContents(root, "Class"); //$NON-NLS-1$
+        if (firstPackage.eContainer() != null) {
+            getContents(firstPackage, "Attribute"); //$NON-NLS-1$
+        }
+        if (secondPackage.eContainer() != null) {
+            getContents(secondPackage, "NamedElement"); //$NON-NLS-1$
+        }
+        assertEquals(before, collected);
+    }
+
+    private static List<EObject> walk(final EObject container, final String type) {
+        final List<EObject> result = new ArrayList<EObject>();
+        for (final Iterator<EObject> it = container.eAllContents(); it.hasNext();) {
+            final EObject next = it.next();
+            if (EFactory.eInstanceOf(next, type)) {
+                result.add(next);
+            }
+        }
+        return result;
+    }
+
+    private static Object getIndex(final EObject object) {
+        for (final Object adapter : object.eAdapters()) {
+            if (adapter instanceof EContentTypeIndex) {
+                return adapter;
+            }
+        }
+        return null;
+    }
+
+    private static void assertIndexCount(final EObject object, final int expected) {
+        assertEquals(expected, EContentTypeIndexTest.indexCount(object));
+    }
+
+    private static int indexCount(final EObject object) {
+        int result = 0;
+        for (final Object adapter : object.eAdapters()) {
+            if (adapter instanceof EContentTypeIndex) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static EObject create(final EObject sibling, final String className, final String name) {
+        final EObject result = EcoreUtil.create((EClass) sibling.eClass().getEPackage().getEClassifier(className));
+        result.eSet(result.eClass().getEStructuralFeature("name"), name); //$NON-NLS-1$
+        return result;
+    }
+
+    private static EList<EObject> list(final EObject owner, final String featureName) {
+        return EContentTypeIndexTest.cast(owner.eGet(owner.eClass().getEStructuralFeature(featureName)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(final Object value) {
+        return (T) value;
+    }
+
+}
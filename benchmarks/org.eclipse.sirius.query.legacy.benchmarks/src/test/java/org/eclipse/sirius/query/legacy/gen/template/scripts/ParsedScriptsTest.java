@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.benchmarks.SyntheticModel;
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateElement;
+import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The templates of a script read from a previous session must evaluate as the
+ * parsed ones.
+ */
+public class ParsedScriptsTest {
+
+    private static final String[] NAMES = { "template0", "template1", "template2", "file", }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    private File file;
+
+    private String text;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("parsedScript", ".ser"); //$NON-NLS-1$ //$NON-NLS-2$
+        text = SyntheticModel.getScript(3) + "<%script type=\"Package\" name=\"file\" file=\"<%name%>.txt\" post=\"trim()\"%>\n  <%name%> (<%classes.nSize()%>)  \n"; //$NON-NLS-1$
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void sameEvaluation() throws Exception {
+        final SpecificScript parsed = new SpecificScript();
+        parsed.reset(text);
+        ParsedScripts.write(file, parsed);
+        final SpecificScript read = createWithoutTemplates();
+        ParsedScripts.read(file, read);
+
+        assertEquals(parsed.textTemplateNames, read.textTemplateNames);
+        assertEquals(parsed.textTemplates.keySet(), read.textTemplates.keySet());
+        final TreeIterator<EObject> it = SyntheticModel.create(100).getRoot().eAllContents();
+        while (it.hasNext()) {
+            final EObject object = it.next();
+            for (int i = 0; i < ParsedScriptsTest.NAMES.length; i++) {
+                final Template expected = parsed.getTextTemplateForEObject(object, ParsedScriptsTest.NAMES[i]);
+                final Template actual = read.getTextTemplateForEObject(object, ParsedScriptsTest.NAMES[i]);
+                if (expected == null) {
+                    assertSame(null, actual);
+                } else {
+                    assertNotSame(expected, actual);
+                    assertEquals(expected.evaluate(object, LaunchManager.create("run", false)).toString(), //$NON-NLS-1$
+                            actual.evaluate(object, LaunchManager.create("run", false)).toString()); //$NON-NLS-1$
+                }
+            }
+            assertEquals(parsed.getFilePath(object, false), read.getFilePath(object, false));
+        }
+    }
+
+    @Test
+    public void scriptReplaced() throws Exception {
+        final SpecificScript parsed = new SpecificScript();
+        parsed.reset(text);
+        ParsedScripts.write(file, parsed);
+        final SpecificScript read = createWithoutTemplates();
+        ParsedScripts.read(file, read);
+
+        final Iterator<?> it = read.textTemplates.values().iterator();
+        while (it.hasNext()) {
+            ParsedScriptsTest.assertScript(read, (TemplateElement) it.next());
+        }
+        final Template fileTemplate = (Template) read.fileTemplates.get("Package"); //$NON-NLS-1$
+        assertNotNull(fileTemplate);
+        ParsedScriptsTest.assertScript(read, fileTemplate);
+        assertSame(read.getTextTemplate(fileTemplate), ParsedScriptsTest.textTemplate(read, "file")); //$NON-NLS-1$
+        assertNotNull(ParsedScriptsTest.textTemplate(read, "file").getPostExpression()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void damagedFile() throws Exception {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[] { 0, 1, 2, 3, });
+        } finally {
+            output.close();
+        }
+        final SpecificScript read = createWithoutTemplates();
+        try {
+            ParsedScripts.read(file, read);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, read.textTemplates.size());
+        assertFalse(read.hasFileTemplate());
+    }
+
+    /**
+     * A script with the imports of the parsed script, but without its
+     * templates.
+     */
+    private static SpecificScript createWithoutTemplates() throws Exception {
+        final SpecificScript result = new SpecificScript();
+        result.reset(SyntheticModel.getScriptHeader());
+        assertEquals(0, result.textTemplates.size());
+        return result;
+    }
+
+    private static Template textTemplate(final SpecificScript script, final String name) {
+        final Iterator<?> it = script.textTemplates.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) it.next();
+            if (((ScriptDescriptor) entry.getKey()).getName().equals(name)) {
+                return (Template) entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void assertScript(final IScript script, final TemplateElement element) {
+        assertSame(script, element.getScript());
+        final TemplateElement[] children = element.getChildren();
+        for (int i = 0; i < children.length; i++) {
+            assertSame(element, children[i].getParent());
+            ParsedScriptsTest.assertScript(script, children[i]);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts.imports;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A call site finds the method recorded for the same service, mode and
+ * argument types only.
+ */
+public class JavaServiceCallSiteTest {
+
+    private EvalJavaService service;
+
+    private Method method;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new EvalJavaService(new Object(), false);
+        method = String.class.getMethod("trim"); //$NON-NLS-1$
+    }
+
+    @Test
+    public void lookup() {
+        final JavaServiceCallSite callSite = new JavaServiceCallSite();
+        final Class<?>[] argTypes = { String.class, Integer.class };
+        callSite.record(service, 1, String.class, argTypes, String.class, method);
+
+        // The receiver type isn't compared, the argument types are copied
+        final JavaServiceCallSite.Target target = callSite.lookup(service, 1, String.class, new Class<?>[] { Object.class, Integer.class });
+        assertNotNull(target);
+        assertSame(method, target.method);
+        assertSame(String.class, target.firstType);
+        argTypes[1] = Long.class;
+        assertNotNull(callSite.lookup(service, 1, String.class, new Class<?>[] { String.class, Integer.class }));
+
+        assertNull(callSite.lookup(service, 2, String.class, new Class<?>[] { String.class, Integer.class }));
+        assertNull(callSite.lookup(service, 1, Object.class, new Class<?>[] { String.class, Integer.class }));
+        assertNull(callSite.lookup(service, 1, String.class, new Class<?>[] { String.class, Long.class }));
+        assertNull(callSite.lookup(service, 1, String.class, new Class<?>[] { String.class }));
+        assertNull(callSite.lookup(new EvalJavaService(new Object(), false), 1, String.class, new Class<?>[] { String.class, Integer.class }));
+    }
+
+    @Test
+    public void noMethod() {
+        final JavaServiceCallSite callSite = new JavaServiceCallSite();
+        callSite.record(service, 1, null, new Class<?>[] { String.class }, null, null);
+        final JavaServiceCallSite.Target target = callSite.lookup(service, 1, null, new Class<?>[] { String.class });
+        assertNotNull(target);
+        assertNull(target.method);
+    }
+
+    @Test
+    public void megamorphic() {
+        final JavaServiceCallSite callSite = new JavaServiceCallSite();
+        final Class<?>[] receivers = { String.class, Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class, Character.class, Boolean.class, };
+        for (int i = 0; i < receivers.length; i++) {
+            callSite.record(service, 1, receivers[i], new Class<?>[] { receivers[i] }, receivers[i], method);
+        }
+        for (int i = 0; i < receivers.length - 1; i++) {
+            assertNotNull(callSite.lookup(service, 1, receivers[i], new Class<?>[] { receivers[i] }));
+        }
+        // The shapes beyond the bound aren't recorded
+        assertNull(callSite.lookup(service, 1, Boolean.class, new Class<?>[] { Boolean.class }));
+    }
+
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts.imports;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+/**
+ * The deprecated services are found without instantiating their class.
+ */
+public class JavaServiceRegistryTest {
+
+    @Test
+    public void annotated() throws Exception {
+        assertTrue(EvalJavaService.isDeprecatedService(AnnotatedServices.class.getMethod("old", String.class))); //$NON-NLS-1$
+        assertFalse(EvalJavaService.isDeprecatedService(AnnotatedServices.class.getMethod("current", String.class))); //$NON-NLS-1$
+    }
+
+    @Test
+    public void listed() throws Exception {
+        final ListedServices instance = new ListedServices();
+        final Method old = ListedServices.class.getMethod("old", String.class); //$NON-NLS-1$
+        final Method current = ListedServices.class.getMethod("current", String.class); //$NON-NLS-1$
+        final JavaServiceRegistry.Services services = JavaServiceRegistry.getServices(instance);
+        assertTrue(services.isDeprecated(old));
+        assertFalse(services.isDeprecated(current));
+        assertTrue(EvalJavaService.isDeprecatedService(old));
+        assertEquals(1, ListedServices.instances);
+    }
+
+    @Test
+    public void withoutInstance() throws Exception {
+        final Method old = UnusedServices.class.getMethod("old", String.class); //$NON-NLS-1$
+        assertFalse(EvalJavaService.isDeprecatedService(old));
+        assertEquals(0, UnusedServices.instances);
+    }
+
+    /**
+     * Services deprecated with the annotation.
+     */
+    public static class AnnotatedServices {
+
+        @Deprecated
+        public String old(final String value) {
+            return value;
+        }
+
+        public String current(final String value) {
+            return value;
+        }
+    }
+
+    /**
+     * Services listing their deprecated methods.
+     */
+    public static class ListedServices {
+
+        static int instances;
+
+        public ListedServices() {
+            ListedServices.instances++;
+        }
+
+        public String old(final String value) {
+            return value;
+        }
+
+        public String current(final String value) {
+            return value;
+        }
+
+        public Method[] getDeprecatedMethods() throws NoSuchMethodException {
+            return new Method[] { ListedServices.class.getMethod("old", String.class) }; //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Services listing their deprecated methods, never instantiated.
+     */
+    public static class UnusedServices {
+
+        static int instances;
+
+        public UnusedServices() {
+            UnusedServices.instances++;
+        }
+
+        public String old(final String value) {
+            return value;
+        }
+
+        public Method[] getDeprecatedMethods() throws NoSuchMethodException {
+            return new Method[] { UnusedServices.class.getMethod("old", String.class) }; //$NON-NLS-1$
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.tools.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The contents of the files outside of the workspace expire when the stamp of
+ * their file changes.
+ */
+public class FileContentMapTest {
+
+    private File file;
+
+    private long stamp;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fileContent", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+        stamp = file.lastModified();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void modified() {
+        final FileContentMap map = new FileContentMap(false);
+        final Object content = new Object();
+        assertNull(map.get(file));
+        map.put(file, content);
+        assertSame(content, map.get(file));
+        assertSame(content, map.get(new File(file.getPath())));
+
+        file.setLastModified(stamp + 10000);
+        assertNull(map.get(file));
+        assertEquals(0, map.size());
+        assertEquals(2, map.getHitCount());
+        assertEquals(2, map.getMissCount());
+    }
+
+    @Test
+    public void modifiedBeforePut() {
+        final FileContentMap map = new FileContentMap(false);
+        assertNull(map.get(file));
+        // The content is computed from the previous state of the file
+        file.setLastModified(stamp + 10000);
+        map.put(file, new Object());
+        assertNull(map.get(file));
+        final Object content = new Object();
+        map.put(file, content);
+        assertSame(content, map.get(file));
+    }
+
+    @Test
+    public void capacity() throws IOException {
+        final FileContentMap map = new FileContentMap(1, false);
+        final File other = File.createTempFile("fileContent", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            map.put(file, new Object());
+            map.put(other, new Object());
+            assertNull(map.get(file));
+            assertEquals(1, map.size());
+            map.remove(other);
+            assertEquals(0, map.size());
+        } finally {
+            other.delete();
+        }
+    }
+
+}
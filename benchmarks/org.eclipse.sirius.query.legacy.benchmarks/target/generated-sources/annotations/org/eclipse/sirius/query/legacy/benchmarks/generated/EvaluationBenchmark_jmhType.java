@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.benchmarks.generated;
+public class EvaluationBenchmark_jmhType extends EvaluationBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.benchmarks.generated;
+public class ParsingBenchmark_ExpressionState_jmhType extends ParsingBenchmark_ExpressionState_jmhType_B3 {
+}
+
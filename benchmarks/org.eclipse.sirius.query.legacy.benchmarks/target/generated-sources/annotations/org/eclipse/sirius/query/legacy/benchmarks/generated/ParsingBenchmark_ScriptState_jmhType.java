@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.benchmarks.generated;
+public class ParsingBenchmark_ScriptState_jmhType extends ParsingBenchmark_ScriptState_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.benchmarks.generated;
+public class ParsingBenchmark_jmhType extends ParsingBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.benchmarks.generated;
+public class ServicesBenchmark_jmhType extends ServicesBenchmark_jmhType_B3 {
+}
+
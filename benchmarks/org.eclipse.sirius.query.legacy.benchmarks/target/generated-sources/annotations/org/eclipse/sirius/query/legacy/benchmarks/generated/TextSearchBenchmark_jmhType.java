@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.benchmarks.generated;
+public class TextSearchBenchmark_jmhType extends TextSearchBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.eclipse.sirius.query.legacy.gen.template.scripts.generated;
+public class ParsedScriptsBenchmark_jmhType extends ParsedScriptsBenchmark_jmhType_B3 {
+}
+
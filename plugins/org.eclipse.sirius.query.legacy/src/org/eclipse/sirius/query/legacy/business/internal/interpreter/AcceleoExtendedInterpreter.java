@@ -37,6 +37,7 @@ import org.eclipse.sirius.query.legacy.gen.AcceleoGenMessages;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxExceptions;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
 import org.eclipse.sirius.query.legacy.gen.template.eval.log.EvalFailure;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
 import org.eclipse.sirius.query.legacy.tools.classloaders.AcceleoClassLoader;
@@ -196,8 +197,17 @@ public class AcceleoExtendedInterpreter extends AcceleoInterpreter {
         return getValue(result, expression);
     }
 
-    @SuppressWarnings("unused")
     private ENode doEvaluate(final EObject eObj, final String expression) throws EvaluationException {
+        final EvalContext previousContext = bindEvaluationContext();
+        try {
+            return doEvaluateInContext(eObj, expression);
+        } finally {
+            unbindEvaluationContext(previousContext);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private ENode doEvaluateInContext(final EObject eObj, final String expression) throws EvaluationException {
         ENodeException.disableRuntimeMarkersFor(eObj);
 
         final ENode result = super.evaluateENode(eObj, expression);
@@ -207,7 +217,7 @@ public class AcceleoExtendedInterpreter extends AcceleoInterpreter {
             // log eNode error if the profiler is active.
             if (AcceleoExtendedInterpreter.LOG_WARNINGS && !result.log().isOk()) {
                 final MultiStatus status = new MultiStatus(AcceleoExtendedInterpreter.ACCELEO_PLUGIN_NAME, IStatus.INFO, "variables info", null);
-                final Iterator<Entry<String, StackEx<ENode>>> iterVariables = variableTables.entrySet().iterator();
+                final Iterator<Entry<String, StackEx<ENode>>> iterVariables = getVariableTables().entrySet().iterator();
                 while (iterVariables.hasNext()) {
                     final Entry<String, StackEx<ENode>> entry = iterVariables.next();
                     final String variableName = entry.getKey();
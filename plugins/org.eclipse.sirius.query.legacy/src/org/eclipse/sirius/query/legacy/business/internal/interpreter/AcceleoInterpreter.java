@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.sirius.query.legacy.business.internal.interpreter;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -42,19 +44,20 @@ import org.eclipse.sirius.common.tools.api.interpreter.IVariableStatusListener;
 import org.eclipse.sirius.ecore.extender.business.api.accessor.MetamodelDescriptor;
 import org.eclipse.sirius.ecore.extender.business.api.accessor.ModelAccessor;
 import org.eclipse.sirius.ext.base.collect.StackEx;
-import org.eclipse.sirius.query.legacy.AcceleoInterpreterPlugin;
 import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.ecore.tools.EAdapters;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.gen.template.Template;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateConstants;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateElement;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
-import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
-import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeIterator;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
 import org.eclipse.sirius.query.legacy.tools.classloaders.AcceleoClassLoader;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
 
 /**
  * This utility class ease the evaluation of Acceleo expressions. A singleton
@@ -82,8 +85,20 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      */
     protected static final String SUFFIX_KEYWORD = "%>";
 
+    /**
+     * The parsed templates of the scripts of this interpreter, by script and
+     * expression.
+     * 
+     * @deprecated the templates are kept in the {@link CompiledExpressionCache}
+     *             shared by all the interpreters. This map is a view of it :
+     *             the templates put in it may be evicted, and its entries are
+     *             the scripts of this interpreter.
+     */
+    @Deprecated
+    protected final Map<SpecificScript, Map<String, Template>> templates = new TemplatesView();
+
     /** This will allow us to store the parsed templates for each expressions. */
-    protected final Map<SpecificScript, Map<String, Template>> templates = new HashMap<SpecificScript, Map<String, Template>>();
+    private final CompiledExpressionCache templateCache = CompiledExpressionCache.getInstance();
 
     /**
      * Script instance.
@@ -105,7 +120,48 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
     private final Set<IVariableStatusListener> variablesListeners = new HashSet<IVariableStatusListener>();
 
     /** The optional cache. */
-    private Map<CacheKey, ENode> cache;
+    private volatile EvaluationCache cache;
+
+    private volatile IncrementalEvaluationCache incrementalCache;
+
+    /** The variables compared by the incremental evaluation cache. */
+    private final IncrementalEvaluationCache.Variables variables = new IncrementalEvaluationCache.Variables() {
+        public ENode getValue(final String name) {
+            return isVariableSet(name) ? getVariableValue(name) : null;
+        }
+    };
+
+    /** Whether the interpreter may be used by several threads at once. */
+    private volatile boolean concurrent;
+
+    /**
+     * The evaluation contexts created for the threads, cleared on disposal.
+     * The values are unused, a context is released with its thread.
+     */
+    private final Map<EvalContext, Boolean> allEvaluationContexts = Collections.synchronizedMap(new WeakHashMap<EvalContext, Boolean>());
+
+    /**
+     * The generation of the evaluation contexts, incremented on disposal: the
+     * threads replace their contexts of a previous generation.
+     */
+    private volatile int evaluationContextGeneration;
+
+    /** The evaluation context of each thread, used in concurrent mode. */
+    private final ThreadLocal<ThreadEvaluationContext> evaluationContexts = new ThreadLocal<ThreadEvaluationContext>();
+
+    /**
+     * The evaluation context of a thread, and its generation.
+     */
+    private static final class ThreadEvaluationContext {
+
+        private final EvalContext context = new EvalContext();
+
+        private final int generation;
+
+        ThreadEvaluationContext(final int generation) {
+            this.generation = generation;
+        }
+    }
 
     private AcceleoTemplateWorkspaceListener templateListener;
 
@@ -124,7 +180,7 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *            current {@link EObject}.
      * @return a script able to evaluate expression on the given EObject.
      */
-    protected final SpecificScript getScript(final EObject current) {
+    protected final synchronized SpecificScript getScript(final EObject current) {
         /*
          * we keep one script per metamodel.
          */
@@ -132,7 +188,13 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
         final SpecificScript resultScript = mmToScript.get(mmURI);
         if (resultScript != null)
             return resultScript;
-        final SpecificScript newScript = createNewScript(current, mmURI);
+        final Object event = FlightRecorderEvent.SCRIPT_CREATION.begin();
+        final SpecificScript newScript;
+        try {
+            newScript = createNewScript(current, mmURI);
+        } finally {
+            FlightRecorderEvent.SCRIPT_CREATION.commit(event, mmURI);
+        }
         mmToScript.put(mmURI, newScript);
         return newScript;
     }
@@ -168,6 +230,35 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *             on evaluation errors.
      */
     public ENode evaluateENode(final EObject eObj, final String expression) throws EvaluationException {
+        final Object event = FlightRecorderEvent.EVALUATION.begin();
+        try {
+            return evaluateENodeWithCache(eObj, expression);
+        } finally {
+            FlightRecorderEvent.EVALUATION.commit(event, expression, eObj != null ? eObj.eClass().getName() : null);
+        }
+    }
+
+    private ENode evaluateENodeWithCache(final EObject eObj, final String expression) throws EvaluationException {
+        final IncrementalEvaluationCache currentIncrementalCache = incrementalCache;
+        if (currentIncrementalCache != null && expression != null && eObj != null) {
+            ENode result = currentIncrementalCache.get(expression, eObj, variables);
+            if (result == null) {
+                final ModelDependencies.Recording recording = currentIncrementalCache.start();
+                try {
+                    result = doEvaluateENode(eObj, expression);
+                    recording.stop();
+                    currentIncrementalCache.put(expression, eObj, recording, result);
+                } finally {
+                    currentIncrementalCache.end(recording);
+                }
+            }
+            return result;
+        }
+        return doEvaluateENode(eObj, expression);
+    }
+
+    private ENode doEvaluateENode(final EObject eObj, final String expression) throws EvaluationException {
+        final EvalContext previousContext = bindEvaluationContext();
         try {
             /*
              * We need to set the preferred loader here in order
@@ -183,29 +274,123 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
             final SpecificScript script = getScript(eObj);
             Template template = null;
             if (expression != null && expression.trim().length() > 0) {
-                Map<String, Template> scriptTemplates = templates.get(script);
-                if (scriptTemplates != null && scriptTemplates.containsKey(expression)) {
-                    template = scriptTemplates.get(expression);
-                } else {
+                template = templateCache.get(script, expression);
+                if (template == null) {
                     template = Template.from(expression, script, eObj);
-                    if (scriptTemplates == null) {
-                        scriptTemplates = new WeakHashMap<String, Template>();
-                        templates.put(script, scriptTemplates);
-                    }
-                    scriptTemplates.put(expression, template);
+                    templateCache.put(script, expression, template);
+                }
+            }
+            if (template != null) {
+                final ENode result = template.evaluate(eObj, LaunchManager.create("run", false, false));
+                if (result.isList()) {
+                    /*
+                     * A lazy list pulls its elements from the model : they are
+                     * all pulled before the model can change.
+                     */
+                    result.getList().size();
                 }
+                return result;
             }
-            if (template != null)
-                return template.evaluate(eObj, LaunchManager.create("run", false));
             AcceleoClassLoader.setPreferredClassLoader(null);
             return new ENode(null, (TemplateElement) null, true);
         } catch (final ENodeException e) {
             throw new EvaluationException(e);
         } catch (final FactoryException e) {
             throw new EvaluationException(e);
+        } finally {
+            unbindEvaluationContext(previousContext);
         }
     }
 
+    /**
+     * Enables or disables the concurrent evaluation mode. In this mode, the
+     * interpreter can evaluate expressions from several threads at the same
+     * time: the state of each evaluation (context stacks, recursion guards,
+     * preferred class loader...) is kept in an {@link EvalContext} owned by
+     * the evaluating thread, and the variables set by a thread are only
+     * visible by this thread. The variables set before enabling this mode are
+     * still visible by all the threads. The caches and the indexes stay
+     * enabled: their adapters are installed on the model with the lock of
+     * {@link EAdapters}.
+     * 
+     * @param concurrent
+     *            <code>true</code> to enable the concurrent mode.
+     */
+    public void setConcurrent(final boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Tells whether the concurrent evaluation mode is enabled.
+     * 
+     * @return <code>true</code> if the concurrent mode is enabled.
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Binds the evaluation context of the current thread if the concurrent
+     * mode is enabled. The result must be given back to
+     * {@link #unbindEvaluationContext(EvalContext)} once the evaluation is
+     * over.
+     * 
+     * @return the evaluation context bound before this call.
+     */
+    protected EvalContext bindEvaluationContext() {
+        final EvalContext previous = EvalContext.getCurrent();
+        if (concurrent) {
+            getThreadEvaluationContext().bind();
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the evaluation context of the current thread, created after the
+     * last disposal.
+     * 
+     * @return the evaluation context of the current thread.
+     */
+    private EvalContext getThreadEvaluationContext() {
+        final int generation = evaluationContextGeneration;
+        ThreadEvaluationContext threadContext = evaluationContexts.get();
+        if (threadContext == null || threadContext.generation != generation) {
+            threadContext = new ThreadEvaluationContext(generation);
+            evaluationContexts.set(threadContext);
+            allEvaluationContexts.put(threadContext.context, Boolean.TRUE);
+        }
+        return threadContext.context;
+    }
+
+    /**
+     * Restores the evaluation context bound before
+     * {@link #bindEvaluationContext()}.
+     * 
+     * @param previous
+     *            the result of {@link #bindEvaluationContext()}.
+     */
+    protected void unbindEvaluationContext(final EvalContext previous) {
+        final EvalContext current = EvalContext.getCurrent();
+        if (current != previous) {
+            EvalContext.restore(previous);
+            current.reset();
+        }
+    }
+
+    /**
+     * Returns the variables visible by the current evaluation: the ones of the
+     * current thread in concurrent mode, the shared ones otherwise.
+     * 
+     * @return the variables visible by the current evaluation.
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String, StackEx<ENode>> getVariableTables() {
+        if (concurrent) {
+            return getThreadEvaluationContext().getVariables();
+        }
+        return variableTables;
+    }
+
     /**
      * Evaluate an acceleo condition. The result is <code>true</code> if the
      * evaluation returns a <code>true</code> value or if the evaluation returns
@@ -336,12 +521,13 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *            the variable value.
      */
     public void setVariable(final String name, final ENode value) {
-        StackEx<ENode> values = variableTables.get(name);
+        final Map<String, StackEx<ENode>> tables = getVariableTables();
+        StackEx<ENode> values = tables.get(name);
         if (values == null) {
             values = new StackEx<ENode>();
         }
         values.push(value);
-        variableTables.put(name, values);
+        tables.put(name, values);
         notifyVariableListeners();
     }
 
@@ -352,7 +538,7 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *            the variable name.
      */
     public void unSetVariable(final String name) {
-        final StackEx<ENode> values = variableTables.get(name);
+        final StackEx<ENode> values = getVariableTables().get(name);
         if (values != null) {
             if (values.size() > 1) {
                 /*
@@ -378,10 +564,14 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      * @return the variable value.
      */
     protected ENode getVariableValue(final String name) {
-        final StackEx<ENode> values = variableTables.get(name);
+        StackEx<ENode> values = getVariableTables().get(name);
+        if (values == null && concurrent)
+            values = variableTables.get(name);
+        ENode value = null;
         if (values != null)
-            return values.peek();
-        return null;
+            value = values.peek();
+        EDependencyRecorder.variableRead(name, value == null ? null : value.getValue());
+        return value;
     }
 
     /**
@@ -393,14 +583,17 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *         otherwise
      */
     protected boolean isVariableSet(final String name) {
-        return variableTables.containsKey(name);
+        final boolean set = getVariableTables().containsKey(name) || concurrent && variableTables.containsKey(name);
+        if (!set)
+            EDependencyRecorder.variableRead(name, null);
+        return set;
     }
 
     /**
      * Clear all the variables of the interpreter.
      */
     public void clearVariables() {
-        variableTables.clear();
+        getVariableTables().clear();
         notifyVariableListeners();
     }
 
@@ -411,8 +604,9 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *            : name of the variable to clear.
      */
     public void clearVariable(final String name) {
-        if (variableTables.containsKey(name)) {
-            variableTables.remove(name);
+        final Map<String, StackEx<ENode>> tables = getVariableTables();
+        if (tables.containsKey(name)) {
+            tables.remove(name);
             notifyVariableListeners();
         }
     }
@@ -420,9 +614,9 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
     /**
      * Clear all the imports.
      */
-    public void clearImports() {
+    public synchronized void clearImports() {
+        clearTemplates();
         mmToScript.clear();
-        templates.clear();
         imports.clear();
     }
 
@@ -433,13 +627,12 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *            the import id, for instance
      *            <tt>fr.obeo.my.package.java.StringServices</tt>
      */
-    public void addImport(final String path) {
+    public synchronized void addImport(final String path) {
+        clearTemplates();
         if (path != null && path.contains(".") && !imports.contains(path)) {
             mmToScript.clear();
-            templates.clear();
             imports.add(path);
         }
-        templates.clear();
     }
 
     /**
@@ -470,7 +663,11 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      */
     public Map<String, ?> getVariables() {
         final Map<String, ENode> lightVariables = new HashMap<String, ENode>();
-        final Iterator<String> it = variableTables.keySet().iterator();
+        final Set<String> names = new HashSet<String>(getVariableTables().keySet());
+        if (concurrent) {
+            names.addAll(variableTables.keySet());
+        }
+        final Iterator<String> it = names.iterator();
         while (it.hasNext()) {
             final String variableName = it.next();
             lightVariables.put(variableName, getVariableValue(variableName));
@@ -731,11 +928,10 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      * 
      * @see org.eclipse.sirius.common.tools.api.interpreter.IInterpreter#dispose()
      */
-    public void dispose() {
-        for (final Map.Entry<SpecificScript, Map<String, Template>> child : templates.entrySet())
-            child.getValue().clear();
-        templates.clear();
+    public synchronized void dispose() {
+        clearTemplates();
         this.variableTables.clear();
+        clearEvaluationContexts();
         this.variablesListeners.clear();
         this.imports.clear();
         this.deactivateCache();
@@ -815,12 +1011,35 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      * @return the result of the evaluation from the cache.
      */
     protected ENode getFromCache(final ENode context, final String evaluation, final ENode[] args) {
-        if (cache != null) {
-            return cache.get(new CacheKey(context, evaluation, args));
+        final EvaluationCache currentCache = cache;
+        if (currentCache != null && isCacheable(evaluation, args)) {
+            return currentCache.get(context, evaluation, args);
         }
         return null;
     }
 
+    /**
+     * Starts to record the reads of an evaluation whose result may be cached.
+     * 
+     * @param evaluation
+     *            the evaluation.
+     * @param args
+     *            the arguments of the evaluation.
+     * @return the recording, or <code>null</code> if the result won't be
+     *         cached. It has to be given to
+     *         {@link #endCaching(ModelDependencies.Recording)}.
+     */
+    ModelDependencies.Recording startCaching(final String evaluation, final ENode[] args) {
+        final EvaluationCache currentCache = cache;
+        if (currentCache != null && isCacheable(evaluation, args))
+            return currentCache.start();
+        return null;
+    }
+
+    private static boolean isCacheable(final String evaluation, final ENode[] args) {
+        return evaluation != null && !evaluation.startsWith(VARIABLE_KEYWORD) && EvaluationCache.isCacheable(evaluation, args);
+    }
+
     /**
      * Caches an evaluation.
      * 
@@ -830,22 +1049,111 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      *            the evaluation.
      * @param args
      *            the arguments of the evaluation.
+     * @param recording
+     *            the stopped recording of the evaluation.
      * @param result
      *            the result of the evaluation.
      */
+    void cache(final ENode context, final String evaluation, final ENode[] args, final ModelDependencies.Recording recording, final ENode result) {
+        final EvaluationCache currentCache = cache;
+        if (currentCache != null && recording != null)
+            currentCache.put(context, evaluation, args, recording, result);
+    }
+
+    /**
+     * Caches an evaluation.
+     * 
+     * @param context
+     *            the context.
+     * @param evaluation
+     *            the evaluation.
+     * @param args
+     *            the arguments of the evaluation.
+     * @param result
+     *            the result of the evaluation.
+     * @deprecated a result is only cached with the recording of the reads of
+     *             its evaluation, which tells when it becomes invalid : this
+     *             method keeps nothing. Use
+     *             {@link #startCaching(String, ENode[])} before the
+     *             evaluation.
+     */
+    @Deprecated
     protected void cache(final ENode context, final String evaluation, final ENode[] args, final ENode result) {
-        if (cache != null)
-            cache.put(new CacheKey(context, evaluation, args), result);
+        cache(context, evaluation, args, null, result);
     }
 
     /**
-     * Activates the cache.
+     * Ends the recording of an evaluation, cached or not.
+     * 
+     * @param recording
+     *            the recording returned by
+     *            {@link #startCaching(String, ENode[])}, or <code>null</code>.
      */
-    public void activateCache() {
+    void endCaching(final ModelDependencies.Recording recording) {
+        // The cache may have been deactivated during the evaluation
+        if (recording != null) {
+            recording.end();
+        }
+    }
+
+    /**
+     * Activates the cache. The cached results are discarded as soon as a
+     * feature they have read on the model changes, so the cache may stay
+     * active while the model is edited. The results of the calls whose reads
+     * can't be recorded are not kept.
+     */
+    public synchronized void activateCache() {
         if (this.cache == null)
-            this.cache = new HashMap<CacheKey, ENode>();
+            this.cache = new EvaluationCache();
+    }
+
+    /**
+     * Returns the statistics of the cache.
+     * 
+     * @return the statistics of the cache, or <code>null</code> if the cache
+     *         is not active.
+     */
+    public EvaluationCache.Statistics getCacheStatistics() {
+        final EvaluationCache currentCache = cache;
+        if (currentCache != null)
+            return currentCache.getStatistics();
+        return null;
     }
     
+    /**
+     * Activates the incremental evaluation. The result of an expression on a
+     * target is reused until a feature it has read on the model or a variable
+     * it has read changes. The results of the expressions using services or
+     * operations whose reads can't be recorded are not kept.
+     */
+    public synchronized void activateIncrementalEvaluation() {
+        if (this.incrementalCache == null)
+            this.incrementalCache = new IncrementalEvaluationCache();
+    }
+
+    /**
+     * Deactivates the incremental evaluation.
+     */
+    public synchronized void deactivateIncrementalEvaluation() {
+        if (this.incrementalCache != null) {
+            this.incrementalCache.clear();
+            this.incrementalCache = null;
+        }
+    }
+
+    /**
+     * Returns the statistics of the incremental evaluation.
+     * 
+     * @return the statistics of the incremental evaluation, or
+     *         <code>null</code> if it is not active.
+     */
+    public IncrementalEvaluationCache.Statistics getIncrementalEvaluationStatistics() {
+        final IncrementalEvaluationCache currentCache = incrementalCache;
+        if (currentCache != null)
+            return currentCache.getStatistics();
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -858,92 +1166,13 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
     /**
      * Deactivates the cache.
      */
-    public void deactivateCache() {
+    public synchronized void deactivateCache() {
         if (this.cache != null) {
             this.cache.clear();
             this.cache = null;
         }
     }
 
-    /**
-     * Inner Class CacheKey
-     */
-    private static class CacheKey {
-
-        private ENode context;
-
-        private String evaluation;
-
-        private ENode[] args;
-
-        public CacheKey(final ENode context, final String evaluation, final ENode[] args) {
-            this.context = context;
-            this.evaluation = evaluation;
-            this.args = args;
-        }
-
-        /**
-         * {@inheritDoc}
-         * 
-         * @see java.lang.Object#hashCode()
-         */
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + (evaluation == null ? 0 : evaluation.hashCode());
-            result = prime * result + (context == null ? 0 : hashCode(context));
-            for (ENode node : args) {
-                result = prime * result + (node == null ? 0 : hashCode(node));
-            }
-            return result;
-        }
-
-        private int hashCode(final ENode node) {
-            int value = 0;
-            if (node.getValue() != null) {
-                if (!node.isList()) {
-                    return node.getValue().hashCode();
-                } else {
-                    try {
-                        final ENodeIterator iterNodes = node.getList().iterator();
-                        while (iterNodes.hasNext()) {
-                            value += hashCode(iterNodes.next());
-                        }
-                    } catch (final ENodeCastException e) {
-                        AcceleoInterpreterPlugin.getDefault().error(e.getMessage(), e);
-                    }
-                }
-            }
-            return value;
-        }
-
-        /**
-         * {@inheritDoc}
-         * 
-         * @see java.lang.Object#equals(java.lang.Object)
-         */
-        @Override
-        public boolean equals(final Object obj) {
-            boolean result = false;
-            if (obj instanceof CacheKey) {
-                result = equals((CacheKey) obj);
-            }
-            return result;
-        }
-
-        private boolean equals(final CacheKey cacheKey) {
-            final boolean node = (this.context == null && cacheKey.context == null) || (this.context != null && this.context.equals((Object) cacheKey.context));
-            final boolean eval = node && ((this.evaluation == null && cacheKey.evaluation == null) || (this.evaluation != null && this.evaluation.equals(cacheKey.evaluation)));
-            boolean result = eval && this.args.length == cacheKey.args.length;
-            for (int i = 0; i < args.length && result; i++) {
-                result = this.args[i].equals((Object) cacheKey.args[i]);
-            }
-            return result;
-        }
-
-    }
-
     /**
      * {@inheritDoc}
      * 
@@ -979,12 +1208,12 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
      * 
      * @see org.eclipse.sirius.common.tools.api.interpreter.IInterpreter#removeImport(String)
      */
-    public void removeImport(String dependency) {
+    public synchronized void removeImport(String dependency) {
+        clearTemplates();
         if (this.imports.contains(dependency)) {
             this.imports.remove(dependency);
             mmToScript.clear();
         }
-        templates.clear();
     }
 
     protected AcceleoCompletionEntry getCompletionEntry() {
@@ -1016,12 +1245,129 @@ public abstract class AcceleoInterpreter implements IInterpreter, IInterpreterPr
     /**
      * Clear templates stored.
      */
-    protected void reconsiderTemplateFiles() {
-        for (final Map.Entry<SpecificScript, Map<String, Template>> child : templates.entrySet())
-            child.getValue().clear();
-
+    protected synchronized void reconsiderTemplateFiles() {
+        clearTemplates();
         mmToScript.clear();
-        templates.clear();
+    }
+
+    /**
+     * Clears the evaluation contexts of all the threads, which may keep
+     * variables and scripts. The other threads don't use them anymore: they
+     * create new contexts at their next evaluation.
+     */
+    private void clearEvaluationContexts() {
+        evaluationContextGeneration++;
+        final List<EvalContext> contexts;
+        synchronized (allEvaluationContexts) {
+            contexts = new ArrayList<EvalContext>(allEvaluationContexts.keySet());
+            allEvaluationContexts.clear();
+        }
+        for (final EvalContext context : contexts) {
+            context.clear();
+        }
+        this.evaluationContexts.remove();
+    }
+
+    /**
+     * Removes from the shared cache the templates parsed against the scripts
+     * of this interpreter, and the results computed with them.
+     */
+    private void clearTemplates() {
+        for (final SpecificScript script : mmToScript.values()) {
+            templateCache.invalidate(script);
+        }
+        final IncrementalEvaluationCache currentIncrementalCache = incrementalCache;
+        if (currentIncrementalCache != null)
+            currentIncrementalCache.clear();
+    }
+
+
+    /**
+     * The deprecated map of the templates, by script, backed by the shared
+     * cache.
+     */
+    private final class TemplatesView extends AbstractMap<SpecificScript, Map<String, Template>> {
+
+        @Override
+        public Map<String, Template> get(final Object key) {
+            if (key instanceof SpecificScript)
+                return new ScriptTemplatesView((SpecificScript) key);
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof SpecificScript;
+        }
+
+        @Override
+        public Map<String, Template> put(final SpecificScript key, final Map<String, Template> value) {
+            get(key).putAll(value);
+            return null;
+        }
+
+        @Override
+        public Map<String, Template> remove(final Object key) {
+            if (key instanceof SpecificScript)
+                templateCache.invalidate((SpecificScript) key);
+            return null;
+        }
+
+        @Override
+        public void clear() {
+            for (final SpecificScript script : mmToScript.values()) {
+                templateCache.invalidate(script);
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<SpecificScript, Map<String, Template>>> entrySet() {
+            final Set<Map.Entry<SpecificScript, Map<String, Template>>> result = new LinkedHashSet<Map.Entry<SpecificScript, Map<String, Template>>>();
+            for (final SpecificScript script : new ArrayList<SpecificScript>(mmToScript.values())) {
+                result.add(new AbstractMap.SimpleImmutableEntry<SpecificScript, Map<String, Template>>(script, get(script)));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The templates of a script, backed by the shared cache.
+     */
+    private final class ScriptTemplatesView extends AbstractMap<String, Template> {
+
+        private final SpecificScript script;
+
+        ScriptTemplatesView(final SpecificScript script) {
+            this.script = script;
+        }
+
+        @Override
+        public Template get(final Object key) {
+            if (key instanceof String)
+                return templateCache.get(script, (String) key);
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Template put(final String key, final Template value) {
+            templateCache.put(script, key, value);
+            return null;
+        }
+
+        @Override
+        public void clear() {
+            templateCache.invalidate(script);
+        }
+
+        @Override
+        public Set<Map.Entry<String, Template>> entrySet() {
+            return templateCache.getTemplates(script).entrySet();
+        }
     }
 
 }
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.sirius.query.legacy.gen.template.Template;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.ParsedExpressionTable;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
+
+/**
+ * A bounded cache of the parsed {@link Template}s shared by all the
+ * interpreters. An entry is identified by the script the template has been
+ * parsed against (there is one script per metamodel URI and interpreter) and
+ * by the text of the expression.
+ * <p>
+ * The templates are kept in a {@link ParsedExpressionTable} with the
+ * expressions of the system services : the bound applies to all the scripts
+ * together, the least recently used templates being evicted first. The
+ * templates reference their script, so the interpreters invalidate the
+ * scripts they no longer use.
+ */
+public final class CompiledExpressionCache {
+
+    /**
+     * Default maximum number of parsed expressions kept by the shared cache.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = ParsedExpressionTable.DEFAULT_MAXIMUM_SIZE;
+
+    private static final CompiledExpressionCache INSTANCE = new CompiledExpressionCache(ParsedExpressionTable.getInstance());
+
+    private final ParsedExpressionTable table;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize
+     *            the maximum number of parsed expressions to keep, all
+     *            scripts together.
+     */
+    public CompiledExpressionCache(final int maximumSize) {
+        this(new ParsedExpressionTable(maximumSize));
+    }
+
+    private CompiledExpressionCache(final ParsedExpressionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Returns the cache shared by all the interpreters.
+     *
+     * @return the shared cache.
+     */
+    public static CompiledExpressionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the template parsed for the given expression, or
+     * <code>null</code> if it has not been parsed yet or has been evicted.
+     *
+     * @param script
+     *            the script the expression is evaluated with.
+     * @param expression
+     *            the expression.
+     * @return the parsed template or <code>null</code>.
+     */
+    public Template get(final SpecificScript script, final String expression) {
+        final Object parsed = table.get(script, expression);
+        final Template result = parsed instanceof Template ? (Template) parsed : null;
+        if (result != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        if (FlightRecorderEvent.CACHE_ACCESS.isEnabled()) {
+            FlightRecorderEvent.CACHE_ACCESS.commit(FlightRecorderEvent.CACHE_ACCESS.begin(), "CompiledExpressionCache", expression, Boolean.valueOf(result != null));
+        }
+        return result;
+    }
+
+    /**
+     * Stores the template parsed for the given expression.
+     *
+     * @param script
+     *            the script the expression has been parsed against.
+     * @param expression
+     *            the expression.
+     * @param template
+     *            the parsed template.
+     */
+    public void put(final SpecificScript script, final String expression, final Template template) {
+        if (template != null) {
+            final int evicted = table.put(script, expression, template);
+            if (evicted > 0) {
+                evictionCount.addAndGet(evicted);
+            }
+        }
+    }
+
+    /**
+     * Returns the templates currently cached for the given script.
+     *
+     * @param script
+     *            the script the templates have been parsed against.
+     * @return a copy of the templates, by expression.
+     */
+    public Map<String, Template> getTemplates(final SpecificScript script) {
+        final Map<String, Template> result = new HashMap<String, Template>();
+        for (final Object object : table.getAll(script).entrySet()) {
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            if (entry.getKey() instanceof String && entry.getValue() instanceof Template) {
+                result.put((String) entry.getKey(), (Template) entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all the templates parsed against the given script.
+     *
+     * @param script
+     *            the script which is no longer valid.
+     */
+    public void invalidate(final SpecificScript script) {
+        table.remove(script);
+    }
+
+    /**
+     * Removes all the templates.
+     */
+    public void invalidateAll() {
+        table.clear();
+    }
+
+    /**
+     * Returns the number of expressions currently cached, the expressions of
+     * the system services parsed against the same scripts included.
+     *
+     * @return the number of expressions currently cached.
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache.
+     *
+     * @return a snapshot of the statistics of this cache.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(hitCount.get(), missCount.get(), evictionCount.get(), size());
+    }
+
+    /**
+     * Immutable snapshot of the cache statistics.
+     */
+    public static final class Statistics {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long evictions;
+
+        private final int size;
+
+        Statistics(final long hits, final long misses, final long evictions, final int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of lookups which found a parsed template.
+         */
+        public long getHitCount() {
+            return hits;
+        }
+
+        /**
+         * @return the number of lookups which required a new parsing.
+         */
+        public long getMissCount() {
+            return misses;
+        }
+
+        /**
+         * @return the number of templates evicted to respect the size bound.
+         */
+        public long getEvictionCount() {
+            return evictions;
+        }
+
+        /**
+         * @return the number of expressions cached when the snapshot was taken.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the ratio of lookups which found a parsed template.
+         */
+        public double getHitRate() {
+            final long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size;
+        }
+    }
+}
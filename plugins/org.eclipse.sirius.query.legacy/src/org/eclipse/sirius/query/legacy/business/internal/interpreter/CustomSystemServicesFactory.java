@@ -11,6 +11,7 @@
 
 package org.eclipse.sirius.query.legacy.business.internal.interpreter;
 
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.EvalJavaService;
@@ -29,6 +30,14 @@ import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services.Xpa
  * 
  */
 public class CustomSystemServicesFactory extends SystemServicesFactory {
+
+    static {
+        // These services read the model through EFactory, or record their
+        // reads themselves
+        EDependencyRecorder.addTrackedService(ENodeServices.class, TRACKED_ENODE_SERVICES);
+        EDependencyRecorder.addTrackedService(EObjectServices.class, TRACKED_EOBJECT_SERVICES);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -89,7 +89,7 @@ public final class ENodeHelper {
                     value = new Double(node.getDouble());
                 } else if (node.isInt()) {
                     value = Integer.valueOf(node.getInt());
-                } else if (node.isList() && node.getList().size() > 0) {
+                } else if (node.isList() && !node.getList().isEmpty()) {
                     // FIXME specification for list in SetValue.
                     value = node.getList().asList();
                 }
@@ -14,6 +14,7 @@ package org.eclipse.sirius.query.legacy.business.internal.interpreter;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import org.eclipse.emf.ecore.EObject;
@@ -84,15 +85,27 @@ public class ENodeServices {
      */
     public ENode filter(ENode node, String type) throws ENodeCastException, FactoryException {
         if (node.isList()) {
-            ENodeList res = new ENodeList();
-            ENodeIterator it = node.getList().iterator();
-            while (it.hasNext()) {
-                ENode child = filter(it.next(), type);
-                if (!child.isNull()) {
-                    res.add(child);
+            // The elements are filtered when they are pulled
+            final ENodeIterator it = node.getList().iterator();
+            final String filterType = type;
+            return new ENode(new ENodeList(new Iterator() {
+                public boolean hasNext() {
+                    return it.hasNext();
                 }
-            }
-            return new ENode(res, node);
+
+                public Object next() {
+                    ENode child = it.next();
+                    if (child.getValue() instanceof EObject && !EFactory.eInstanceOf((EObject) child.getValue(), filterType)) {
+                        return null;
+                    } else {
+                        return child;
+                    }
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }), node);
         } else if (node.isEObject()) {
             if (EFactory.eInstanceOf(node.getEObject(), type)) {
                 return node;
@@ -406,7 +419,7 @@ public class ENodeServices {
         call = call.replaceAll("'", "\\\""); //$NON-NLS-1$ //$NON-NLS-2$
         TemplateExpression expression = TemplateExpression.fromString(computeCall(pos, call), new Int2(pos, pos + call.length()), script);
         try {
-            return expression.evaluate(current, script, LaunchManager.create("run", true)); //$NON-NLS-1$
+            return expression.evaluate(current, script, LaunchManager.create("run", true, false)); //$NON-NLS-1$
         } catch (ENodeException e) {
             return new ENode(ENode.EMPTY, current);
         }
@@ -498,8 +511,11 @@ public class ENodeServices {
         if (node.isList()) {
             ENodeList list = node.getList();
             ENodeList result = new ENodeList();
-            for (int i = begin; i < list.size() && (i < end || end == -1); i++) {
+            for (int i = Math.max(begin, 0); i < end || end == -1; i++) {
                 ENode child = list.get(i);
+                if (child == null) {
+                    break;
+                }
                 result.add(child);
             }
             return new ENode(result, node);
@@ -759,7 +775,7 @@ public class ENodeServices {
 
     private ENode evaluate(ENode current, TemplateExpression expr) {
         try {
-            return expr.evaluate(current, script, LaunchManager.create("run", true)); //$NON-NLS-1$
+            return expr.evaluate(current, script, LaunchManager.create("run", true, false)); //$NON-NLS-1$
         } catch (ENodeException e) {
             return new ENode(ENode.EMPTY, current);
         } catch (FactoryException e) {
@@ -11,26 +11,21 @@
 
 package org.eclipse.sirius.query.legacy.business.internal.interpreter;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.emf.common.util.EList;
-import org.eclipse.emf.common.util.TreeIterator;
-import org.eclipse.emf.ecore.EClass;
-import org.eclipse.emf.ecore.EClassifier;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.EPackage;
 import org.eclipse.emf.ecore.EReference;
 import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.sirius.query.legacy.ecore.factories.EFactory;
 import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.ecore.tools.EContainmentReachability;
+import org.eclipse.sirius.query.legacy.ecore.tools.EContentTypeIndex;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.ecore.tools.ETools;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
@@ -38,9 +33,6 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeIterator;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
 import org.eclipse.sirius.query.legacy.tools.resources.FileContentMap;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
-
 /**
  * This class comes from Acceleo, it provides the basic browsing services :
  * eContainer(), eAllContents().... It is needed here for two things : handle
@@ -52,11 +44,21 @@ import com.google.common.collect.Maps;
 public class EObjectServices {
     private FileContentMap load = new FileContentMap();
 
-    private EPackage eRootPackage;
-
-    private Map<String, List<String>> eClass2containments = new HashMap<String, List<String>>();
+    /**
+     * The containment reachability of the metamodels, to prune the typed
+     * traversals.
+     */
+    private final EContainmentReachability reachability = new EContainmentReachability();
 
-    private Map<EClass, List<EClass>> eClass2subTypes;
+    /**
+     * Computes the contents of a type of the elements which aren't indexed yet.
+     */
+    private final EContentTypeIndex.Collector contentsCollector = new EContentTypeIndex.Collector() {
+        @SuppressWarnings("unchecked")
+        public List<EObject> collect(final EObject object, final String type) {
+            return reachability.eAllContents(object, type);
+        }
+    };
 
     /**
      * Gets the container of an EObject.
@@ -129,6 +131,7 @@ public class EObjectServices {
      * @return the children
      */
     public EList<EObject> eContents(final EObject current) {
+        EDependencyRecorder.containmentsRead(current);
         return current.eContents();
     }
 
@@ -148,10 +151,8 @@ public class EObjectServices {
                     result.addAll(eAllContents(it.next()));
                 }
             } else if (current.isEObject()) {
-                final TreeIterator<EObject> it = current.getEObject().eAllContents();
-                while (it.hasNext()) {
-                    result.add(ENode.createTry(it.next(), current));
-                }
+                EDependencyRecorder.contentsRead(current.getEObject());
+                return ENodeList.createTry(current.getEObject().eAllContents(), current);
             }
         } catch (final ENodeCastException e) {
             // Never catch
@@ -179,13 +180,10 @@ public class EObjectServices {
                     result.addAll(eAllContents(it.next(), type));
                 }
             } else if (current.isEObject()) {
-                final int i = type.lastIndexOf(".");
-                final String typeName = i > -1 ? type.substring(i + 1) : type;
-                final List<EObject> children = eAllContents(current.getEObject(), type, typeName);
-                final Iterator<EObject> it = children.iterator();
-                while (it.hasNext()) {
-                    result.add(ENode.createTry(it.next(), current));
-                }
+                EDependencyRecorder.contentsRead(current.getEObject());
+                @SuppressWarnings("unchecked")
+                final List<EObject> children = EContentTypeIndex.getContents(current.getEObject(), type, contentsCollector);
+                return ENodeList.createTry(children.iterator(), current);
             }
         } catch (final ENodeCastException e) {
             // Never catch
@@ -193,101 +191,6 @@ public class EObjectServices {
         return result;
     }
 
-    private List<EObject> eAllContents(final EObject object, final String type, final String typeName) {
-        final List<EObject> result = new ArrayList<EObject>();
-        final List<String> containmentTypeNames = getContainmentNames(object);
-        if (containmentTypeNames.contains(typeName)) {
-            final Iterator<EObject> eContents = object.eContents().iterator();
-            while (eContents.hasNext()) {
-                final EObject eContent = eContents.next();
-                if (EFactory.eInstanceOf(eContent, type)) {
-                    result.add(eContent);
-                }
-                result.addAll(eAllContents(eContent, type, typeName));
-            }
-        }
-        return result;
-    }
-
-    private List<String> getContainmentNames(final EObject object) {
-        final EClass eClass = object.eClass();
-        final EPackage ePackage = (EPackage) getRootContainer(eClass);
-        if (ePackage != eRootPackage) {
-            eRootPackage = ePackage;
-            eClass2containments.clear();
-            eClass2subTypes = null;
-        }
-        final String eClassName = eClass.getName();
-        List<String> containmentNames = eClass2containments.get(eClassName);
-        if (containmentNames == null) {
-            containmentNames = new ArrayList<String>();
-            computeContainments(new ArrayList<EClassifier>(), containmentNames, ePackage, eClass.getEAllReferences());
-            eClass2containments.put(eClassName, containmentNames);
-        }
-        return containmentNames;
-    }
-
-    private void computeContainments(final List<EClassifier> containmentTypes, final List<String> containmentNames, final EPackage ePackage, final Iterable<EReference> eReferences) {
-        final Iterator<EReference> references = eReferences.iterator();
-        while (references.hasNext()) {
-            final EReference eReference = references.next();
-            if (eReference.isContainment()) {
-                final List<EClassifier> types = new ArrayList<EClassifier>();
-                types.add(eReference.getEType());
-                if (eReference.getEType() instanceof EClass) {
-                    types.addAll(((EClass) eReference.getEType()).getEAllSuperTypes());
-                }
-                types.addAll(eClass2subTypes(ePackage, eReference.getEType()));
-                final Iterator<EClassifier> it = types.iterator();
-                while (it.hasNext()) {
-                    final EClassifier type = it.next();
-                    if (type instanceof EClass) {
-                        final String name = type.getName();
-                        if (!containmentTypes.contains(type)) {
-                            containmentTypes.add(type);
-                            containmentNames.add(name);
-                            computeContainments(containmentTypes, containmentNames, ePackage, getEReferences((EClass) type));
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private Iterable<EReference> getEReferences(final EClass type) {
-        return Iterables.filter(type.getEStructuralFeatures(), EReference.class);
-    }
-
-    private List<EClass> eClass2subTypes(final EPackage ePackage, final EClassifier eClass) {
-        if (eClass2subTypes == null) {
-            eClass2subTypes = Maps.newHashMap();
-            final Iterator<?> classifiers = ETools.computeAllClassifiersList(ePackage, false).iterator();
-            while (classifiers.hasNext()) {
-                final Object next = classifiers.next();
-                if (next instanceof EClass) {
-                    final EClass c = (EClass) next;
-                    final Iterator<EClass> superTypes = c.getEAllSuperTypes().iterator();
-                    while (superTypes.hasNext()) {
-                        final EClass superType = superTypes.next();
-                        List<EClass> subTypes = eClass2subTypes.get(superType);
-                        if (subTypes == null) {
-                            subTypes = new ArrayList<EClass>();
-                            eClass2subTypes.put(superType, subTypes);
-                        }
-                        if (!subTypes.contains(c)) {
-                            subTypes.add(c);
-                        }
-                    }
-                }
-            }
-        }
-        List<EClass> types = eClass2subTypes.get(eClass);
-        if (types == null) {
-            types = new ArrayList<EClass>();
-        }
-        return types;
-    }
-
     /**
      * Gets the containing feature of an EObject.
      * 
@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
+
+/**
+ * Memoizes the results of the calls evaluated by a {@link SmartSpecificScript}.
+ * <p>
+ * A result is identified by the receiver of the call, the name of the call and
+ * its arguments. Model elements are compared by identity, the other values by
+ * equality; the calls with a list argument aren't cached, so that a lookup
+ * never walks the content of a list.
+ * <p>
+ * The cache is bounded by a total weight (one per entry plus the number of
+ * elements of the result), the least recently used entries being evicted
+ * first. While a call is evaluated, an {@link EDependencyRecorder} records the
+ * features it reads on the model : a notification discards the results which
+ * have read the changed feature. The results whose reads can't all be
+ * recorded (java services, operations of the model...) or which read
+ * variables aren't kept.
+ */
+public class EvaluationCache {
+
+    /**
+     * Default maximum total weight of the cached results.
+     */
+    public static final int DEFAULT_MAXIMUM_WEIGHT = 100000;
+
+    /**
+     * The calls whose result depends on the evaluation context or which have
+     * side effects, they are never cached.
+     */
+    private static final Set<String> VOLATILE_CALLS = new HashSet<String>(Arrays.asList("current", "args", "get", "nGet", "put", "nPut", "peek", "nPeek", "push", "nPush", "pop", "nPop"));
+
+    private final int maximumWeight;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+
+    private final ModelDependencies<Key> dependencies = new ModelDependencies<Key>(this, new ModelDependencies.Owner<Key>() {
+        public void invalidate(final Collection<Key> keys) {
+            discard(keys);
+        }
+    }, EvaluationCache.class);
+
+    private int weight;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long untrackedCount;
+
+    private long evictionCount;
+
+    private long invalidationCount;
+
+    /**
+     * Constructor.
+     */
+    public EvaluationCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maximumWeight
+     *            the maximum total weight of the cached results.
+     */
+    public EvaluationCache(final int maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Tells whether the result of the given call may be cached. The reads of
+     * the variables are excluded by the interpreter.
+     *
+     * @param evaluation
+     *            the name of the call.
+     * @param args
+     *            the arguments of the call.
+     * @return <code>true</code> if the result of the call may be cached.
+     */
+    public static boolean isCacheable(final String evaluation, final ENode[] args) {
+        if (evaluation == null || VOLATILE_CALLS.contains(evaluation)) {
+            return false;
+        }
+        for (final ENode arg : args) {
+            if (arg != null && arg.isList()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the cached result of a call. The reads of the result are
+     * recorded again by the current recorder, if any.
+     *
+     * @param context
+     *            the receiver of the call.
+     * @param evaluation
+     *            the name of the call.
+     * @param args
+     *            the arguments of the call.
+     * @return the cached result or <code>null</code>.
+     */
+    public ENode get(final ENode context, final String evaluation, final ENode[] args) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(context, evaluation, args));
+            if (entry != null) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+        if (FlightRecorderEvent.CACHE_ACCESS.isEnabled()) {
+            FlightRecorderEvent.CACHE_ACCESS.commit(FlightRecorderEvent.CACHE_ACCESS.begin(), "EvaluationCache", evaluation, Boolean.valueOf(entry != null));
+        }
+        if (entry != null) {
+            EDependencyRecorder.replay(entry.recording.getRecorder());
+            return entry.result;
+        }
+        return null;
+    }
+
+    /**
+     * Starts to record the reads of a call on the current thread.
+     *
+     * @return the recording, it has to be given to
+     *         {@link #end(ModelDependencies.Recording)}.
+     */
+    ModelDependencies.Recording start() {
+        return dependencies.start();
+    }
+
+    /**
+     * Caches the result of a call, if all its reads have been recorded and
+     * haven't changed since.
+     *
+     * @param context
+     *            the receiver of the call.
+     * @param evaluation
+     *            the name of the call.
+     * @param args
+     *            the arguments of the call.
+     * @param recording
+     *            the recording of the call, stopped.
+     * @param result
+     *            the result of the call.
+     */
+    synchronized void put(final ENode context, final String evaluation, final ENode[] args, final ModelDependencies.Recording recording, final ENode result) {
+        if (result == null) {
+            return;
+        }
+        final EDependencyRecorder recorder = recording.getRecorder();
+        if (!recorder.isTracked() || !recorder.getVariables().isEmpty()) {
+            untrackedCount++;
+            return;
+        }
+        if (!dependencies.isUpToDate(recording)) {
+            invalidationCount++;
+            return;
+        }
+        final Key key = new Key(context, evaluation, args);
+        final Entry previous = entries.remove(key);
+        if (previous != null) {
+            release(key, previous);
+        }
+        int resultWeight = 1;
+        if (result.isList()) {
+            try {
+                resultWeight += result.getList().size();
+            } catch (final ENodeCastException e) {
+                // cannot happen, isList() has been checked.
+            }
+        }
+        final Entry entry = new Entry(result, recording, resultWeight);
+        entries.put(key, entry);
+        weight += entry.weight;
+        dependencies.add(key, recording);
+        evictIfNeeded();
+    }
+
+    /**
+     * Ends the recording of a call, whether its result has been cached or
+     * not.
+     *
+     * @param recording
+     *            the recording returned by {@link #start()}.
+     */
+    synchronized void end(final ModelDependencies.Recording recording) {
+        dependencies.end(recording);
+    }
+
+    /**
+     * Discards the results whose reads have changed.
+     */
+    private void discard(final Collection<Key> keys) {
+        for (final Key key : keys) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                release(key, entry);
+                invalidationCount++;
+            }
+        }
+    }
+
+    /**
+     * Discards all the results and stops observing the model.
+     */
+    public synchronized void clear() {
+        dependencies.clear();
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache.
+     *
+     * @return a snapshot of the statistics of this cache.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hitCount, missCount, untrackedCount, evictionCount, invalidationCount, entries.size(), weight);
+    }
+
+    private void evictIfNeeded() {
+        final Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (weight > maximumWeight && it.hasNext()) {
+            final Map.Entry<Key, Entry> eldest = it.next();
+            it.remove();
+            release(eldest.getKey(), eldest.getValue());
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Forgets an entry which has been removed from the entries.
+     */
+    private void release(final Key key, final Entry entry) {
+        weight -= entry.weight;
+        dependencies.remove(key, entry.recording.getRecorder());
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry {
+
+        private final ENode result;
+
+        private final ModelDependencies.Recording recording;
+
+        private final int weight;
+
+        Entry(final ENode result, final ModelDependencies.Recording recording, final int weight) {
+            this.result = result;
+            this.recording = recording;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Key of a cached result.
+     */
+    private static final class Key {
+
+        private final Object context;
+
+        private final String evaluation;
+
+        private final Object[] args;
+
+        private final int hash;
+
+        Key(final ENode context, final String evaluation, final ENode[] args) {
+            this.context = valueOf(context);
+            this.evaluation = evaluation;
+            this.args = new Object[args.length];
+            int h = 31 * hash(this.context) + (evaluation == null ? 0 : evaluation.hashCode());
+            for (int i = 0; i < args.length; i++) {
+                this.args[i] = valueOf(args[i]);
+                h = 31 * h + hash(this.args[i]);
+            }
+            this.hash = h;
+        }
+
+        private static Object valueOf(final ENode node) {
+            return node == null ? null : node.getValue();
+        }
+
+        private static boolean isIdentity(final Object value) {
+            return value instanceof EObject || value instanceof ENodeList;
+        }
+
+        private static int hash(final Object value) {
+            if (value == null) {
+                return 0;
+            }
+            return isIdentity(value) ? System.identityHashCode(value) : value.hashCode();
+        }
+
+        private static boolean same(final Object a, final Object b) {
+            return a == b || a != null && b != null && !isIdentity(a) && a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                if (hash != other.hash || args.length != other.args.length || !same(context, other.context)) {
+                    return false;
+                }
+                if (evaluation == null ? other.evaluation != null : !evaluation.equals(other.evaluation)) {
+                    return false;
+                }
+                for (int i = 0; i < args.length; i++) {
+                    if (!same(args[i], other.args[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the cache statistics.
+     */
+    public static final class Statistics {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long untracked;
+
+        private final long evictions;
+
+        private final long invalidations;
+
+        private final int size;
+
+        private final int weight;
+
+        Statistics(final long hits, final long misses, final long untracked, final long evictions, final long invalidations, final int size, final int weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.untracked = untracked;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        /**
+         * @return the number of lookups which found a result.
+         */
+        public long getHitCount() {
+            return hits;
+        }
+
+        /**
+         * @return the number of lookups which found no result.
+         */
+        public long getMissCount() {
+            return misses;
+        }
+
+        /**
+         * @return the number of results not cached because some of their
+         *         reads could not be recorded.
+         */
+        public long getUntrackedCount() {
+            return untracked;
+        }
+
+        /**
+         * @return the number of results evicted to respect the weight bound.
+         */
+        public long getEvictionCount() {
+            return evictions;
+        }
+
+        /**
+         * @return the number of results discarded, or not cached, after a
+         *         model change.
+         */
+        public long getInvalidationCount() {
+            return invalidations;
+        }
+
+        /**
+         * @return the number of results cached when the snapshot was taken.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the total weight of the results cached when the snapshot
+         *         was taken.
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return the ratio of lookups which found a result.
+         */
+        public double getHitRate() {
+            final long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", untracked=" + untracked + ", evictions=" + evictions + ", invalidations=" + invalidations + ", size=" + size + ", weight=" + weight;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
+
+/**
+ * Keeps the results of the expressions evaluated by an
+ * {@link AcceleoInterpreter} until the model they have read changes.
+ * <p>
+ * A result is identified by the expression and the target element. While an
+ * expression is evaluated, an {@link EDependencyRecorder} records the features
+ * read on each model element and the variables read. The result is kept only
+ * if all the reads have been recorded. An adapter observes the elements read:
+ * a notification discards only the results which have read the changed
+ * feature of the notifier. A result is also discarded when a variable it has
+ * read has changed.
+ * <p>
+ * The elements are observed from their first read, so that a change made
+ * during the evaluation prevents its result from being cached.
+ */
+public class IncrementalEvaluationCache {
+
+    /**
+     * The current values of the variables, compared to the values read by the
+     * cached results.
+     */
+    public interface Variables {
+
+        /**
+         * Returns the current value of a variable.
+         *
+         * @param name
+         *            the name of the variable.
+         * @return the value, or <code>null</code> if the variable isn't set.
+         */
+        ENode getValue(String name);
+    }
+
+    /**
+     * Default maximum number of cached results.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final int maximumSize;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+
+    private final ModelDependencies<Key> dependencies = new ModelDependencies<Key>(this, new ModelDependencies.Owner<Key>() {
+        public void invalidate(final Collection<Key> keys) {
+            discard(keys);
+        }
+    }, IncrementalEvaluationCache.class);
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long untrackedCount;
+
+    private long evictionCount;
+
+    private long invalidationCount;
+
+    /**
+     * Constructor.
+     */
+    public IncrementalEvaluationCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize
+     *            the maximum number of cached results.
+     */
+    public IncrementalEvaluationCache(final int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns the result of an expression if the model elements and the
+     * variables it has read have not changed. The reads of the result are
+     * recorded again by the current recorder, if any.
+     *
+     * @param expression
+     *            the expression.
+     * @param target
+     *            the target element.
+     * @param variables
+     *            the current values of the variables.
+     * @return the cached result or <code>null</code>.
+     */
+    public ENode get(final String expression, final EObject target, final Variables variables) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(expression, target));
+        }
+        if (entry != null && isUpToDate(entry, variables)) {
+            synchronized (this) {
+                hitCount++;
+            }
+            if (FlightRecorderEvent.CACHE_ACCESS.isEnabled()) {
+                FlightRecorderEvent.CACHE_ACCESS.commit(FlightRecorderEvent.CACHE_ACCESS.begin(), "IncrementalEvaluationCache", expression, Boolean.TRUE);
+            }
+            EDependencyRecorder.replay(entry.recording.getRecorder());
+            return entry.result;
+        }
+        synchronized (this) {
+            missCount++;
+        }
+        if (FlightRecorderEvent.CACHE_ACCESS.isEnabled()) {
+            FlightRecorderEvent.CACHE_ACCESS.commit(FlightRecorderEvent.CACHE_ACCESS.begin(), "IncrementalEvaluationCache", expression, Boolean.FALSE);
+        }
+        return null;
+    }
+
+    /**
+     * Starts to record the reads of an expression on the current thread.
+     *
+     * @return the recording, it has to be given to
+     *         {@link #end(ModelDependencies.Recording)}.
+     */
+    ModelDependencies.Recording start() {
+        return dependencies.start();
+    }
+
+    /**
+     * Caches the result of an expression, if all its reads have been recorded
+     * and haven't changed since.
+     *
+     * @param expression
+     *            the expression.
+     * @param target
+     *            the target element.
+     * @param recording
+     *            the stopped recording of the evaluation.
+     * @param result
+     *            the result of the evaluation.
+     */
+    synchronized void put(final String expression, final EObject target, final ModelDependencies.Recording recording, final ENode result) {
+        if (result == null) {
+            return;
+        }
+        if (!recording.getRecorder().isTracked()) {
+            untrackedCount++;
+            return;
+        }
+        if (!dependencies.isUpToDate(recording)) {
+            invalidationCount++;
+            return;
+        }
+        final Key key = new Key(expression, target);
+        final Entry previous = entries.remove(key);
+        if (previous != null) {
+            release(key, previous);
+        }
+        entries.put(key, new Entry(result, recording));
+        dependencies.add(key, recording);
+        evictIfNeeded();
+    }
+
+    /**
+     * Ends the recording of an expression, whether its result has been cached
+     * or not.
+     *
+     * @param recording
+     *            the recording returned by {@link #start()}.
+     */
+    synchronized void end(final ModelDependencies.Recording recording) {
+        dependencies.end(recording);
+    }
+
+    /**
+     * Discards the results whose reads have changed.
+     */
+    private void discard(final Collection<Key> keys) {
+        for (final Key key : keys) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                release(key, entry);
+                invalidationCount++;
+            }
+        }
+    }
+
+    /**
+     * Discards all the results and stops observing the model.
+     */
+    public synchronized void clear() {
+        dependencies.clear();
+        entries.clear();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache.
+     *
+     * @return a snapshot of the statistics of this cache.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hitCount, missCount, untrackedCount, evictionCount, invalidationCount, entries.size());
+    }
+
+    private boolean isUpToDate(final Entry entry, final Variables variables) {
+        for (final Map.Entry<?, ?> variable : entry.variables()) {
+            final ENode value = variables.getValue((String) variable.getKey());
+            if (!same(variable.getValue(), value == null ? null : value.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Model elements and lists are compared by identity, the other values by
+     * equality.
+     */
+    private static boolean same(final Object a, final Object b) {
+        return a == b || a != null && b != null && !(a instanceof EObject || a instanceof ENodeList) && a.equals(b);
+    }
+
+    private void evictIfNeeded() {
+        final Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maximumSize && it.hasNext()) {
+            final Map.Entry<Key, Entry> eldest = it.next();
+            it.remove();
+            release(eldest.getKey(), eldest.getValue());
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Forgets an entry which has been removed from the entries.
+     */
+    private void release(final Key key, final Entry entry) {
+        dependencies.remove(key, entry.recording.getRecorder());
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry {
+
+        private final ENode result;
+
+        private final ModelDependencies.Recording recording;
+
+        Entry(final ENode result, final ModelDependencies.Recording recording) {
+            this.result = result;
+            this.recording = recording;
+        }
+
+        @SuppressWarnings("unchecked")
+        Set<Map.Entry<String, Object>> variables() {
+            return recording.getRecorder().getVariables().entrySet();
+        }
+    }
+
+    /**
+     * Key of a cached result.
+     */
+    private static final class Key {
+
+        private final String expression;
+
+        private final EObject target;
+
+        private final int hash;
+
+        Key(final String expression, final EObject target) {
+            this.expression = expression;
+            this.target = target;
+            this.hash = 31 * System.identityHashCode(target) + expression.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                return hash == other.hash && target == other.target && expression.equals(other.expression);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the cache statistics.
+     */
+    public static final class Statistics {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long untracked;
+
+        private final long evictions;
+
+        private final long invalidations;
+
+        private final int size;
+
+        Statistics(final long hits, final long misses, final long untracked, final long evictions, final long invalidations, final int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.untracked = untracked;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of evaluations which reused a result.
+         */
+        public long getHitCount() {
+            return hits;
+        }
+
+        /**
+         * @return the number of evaluations which found no up to date result.
+         */
+        public long getMissCount() {
+            return misses;
+        }
+
+        /**
+         * @return the number of results not cached because some of their
+         *         reads could not be recorded.
+         */
+        public long getUntrackedCount() {
+            return untracked;
+        }
+
+        /**
+         * @return the number of results evicted to respect the size bound.
+         */
+        public long getEvictionCount() {
+            return evictions;
+        }
+
+        /**
+         * @return the number of results discarded after a model change.
+         */
+        public long getInvalidationCount() {
+            return invalidations;
+        }
+
+        /**
+         * @return the number of results cached when the snapshot was taken.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", untracked=" + untracked + ", evictions=" + evictions + ", invalidations=" + invalidations + ", size=" + size;
+        }
+    }
+}
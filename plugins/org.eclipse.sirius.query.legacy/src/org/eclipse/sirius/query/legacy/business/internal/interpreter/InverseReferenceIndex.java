@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.Notifier;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.util.ECrossReferenceAdapter;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.ecore.tools.EAdapters;
+
+/**
+ * The inverse references of the "~feature" syntax, indexed by feature name and
+ * by target.
+ * <p>
+ * An index is attached to the resource set of the elements, or to their
+ * resource or to their root when there is no resource set, and it is shared by
+ * all the interpreters. The references of a name are indexed by its first
+ * lookup only, then they are updated from the notifications : the names which
+ * aren't used in "~feature" expressions cost nothing. As the
+ * {@link ECrossReferenceAdapter}, the index contains the non-derived
+ * references without opposite; the containers and the references with an
+ * opposite are read on the target.
+ * <p>
+ * The index isn't a content adapter : it observes the elements which have a
+ * reference of an indexed name, and the elements which may contain new ones
+ * (their class has containment references). It stops observing the elements
+ * removed from the scope.
+ * <p>
+ * The returned collections are unmodifiable copies of the index.
+ */
+final class InverseReferenceIndex extends AdapterImpl {
+
+    /**
+     * The index of each feature name, built by the first lookup.
+     */
+    private final Map<String, FeatureIndex> name2Index = new HashMap<String, FeatureIndex>();
+
+    /**
+     * The attached scope.
+     */
+    private final Notifier scope;
+
+    private InverseReferenceIndex(final Notifier scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Gets the elements which reference the target through a feature.
+     *
+     * @param target
+     *            is the referenced element
+     * @param featureName
+     *            is the name of the feature of the referencing elements
+     * @return the referencing elements, an unmodifiable collection
+     */
+    public static Collection<EObject> getInverseReferences(final EObject target, final String featureName) {
+        final InverseReferenceIndex index = InverseReferenceIndex.getIndex(target);
+        final Collection<EObject> indexed = index.getIndexedReferences(target, featureName);
+        final Collection<EObject> navigable = InverseReferenceIndex.getNavigableReferences(target, featureName);
+        if (navigable.isEmpty()) {
+            return Collections.unmodifiableCollection(indexed);
+        } else if (indexed.isEmpty()) {
+            return Collections.unmodifiableCollection(navigable);
+        }
+        final Collection<EObject> result = new LinkedHashSet<EObject>(indexed);
+        result.addAll(navigable);
+        return Collections.unmodifiableCollection(result);
+    }
+
+    /**
+     * Gets the index of the scope of the target, attaching it the first time.
+     */
+    private static InverseReferenceIndex getIndex(final EObject target) {
+        final Notifier scope;
+        final Resource resource = target.eResource();
+        if (resource != null && resource.getResourceSet() != null) {
+            scope = resource.getResourceSet();
+        } else if (resource != null) {
+            scope = resource;
+        } else {
+            scope = EcoreUtil.getRootContainer(target);
+        }
+        synchronized (EAdapters.LOCK) {
+            InverseReferenceIndex index = (InverseReferenceIndex) EcoreUtil.getExistingAdapter(scope, InverseReferenceIndex.class);
+            if (index == null) {
+                index = new InverseReferenceIndex(scope);
+                scope.eAdapters().add(index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Gets the elements which reference the target through a feature without
+     * opposite.
+     *
+     * @return a copy of the indexed elements
+     */
+    private synchronized Collection<EObject> getIndexedReferences(final EObject target, final String featureName) {
+        FeatureIndex index = name2Index.get(featureName);
+        if (index == null) {
+            index = new FeatureIndex(featureName);
+            name2Index.put(featureName, index);
+            addContents(scope, Collections.singleton(index));
+        }
+        return index.get(target);
+    }
+
+    /**
+     * Gets the elements which reference the target through its container or
+     * through a feature with an opposite, as the
+     * {@link ECrossReferenceAdapter} does.
+     */
+    private static Collection<EObject> getNavigableReferences(final EObject target, final String featureName) {
+        Collection<EObject> result = Collections.emptyList();
+        final EObject container = target.eContainer();
+        if (container != null && featureName.equals(target.eContainmentFeature().getName())) {
+            result = new ArrayList<EObject>();
+            result.add(container);
+        }
+        for (final EReference reference : target.eClass().getEAllReferences()) {
+            final EReference opposite = reference.getEOpposite();
+            if (opposite != null && !reference.isContainer() && featureName.equals(opposite.getName()) && target.eIsSet(reference)) {
+                if (result.isEmpty()) {
+                    result = new ArrayList<EObject>();
+                }
+                final Object value = target.eGet(reference);
+                if (reference.isMany()) {
+                    for (final Object referencing : (Collection<?>) value) {
+                        result.add((EObject) referencing);
+                    }
+                } else {
+                    result.add((EObject) value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.eclipse.emf.common.notify.impl.AdapterImpl#isAdapterForType(java.lang.Object)
+     */
+    @Override
+    public boolean isAdapterForType(final Object type) {
+        return type == InverseReferenceIndex.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.eclipse.emf.common.notify.impl.AdapterImpl#notifyChanged(org.eclipse.emf.common.notify.Notification)
+     */
+    @Override
+    public void notifyChanged(final Notification notification) {
+        if (notification.getEventType() == Notification.REMOVING_ADAPTER) {
+            // Received with the lock of the adapters
+            return;
+        }
+        final Object notifier = notification.getNotifier();
+        synchronized (this) {
+            if (name2Index.isEmpty()) {
+                return;
+            }
+            if (notifier instanceof ResourceSet) {
+                if (notification.getFeatureID(ResourceSet.class) == ResourceSet.RESOURCE_SET__RESOURCES) {
+                    contentsChanged(notification);
+                }
+            } else if (notifier instanceof Resource) {
+                if (notification.getFeatureID(Resource.class) == Resource.RESOURCE__CONTENTS) {
+                    contentsChanged(notification);
+                }
+            } else if (notifier instanceof EObject && notification.getFeature() instanceof EReference) {
+                final EReference reference = (EReference) notification.getFeature();
+                if (reference.isContainment()) {
+                    contentsChanged(notification);
+                } else {
+                    final FeatureIndex index = name2Index.get(reference.getName());
+                    if (index != null) {
+                        index.notifyChanged(notification);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the elements added to the scope, and forgets the elements
+     * removed from the scope. The elements moved in a list stay indexed.
+     */
+    private void contentsChanged(final Notification notification) {
+        switch (notification.getEventType()) {
+        case Notification.SET:
+        case Notification.UNSET:
+            removed(notification.getOldValue());
+            added(notification.getNewValue());
+            break;
+        case Notification.ADD:
+            added(notification.getNewValue());
+            break;
+        case Notification.ADD_MANY:
+            for (final Object value : (Collection<?>) notification.getNewValue()) {
+                added(value);
+            }
+            break;
+        case Notification.REMOVE:
+            removed(notification.getOldValue());
+            break;
+        case Notification.REMOVE_MANY:
+            for (final Object value : (Collection<?>) notification.getOldValue()) {
+                removed(value);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Indexes the elements of a resource or of a tree added to the scope. The
+     * observed elements are already indexed : they have been moved.
+     */
+    private void added(final Object value) {
+        if (value instanceof Notifier && !EAdapters.contains((Notifier) value, this)) {
+            addContents(value, name2Index.values());
+        }
+    }
+
+    /**
+     * Forgets the elements of a resource or of a tree removed from the scope,
+     * and stops observing them. The elements still in the scope have been
+     * moved.
+     */
+    private void removed(final Object value) {
+        if (value instanceof Resource && ((Resource) value).getResourceSet() != scope) {
+            forget((Resource) value);
+            for (final Iterator<EObject> it = EcoreUtil.getAllProperContents((Resource) value, false); it.hasNext();) {
+                remove(it.next());
+            }
+        } else if (value instanceof EObject && !isInScope((EObject) value)) {
+            remove((EObject) value);
+            for (final Iterator<EObject> it = EcoreUtil.getAllProperContents((EObject) value, false); it.hasNext();) {
+                remove(it.next());
+            }
+        }
+    }
+
+    private boolean isInScope(final EObject element) {
+        final Resource resource = element.eResource();
+        if (scope instanceof ResourceSet) {
+            return resource != null && resource.getResourceSet() == scope;
+        } else if (scope instanceof Resource) {
+            return resource == scope;
+        }
+        return EcoreUtil.isAncestor((EObject) scope, element);
+    }
+
+    /**
+     * Indexes the elements of the resource set, of the resource or of the
+     * tree in the given indexes, and observes them if needed.
+     */
+    private void addContents(final Object value, final Collection<FeatureIndex> indexes) {
+        if (value instanceof ResourceSet) {
+            for (final Resource resource : new ArrayList<Resource>(((ResourceSet) value).getResources())) {
+                addContents(resource, indexes);
+            }
+        } else if (value instanceof Resource) {
+            observe((Resource) value);
+            for (final Iterator<EObject> it = EcoreUtil.getAllProperContents((Resource) value, false); it.hasNext();) {
+                add(it.next(), indexes);
+            }
+        } else if (value instanceof EObject) {
+            add((EObject) value, indexes);
+            for (final Iterator<EObject> it = EcoreUtil.getAllProperContents((EObject) value, false); it.hasNext();) {
+                add(it.next(), indexes);
+            }
+        }
+    }
+
+    /**
+     * Indexes an element. It is observed if it has indexed references or if
+     * it may contain new elements.
+     */
+    private void add(final EObject element, final Collection<FeatureIndex> indexes) {
+        boolean observed = !element.eClass().getEAllContainments().isEmpty();
+        for (final FeatureIndex index : indexes) {
+            observed = index.add(element) || observed;
+        }
+        if (observed) {
+            observe(element);
+        }
+    }
+
+    /**
+     * Forgets an element. Only the observed elements have been indexed.
+     */
+    private void remove(final EObject element) {
+        if (EAdapters.contains(element, this)) {
+            for (final FeatureIndex index : name2Index.values()) {
+                index.remove(element);
+            }
+            forget(element);
+        }
+    }
+
+    private void observe(final Notifier notifier) {
+        if (notifier != scope) {
+            EAdapters.add(notifier, this);
+        }
+    }
+
+    private void forget(final Notifier notifier) {
+        if (notifier != scope) {
+            EAdapters.remove(notifier, this);
+        }
+    }
+
+    /**
+     * The inverse references of the features of a name : for each target, the
+     * referencing elements and the number of references.
+     */
+    private static final class FeatureIndex {
+
+        private final String featureName;
+
+        /**
+         * The indexed references of each class.
+         */
+        private final Map<EClass, EReference[]> class2References = new HashMap<EClass, EReference[]>();
+
+        private final Map<EObject, Map<EObject, Integer>> target2Referencing = new HashMap<EObject, Map<EObject, Integer>>();
+
+        /**
+         * The references to the unresolved proxies, by URI.
+         */
+        private final Map<URI, Map<EObject, Integer>> proxy2Referencing = new HashMap<URI, Map<EObject, Integer>>();
+
+        FeatureIndex(final String featureName) {
+            this.featureName = featureName;
+        }
+
+        /**
+         * Gets a copy of the elements which reference the target.
+         */
+        Collection<EObject> get(final EObject target) {
+            final Map<EObject, Integer> referencing = target2Referencing.get(target);
+            Map<EObject, Integer> proxyReferencing = null;
+            if (!proxy2Referencing.isEmpty()) {
+                proxyReferencing = proxy2Referencing.get(EcoreUtil.getURI(target));
+            }
+            if (proxyReferencing == null) {
+                return referencing != null ? new ArrayList<EObject>(referencing.keySet()) : Collections.<EObject> emptyList();
+            } else if (referencing == null) {
+                return new ArrayList<EObject>(proxyReferencing.keySet());
+            }
+            final Collection<EObject> result = new LinkedHashSet<EObject>(referencing.keySet());
+            result.addAll(proxyReferencing.keySet());
+            return result;
+        }
+
+        /**
+         * Gets the references of the class which are indexed.
+         */
+        private EReference[] getReferences(final EClass eClass) {
+            EReference[] result = class2References.get(eClass);
+            if (result == null) {
+                final List<EReference> references = new ArrayList<EReference>();
+                for (final EReference reference : eClass.getEAllReferences()) {
+                    if (featureName.equals(reference.getName()) && isIndexed(reference)) {
+                        references.add(reference);
+                    }
+                }
+                result = references.toArray(new EReference[references.size()]);
+                class2References.put(eClass, result);
+            }
+            return result;
+        }
+
+        private boolean isIndexed(final EReference reference) {
+            return !reference.isDerived() && reference.getEOpposite() == null && !reference.isContainment() && !reference.isContainer();
+        }
+
+        private boolean isIndexed(final EClass eClass, final EReference reference) {
+            for (final EReference indexed : getReferences(eClass)) {
+                if (indexed == reference) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Indexes the references of an element.
+         *
+         * @return true if the class of the element has indexed references
+         */
+        boolean add(final EObject referencing) {
+            final EReference[] references = getReferences(referencing.eClass());
+            for (final EReference reference : references) {
+                if (referencing.eIsSet(reference)) {
+                    final Object value = referencing.eGet(reference, false);
+                    if (reference.isMany()) {
+                        for (final Object target : (Collection<?>) value) {
+                            add(target, referencing);
+                        }
+                    } else {
+                        add(value, referencing);
+                    }
+                }
+            }
+            return references.length > 0;
+        }
+
+        /**
+         * Removes the references of an element from the index.
+         */
+        void remove(final EObject referencing) {
+            for (final EReference reference : getReferences(referencing.eClass())) {
+                if (referencing.eIsSet(reference)) {
+                    final Object value = referencing.eGet(reference, false);
+                    if (reference.isMany()) {
+                        for (final Object target : (Collection<?>) value) {
+                            remove(target, referencing);
+                        }
+                    } else {
+                        remove(value, referencing);
+                    }
+                }
+            }
+        }
+
+        void notifyChanged(final Notification notification) {
+            final EObject referencing = (EObject) notification.getNotifier();
+            final EReference reference = (EReference) notification.getFeature();
+            if (!isIndexed(referencing.eClass(), reference)) {
+                return;
+            }
+            switch (notification.getEventType()) {
+            case Notification.SET:
+            case Notification.UNSET:
+            case Notification.RESOLVE:
+                remove(notification.getOldValue(), referencing);
+                add(notification.getNewValue(), referencing);
+                break;
+            case Notification.ADD:
+                add(notification.getNewValue(), referencing);
+                break;
+            case Notification.ADD_MANY:
+                for (final Object target : (Collection<?>) notification.getNewValue()) {
+                    add(target, referencing);
+                }
+                break;
+            case Notification.REMOVE:
+                remove(notification.getOldValue(), referencing);
+                break;
+            case Notification.REMOVE_MANY:
+                for (final Object target : (Collection<?>) notification.getOldValue()) {
+                    remove(target, referencing);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void add(final Object target, final EObject referencing) {
+            if (target instanceof EObject) {
+                final EObject eTarget = (EObject) target;
+                Map<EObject, Integer> counts;
+                if (eTarget.eIsProxy()) {
+                    final URI uri = ((InternalEObject) eTarget).eProxyURI();
+                    counts = proxy2Referencing.get(uri);
+                    if (counts == null) {
+                        counts = new LinkedHashMap<EObject, Integer>();
+                        proxy2Referencing.put(uri, counts);
+                    }
+                } else {
+                    counts = target2Referencing.get(eTarget);
+                    if (counts == null) {
+                        counts = new LinkedHashMap<EObject, Integer>();
+                        target2Referencing.put(eTarget, counts);
+                    }
+                }
+                final Integer count = counts.get(referencing);
+                counts.put(referencing, Integer.valueOf(count != null ? count.intValue() + 1 : 1));
+            }
+        }
+
+        private void remove(final Object target, final EObject referencing) {
+            if (target instanceof EObject) {
+                final EObject eTarget = (EObject) target;
+                Map<?, Map<EObject, Integer>> index = target2Referencing;
+                Object key = eTarget;
+                if (eTarget.eIsProxy() && !target2Referencing.containsKey(eTarget)) {
+                    // A target indexed before its unloading is still indexed
+                    // by itself
+                    index = proxy2Referencing;
+                    key = ((InternalEObject) eTarget).eProxyURI();
+                }
+                final Map<EObject, Integer> counts = index.get(key);
+                if (counts != null) {
+                    final Integer count = counts.get(referencing);
+                    if (count == null || count.intValue() <= 1) {
+                        counts.remove(referencing);
+                        if (counts.isEmpty()) {
+                            index.remove(key);
+                        }
+                    } else {
+                        counts.put(referencing, Integer.valueOf(count.intValue() - 1));
+                    }
+                }
+            }
+        }
+
+    }
+
+}
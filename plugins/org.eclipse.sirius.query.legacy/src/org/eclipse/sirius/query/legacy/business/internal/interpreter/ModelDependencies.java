@@ -0,0 +1,551 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.business.internal.interpreter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.ecore.tools.EAdapters;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
+
+/**
+ * The model reads of the results kept by a cache, and the adapters which
+ * discard these results when the model changes.
+ * <p>
+ * The reads of an evaluation are recorded by a {@link Recording}. The model
+ * elements are observed as soon as they are read, before the result is
+ * cached : a change of an observed element between the start of a recording
+ * and {@link #add(Object, Recording)} makes the recording stale, and its
+ * result isn't kept.
+ * <p>
+ * The results which have read the contents of an element depend on the
+ * containment features of its whole tree : a single content adapter observes
+ * the tree of its root container.
+ * <p>
+ * The adapters are installed once, and they stay on the model until
+ * {@link #clear()} : the evaluations which read the same elements don't add
+ * and remove them again.
+ * <p>
+ * All the methods are called with the lock of the owner, which is also taken
+ * by the notifications. The adapters are added and removed with the lock of
+ * {@link EAdapters}, taken inside the lock of the owner.
+ *
+ * @param <K>
+ *            the type of the keys of the results
+ */
+final class ModelDependencies<K> {
+
+    /**
+     * The cache whose results depend on the model.
+     *
+     * @param <K>
+     *            the type of the keys of the results
+     */
+    interface Owner<K> {
+
+        /**
+         * Discards results whose reads have changed. This is called with the
+         * lock of the owner.
+         *
+         * @param keys
+         *            the keys of the results.
+         */
+        void invalidate(Collection<K> keys);
+    }
+
+    /**
+     * The key of the results depending on all the features of an element.
+     */
+    private static final Object ANY_FEATURE = new Object();
+
+    private final Object lock;
+
+    private final Owner<K> owner;
+
+    /**
+     * The results depending on each feature of each element : EObject ->
+     * (EStructuralFeature or ANY_FEATURE -> keys).
+     */
+    private final Map<EObject, Map<Object, Set<K>>> dependencies = new IdentityHashMap<EObject, Map<Object, Set<K>>>();
+
+    /**
+     * The results depending on the contents of each element.
+     */
+    private final Map<EObject, Set<K>> contentsDependencies = new IdentityHashMap<EObject, Set<K>>();
+
+    /**
+     * The elements observed by the invalidation adapter. Model elements don't
+     * redefine equals, and the elements deleted from the model are released.
+     */
+    private final Set<EObject> observed = Collections.newSetFromMap(new WeakHashMap<EObject, Boolean>());
+
+    /**
+     * The content adapter of each observed tree, by root container.
+     */
+    private final Map<EObject, ContentsAdapter> contentsAdapters = new IdentityHashMap<EObject, ContentsAdapter>();
+
+    private final Object adapterType;
+
+    private final InvalidationAdapter adapter;
+
+    /**
+     * The number of changes of the observed elements.
+     */
+    private long changeCount;
+
+    /**
+     * The number of calls of {@link #clear()} : the recordings started before
+     * the last one don't observe the model anymore.
+     */
+    private int generation;
+
+    /**
+     * Constructor.
+     *
+     * @param lock
+     *            the lock of the owner.
+     * @param owner
+     *            the cache whose results depend on the model.
+     * @param adapterType
+     *            the type of the adapters, for
+     *            {@link org.eclipse.emf.common.notify.Adapter#isAdapterForType(Object)}
+     *            .
+     */
+    ModelDependencies(final Object lock, final Owner<K> owner, final Object adapterType) {
+        this.lock = lock;
+        this.owner = owner;
+        this.adapterType = adapterType;
+        this.adapter = new InvalidationAdapter();
+    }
+
+    /**
+     * Starts to record the reads of an evaluation on the current thread.
+     *
+     * @return the recording, it has to be given to {@link #end(Recording)}.
+     */
+    Recording start() {
+        return new Recording(this);
+    }
+
+    /**
+     * Tells whether the elements read by a recording have changed since they
+     * have been read.
+     *
+     * @param recording
+     *            the stopped recording.
+     * @return <code>true</code> if the result of the recording may be kept.
+     */
+    boolean isUpToDate(final Recording recording) {
+        return recording.startChangeCount == changeCount;
+    }
+
+    /**
+     * Adds the dependencies of a result.
+     *
+     * @param key
+     *            the key of the result.
+     * @param recording
+     *            the stopped recording of the result.
+     */
+    void add(final K key, final Recording recording) {
+        final EDependencyRecorder recorder = recording.getRecorder();
+        for (final Map.Entry<EObject, Set<EStructuralFeature>> dependency : ModelDependencies.features(recorder).entrySet()) {
+            for (final EStructuralFeature feature : dependency.getValue()) {
+                addDependency(dependency.getKey(), feature, key);
+            }
+        }
+        for (final EObject object : ModelDependencies.objects(recorder)) {
+            addDependency(object, ANY_FEATURE, key);
+        }
+        for (final EObject root : ModelDependencies.contents(recorder)) {
+            Set<K> keys = contentsDependencies.get(root);
+            if (keys == null) {
+                keys = new HashSet<K>();
+                contentsDependencies.put(root, keys);
+            }
+            keys.add(key);
+            observeContents(root);
+        }
+    }
+
+    /**
+     * Removes the dependencies of a result. The elements stay observed.
+     *
+     * @param key
+     *            the key of the result.
+     * @param recorder
+     *            the recorder of the result.
+     */
+    void remove(final K key, final EDependencyRecorder recorder) {
+        for (final Map.Entry<EObject, Set<EStructuralFeature>> dependency : ModelDependencies.features(recorder).entrySet()) {
+            for (final EStructuralFeature feature : dependency.getValue()) {
+                removeDependency(dependency.getKey(), feature, key);
+            }
+        }
+        for (final EObject object : ModelDependencies.objects(recorder)) {
+            removeDependency(object, ANY_FEATURE, key);
+        }
+        for (final EObject root : ModelDependencies.contents(recorder)) {
+            final Set<K> keys = contentsDependencies.get(root);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    contentsDependencies.remove(root);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends a recording : it is stopped. The elements it has read stay
+     * observed.
+     *
+     * @param recording
+     *            the recording.
+     */
+    void end(final Recording recording) {
+        recording.stop();
+    }
+
+    /**
+     * Forgets all the dependencies and stops observing the model.
+     */
+    void clear() {
+        for (final EObject object : new ArrayList<EObject>(observed)) {
+            EAdapters.remove(object, adapter);
+        }
+        observed.clear();
+        for (final Map.Entry<EObject, ContentsAdapter> entry : contentsAdapters.entrySet()) {
+            EAdapters.remove(entry.getKey(), entry.getValue());
+        }
+        contentsAdapters.clear();
+        dependencies.clear();
+        contentsDependencies.clear();
+        changeCount++;
+        generation++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<EObject, Set<EStructuralFeature>> features(final EDependencyRecorder recorder) {
+        return recorder.getFeatures();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<EObject> objects(final EDependencyRecorder recorder) {
+        return recorder.getObjects();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<EObject> contents(final EDependencyRecorder recorder) {
+        return recorder.getContents();
+    }
+
+    private void observe(final EObject object) {
+        if (observed.add(object)) {
+            EAdapters.add(object, adapter);
+        }
+    }
+
+    /**
+     * Observes the tree of the root container of an element, if it isn't
+     * observed yet.
+     */
+    private void observeContents(final EObject object) {
+        final EObject root = EcoreUtil.getRootContainer(object);
+        if (!contentsAdapters.containsKey(root)) {
+            final ContentsAdapter contentsAdapter = new ContentsAdapter(root);
+            contentsAdapters.put(root, contentsAdapter);
+            EAdapters.add(root, contentsAdapter);
+        }
+    }
+
+    private void addDependency(final EObject object, final Object feature, final K key) {
+        Map<Object, Set<K>> feature2Keys = dependencies.get(object);
+        if (feature2Keys == null) {
+            feature2Keys = new HashMap<Object, Set<K>>();
+            dependencies.put(object, feature2Keys);
+        }
+        Set<K> keys = feature2Keys.get(feature);
+        if (keys == null) {
+            keys = new HashSet<K>();
+            feature2Keys.put(feature, keys);
+        }
+        keys.add(key);
+        observe(object);
+    }
+
+    private void removeDependency(final EObject object, final Object feature, final K key) {
+        final Map<Object, Set<K>> feature2Keys = dependencies.get(object);
+        if (feature2Keys != null) {
+            final Set<K> keys = feature2Keys.get(feature);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    feature2Keys.remove(feature);
+                }
+            }
+            if (feature2Keys.isEmpty()) {
+                dependencies.remove(object);
+            }
+        }
+    }
+
+    private void changed(final EObject object, final Object feature) {
+        changeCount++;
+        final Map<Object, Set<K>> feature2Keys = dependencies.get(object);
+        if (feature2Keys != null) {
+            final List<K> keys = new ArrayList<K>();
+            if (feature == null) {
+                for (final Set<K> featureKeys : feature2Keys.values()) {
+                    keys.addAll(featureKeys);
+                }
+            } else {
+                ModelDependencies.addAll(keys, feature2Keys.get(feature));
+                ModelDependencies.addAll(keys, feature2Keys.get(ANY_FEATURE));
+            }
+            if (!keys.isEmpty()) {
+                owner.invalidate(keys);
+            }
+        }
+    }
+
+    /**
+     * Discards the results which have read the contents of the changed
+     * container or of one of its ancestors, and the results which have read
+     * the contents of a removed element or of one of its descendants : they
+     * are no longer observed.
+     */
+    private void contentsChanged(final EObject container, final Notification msg) {
+        changeCount++;
+        if (contentsDependencies.isEmpty()) {
+            return;
+        }
+        final List<K> keys = new ArrayList<K>();
+        for (EObject ancestor = container; ancestor != null; ancestor = ancestor.eContainer()) {
+            ModelDependencies.addAll(keys, contentsDependencies.get(ancestor));
+        }
+        final List<EObject> removed = new ArrayList<EObject>();
+        if (msg.getOldValue() instanceof EObject) {
+            removed.add((EObject) msg.getOldValue());
+        } else if (msg.getEventType() == Notification.REMOVE_MANY && msg.getOldValue() instanceof Collection<?>) {
+            for (final Object value : (Collection<?>) msg.getOldValue()) {
+                if (value instanceof EObject) {
+                    removed.add((EObject) value);
+                }
+            }
+        }
+        if (!removed.isEmpty()) {
+            for (final Map.Entry<EObject, Set<K>> entry : contentsDependencies.entrySet()) {
+                for (final EObject element : removed) {
+                    if (EcoreUtil.isAncestor(element, entry.getKey())) {
+                        keys.addAll(entry.getValue());
+                        break;
+                    }
+                }
+            }
+        }
+        if (!keys.isEmpty()) {
+            owner.invalidate(keys);
+        }
+    }
+
+    private static <K> void addAll(final List<K> keys, final Set<K> toAdd) {
+        if (toAdd != null) {
+            keys.addAll(toAdd);
+        }
+    }
+
+    /**
+     * The reads of an evaluation. The elements are observed from their first
+     * read.
+     */
+    static final class Recording implements EDependencyRecorder.Listener {
+
+        private final ModelDependencies<?> dependencies;
+
+        private final long startChangeCount;
+
+        private final int startGeneration;
+
+        private final EDependencyRecorder recorder;
+
+        private boolean stopped;
+
+        Recording(final ModelDependencies<?> dependencies) {
+            this.dependencies = dependencies;
+            synchronized (dependencies.lock) {
+                startChangeCount = dependencies.changeCount;
+                startGeneration = dependencies.generation;
+            }
+            recorder = EDependencyRecorder.start(this);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder.Listener#objectRead(org.eclipse.emf.ecore.EObject)
+         */
+        public void objectRead(final EObject object) {
+            synchronized (dependencies.lock) {
+                if (startGeneration == dependencies.generation) {
+                    dependencies.observe(object);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder.Listener#contentsRead(org.eclipse.emf.ecore.EObject)
+         */
+        public void contentsRead(final EObject root) {
+            synchronized (dependencies.lock) {
+                if (startGeneration == dependencies.generation) {
+                    dependencies.observeContents(root);
+                }
+            }
+        }
+
+        /**
+         * Ends this recording, even if its cache has been cleared or
+         * deactivated since its start.
+         */
+        void end() {
+            synchronized (dependencies.lock) {
+                dependencies.end(this);
+            }
+        }
+
+        /**
+         * Stops the recorder of the current thread, once the evaluation is
+         * done.
+         */
+        void stop() {
+            if (!stopped) {
+                stopped = true;
+                recorder.stop();
+            }
+        }
+
+        /**
+         * @return the recorder.
+         */
+        EDependencyRecorder getRecorder() {
+            return recorder;
+        }
+    }
+
+    /**
+     * Discards the results depending on the changed feature of the notifier.
+     */
+    private class InvalidationAdapter extends AdapterImpl {
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see org.eclipse.emf.common.notify.impl.AdapterImpl#notifyChanged(org.eclipse.emf.common.notify.Notification)
+         */
+        @Override
+        public void notifyChanged(final Notification msg) {
+            if (!msg.isTouch() && msg.getEventType() != Notification.REMOVING_ADAPTER && msg.getNotifier() instanceof EObject) {
+                synchronized (lock) {
+                    changed((EObject) msg.getNotifier(), msg.getFeature());
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see org.eclipse.emf.common.notify.impl.AdapterImpl#isAdapterForType(java.lang.Object)
+         */
+        @Override
+        public boolean isAdapterForType(final Object type) {
+            return type == adapterType;
+        }
+    }
+
+    /**
+     * Discards the results depending on the contents of the elements of a tree
+     * when one of its containment features changes. When the tree is added in
+     * an observed tree, the adapter of the new root reports the changes.
+     */
+    private class ContentsAdapter extends EContentAdapter {
+
+        private final EObject root;
+
+        ContentsAdapter(final EObject root) {
+            this.root = root;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The proxies aren't resolved : a resource mustn't be loaded with the
+         * lock of the adapters.
+         *
+         * @see org.eclipse.emf.ecore.util.EContentAdapter#resolve()
+         */
+        @Override
+        protected boolean resolve() {
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see org.eclipse.emf.ecore.util.EContentAdapter#notifyChanged(org.eclipse.emf.common.notify.Notification)
+         */
+        @Override
+        public void notifyChanged(final Notification msg) {
+            // The content adapter installs itself on the new contents
+            synchronized (EAdapters.LOCK) {
+                super.notifyChanged(msg);
+            }
+            if (!msg.isTouch() && msg.getFeature() instanceof EReference && ((EReference) msg.getFeature()).isContainment() && msg.getNotifier() instanceof EObject) {
+                final EObject container = (EObject) msg.getNotifier();
+                synchronized (lock) {
+                    final EObject currentRoot = EcoreUtil.getRootContainer(container);
+                    if (currentRoot == root || !contentsAdapters.containsKey(currentRoot)) {
+                        contentsChanged(container, msg);
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see org.eclipse.emf.common.notify.impl.AdapterImpl#isAdapterForType(java.lang.Object)
+         */
+        @Override
+        public boolean isAdapterForType(final Object type) {
+            return type == adapterType;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.eclipse.emf.ecore.util.ECrossReferenceAdapter;
 import org.eclipse.sirius.ecore.extender.business.api.accessor.exception.FeatureNotFoundException;
 import org.eclipse.sirius.query.legacy.AcceleoInterpreterPlugin;
 import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxExceptions;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
@@ -105,9 +106,15 @@ public class SmartSpecificScript extends SpecificScript {
         final String name = call.getLink();
         ENode result = interpreter.getFromCache(node, name, args);
         if (result == null) {
-            result = super.eGet(call, node, args, mode, recursiveSearch);
-            if (result != null) {
-                interpreter.cache(node, name, args, result);
+            final ModelDependencies.Recording recording = interpreter.startCaching(name, args);
+            try {
+                result = super.eGet(call, node, args, mode, recursiveSearch);
+                if (result != null && recording != null) {
+                    recording.stop();
+                    interpreter.cache(node, name, args, recording, result);
+                }
+            } finally {
+                interpreter.endCaching(recording);
             }
         }
         return result;
@@ -141,7 +148,12 @@ public class SmartSpecificScript extends SpecificScript {
         if (result == null && node.isEObject()) {
             try {
                 final EObject cur = node.getEObject();
-                if (this.interpreter.accessor != null && this.interpreter.accessor.eValid(cur, name)) {
+                /*
+                 * The intrinsic features are read by the evaluation of the
+                 * model, which records them and binds the call sites.
+                 */
+                if (this.interpreter.accessor != null && cur.eClass().getEStructuralFeature(name) == null && this.interpreter.accessor.eValid(cur, name)) {
+                    EDependencyRecorder.untrackedRead();
                     final Object res = this.interpreter.accessor.eGet(cur, name);
                     result = ENode.createTry(res, node);
                 }
@@ -159,19 +171,16 @@ public class SmartSpecificScript extends SpecificScript {
 
     private ENode getInverseReference(final ENode node, final String name) throws ENodeCastException {
         ENode result = null;
-        if (crossReferencer != null) {
+        if (name.length() > INVERSE_KEYWORD.length()) {
+            EDependencyRecorder.untrackedRead();
+            final String inverseName = name.substring(INVERSE_KEYWORD.length());
+            result = ENode.createTry(InverseReferenceIndex.getInverseReferences(node.getEObject(), inverseName), node);
+        } else if (crossReferencer != null) {
+            EDependencyRecorder.untrackedRead();
             final Collection<EStructuralFeature.Setting> settings = crossReferencer.getInverseReferences(node.getEObject());
-            String inverseName = null;
-            if (name.length() > INVERSE_KEYWORD.length()) {
-                inverseName = name.substring(INVERSE_KEYWORD.length());
-            }
             final Collection<EObject> referencing = new HashSet<EObject>(settings.size());
             for (final EStructuralFeature.Setting setting : settings) {
-                if (inverseName == null) {
-                    referencing.add(setting.getEObject());
-                } else if (setting.getEStructuralFeature().getName().equals(inverseName)) {
-                    referencing.add(setting.getEObject());
-                }
+                referencing.add(setting.getEObject());
             }
             result = ENode.createTry(referencing, node);
         }
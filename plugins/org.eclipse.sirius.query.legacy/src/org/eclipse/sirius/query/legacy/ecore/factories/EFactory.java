@@ -28,7 +28,9 @@ import org.eclipse.emf.ecore.EPackage;
 import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.sirius.query.legacy.ecore.AcceleoEcoreMessages;
 import org.eclipse.sirius.query.legacy.ecore.AcceleoEcorePlugin;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.ecore.tools.ETools;
+import org.eclipse.sirius.query.legacy.ecore.tools.ETypeConformance;
 
 /**
  * This is a factory for an ecore metamodel. There is a factory by package. Each
@@ -341,14 +343,37 @@ public class EFactory {
         Object result;
         EStructuralFeature feature = EFactory.doGetFeature(object, name);
         if (feature != null) {
+            EDependencyRecorder.featureRead(object, feature);
             result = object.eGet(feature);
         } else {
             try {
                 result = EFactory.eCall(object, name, null);
+                EDependencyRecorder.untrackedRead();
             } catch (FactoryException eCall) {
                 throw new FactoryException(AcceleoEcoreMessages.getString("EFactory.UnresolvedLink", new Object[] { name, object.eClass().getName(), })); //$NON-NLS-1$
             }
         }
+        return EFactory.adaptValue(result, adpatEnum);
+    }
+
+    /**
+     * Gets the value of the given feature of the object. The feature has
+     * already been resolved for the type of the object.
+     * 
+     * @param object
+     *            is the object
+     * @param feature
+     *            is a feature of the type of the object
+     * @param adpatEnum
+     *            to adapt automatically an enumerator
+     * @return the value of the given feature of the object
+     */
+    public static Object eGet(EObject object, EStructuralFeature feature, boolean adpatEnum) {
+        EDependencyRecorder.featureRead(object, feature);
+        return EFactory.adaptValue(object.eGet(feature), adpatEnum);
+    }
+
+    private static Object adaptValue(Object result, boolean adpatEnum) {
         if (result != null && result instanceof Enumerator) {
             if (adpatEnum) {
                 return ((Enumerator) result).getLiteral();
@@ -514,32 +539,43 @@ public class EFactory {
         if (object == null) {
             return (name == null);
         }
+        return EFactory.eInstanceOf(object.eClass(), name);
+    }
+
+    /**
+     * Indicates if the instances of the class are instances of the class whose
+     * name is given.
+     * 
+     * @param eClass
+     *            is the class
+     * @param name
+     *            is the class name
+     * @return true if the instances of the class are instances of the class
+     *         whose name is given
+     * @see #eInstanceOf(EObject, String)
+     */
+    public static boolean eInstanceOf(EClass eClass, String name) {
         if ("EObject".equals(name) || "ecore.EObject".equals(name)) { //$NON-NLS-1$//$NON-NLS-2$
             return true;
         }
-        return EFactory.eInstanceOf(object.eClass(), name);
+        return EFactory.instanceOf.conforms(eClass, name);
     }
 
-    private static boolean eInstanceOf(EClass eClass, String name) {
-        if (name.indexOf('.') == -1 && name.equals(eClass.getName())) {
-            return true;
-        } else {
-            String instanceClassName = '.' + eClass.getInstanceClassName();
-            String endsWith = '.' + name;
-            if (instanceClassName.endsWith(endsWith)) {
+    /**
+     * Instances of a class are instances of the class whose name is given if
+     * the name is the name of the class or the end of its instance class name.
+     */
+    private static final ETypeConformance instanceOf = new ETypeConformance() {
+        protected boolean matches(EClass eClass, String name) {
+            if (name.indexOf('.') == -1 && name.equals(eClass.getName())) {
                 return true;
             } else {
-                Iterator superTypes = eClass.getESuperTypes().iterator();
-                while (superTypes.hasNext()) {
-                    EClass eSuperClass = (EClass) superTypes.next();
-                    if (EFactory.eInstanceOf(eSuperClass, name)) {
-                        return true;
-                    }
-                }
-                return false;
+                String instanceClassName = '.' + eClass.getInstanceClassName();
+                String endsWith = '.' + name;
+                return instanceClassName.endsWith(endsWith);
             }
         }
-    }
+    };
 
     /**
      * Indicates if the feature name given is valid for the object.
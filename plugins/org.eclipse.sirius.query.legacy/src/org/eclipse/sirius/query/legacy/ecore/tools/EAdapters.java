@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.ecore.tools;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notifier;
+
+/**
+ * Installs the adapters of the engine on the models : the dependencies of the
+ * evaluation caches, the content type indexes and the inverse reference
+ * indexes.
+ * <p>
+ * The lists of adapters of EMF aren't thread safe, and an interpreter in
+ * concurrent mode installs adapters from several threads. All the additions
+ * and removals are made with the same lock, {@link #LOCK}. No other lock may be
+ * taken with it : the adapters of the engine don't lock anything in setTarget,
+ * unsetTarget, or when they receive REMOVING_ADAPTER.
+ *
+ *
+ */
+public final class EAdapters {
+
+    /**
+     * The lock of the lists of adapters.
+     */
+    public static final Object LOCK = new Object();
+
+    private EAdapters() {
+        // utility class
+    }
+
+    /**
+     * Adds an adapter to a notifier, if it isn't there yet.
+     *
+     * @param notifier
+     *            is the notifier
+     * @param adapter
+     *            is the adapter
+     * @return true if the adapter has been added
+     */
+    public static boolean add(Notifier notifier, Adapter adapter) {
+        synchronized (EAdapters.LOCK) {
+            if (!notifier.eAdapters().contains(adapter)) {
+                return notifier.eAdapters().add(adapter);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Removes an adapter from a notifier.
+     *
+     * @param notifier
+     *            is the notifier
+     * @param adapter
+     *            is the adapter
+     */
+    public static void remove(Notifier notifier, Adapter adapter) {
+        synchronized (EAdapters.LOCK) {
+            notifier.eAdapters().remove(adapter);
+        }
+    }
+
+    /**
+     * Indicates if an adapter is installed on a notifier.
+     *
+     * @param notifier
+     *            is the notifier
+     * @param adapter
+     *            is the adapter
+     * @return true if the adapter is in the adapters of the notifier
+     */
+    public static boolean contains(Notifier notifier, Adapter adapter) {
+        synchronized (EAdapters.LOCK) {
+            return notifier.eAdapters().contains(adapter);
+        }
+    }
+
+}
@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.ecore.tools;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.ecore.factories.EFactory;
+
+/**
+ * Tells which classes can be found in the contents of the instances of a
+ * metamodel, to prune the traversals looking for a type.
+ * <p>
+ * Each class of the analyzed packages is given an index. For each class, a bit
+ * set holds the classes whose instances can be found (directly or indirectly)
+ * in the contents of its instances, and for each containment reference, a bit
+ * set holds the classes whose instances can be found in the values of the
+ * reference or in their contents. The subtypes of the reference types are
+ * taken into account. A traversal looking for a type name only follows the
+ * references whose bit set intersects the classes conforming to the name.
+ * <p>
+ * The analysis is recomputed when an element of a new metamodel is found.
+ *
+ *
+ */
+public class EContainmentReachability {
+
+    /**
+     * The current analysis, replaced when a package is added.
+     */
+    private volatile Analysis analysis = new Analysis(new ArrayList());
+
+    /**
+     * Adds a metamodel to the analysis.
+     *
+     * @param ePackage
+     *            is the root package of the metamodel
+     */
+    public void addMetamodel(EPackage ePackage) {
+        synchronized (this) {
+            if (!analysis.rootPackages.contains(ePackage)) {
+                List rootPackages = new ArrayList(analysis.rootPackages);
+                rootPackages.add(ePackage);
+                analysis = new Analysis(rootPackages);
+            }
+        }
+    }
+
+    /**
+     * Indicates if the contents of an instance of the class may contain an
+     * instance of the type.
+     *
+     * @param eClass
+     *            is the class
+     * @param type
+     *            is the type name
+     * @return false if no instance of the type can be found in the contents
+     */
+    public boolean mayContain(EClass eClass, String type) {
+        Analysis current = getAnalysis(eClass);
+        return current.getReachable(eClass).intersects(current.getConforming(type));
+    }
+
+    /**
+     * Indicates if the values of the containment reference, or their contents,
+     * may contain an instance of the type.
+     *
+     * @param eReference
+     *            is the containment reference
+     * @param type
+     *            is the type name
+     * @return false if no instance of the type can be found in the values
+     */
+    public boolean mayContain(EReference eReference, String type) {
+        Analysis current = getAnalysis(eReference.getEContainingClass());
+        return current.getReachable(eReference).intersects(current.getConforming(type));
+    }
+
+    /**
+     * Gets all the direct and indirect contents of the object which are
+     * instances of the type, following only the containment references which
+     * may contain an instance of the type.
+     *
+     * @param object
+     *            is the object
+     * @param type
+     *            is the type name
+     * @return the contents of the type, in document order
+     */
+    public List eAllContents(EObject object, String type) {
+        List result = new ArrayList();
+        if (mayContain(object.eClass(), type)) {
+            eAllContents(result, object, type);
+        }
+        return result;
+    }
+
+    private void eAllContents(List result, EObject object, String type) {
+        Iterator containments = object.eClass().getEAllContainments().iterator();
+        while (containments.hasNext()) {
+            EReference eReference = (EReference) containments.next();
+            if (mayContain(eReference, type)) {
+                Object value = object.eGet(eReference);
+                if (value instanceof List) {
+                    Iterator values = ((List) value).iterator();
+                    while (values.hasNext()) {
+                        eContentFound(result, (EObject) values.next(), type);
+                    }
+                } else if (value instanceof EObject) {
+                    eContentFound(result, (EObject) value, type);
+                }
+            }
+        }
+    }
+
+    private void eContentFound(List result, EObject eContent, String type) {
+        if (EFactory.eInstanceOf(eContent, type)) {
+            result.add(eContent);
+        }
+        eAllContents(result, eContent, type);
+    }
+
+    private Analysis getAnalysis(EClass eClass) {
+        Analysis current = analysis;
+        if (!current.contains(eClass)) {
+            EObject root = EcoreUtil.getRootContainer(eClass);
+            if (root instanceof EPackage) {
+                addMetamodel((EPackage) root);
+            }
+            current = analysis;
+            if (!current.contains(eClass)) {
+                // The class isn't in a package : it is analyzed alone
+                synchronized (this) {
+                    List rootPackages = new ArrayList(analysis.rootPackages);
+                    current = new Analysis(rootPackages, eClass);
+                    analysis = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The reachability of the classes of some packages.
+     */
+    private static final class Analysis {
+
+        /**
+         * The analyzed root packages.
+         */
+        final List rootPackages;
+
+        /**
+         * The index of each class : EClass -> Integer.
+         */
+        private final Map eClass2Index = new IdentityHashMap();
+
+        /**
+         * The classes, by index.
+         */
+        private final List eClasses = new ArrayList();
+
+        /**
+         * The subtypes of each class, itself included, by index.
+         */
+        private BitSet[] subTypes;
+
+        /**
+         * The classes reachable from the instances of each class, by index.
+         */
+        private BitSet[] reachable;
+
+        /**
+         * The classes reachable from each containment reference : EReference
+         * -> BitSet.
+         */
+        private final Map eReference2Reachable = new ConcurrentHashMap();
+
+        /**
+         * The classes conforming to each type name : name -> BitSet.
+         */
+        private final Map type2Conforming = new ConcurrentHashMap();
+
+        Analysis(List rootPackages) {
+            this(rootPackages, null);
+        }
+
+        Analysis(List rootPackages, EClass other) {
+            this.rootPackages = rootPackages;
+            Iterator packages = rootPackages.iterator();
+            while (packages.hasNext()) {
+                Iterator classifiers = ETools.computeAllClassifiersList((EPackage) packages.next(), false).iterator();
+                while (classifiers.hasNext()) {
+                    Object next = classifiers.next();
+                    if (next instanceof EClass) {
+                        addClass((EClass) next);
+                    }
+                }
+            }
+            if (other != null) {
+                addClass(other);
+            }
+            // The types of the references may come from other packages
+            for (int i = 0; i < eClasses.size(); i++) {
+                EClass eClass = (EClass) eClasses.get(i);
+                Iterator superTypes = eClass.getEAllSuperTypes().iterator();
+                while (superTypes.hasNext()) {
+                    addClass((EClass) superTypes.next());
+                }
+                Iterator containments = eClass.getEAllContainments().iterator();
+                while (containments.hasNext()) {
+                    EClassifier eType = ((EReference) containments.next()).getEType();
+                    if (eType instanceof EClass) {
+                        addClass((EClass) eType);
+                    }
+                }
+            }
+            computeReachable();
+        }
+
+        private void addClass(EClass eClass) {
+            if (!eClass2Index.containsKey(eClass)) {
+                eClass2Index.put(eClass, new Integer(eClasses.size()));
+                eClasses.add(eClass);
+            }
+        }
+
+        boolean contains(EClass eClass) {
+            return eClass2Index.containsKey(eClass);
+        }
+
+        private int indexOf(EClass eClass) {
+            return ((Integer) eClass2Index.get(eClass)).intValue();
+        }
+
+        private void computeReachable() {
+            int size = eClasses.size();
+            subTypes = new BitSet[size];
+            for (int i = 0; i < size; i++) {
+                subTypes[i] = new BitSet(size);
+                subTypes[i].set(i);
+            }
+            for (int i = 0; i < size; i++) {
+                Iterator superTypes = ((EClass) eClasses.get(i)).getEAllSuperTypes().iterator();
+                while (superTypes.hasNext()) {
+                    subTypes[indexOf((EClass) superTypes.next())].set(i);
+                }
+            }
+            // The direct contents
+            reachable = new BitSet[size];
+            for (int i = 0; i < size; i++) {
+                reachable[i] = new BitSet(size);
+                Iterator containments = ((EClass) eClasses.get(i)).getEAllContainments().iterator();
+                while (containments.hasNext()) {
+                    EClassifier eType = ((EReference) containments.next()).getEType();
+                    if (eType == EcorePackage.eINSTANCE.getEObject()) {
+                        reachable[i].set(0, size);
+                    } else if (eType instanceof EClass) {
+                        reachable[i].or(subTypes[indexOf((EClass) eType)]);
+                    }
+                }
+            }
+            // The indirect contents : transitive closure
+            for (int k = 0; k < size; k++) {
+                for (int i = 0; i < size; i++) {
+                    if (reachable[i].get(k)) {
+                        reachable[i].or(reachable[k]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the classes whose instances can be found in the contents of an
+         * instance of the class.
+         */
+        BitSet getReachable(EClass eClass) {
+            return reachable[indexOf(eClass)];
+        }
+
+        /**
+         * Gets the classes whose instances can be found in the values of the
+         * reference or in their contents.
+         */
+        BitSet getReachable(EReference eReference) {
+            BitSet result = (BitSet) eReference2Reachable.get(eReference);
+            if (result == null) {
+                result = new BitSet(eClasses.size());
+                EClassifier eType = eReference.getEType();
+                if (eType == EcorePackage.eINSTANCE.getEObject() || !(eType instanceof EClass) || !contains((EClass) eType)) {
+                    result.set(0, eClasses.size());
+                } else {
+                    BitSet types = subTypes[indexOf((EClass) eType)];
+                    for (int i = types.nextSetBit(0); i >= 0; i = types.nextSetBit(i + 1)) {
+                        result.set(i);
+                        result.or(reachable[i]);
+                    }
+                }
+                eReference2Reachable.put(eReference, result);
+            }
+            return result;
+        }
+
+        /**
+         * Gets the classes conforming to the type name.
+         */
+        BitSet getConforming(String type) {
+            BitSet result = (BitSet) type2Conforming.get(type);
+            if (result == null) {
+                result = new BitSet(eClasses.size());
+                for (int i = 0; i < eClasses.size(); i++) {
+                    if (EFactory.eInstanceOf((EClass) eClasses.get(i), type)) {
+                        result.set(i);
+                    }
+                }
+                type2Conforming.put(type, result);
+            }
+            return result;
+        }
+
+    }
+
+}
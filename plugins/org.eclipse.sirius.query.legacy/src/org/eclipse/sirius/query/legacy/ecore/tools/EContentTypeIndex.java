@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.ecore.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.sirius.query.legacy.ecore.factories.EFactory;
+
+/**
+ * The contents of each type of the containers of a model tree.
+ * <p>
+ * The index is an adapter of all the elements of the tree, it is found on the
+ * root of the tree. For each container and each type name queried, it keeps
+ * the contents of this type in document order. A list is computed by a
+ * {@link Collector} the first time it is queried, then it is maintained when
+ * elements are added, removed, or moved in the tree : only the moved subtrees
+ * are walked.
+ * <p>
+ * The index keeps at most {@link #MAXIMUM_SIZE} elements, the lists of the
+ * least recently queried containers are forgotten first. The index is removed
+ * from the tree when it has no list left.
+ *
+ *
+ */
+public class EContentTypeIndex extends EContentAdapter {
+
+    /**
+     * Collects the contents of a type of a model element.
+     */
+    public interface Collector {
+
+        /**
+         * Gets the direct and indirect contents of the object which are
+         * instances of the type.
+         *
+         * @param object
+         *            is the object
+         * @param type
+         *            is the type name
+         * @return the contents of the type, in document order
+         */
+        List collect(EObject object, String type);
+
+    }
+
+    /**
+     * The maximum number of elements kept in the lists of an index.
+     */
+    public static final int MAXIMUM_SIZE = 100000;
+
+    /**
+     * The root of the indexed tree.
+     */
+    private final EObject root;
+
+    /**
+     * The lock of the lists of this index.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The indexed contents, the least recently queried container first :
+     * container -> (type name -> list of EObject). Model elements don't
+     * redefine equals.
+     */
+    private final Map container2Contents = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The number of elements in the lists.
+     */
+    private int size;
+
+    /**
+     * The collector used to compute the contents of the elements added to the
+     * tree : type name -> Collector.
+     */
+    private final Map type2Collector = new HashMap();
+
+    private EContentTypeIndex(EObject root) {
+        this.root = root;
+    }
+
+    /**
+     * Gets the direct and indirect contents of the container which are
+     * instances of the type.
+     *
+     * @param container
+     *            is the container
+     * @param type
+     *            is the type name
+     * @param collector
+     *            computes the contents of an element which isn't indexed yet
+     * @return a copy of the contents of the type, in document order
+     */
+    public static List getContents(EObject container, String type, Collector collector) {
+        return EContentTypeIndex.getIndex(EcoreUtil.getRootContainer(container)).get(container, type, collector);
+    }
+
+    private static EContentTypeIndex getIndex(EObject root) {
+        // The lookup and the creation of the indexes are made with the lock of
+        // the adapters
+        synchronized (EAdapters.LOCK) {
+            Iterator adapters = root.eAdapters().iterator();
+            while (adapters.hasNext()) {
+                Adapter adapter = (Adapter) adapters.next();
+                if (adapter instanceof EContentTypeIndex) {
+                    EContentTypeIndex index = (EContentTypeIndex) adapter;
+                    if (index.root == root) {
+                        return index;
+                    }
+                }
+            }
+            // A previous root may have been added in this tree
+            Iterator contents = root.eAllContents();
+            while (contents.hasNext()) {
+                EObject content = (EObject) contents.next();
+                Iterator it = new ArrayList(content.eAdapters()).iterator();
+                while (it.hasNext()) {
+                    Adapter adapter = (Adapter) it.next();
+                    if (adapter instanceof EContentTypeIndex && ((EContentTypeIndex) adapter).root == content) {
+                        content.eAdapters().remove(adapter);
+                    }
+                }
+            }
+            EContentTypeIndex index = new EContentTypeIndex(root);
+            root.eAdapters().add(index);
+            return index;
+        }
+    }
+
+    private List get(EObject container, String type, Collector collector) {
+        synchronized (lock) {
+            Map type2Contents = (Map) container2Contents.get(container);
+            List contents = type2Contents != null ? (List) type2Contents.get(type) : null;
+            if (contents == null) {
+                contents = collector.collect(container, type);
+                if (contents.size() <= EContentTypeIndex.MAXIMUM_SIZE) {
+                    if (type2Contents == null) {
+                        type2Contents = new HashMap();
+                        container2Contents.put(container, type2Contents);
+                    }
+                    contents = new ArrayList(contents);
+                    type2Contents.put(type, contents);
+                    type2Collector.put(type, collector);
+                    size += contents.size();
+                    evictIfNeeded(type2Contents);
+                }
+            }
+            return new ArrayList(contents);
+        }
+    }
+
+    /**
+     * Forgets the lists of the least recently queried containers until the
+     * index is small enough, but the lists just queried.
+     */
+    private void evictIfNeeded(Map queried) {
+        Iterator it = container2Contents.values().iterator();
+        while (size > EContentTypeIndex.MAXIMUM_SIZE && it.hasNext()) {
+            Map type2Contents = (Map) it.next();
+            if (type2Contents != queried) {
+                it.remove();
+                size -= EContentTypeIndex.size(type2Contents);
+            }
+        }
+    }
+
+    private static int size(Map type2Contents) {
+        int result = 0;
+        Iterator lists = type2Contents.values().iterator();
+        while (lists.hasNext()) {
+            result += ((List) lists.next()).size();
+        }
+        return result;
+    }
+
+    private void forget(EObject container) {
+        Map type2Contents = (Map) container2Contents.remove(container);
+        if (type2Contents != null) {
+            size -= EContentTypeIndex.size(type2Contents);
+        }
+    }
+
+    /* (non-Javadoc) */
+    @Override
+    public boolean isAdapterForType(Object type) {
+        return type == EContentTypeIndex.class;
+    }
+
+    /* (non-Javadoc) */
+    @Override
+    public void notifyChanged(Notification notification) {
+        super.notifyChanged(notification);
+        if (notification.isTouch() || !(notification.getFeature() instanceof EReference) || !((EReference) notification.getFeature()).isContainment()
+                || !(notification.getNotifier() instanceof EObject)) {
+            return;
+        }
+        EObject parent = (EObject) notification.getNotifier();
+        synchronized (lock) {
+            if (container2Contents.isEmpty()) {
+                return;
+            }
+            switch (notification.getEventType()) {
+            case Notification.ADD:
+                added(parent, notification.getNewValue());
+                break;
+            case Notification.ADD_MANY:
+                Iterator added = ((Collection) notification.getNewValue()).iterator();
+                while (added.hasNext()) {
+                    added(parent, added.next());
+                }
+                break;
+            case Notification.REMOVE:
+                removed(parent, notification.getOldValue(), true);
+                break;
+            case Notification.REMOVE_MANY:
+                Iterator removed = ((Collection) notification.getOldValue()).iterator();
+                while (removed.hasNext()) {
+                    removed(parent, removed.next(), true);
+                }
+                break;
+            case Notification.SET:
+            case Notification.UNSET:
+                removed(parent, notification.getOldValue(), true);
+                added(parent, notification.getNewValue());
+                break;
+            case Notification.MOVE:
+                // The moved element keeps its own lists
+                removed(parent, notification.getNewValue(), false);
+                added(parent, notification.getNewValue());
+                break;
+            default:
+                break;
+            }
+            if (container2Contents.isEmpty()) {
+                EAdapters.remove(root, this);
+            }
+        }
+    }
+
+    /**
+     * Adds the contents of an element added in the tree to the lists of its
+     * containers.
+     */
+    private void added(EObject parent, Object value) {
+        if (!(value instanceof EObject)) {
+            return;
+        }
+        EObject child = (EObject) value;
+        for (EObject container = parent; container != null; container = container.eContainer()) {
+            Map type2Contents = (Map) container2Contents.get(container);
+            if (type2Contents != null) {
+                Iterator entries = type2Contents.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry entry = (Map.Entry) entries.next();
+                    String type = (String) entry.getKey();
+                    List contents = (List) entry.getValue();
+                    List childContents = new ArrayList();
+                    if (EFactory.eInstanceOf(child, type)) {
+                        childContents.add(child);
+                    }
+                    childContents.addAll(((Collector) type2Collector.get(type)).collect(child, type));
+                    if (!childContents.isEmpty()) {
+                        contents.addAll(EContentTypeIndex.insertionIndex(container, contents, child), childContents);
+                        size += childContents.size();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the contents of an element removed from the tree from the lists
+     * of its previous containers, and forgets the lists of the element and of
+     * its contents if it has been detached.
+     */
+    private void removed(EObject parent, Object value, boolean detached) {
+        if (!(value instanceof EObject)) {
+            return;
+        }
+        EObject child = (EObject) value;
+        Map subtree = new IdentityHashMap();
+        subtree.put(child, Boolean.TRUE);
+        Iterator it = child.eAllContents();
+        while (it.hasNext()) {
+            subtree.put(it.next(), Boolean.TRUE);
+        }
+        if (detached) {
+            Iterator contents = subtree.keySet().iterator();
+            while (contents.hasNext()) {
+                forget((EObject) contents.next());
+            }
+        }
+        for (EObject container = parent; container != null; container = container.eContainer()) {
+            Map type2Contents = (Map) container2Contents.get(container);
+            if (type2Contents != null) {
+                Iterator lists = type2Contents.values().iterator();
+                while (lists.hasNext()) {
+                    List contents = (List) lists.next();
+                    List kept = new ArrayList(contents.size());
+                    Iterator members = contents.iterator();
+                    while (members.hasNext()) {
+                        Object member = members.next();
+                        if (!subtree.containsKey(member)) {
+                            kept.add(member);
+                        }
+                    }
+                    if (kept.size() != contents.size()) {
+                        size -= contents.size() - kept.size();
+                        contents.clear();
+                        contents.addAll(kept);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the first element of the list which is after the given
+     * element in document order.
+     */
+    private static int insertionIndex(EObject container, List contents, EObject child) {
+        int[] childPath = EContentTypeIndex.path(container, child);
+        int low = 0;
+        int high = contents.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (EContentTypeIndex.compare(EContentTypeIndex.path(container, (EObject) contents.get(middle)), childPath) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the position of the element in the tree of the container : the
+     * index of each element of the path in the contents of its parent.
+     */
+    private static int[] path(EObject container, EObject object) {
+        List indexes = new ArrayList();
+        for (EObject current = object; current != container && current.eContainer() != null; current = current.eContainer()) {
+            indexes.add(new Integer(current.eContainer().eContents().indexOf(current)));
+        }
+        int[] path = new int[indexes.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = ((Integer) indexes.get(path.length - 1 - i)).intValue();
+        }
+        return path;
+    }
+
+    private static int compare(int[] path1, int[] path2) {
+        for (int i = 0; i < path1.length && i < path2.length; i++) {
+            if (path1[i] != path2[i]) {
+                return (path1[i] < path2[i]) ? -1 : 1;
+            }
+        }
+        return path1.length - path2.length;
+    }
+
+}
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.ecore.tools;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+/**
+ * Records the model elements and the features read by an evaluation.
+ * <p>
+ * A recorder is started on the current thread before an evaluation and stopped
+ * after it. Meanwhile, the reads of the model (EFactory.eGet, eContents,
+ * eAllContents...) and of the variables are recorded by the recorder and by
+ * the recorders started before it on the same thread. An evaluation which
+ * reads the model in a way which can't be recorded (a java service, an
+ * operation of the model...) is marked as untracked : its result can't be
+ * related to the model changes.
+ * <p>
+ * A listener given to {@link #start(Listener)} is told of the first read of
+ * each model element, before the element is read.
+ * <p>
+ * The read of the contents of an element (eAllContents) is recorded as a
+ * whole : the observer of the model has to watch the containment features of
+ * the whole tree.
+ *
+ *
+ */
+public class EDependencyRecorder {
+
+    /**
+     * Observes the model elements read by a recorder.
+     */
+    public interface Listener {
+
+        /**
+         * A model element is read for the first time by the recorder. This is
+         * called before the element is read.
+         *
+         * @param object
+         *            is the model element
+         */
+        void objectRead(EObject object);
+
+        /**
+         * The contents of a model element are read for the first time by the
+         * recorder. This is called before the contents are read.
+         *
+         * @param root
+         *            is the model element
+         */
+        void contentsRead(EObject root);
+
+    }
+
+    /**
+     * The recorder of each thread.
+     */
+    private static final ThreadLocal current = new ThreadLocal();
+
+    /**
+     * The number of recorders started on all the threads, to avoid the lookup
+     * of the recorder of the current thread when nothing is recorded.
+     */
+    private static final AtomicInteger started = new AtomicInteger();
+
+    /**
+     * The methods of the java services which read the model only through the
+     * recorded paths : Class -> Set of method names.
+     */
+    private static final Map trackedServices = new ConcurrentHashMap();
+
+    /**
+     * The recorder started before this one on the same thread, or null.
+     */
+    private final EDependencyRecorder parent;
+
+    /**
+     * The features read on each model element : EObject -> Set of
+     * EStructuralFeature.
+     */
+    private final Map object2Features = new IdentityHashMap();
+
+    /**
+     * The model elements whose all features have been read.
+     */
+    private final Map objects = new IdentityHashMap();
+
+    /**
+     * The model elements whose contents have been read.
+     */
+    private final Map contents = new IdentityHashMap();
+
+    /**
+     * The values of the variables read : name -> value.
+     */
+    private final Map variables = new HashMap();
+
+    /**
+     * Indicates if all the reads have been recorded.
+     */
+    private boolean tracked = true;
+
+    /**
+     * The listener of the reads, or null.
+     */
+    private final Listener listener;
+
+    private EDependencyRecorder(EDependencyRecorder parent, Listener listener) {
+        this.parent = parent;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a new recorder on the current thread.
+     *
+     * @return the new recorder, it has to be stopped by {@link #stop()}
+     */
+    public static EDependencyRecorder start() {
+        return EDependencyRecorder.start(null);
+    }
+
+    /**
+     * Starts a new recorder on the current thread, with a listener of the
+     * reads.
+     *
+     * @param listener
+     *            is told of the first read of each model element, or null
+     * @return the new recorder, it has to be stopped by {@link #stop()}
+     */
+    public static EDependencyRecorder start(Listener listener) {
+        EDependencyRecorder recorder = new EDependencyRecorder(EDependencyRecorder.getCurrent(), listener);
+        EDependencyRecorder.current.set(recorder);
+        EDependencyRecorder.started.incrementAndGet();
+        return recorder;
+    }
+
+    /**
+     * Stops this recorder, the previous recorder of the thread is restored.
+     */
+    public void stop() {
+        if (parent != null) {
+            EDependencyRecorder.current.set(parent);
+        } else {
+            EDependencyRecorder.current.remove();
+        }
+        EDependencyRecorder.started.decrementAndGet();
+    }
+
+    /**
+     * @return the recorder of the current thread, or null
+     */
+    public static EDependencyRecorder getCurrent() {
+        if (EDependencyRecorder.started.get() > 0) {
+            return (EDependencyRecorder) EDependencyRecorder.current.get();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if a recorder is started on the current thread
+     */
+    public static boolean isRecording() {
+        return EDependencyRecorder.getCurrent() != null;
+    }
+
+    /**
+     * Declares the methods of a java service which read the model only through
+     * the recorded paths, and whose result depends only on these reads and on
+     * their arguments : no side effect, no read of the context of the script.
+     *
+     * @param service
+     *            is the class of the service
+     * @param methodNames
+     *            are the names of the methods
+     */
+    public static void addTrackedService(Class service, String[] methodNames) {
+        EDependencyRecorder.trackedServices.put(service, new HashSet(Arrays.asList(methodNames)));
+    }
+
+    /**
+     * Records the read of a feature.
+     *
+     * @param object
+     *            is the model element
+     * @param feature
+     *            is the feature
+     */
+    public static void featureRead(EObject object, EStructuralFeature feature) {
+        for (EDependencyRecorder recorder = EDependencyRecorder.getCurrent(); recorder != null; recorder = recorder.parent) {
+            recorder.addFeature(object, feature);
+        }
+    }
+
+    /**
+     * Records the read of all the features of a model element.
+     *
+     * @param object
+     *            is the model element
+     */
+    public static void objectRead(EObject object) {
+        for (EDependencyRecorder recorder = EDependencyRecorder.getCurrent(); recorder != null; recorder = recorder.parent) {
+            recorder.addObject(object);
+        }
+    }
+
+    /**
+     * Records the read of the contents of a model element : the containment
+     * features of the element and of its children, recursively. The tree
+     * isn't walked, the contents are recorded as a whole.
+     *
+     * @param root
+     *            is the model element
+     */
+    public static void contentsRead(EObject root) {
+        for (EDependencyRecorder recorder = EDependencyRecorder.getCurrent(); recorder != null; recorder = recorder.parent) {
+            recorder.addContents(root);
+        }
+    }
+
+    /**
+     * Records the read of the containment features of a model element.
+     *
+     * @param object
+     *            is the model element
+     */
+    public static void containmentsRead(EObject object) {
+        Iterator containments = object.eClass().getEAllContainments().iterator();
+        while (containments.hasNext()) {
+            EDependencyRecorder.featureRead(object, (EReference) containments.next());
+        }
+    }
+
+    /**
+     * Records the read of a variable.
+     *
+     * @param name
+     *            is the name of the variable
+     * @param value
+     *            is the value of the variable, or null if it isn't set
+     */
+    public static void variableRead(String name, Object value) {
+        for (EDependencyRecorder recorder = EDependencyRecorder.getCurrent(); recorder != null; recorder = recorder.parent) {
+            if (!recorder.variables.containsKey(name)) {
+                recorder.variables.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * Records a read of the model which can't be tracked.
+     */
+    public static void untrackedRead() {
+        for (EDependencyRecorder recorder = EDependencyRecorder.getCurrent(); recorder != null; recorder = recorder.parent) {
+            recorder.tracked = false;
+        }
+    }
+
+    /**
+     * Records the call of a java service. The reads are untracked if the
+     * service method hasn't been declared by
+     * {@link #addTrackedService(Class, String[])}.
+     *
+     * @param method
+     *            is the method of the service
+     */
+    public static void serviceCalled(Method method) {
+        if (EDependencyRecorder.isRecording()) {
+            Set names = (Set) EDependencyRecorder.trackedServices.get(method.getDeclaringClass());
+            if (names == null || !names.contains(method.getName())) {
+                EDependencyRecorder.untrackedRead();
+            }
+        }
+    }
+
+    /**
+     * Records again the reads of a previous recorder, when the result of its
+     * evaluation is reused by the current evaluation.
+     *
+     * @param other
+     *            is the previous recorder
+     */
+    public static void replay(EDependencyRecorder other) {
+        for (EDependencyRecorder recorder = EDependencyRecorder.getCurrent(); recorder != null; recorder = recorder.parent) {
+            Iterator it = other.object2Features.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                Iterator features = ((Set) entry.getValue()).iterator();
+                while (features.hasNext()) {
+                    recorder.addFeature((EObject) entry.getKey(), (EStructuralFeature) features.next());
+                }
+            }
+            it = other.objects.keySet().iterator();
+            while (it.hasNext()) {
+                recorder.addObject((EObject) it.next());
+            }
+            it = other.contents.keySet().iterator();
+            while (it.hasNext()) {
+                recorder.addContents((EObject) it.next());
+            }
+            it = other.variables.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                if (!recorder.variables.containsKey(entry.getKey())) {
+                    recorder.variables.put(entry.getKey(), entry.getValue());
+                }
+            }
+            recorder.tracked = recorder.tracked && other.tracked;
+        }
+    }
+
+    private void addFeature(EObject object, EStructuralFeature feature) {
+        Set features = (Set) object2Features.get(object);
+        if (features == null) {
+            if (listener != null && !objects.containsKey(object)) {
+                listener.objectRead(object);
+            }
+            features = new HashSet();
+            object2Features.put(object, features);
+        }
+        features.add(feature);
+    }
+
+    private void addObject(EObject object) {
+        if (!objects.containsKey(object)) {
+            if (listener != null && !object2Features.containsKey(object)) {
+                listener.objectRead(object);
+            }
+            objects.put(object, Boolean.TRUE);
+        }
+    }
+
+    private void addContents(EObject root) {
+        if (!contents.containsKey(root)) {
+            if (listener != null) {
+                listener.contentsRead(root);
+            }
+            contents.put(root, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return true if all the reads have been recorded
+     */
+    public boolean isTracked() {
+        return tracked;
+    }
+
+    /**
+     * @return the features read on each model element : EObject -> Set of
+     *         EStructuralFeature
+     */
+    public Map getFeatures() {
+        return Collections.unmodifiableMap(object2Features);
+    }
+
+    /**
+     * @return the model elements whose all features have been read
+     */
+    public Set getObjects() {
+        return Collections.unmodifiableSet(objects.keySet());
+    }
+
+    /**
+     * @return the model elements whose contents have been read
+     */
+    public Set getContents() {
+        return Collections.unmodifiableSet(contents.keySet());
+    }
+
+    /**
+     * @return the values of the variables read : name -> value
+     */
+    public Map getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+
+}
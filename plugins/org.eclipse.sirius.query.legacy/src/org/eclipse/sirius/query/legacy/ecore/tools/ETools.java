@@ -217,6 +217,7 @@ public class ETools {
     private static Map ecore2OldModificationStamp = new HashMap();
 
     private static EPackage subEcore2EPackage(String path, boolean isExternal) {
+        ETypeConformance.invalidateAll();
         URI ecoreURI;
         if (isExternal) {
             ecoreURI = URI.createFileURI(path);
@@ -576,19 +577,23 @@ public class ETools {
      * @return true if an instance of the class is an instance of the type
      */
     public static boolean ofType(EClass eClass, String type) {
-        if ("EObject".equalsIgnoreCase(type) || "ecore.EObject".equalsIgnoreCase(type) || ETools.ofClass(eClass, type)) {
+        if ("EObject".equalsIgnoreCase(type) || "ecore.EObject".equalsIgnoreCase(type)) { //$NON-NLS-1$ //$NON-NLS-2$
             return true;
         }
-        Iterator superTypes = eClass.getESuperTypes().iterator();
-        while (superTypes.hasNext()) {
-            EClassifier superType = (EClassifier) superTypes.next();
-            if (ETools.ofType(superType, type)) {
-                return true;
-            }
-        }
-        return false;
+        // '.' + null is ".null"
+        return ETools.ofType.conforms(eClass, String.valueOf(type));
     }
 
+    /**
+     * An instance of a class is an instance of the type if the type
+     * corresponds to the name of the class.
+     */
+    private static final ETypeConformance ofType = new ETypeConformance() {
+        protected boolean matches(EClass eClass, String type) {
+            return ETools.ofClass(eClass, type);
+        }
+    };
+
     /**
      * Indicates if the type corresponds to the name of the classifier.
      * 
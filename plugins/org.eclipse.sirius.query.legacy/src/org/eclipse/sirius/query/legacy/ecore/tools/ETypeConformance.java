@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.ecore.tools;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Remembers if the instances of a class are instances of a type given by its
+ * name.
+ * <p>
+ * Each type name is given an index, and each class has two bit sets indexed by
+ * the type names : the names which have been evaluated for the class and the
+ * names the class conforms to. A class conforms to a type name if it matches
+ * the name or if one of its super types conforms to the name. Once a pair has
+ * been evaluated, the answer is read in the bit sets without any allocation.
+ * <p>
+ * The classes are weakly referenced, and all the tables are discarded when a
+ * metamodel is loaded again (see {@link #invalidateAll()}).
+ *
+ *
+ */
+public abstract class ETypeConformance {
+
+    /**
+     * All the conformance relations, to invalidate them.
+     */
+    private static final List instances = new CopyOnWriteArrayList();
+
+    /**
+     * The index of each type name : name -> Integer.
+     */
+    private final Map type2Index = new ConcurrentHashMap();
+
+    /**
+     * The conformance table of each class : EClass -> Table.
+     */
+    private final Map eClass2Table = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Constructor.
+     */
+    protected ETypeConformance() {
+        ETypeConformance.instances.add(this);
+    }
+
+    /**
+     * Discards the conformance tables of all the relations. It has to be
+     * called when a metamodel is loaded again, the classes may have changed.
+     */
+    public static void invalidateAll() {
+        Iterator it = ETypeConformance.instances.iterator();
+        while (it.hasNext()) {
+            ((ETypeConformance) it.next()).invalidate();
+        }
+    }
+
+    /**
+     * Discards the conformance tables of this relation.
+     */
+    public void invalidate() {
+        eClass2Table.clear();
+    }
+
+    /**
+     * Indicates if the class matches the type name, without considering its
+     * super types.
+     *
+     * @param eClass
+     *            is the class
+     * @param type
+     *            is the type name
+     * @return true if the class matches the type name
+     */
+    protected abstract boolean matches(EClass eClass, String type);
+
+    /**
+     * Indicates if the class or one of its super types matches the type name.
+     *
+     * @param eClass
+     *            is the class
+     * @param type
+     *            is the type name, not null
+     * @return true if the instances of the class are instances of the type
+     */
+    public boolean conforms(EClass eClass, String type) {
+        final int index = indexOf(type);
+        Table table = (Table) eClass2Table.get(eClass);
+        if (table == null) {
+            table = new Table();
+            eClass2Table.put(eClass, table);
+        }
+        int known = table.get(index);
+        if (known == Table.UNKNOWN) {
+            boolean result = matches(eClass, type);
+            Iterator superTypes = eClass.getESuperTypes().iterator();
+            while (!result && superTypes.hasNext()) {
+                result = conforms((EClass) superTypes.next(), type);
+            }
+            table.set(index, result);
+            return result;
+        } else {
+            return known == Table.TRUE;
+        }
+    }
+
+    private int indexOf(String type) {
+        Integer index = (Integer) type2Index.get(type);
+        if (index == null) {
+            synchronized (type2Index) {
+                index = (Integer) type2Index.get(type);
+                if (index == null) {
+                    index = new Integer(type2Index.size());
+                    type2Index.put(type, index);
+                }
+            }
+        }
+        return index.intValue();
+    }
+
+    /**
+     * The conformance of a class to the type names.
+     */
+    private static final class Table {
+
+        static final int UNKNOWN = -1;
+
+        static final int FALSE = 0;
+
+        static final int TRUE = 1;
+
+        /**
+         * The type names which have been evaluated.
+         */
+        private final BitSet known = new BitSet();
+
+        /**
+         * The type names the class conforms to.
+         */
+        private final BitSet values = new BitSet();
+
+        synchronized int get(int index) {
+            if (!known.get(index)) {
+                return Table.UNKNOWN;
+            }
+            return values.get(index) ? Table.TRUE : Table.FALSE;
+        }
+
+        synchronized void set(int index, boolean value) {
+            values.set(index, value);
+            known.set(index);
+        }
+
+    }
+
+}
@@ -12,6 +12,8 @@
 
 package org.eclipse.sirius.query.legacy.gen.template;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -27,7 +29,9 @@ import org.eclipse.sirius.query.legacy.gen.AcceleoGenMessages;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.eval.TextModelMapping;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateExpression;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
@@ -36,6 +40,7 @@ import org.eclipse.sirius.query.legacy.gen.template.statements.TemplateCommentSt
 import org.eclipse.sirius.query.legacy.gen.template.statements.TemplateFeatureStatement;
 import org.eclipse.sirius.query.legacy.gen.template.statements.TemplateForStatement;
 import org.eclipse.sirius.query.legacy.gen.template.statements.TemplateIfStatement;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
 import org.eclipse.sirius.query.legacy.tools.strings.Int2;
 import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
 
@@ -52,6 +57,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class Template extends TemplateNodeElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Empty template reference.
      */
@@ -202,10 +209,15 @@ public class Template extends TemplateNodeElement {
      * @throws ENodeException
      */
     public static Template from(String buffer, IScript script, EObject object) throws ENodeException {
+        final Object event = FlightRecorderEvent.PARSING.begin();
         try {
             return Template.read(buffer, script);
         } catch (final TemplateSyntaxException e) {
             throw new ENodeException(e.getMessage(), e.getPos(), script, object, true);
+        } finally {
+            if (event != null) {
+                FlightRecorderEvent.PARSING.commit(event, "expression", buffer, new Integer(buffer.length())); //$NON-NLS-1$
+            }
         }
     }
 
@@ -608,7 +620,7 @@ public class Template extends TemplateNodeElement {
      * @see ENode
      */
     public ENode evaluateWithComment(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
-        final ENode node = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+        final ENode node = new ENode(ENode.EMPTY, object, this, mode);
         String comment = eGetAsString(object, "comment"); //$NON-NLS-1$
         if (comment.length() > 0) {
             node.append(comment, TextModelMapping.HIGHLIGHTED_COMMENT);
@@ -636,24 +648,33 @@ public class Template extends TemplateNodeElement {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
+        final Profiler profiler = Profiler.enter(this, mode);
+        try {
+            return evaluateSub(object, mode);
+        } finally {
+            Profiler.exit(profiler);
+        }
+    }
+
+    private ENode evaluateSub(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
         if (mode.getMonitor() != null && mode.getMonitor().isCanceled()) {
             throw new OperationCanceledException();
         }
 
-        ENode node = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+        ENode node = new ENode(ENode.EMPTY, object, this, mode);
         boolean parentIsStatement = getParent() instanceof TemplateForStatement || getParent() instanceof TemplateIfStatement;
-        if (!parentIsStatement && currentEval.contains(object)) {
+        if (!parentIsStatement && currentEvaluations().contains(object)) {
             emptyEvaluation = true;
             throw new ENodeException(AcceleoGenMessages.getString("Template.RecursiveCall", new Object[] { toString(), }), pos, script, object, true); //$NON-NLS-1$
         } else {
             if (script != null) {
-                final ENode tmp = new ENode(object, this, mode.isSynchronize());
+                final ENode tmp = new ENode(object, this, mode);
                 script.contextPush(IScript.CURRENT_NODE, tmp);
                 script.contextPush(IScript.TEMPLATE_NODE, tmp);
             }
             try {
                 if (!parentIsStatement) {
-                    currentEval.add(object);
+                    currentEvaluations().add(object);
                 }
                 TemplateNodeElement precedingElement = null;
                 ENode precedingChild = null;
@@ -661,7 +682,7 @@ public class Template extends TemplateNodeElement {
                 while (elements.hasNext()) {
                     final TemplateNodeElement element = (TemplateNodeElement) elements.next();
                     try {
-                        if (!elements.hasNext() && element instanceof TemplateText && (node.isEObject() || node.isList() && node.getList().size() > 0 && node.getList().get(0).isEObject())
+                        if (!elements.hasNext() && element instanceof TemplateText && (node.isEObject() || node.isList() && !node.getList().isEmpty() && node.getList().get(0).isEObject())
                                 && ((TemplateText) element).getText().trim().length() == 0) {
                             break;
                         }
@@ -697,7 +718,7 @@ public class Template extends TemplateNodeElement {
                     script.contextPop(IScript.TEMPLATE_NODE);
                 }
                 if (!parentIsStatement) {
-                    currentEval.remove(object);
+                    currentEvaluations().remove(object);
                 }
             }
         }
@@ -711,7 +732,27 @@ public class Template extends TemplateNodeElement {
     /**
      * The current evaluations.
      */
-    protected List currentEval = new ArrayList();
+    protected transient List currentEval = new ArrayList();
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        currentEval = new ArrayList();
+    }
+
+    /**
+     * Gets the current evaluations : the ones of the evaluation context bound
+     * to the current thread, or the shared ones.
+     * 
+     * @return the objects being evaluated by this template
+     */
+    protected List currentEvaluations() {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            return evalContext.getTemplateEvaluations(this);
+        } else {
+            return currentEval;
+        }
+    }
 
     /**
      * Tells whether or not this template contains the given text, ignoring case
@@ -13,6 +13,7 @@
 package org.eclipse.sirius.query.legacy.gen.template;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -25,10 +26,16 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
 
 /**
  * This is a template's element for the generation tool.
+ * <p>
+ * The elements are serializable, to keep the parsed scripts from one session to
+ * the next : the script isn't written, it is replaced by the script which reads
+ * the elements.
  * 
  * 
  */
-public abstract class TemplateElement {
+public abstract class TemplateElement implements Serializable {
+
+    private static final long serialVersionUID = 1;
 
     /**
      * The script.
@@ -63,7 +70,7 @@ public abstract class TemplateElement {
     /**
      * The line in the script file.
      */
-    protected Integer line = null;
+    protected transient Integer line = null;
 
     /**
      * Constructor.
@@ -28,6 +28,8 @@ import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
  */
 public abstract class TemplateNodeElement extends TemplateElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Constructor.
      * 
@@ -28,6 +28,8 @@ import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
  */
 public class TemplateText extends TemplateNodeElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Static text.
      */
@@ -68,7 +70,7 @@ public class TemplateText extends TemplateNodeElement {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
-        ENode node = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+        ENode node = new ENode(ENode.EMPTY, object, this, mode);
         node.append(text, TextModelMapping.HIGHLIGHTED_STATIC_TEXT);
         return node;
     }
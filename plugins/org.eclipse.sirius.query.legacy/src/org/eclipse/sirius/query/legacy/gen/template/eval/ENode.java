@@ -24,6 +24,7 @@ import org.eclipse.emf.ecore.EcoreFactory;
 import org.eclipse.emf.ecore.EcorePackage;
 
 import org.eclipse.sirius.query.legacy.ecore.factories.EFactory;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.ecore.tools.ETools;
 import org.eclipse.sirius.query.legacy.gen.AcceleoGenMessages;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateElement;
@@ -54,6 +55,20 @@ public class ENode implements Comparable {
      */
     protected Object value;
 
+    /**
+     * The text appended to a String value, or null.
+     * <p>
+     * When it isn't null, it contains the whole String value and the value
+     * field is updated from it on demand. The appended fragments are copied
+     * once into this buffer instead of copying the whole text at each append.
+     */
+    private StringBuffer textBuffer;
+
+    /**
+     * Indicates if the value field has to be updated from the text buffer.
+     */
+    private boolean textBufferChanged;
+
     /**
      * Type of this node.
      * <p>
@@ -125,14 +140,30 @@ public class ENode implements Comparable {
      */
     private boolean synchronize = true;
 
+    /**
+     * Activates the creation of the model/text and template/text mappings.
+     */
+    private boolean textMapping = true;
+
     /**
      * @return the value of this node : an EObject, an ENodeList, a String, a
      *         Boolean, an Integer, or null.
      */
     public Object getValue() {
+        flushTextBuffer();
         return value;
     }
 
+    /**
+     * Updates the String value with the text appended to this node.
+     */
+    private void flushTextBuffer() {
+        if (textBufferChanged) {
+            value = textBuffer.toString();
+            textBufferChanged = false;
+        }
+    }
+
     /**
      * @return the type of this node : "EObject", "ENodeList", "String",
      *         "boolean", "int", "double", or null.
@@ -226,6 +257,31 @@ public class ENode implements Comparable {
         init(object, ENode.T_EObject, EObject.class);
     }
 
+    /**
+     * Creates a root node. The value is an EObject. The model element used to
+     * generate this node is the element itself because the parent node is
+     * unknown.
+     * <p>
+     * Precondition : object != EMPTY && object != null
+     * <p>
+     * Remark : eContainer() == getValue().
+     * 
+     * @param object
+     *            is the value
+     * @param element
+     *            is the template element
+     * @param mode
+     *            is the launch manager, it activates model/text
+     *            synchronization and mappings
+     */
+    public ENode(EObject object, TemplateElement element, LaunchManager mode) {
+        containerEObject = object;
+        containerTemplateElement = element;
+        this.synchronize = mode.isSynchronize();
+        this.textMapping = mode.isTextMapping();
+        init(object, ENode.T_EObject, EObject.class);
+    }
+
     /**
      * Creates a child node. The value is an EObject. The model element used to
      * generate this node is the same element as for the parent.
@@ -263,6 +319,28 @@ public class ENode implements Comparable {
         this(object, new ENode(parent, element, synchronize));
     }
 
+    /**
+     * Creates a child node. The value is an EObject. The model element used to
+     * generate this node is the parent.
+     * <p>
+     * Precondition : parent != EMPTY && parent != null
+     * <p>
+     * Equivalent : new ENode(object, new ENode(parent)).
+     * 
+     * @param object
+     *            is the value
+     * @param parent
+     *            is the parent object
+     * @param element
+     *            is the template element
+     * @param mode
+     *            is the launch manager, it activates model/text
+     *            synchronization and mappings
+     */
+    public ENode(EObject object, EObject parent, TemplateElement element, LaunchManager mode) {
+        this(object, new ENode(parent, element, mode));
+    }
+
     /**
      * Used to create empty ENode.
      */
@@ -357,6 +435,7 @@ public class ENode implements Comparable {
     protected void init(ENode parent) {
         if (parent != null) {
             synchronize = parent.synchronize;
+            textMapping = parent.textMapping;
             containerEObject = parent.containerEObject;
             containerTemplateElement = parent.containerTemplateElement;
             log.getAll(parent.log, false);
@@ -374,6 +453,8 @@ public class ENode implements Comparable {
      *            is the class of the value
      */
     protected void init(Object value, String type, Class typeClass) {
+        textBuffer = null;
+        textBufferChanged = false;
         if (value != null) {
             this.value = value;
             this.type = type;
@@ -393,7 +474,7 @@ public class ENode implements Comparable {
      * @return a new mapping if the value is a String, null if not
      */
     protected TextModelMapping createTextModelMapping() {
-        if (isString() && containerEObject != null) {
+        if (textMapping && isString() && containerEObject != null) {
             TextModelMapping mapping = new TextModelMapping(containerEObject, !synchronize);
             mapping.shift(((String) value).length());
             return mapping;
@@ -408,7 +489,7 @@ public class ENode implements Comparable {
      * @return a new mapping
      */
     protected TextTemplateElementMapping createTextTemplateElementMapping() {
-        if (isString() && containerTemplateElement != null) {
+        if (textMapping && isString() && containerTemplateElement != null) {
             TextTemplateElementMapping mapping = new TextTemplateElementMapping(containerTemplateElement, !synchronize);
             mapping.shift(((String) value).length());
             return mapping;
@@ -524,7 +605,7 @@ public class ENode implements Comparable {
         if (typeClass == EObject.class) {
             return this;
         } else if (typeClass == ENodeList.class) {
-            if (getList().size() > 0) {
+            if (!getList().isEmpty()) {
                 return getList().get(0);
             } else {
                 return new ENode(ENode.EMPTY, this);
@@ -591,7 +672,7 @@ public class ENode implements Comparable {
         if (typeClass == EObject.class) {
             return new ENode(true, this);
         } else if (typeClass == ENodeList.class) {
-            return new ENode(getList().size() > 0, this);
+            return new ENode(!getList().isEmpty(), this);
         } else if (typeClass == String.class) {
             return new ENode("true".equalsIgnoreCase(getString().trim()), this); //$NON-NLS-1$
         } else if (typeClass == boolean.class) {
@@ -702,6 +783,7 @@ public class ENode implements Comparable {
      */
     public String getString() throws ENodeCastException {
         if (isString()) {
+            flushTextBuffer();
             return (String) value;
         } else {
             throw new ENodeCastException(AcceleoGenMessages.getString("ENode.ENodeCastExceptionMessage", new Object[] { type, ENode.T_String, })); //$NON-NLS-1$
@@ -768,6 +850,7 @@ public class ENode implements Comparable {
             String v = toString();
             init(v, ENode.T_String, String.class);
         }
+        flushTextBuffer();
         return (String) value;
     }
 
@@ -804,9 +887,9 @@ public class ENode implements Comparable {
             if (other.textTemplateElementMapping != null) {
                 other.textTemplateElementMapping.commit();
             }
-            asString();
+            toStringNode();
             int size = size();
-            value = ((String) value) + buffer;
+            appendText(buffer);
             if (textModelMapping != null && other.textModelMapping != null) {
                 textModelMapping.from(other.textModelMapping);
             }
@@ -842,8 +925,8 @@ public class ENode implements Comparable {
      *            is the highlight type.
      */
     public void append(String text, int highlightedType) {
-        asString();
-        value = value + text;
+        toStringNode();
+        appendText(text);
         if (textModelMapping != null) {
             textModelMapping.shift(text.length(), highlightedType);
         }
@@ -852,6 +935,32 @@ public class ENode implements Comparable {
         }
     }
 
+    /**
+     * Transforms this node into String, without computing the String value if
+     * text has been appended to it.
+     */
+    private void toStringNode() {
+        if (!isString() || textBuffer == null) {
+            asString();
+        }
+    }
+
+    /**
+     * Appends text to the String value of this node.
+     * 
+     * @param text
+     *            is the text to be added
+     */
+    private void appendText(String text) {
+        if (textBuffer == null) {
+            String current = (String) value;
+            textBuffer = new StringBuffer(Math.max(16, 2 * (current.length() + text.length())));
+            textBuffer.append(current);
+        }
+        textBuffer.append(text);
+        textBufferChanged = true;
+    }
+
     /* (non-Javadoc) */
     @Override
     public boolean equals(Object other) {
@@ -862,6 +971,7 @@ public class ENode implements Comparable {
                 return false;
             }
         } else {
+            flushTextBuffer();
             if (value == null && other == null) {
                 return true;
             } else if (value == null || other == null) {
@@ -882,6 +992,8 @@ public class ENode implements Comparable {
      *             if the types of the nodes are not compatible
      */
     public boolean equals(ENode other) throws ENodeCastException {
+        flushTextBuffer();
+        other.flushTextBuffer();
         if (isNull() && other.isNull()) {
             return true;
         } else if (isNull() || other.isNull()) {
@@ -921,6 +1033,9 @@ public class ENode implements Comparable {
         } else if (isList()) {
             return ((ENodeList) value).size();
         } else if (isString()) {
+            if (textBuffer != null) {
+                return textBuffer.length();
+            }
             return ((String) value).length();
         } else if (isBoolean()) {
             return 1;
@@ -954,10 +1069,12 @@ public class ENode implements Comparable {
     /* (non-Javadoc) */
     @Override
     public String toString() {
+        flushTextBuffer();
         if (isNull()) {
             return ""; //$NON-NLS-1$
         } else if (isEObject() && !(value instanceof EEnumLiteral)) {
             EObject object = (EObject) value;
+            EDependencyRecorder.objectRead(object);
             String buffer = object.toString();
             int iProperties = buffer.indexOf("("); //$NON-NLS-1$
             if (iProperties > -1) {
@@ -1144,6 +1261,8 @@ public class ENode implements Comparable {
                 init(v, ENode.T_String, String.class);
             }
             // isString
+            flushTextBuffer();
+            textBuffer = null;
             String text = (String) value;
             if (text.length() > 0) {
                 if ("trim".equals(name)) { //$NON-NLS-1$
@@ -1233,6 +1352,7 @@ public class ENode implements Comparable {
      * @return the copy
      */
     public ENode copy() {
+        flushTextBuffer();
         if (value == null) {
             return new ENode(ENode.EMPTY, this);
         } else if (value instanceof EObject) {
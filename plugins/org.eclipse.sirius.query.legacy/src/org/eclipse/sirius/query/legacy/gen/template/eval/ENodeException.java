@@ -88,7 +88,13 @@ public class ENodeException extends AcceleoException {
      *            is the trigger object
      */
     public static void disableRuntimeMarkersFor(Object source) {
-        if (ENodeException.runtimeMarker && ENodeException.disabledTrigger == null) {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            if (evalContext.isRuntimeMarker() && evalContext.getDisabledTrigger() == null) {
+                evalContext.setRuntimeMarker(false);
+                evalContext.setDisabledTrigger(source);
+            }
+        } else if (ENodeException.runtimeMarker && ENodeException.disabledTrigger == null) {
             ENodeException.runtimeMarker = false;
             ENodeException.disabledTrigger = source;
         }
@@ -101,12 +107,31 @@ public class ENodeException extends AcceleoException {
      *            is the trigger object
      */
     public static void enableRuntimeMarkersFor(Object source) {
-        if (!ENodeException.runtimeMarker && source == ENodeException.disabledTrigger) {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            if (!evalContext.isRuntimeMarker() && source == evalContext.getDisabledTrigger()) {
+                evalContext.setRuntimeMarker(true);
+                evalContext.setDisabledTrigger(null);
+            }
+        } else if (!ENodeException.runtimeMarker && source == ENodeException.disabledTrigger) {
             ENodeException.runtimeMarker = true;
             ENodeException.disabledTrigger = null;
         }
     }
 
+    /**
+     * @return true if the runtime markers are activated for the current
+     *         evaluation
+     */
+    private static boolean isRuntimeMarker() {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            return evalContext.isRuntimeMarker();
+        } else {
+            return ENodeException.runtimeMarker;
+        }
+    }
+
     /**
      * Constructor.
      * 
@@ -149,7 +174,7 @@ public class ENodeException extends AcceleoException {
         this.script = script;
         this.object = object;
         this.exception = exception;
-        if (report && ENodeException.runtimeMarker) {
+        if (report && ENodeException.isRuntimeMarker()) {
             getErrorMessage(true);
         }
     }
@@ -180,7 +205,7 @@ public class ENodeException extends AcceleoException {
                 path = workspaceFile.getFullPath().toString();
             }
 
-            Int2[] newLines = TextSearch.getDefaultSearch().allIndexIn(Resources.getFileContent(script.getFile()).toString(), "\n", 0, pos.b()); //$NON-NLS-1$
+            Int2[] newLines = TextSearch.getDefaultSearch().allIndexIn(Resources.getFileText(script.getFile(), true).toString(), "\n", 0, pos.b()); //$NON-NLS-1$
             int line = newLines.length + 1;
             int column = pos.b();
             if (newLines.length > 0) {
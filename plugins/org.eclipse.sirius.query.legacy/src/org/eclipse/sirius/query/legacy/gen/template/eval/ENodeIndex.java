@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.eval;
+
+import org.eclipse.emf.ecore.EObject;
+
+/**
+ * The values of the elements of an ENodeList, to test the membership without
+ * comparing the nodes one by one.
+ * <p>
+ * It is an open addressing hash table with linear probing, which counts the
+ * occurrences of each value. The EObject values are compared by identity, the
+ * other values (String, Boolean, Integer, Double) by equals.
+ *
+ *
+ */
+final class ENodeIndex {
+
+    /**
+     * The marker of a removed value.
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The values, at the position given by their hash code.
+     */
+    private Object[] values = new Object[32];
+
+    /**
+     * The number of occurrences of each value.
+     */
+    private int[] counts = new int[32];
+
+    /**
+     * The number of values.
+     */
+    private int size;
+
+    /**
+     * The number of slots used by a value or by a removed value.
+     */
+    private int used;
+
+    /**
+     * Adds an occurrence of the value.
+     *
+     * @param value
+     *            is the value, not null
+     */
+    void add(Object value) {
+        int slot = find(value);
+        if (slot >= 0) {
+            counts[slot]++;
+        } else {
+            if ((used + 1) * 2 > values.length) {
+                // Grows, or only drops the removed values
+                rehash(((size + 1) * 4 > values.length) ? values.length * 2 : values.length);
+            }
+            slot = insertionSlot(value);
+            if (values[slot] == null) {
+                used++;
+            }
+            values[slot] = value;
+            counts[slot] = 1;
+            size++;
+        }
+    }
+
+    /**
+     * Removes an occurrence of the value.
+     *
+     * @param value
+     *            is the value, not null
+     */
+    void remove(Object value) {
+        int slot = find(value);
+        if (slot >= 0) {
+            counts[slot]--;
+            if (counts[slot] == 0) {
+                values[slot] = ENodeIndex.REMOVED;
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Indicates if the value has been added and not removed.
+     *
+     * @param value
+     *            is the value, not null
+     * @return true if the index contains the value
+     */
+    boolean contains(Object value) {
+        return find(value) >= 0;
+    }
+
+    private int find(Object value) {
+        int mask = values.length - 1;
+        for (int slot = ENodeIndex.hash(value) & mask;; slot = (slot + 1) & mask) {
+            Object current = values[slot];
+            if (current == null) {
+                return -1;
+            } else if (current != ENodeIndex.REMOVED && ENodeIndex.equal(current, value)) {
+                return slot;
+            }
+        }
+    }
+
+    private int insertionSlot(Object value) {
+        int mask = values.length - 1;
+        int slot = ENodeIndex.hash(value) & mask;
+        while (values[slot] != null && values[slot] != ENodeIndex.REMOVED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldValues = values;
+        int[] oldCounts = counts;
+        values = new Object[capacity];
+        counts = new int[capacity];
+        used = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null && oldValues[i] != ENodeIndex.REMOVED) {
+                int slot = insertionSlot(oldValues[i]);
+                values[slot] = oldValues[i];
+                counts[slot] = oldCounts[i];
+                used++;
+            }
+        }
+    }
+
+    private static int hash(Object value) {
+        int h = (value instanceof EObject) ? System.identityHashCode(value) : value.hashCode();
+        // Spreads the bits, the low bits select the slot
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static boolean equal(Object current, Object value) {
+        if (current instanceof EObject) {
+            return current == value;
+        } else {
+            return current.equals(value);
+        }
+    }
+
+}
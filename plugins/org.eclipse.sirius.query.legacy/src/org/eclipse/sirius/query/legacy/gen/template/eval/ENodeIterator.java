@@ -20,7 +20,7 @@ import java.util.NoSuchElementException;
  * 
  * 
  */
-public class ENodeIterator {
+public class ENodeIterator implements Iterator {
 
     /**
      * The iterator.
@@ -34,7 +34,7 @@ public class ENodeIterator {
      *            is the list
      */
     protected ENodeIterator(ENodeList list) {
-        iterator = list.list.iterator();
+        iterator = list.elements();
     }
 
     /**
@@ -57,4 +57,13 @@ public class ENodeIterator {
         return (ENode) iterator.next();
     }
 
+    /**
+     * Unsupported : the list can't be modified by its iterator.
+     * 
+     * @throws UnsupportedOperationException
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
 }
@@ -14,7 +14,9 @@ package org.eclipse.sirius.query.legacy.gen.template.eval;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -35,6 +37,38 @@ public class ENodeList {
      */
     protected boolean unique;
 
+    /**
+     * The size from which the membership of an element is tested with an
+     * index.
+     */
+    private static final int INDEX_THRESHOLD = 16;
+
+    /**
+     * The values of the elements, or null. It is built when the membership of
+     * an element is tested in a long list, then it is kept up to date.
+     */
+    private ENodeIndex index;
+
+    /**
+     * The type of the elements, or null if the list is empty. The index is
+     * used only if all the elements have the same type as the tested node :
+     * two nodes of different types may be equal (an int and a String...).
+     */
+    private String elementsType;
+
+    /**
+     * Indicates that the elements have different types.
+     */
+    private boolean mixedTypes;
+
+    /**
+     * The sources of the elements which haven't been pulled yet, or null if
+     * all the elements are in the list. It is a stack of iterators : the
+     * elements of a nested list are pulled before the next elements of its
+     * source.
+     */
+    private List pending;
+
     /**
      * Constructor.
      */
@@ -53,6 +87,141 @@ public class ENodeList {
         this.unique = unique;
     }
 
+    /**
+     * Constructor of a lazy list : the elements are pulled from the given
+     * iterator only when they are needed. An operation which needs the first
+     * elements (get, contains, iterator...) stops pulling as soon as it can
+     * answer, an operation which needs the whole list (size, add...) pulls all
+     * the elements.
+     * 
+     * @param elements
+     *            is an iterator over the ENode elements, the nested lists are
+     *            flattened and the null nodes are ignored as by
+     *            {@link #add(ENode)}
+     */
+    public ENodeList(Iterator elements) {
+        this(false);
+        pending = new ArrayList();
+        pending.add(elements);
+    }
+
+    /**
+     * Creates a lazy list of the nodes of the given values : a node is created
+     * only when the element is pulled.
+     * 
+     * @param values
+     *            is an iterator over the values (EObject, String...)
+     * @param parent
+     *            is the parent of the nodes
+     * @return the lazy list
+     * @see ENode#createTry(Object, ENode)
+     */
+    public static ENodeList createTry(final Iterator values, final ENode parent) {
+        return new ENodeList(new Iterator() {
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            public Object next() {
+                return ENode.createTry(values.next(), parent);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Pulls the next element of the sources.
+     * 
+     * @return true if an element has been added, false if the sources are
+     *         exhausted
+     */
+    private boolean pull() {
+        while (pending != null) {
+            Iterator source = (Iterator) pending.get(pending.size() - 1);
+            if (!source.hasNext()) {
+                pending.remove(pending.size() - 1);
+                if (pending.isEmpty()) {
+                    pending = null;
+                }
+            } else {
+                ENode node = (ENode) source.next();
+                if (node != null) {
+                    if (node.isList()) {
+                        try {
+                            pending.add(node.getList().iterator());
+                        } catch (ENodeCastException e) {
+                            // Never catch
+                        }
+                    } else if (!node.isNull() && (!unique || !contains(node))) {
+                        list.add(node);
+                        added(node);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pulls the elements until the given index.
+     * 
+     * @return true if the list has an element at the given index
+     */
+    private boolean pullTo(int i) {
+        while (list.size() <= i && pull()) {
+            // pulls
+        }
+        return list.size() > i;
+    }
+
+    private void pullAll() {
+        while (pull()) {
+            // pulls
+        }
+    }
+
+    /**
+     * Gets an iterator which pulls the elements as they are iterated.
+     * 
+     * @return an iterator over the ENode elements
+     */
+    Iterator elements() {
+        if (pending == null) {
+            return list.iterator();
+        }
+        return new Iterator() {
+            private int next;
+
+            public boolean hasNext() {
+                return pullTo(next);
+            }
+
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return list.get(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Indicates if the list is empty, pulling at most one element.
+     * 
+     * @return true if the list has no element
+     */
+    public boolean isEmpty() {
+        return !pullTo(0);
+    }
+
     /**
      * Appends the specified ENode to the end of this list.
      * 
@@ -60,6 +229,7 @@ public class ENodeList {
      *            is the element to be appended to this list
      */
     public void add(ENode node) {
+        pullAll();
         if (node != null) {
             if (node.isList()) {
                 try {
@@ -68,12 +238,9 @@ public class ENodeList {
                     // Never catch
                 }
             } else if (!node.isNull()) {
-                if (unique) {
-                    if (!list.contains(node)) {
-                        list.add(node);
-                    }
-                } else {
+                if (!unique || !contains(node)) {
                     list.add(node);
+                    added(node);
                 }
             }
         }
@@ -88,6 +255,7 @@ public class ENodeList {
      *            is the element to insert
      */
     public void add(int index, ENode node) {
+        pullAll();
         if (node != null) {
             if (node.isList()) {
                 try {
@@ -97,20 +265,14 @@ public class ENodeList {
                 }
             } else if (!node.isNull()) {
                 if (index < 0 || index >= list.size()) {
-                    if (unique) {
-                        if (!list.contains(node)) {
-                            list.add(node);
-                        }
-                    } else {
+                    if (!unique || !contains(node)) {
                         list.add(node);
+                        added(node);
                     }
                 } else {
-                    if (unique) {
-                        if (!list.contains(node)) {
-                            list.add(index, node);
-                        }
-                    } else {
+                    if (!unique || !contains(node)) {
                         list.add(index, node);
+                        added(node);
                     }
                 }
             }
@@ -127,7 +289,7 @@ public class ENodeList {
      *         bounds
      */
     public ENode get(int index) {
-        if (index >= 0 && index < list.size()) {
+        if (index >= 0 && pullTo(index)) {
             return (ENode) list.get(index);
         } else {
             return null;
@@ -141,7 +303,32 @@ public class ENodeList {
      *            is the element to be removed from this list, if present
      */
     public void remove(ENode node) {
-        list.remove(node);
+        pullAll();
+        if (index == null || contains(node)) {
+            int i = list.indexOf(node);
+            if (i > -1) {
+                removed((ENode) list.remove(i));
+            }
+        }
+    }
+
+    private void added(ENode node) {
+        if (elementsType == null && !mixedTypes) {
+            elementsType = node.getType();
+        } else if (!mixedTypes && elementsType != node.getType()) {
+            mixedTypes = true;
+            elementsType = null;
+            index = null;
+        }
+        if (index != null) {
+            index.add(node.getValue());
+        }
+    }
+
+    private void removed(ENode node) {
+        if (index != null) {
+            index.remove(node.getValue());
+        }
     }
 
     /**
@@ -180,6 +367,7 @@ public class ENodeList {
      * @return an array representation of the list
      */
     public Object[] toArray() {
+        pullAll();
         return list.toArray();
     }
 
@@ -195,6 +383,34 @@ public class ENodeList {
      * @return true if this list contains the specified element
      */
     public boolean contains(ENode node) {
+        if (pending != null && node != null) {
+            if (containsPulled(node)) {
+                return true;
+            }
+            for (int i = list.size(); pullTo(i); i++) {
+                if (node.equals(list.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        pullAll();
+        return containsPulled(node);
+    }
+
+    private boolean containsPulled(ENode node) {
+        if (node != null && !mixedTypes && node.getType() == elementsType) {
+            if (index == null && list.size() >= ENodeList.INDEX_THRESHOLD) {
+                index = new ENodeIndex();
+                Iterator it = list.iterator();
+                while (it.hasNext()) {
+                    index.add(((ENode) it.next()).getValue());
+                }
+            }
+            if (index != null) {
+                return index.contains(node.getValue());
+            }
+        }
         return list.contains(node);
     }
 
@@ -204,6 +420,7 @@ public class ENodeList {
      * @return the number of elements in this list
      */
     public int size() {
+        pullAll();
         return list.size();
     }
 
@@ -222,6 +439,7 @@ public class ENodeList {
      * Sorts the list using "toString" result.
      */
     public void sort() {
+        pullAll();
         Set set = new TreeSet(new Comparator() {
             public int compare(Object arg0, Object arg1) {
                 return ((ENode) arg0).compareTo((arg1));
@@ -249,6 +467,8 @@ public class ENodeList {
     @Override
     public boolean equals(Object arg0) {
         if (arg0 instanceof ENodeList) {
+            pullAll();
+            ((ENodeList) arg0).pullAll();
             return list.equals(((ENodeList) arg0).list);
         }
         return false;
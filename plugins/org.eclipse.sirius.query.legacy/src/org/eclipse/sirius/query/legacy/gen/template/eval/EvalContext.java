@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.eval;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The mutable state of an evaluation.
+ * <p>
+ * By default, this state is shared by all the evaluations (context stacks of
+ * the scripts, recursion guards of the templates, runtime markers, preferred
+ * class loader...). When an evaluation context is bound to the current thread,
+ * this state is read from the context instead, so that the same scripts and
+ * templates can be evaluated by several threads at the same time. A context
+ * must only be used by one thread at a time.
+ */
+public class EvalContext {
+
+    /**
+     * The context bound to each thread.
+     */
+    private static final ThreadLocal current = new ThreadLocal();
+
+    /**
+     * @return the context bound to the current thread, or null if the
+     *         evaluations of this thread use the shared state
+     */
+    public static EvalContext getCurrent() {
+        return (EvalContext) EvalContext.current.get();
+    }
+
+    /**
+     * Binds this context to the current thread.
+     *
+     * @return the context previously bound to the current thread, it has to
+     *         be given back to {@link #restore(EvalContext)}
+     */
+    public EvalContext bind() {
+        final EvalContext previous = EvalContext.getCurrent();
+        EvalContext.current.set(this);
+        return previous;
+    }
+
+    /**
+     * Binds again the given context to the current thread.
+     *
+     * @param previous
+     *            is the context returned by {@link #bind()}
+     */
+    public static void restore(EvalContext previous) {
+        if (previous != null) {
+            EvalContext.current.set(previous);
+        } else {
+            EvalContext.current.remove();
+        }
+    }
+
+    /**
+     * The context stacks of each script : script -> (key -> stack).
+     */
+    private final Map scriptContexts = new IdentityHashMap();
+
+    /**
+     * The objects being evaluated by each template : template -> list.
+     */
+    private final Map templateEvaluations = new IdentityHashMap();
+
+    /**
+     * The evaluation mode of each java service : service -> mode.
+     */
+    private final Map serviceModes = new IdentityHashMap();
+
+    /**
+     * The calls whose next evaluation has to be ignored.
+     */
+    private final Map ignoredCalls = new IdentityHashMap();
+
+    /**
+     * The variables of the interpreter : name -> stack of values.
+     */
+    private final Map variables = new HashMap();
+
+    /**
+     * Indicates if the runtime markers are activated.
+     */
+    private boolean runtimeMarker = true;
+
+    /**
+     * The trigger to disable markers.
+     */
+    private Object disabledTrigger = null;
+
+    /**
+     * The preferred class loader.
+     */
+    private ClassLoader preferredClassLoader = null;
+
+    /**
+     * The preferred class loader cache class name -> Class.
+     */
+    private Map preferredCache = new HashMap();
+
+    /**
+     * Gets the context stacks of the given script.
+     *
+     * @param script
+     *            is the script
+     * @return the context stacks : key -> stack
+     */
+    public Map getScriptContext(Object script) {
+        Map result = (Map) scriptContexts.get(script);
+        if (result == null) {
+            result = new HashMap();
+            scriptContexts.put(script, result);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the objects being evaluated by the given template.
+     *
+     * @param template
+     *            is the template
+     * @return the current evaluations of the template
+     */
+    public List getTemplateEvaluations(Object template) {
+        List result = (List) templateEvaluations.get(template);
+        if (result == null) {
+            result = new ArrayList();
+            templateEvaluations.put(template, result);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the evaluation mode of the given java service.
+     *
+     * @param service
+     *            is the service
+     * @param defaultMode
+     *            is the mode to return if it has never been set
+     * @return the evaluation mode
+     */
+    public int getServiceMode(Object service, int defaultMode) {
+        final Integer mode = (Integer) serviceModes.get(service);
+        return (mode != null) ? mode.intValue() : defaultMode;
+    }
+
+    /**
+     * Sets the evaluation mode of the given java service.
+     *
+     * @param service
+     *            is the service
+     * @param mode
+     *            is the evaluation mode
+     */
+    public void setServiceMode(Object service, int mode) {
+        serviceModes.put(service, new Integer(mode));
+    }
+
+    /**
+     * The next evaluation of the given call will be ignored.
+     *
+     * @param call
+     *            is the call
+     */
+    public void ignoreNextEval(Object call) {
+        ignoredCalls.put(call, Boolean.TRUE);
+    }
+
+    /**
+     * Indicates if the evaluation of the given call has to be ignored, and
+     * consumes this indication.
+     *
+     * @param call
+     *            is the call
+     * @return true if the evaluation has to be ignored
+     */
+    public boolean consumeIgnoreNextEval(Object call) {
+        return ignoredCalls.remove(call) != null;
+    }
+
+    /**
+     * @return the variables : name -> stack of values
+     */
+    public Map getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return true if the runtime markers are activated
+     */
+    public boolean isRuntimeMarker() {
+        return runtimeMarker;
+    }
+
+    /**
+     * @param runtimeMarker
+     *            indicates if the runtime markers are activated
+     */
+    public void setRuntimeMarker(boolean runtimeMarker) {
+        this.runtimeMarker = runtimeMarker;
+    }
+
+    /**
+     * @return the trigger that disabled the markers
+     */
+    public Object getDisabledTrigger() {
+        return disabledTrigger;
+    }
+
+    /**
+     * @param disabledTrigger
+     *            is the trigger that disabled the markers
+     */
+    public void setDisabledTrigger(Object disabledTrigger) {
+        this.disabledTrigger = disabledTrigger;
+    }
+
+    /**
+     * @return the preferred class loader
+     */
+    public ClassLoader getPreferredClassLoader() {
+        return preferredClassLoader;
+    }
+
+    /**
+     * @param loader
+     *            is the preferred class loader
+     */
+    public void setPreferredClassLoader(ClassLoader loader) {
+        if (preferredClassLoader != loader) {
+            preferredCache = new HashMap();
+        }
+        preferredClassLoader = loader;
+    }
+
+    /**
+     * @return the preferred class loader cache : class name -> Class
+     */
+    public Map getPreferredCache() {
+        return preferredCache;
+    }
+
+    /**
+     * Forgets the state of the previous evaluations, the variables are kept.
+     */
+    public void reset() {
+        scriptContexts.clear();
+        templateEvaluations.clear();
+        serviceModes.clear();
+        ignoredCalls.clear();
+        runtimeMarker = true;
+        disabledTrigger = null;
+        setPreferredClassLoader(null);
+    }
+
+    /**
+     * Forgets the state of the previous evaluations and the variables.
+     */
+    public void clear() {
+        reset();
+        variables.clear();
+    }
+
+}
@@ -52,12 +52,20 @@ public class LaunchManager {
      */
     private boolean synchronize;
 
+    /**
+     * Activates the creation of the text/model and text/template mappings.
+     */
+    private final boolean textMapping;
+
     /**
      * The progress monitor;
      */
     private IProgressMonitor monitor;
 
-    private boolean profiling;
+    /**
+     * The profiler of the evaluations, or null.
+     */
+    private Profiler profiler;
 
     private boolean logEObject;
 
@@ -69,9 +77,10 @@ public class LaunchManager {
      * @param synchronize
      *            activates text/model synchronization
      */
-    private LaunchManager(int mode, boolean synchronize) {
+    private LaunchManager(int mode, boolean synchronize, boolean textMapping) {
         this.mode = mode;
         this.synchronize = synchronize;
+        this.textMapping = textMapping;
     }
 
     /**
@@ -84,16 +93,41 @@ public class LaunchManager {
      * @return the manager or null
      */
     public static LaunchManager create(String mode, boolean synchronize) {
+        return LaunchManager.create(mode, synchronize, true);
+    }
+
+    /**
+     * Creates a new manager.
+     * <p>
+     * When the text mapping is disabled, the generated nodes don't keep any
+     * correspondence between their text and the model or the template
+     * elements. The generated text is the same, this mode only saves the
+     * creation and the merge of the mappings when nobody reads them.
+     * 
+     * @param mode
+     *            is a string - "run", "debug", "preview", "phantom", "profile"
+     * @param synchronize
+     *            indicates if the text/model synchronization is activated
+     * @param textMapping
+     *            indicates if the text/model and text/template mappings are
+     *            created
+     * @return the manager or null
+     */
+    public static LaunchManager create(String mode, boolean synchronize, boolean textMapping) {
         if (mode == null) {
             return null;
         } else if (mode.equals("run")) { //$NON-NLS-1$
-            return new LaunchManager(LaunchManager.RUN_MODE, synchronize);
+            return new LaunchManager(LaunchManager.RUN_MODE, synchronize, textMapping);
         } else if (mode.equals("debug")) { //$NON-NLS-1$
-            return new LaunchManager(LaunchManager.DEBUG_MODE, synchronize);
+            return new LaunchManager(LaunchManager.DEBUG_MODE, synchronize, textMapping);
         } else if (mode.equals("preview")) { //$NON-NLS-1$
-            return new LaunchManager(LaunchManager.PREVIEW_MODE, synchronize);
+            return new LaunchManager(LaunchManager.PREVIEW_MODE, synchronize, textMapping);
         } else if (mode.equals("phantom")) { //$NON-NLS-1$
-            return new LaunchManager(LaunchManager.PHANTOM_MODE, synchronize);
+            return new LaunchManager(LaunchManager.PHANTOM_MODE, synchronize, textMapping);
+        } else if (mode.equals("profile")) { //$NON-NLS-1$
+            final LaunchManager result = new LaunchManager(LaunchManager.RUN_MODE, synchronize, textMapping);
+            result.setProfiler(new Profiler());
+            return result;
         } else {
             return null;
         }
@@ -121,6 +155,13 @@ public class LaunchManager {
         this.synchronize = synchronize;
     }
 
+    /**
+     * @return true if the text/model and text/template mappings are created
+     */
+    public boolean isTextMapping() {
+        return textMapping;
+    }
+
     /**
      * @return the monitor
      */
@@ -140,7 +181,24 @@ public class LaunchManager {
      * @return true if the profiling is activated
      */
     public boolean isProfiling() {
-        return profiling;
+        return getProfiler() != null;
+    }
+
+    /**
+     * @return the profiler of this manager, or else the profiler of all the
+     *         evaluations, or null
+     */
+    public Profiler getProfiler() {
+        return (profiler != null) ? profiler : Profiler.getActive();
+    }
+
+    /**
+     * @param profiler
+     *            is the profiler of the evaluations launched by this manager,
+     *            null to use the profiler of all the evaluations
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
     }
 
     /**
@@ -0,0 +1,597 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.eval;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.sirius.query.legacy.gen.AcceleoEcoreGenPlugin;
+import org.eclipse.sirius.query.legacy.gen.template.TemplateElement;
+
+/**
+ * Profiles the evaluation of the template elements and of the java services.
+ * For each element, it counts the evaluations, and it measures the inclusive
+ * and exclusive wall time and allocated bytes. The measures are aggregated in a
+ * call tree, which is written as collapsed stacks (for a flame graph) or as a
+ * text report.
+ * <p>
+ * A profiler is given to a launch manager, or it is started for all the
+ * evaluations. When the system property {@link #PROFILE_PROPERTY} is set to a
+ * path, a profiler is started with the first evaluation, and it is written in
+ * "path.collapsed" and "path.txt" when the virtual machine shuts down.
+ * <p>
+ * The allocated bytes are read from the thread MX bean of the HotSpot virtual
+ * machines, they are 0 on the other machines.
+ *
+ *
+ */
+public class Profiler {
+
+    /**
+     * The system property which starts a profiler, its value is the path of
+     * the written files.
+     */
+    public static final String PROFILE_PROPERTY = "org.eclipse.sirius.query.legacy.profile"; //$NON-NLS-1$
+
+    /**
+     * The maximum length of the text of an element in the labels.
+     */
+    private static final int TEXT_LENGTH = 60;
+
+    /**
+     * The thread MX bean.
+     */
+    private static final Object THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The method which gives the bytes allocated by a thread, or null if they
+     * can't be measured.
+     */
+    private static final Method ALLOCATED_BYTES = Profiler.getAllocatedBytesMethod();
+
+    /**
+     * The profiler of all the evaluations, or null.
+     */
+    private static volatile Profiler active;
+
+    static {
+        final String path = System.getProperty(Profiler.PROFILE_PROPERTY);
+        if (path != null && path.length() > 0) {
+            final Profiler profiler = Profiler.start();
+            Runtime.getRuntime().addShutdownHook(new Thread("Acceleo profiler") { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    try {
+                        profiler.write(path);
+                    } catch (IOException e) {
+                        // The plug-in may already be stopped
+                        if (AcceleoEcoreGenPlugin.getDefault() != null) {
+                            AcceleoEcoreGenPlugin.getDefault().log(e, true);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The root of the call tree.
+     */
+    private final Node root = new Node("all"); //$NON-NLS-1$
+
+    /**
+     * The stack of the evaluations of each thread.
+     */
+    private final ThreadLocal stacks = new ThreadLocal();
+
+    /**
+     * @return the profiler of all the evaluations, or null
+     */
+    public static Profiler getActive() {
+        return Profiler.active;
+    }
+
+    /**
+     * Starts a new profiler for all the evaluations.
+     *
+     * @return the new profiler
+     */
+    public static Profiler start() {
+        final Profiler profiler = new Profiler();
+        Profiler.active = profiler;
+        return profiler;
+    }
+
+    /**
+     * Stops the profiler of all the evaluations.
+     *
+     * @return the stopped profiler, or null
+     */
+    public static Profiler stop() {
+        final Profiler profiler = Profiler.active;
+        Profiler.active = null;
+        return profiler;
+    }
+
+    /**
+     * Begins the evaluation of an element. It has to be followed by
+     * {@link #exit(Profiler)} in a finally block.
+     *
+     * @param element
+     *            is the template element, or the method of the java service
+     * @param mode
+     *            is the launch manager
+     * @return the profiler of the evaluation, or null if it isn't profiled
+     */
+    public static Profiler enter(Object element, LaunchManager mode) {
+        final Profiler profiler = (mode != null) ? mode.getProfiler() : Profiler.active;
+        if (profiler != null) {
+            profiler.push(element);
+        }
+        return profiler;
+    }
+
+    /**
+     * Ends the evaluation of an element.
+     *
+     * @param profiler
+     *            is the profiler returned by
+     *            {@link #enter(Object, LaunchManager)}
+     */
+    public static void exit(Profiler profiler) {
+        if (profiler != null) {
+            profiler.pop();
+        }
+    }
+
+    private void push(Object element) {
+        final Stack stack = getStack();
+        final Node parent = (stack.depth > 0) ? stack.frames[stack.depth - 1].node : root;
+        final Node node;
+        synchronized (this) {
+            node = parent.getChild(element);
+        }
+        final Frame frame = stack.push(node);
+        frame.childTime = 0;
+        frame.childBytes = 0;
+        frame.bytes = stack.allocatedBytes();
+        frame.reads = stack.reads;
+        frame.time = System.nanoTime();
+    }
+
+    private void pop() {
+        final long time = System.nanoTime();
+        final Stack stack = getStack();
+        if (stack.depth == 0) {
+            return;
+        }
+        final long bytes = stack.allocatedBytes();
+        final Frame frame = stack.frames[--stack.depth];
+        final long inclusiveTime = time - frame.time;
+        // The reads of the allocated bytes allocate too
+        final long inclusiveBytes = Math.max(0, bytes - frame.bytes - stack.readCost * (stack.reads - frame.reads));
+        synchronized (this) {
+            final Node node = frame.node;
+            node.count++;
+            node.inclusiveTime += inclusiveTime;
+            node.exclusiveTime += Math.max(0, inclusiveTime - frame.childTime);
+            node.inclusiveBytes += inclusiveBytes;
+            node.exclusiveBytes += Math.max(0, inclusiveBytes - frame.childBytes);
+        }
+        frame.node = null;
+        if (stack.depth > 0) {
+            final Frame parent = stack.frames[stack.depth - 1];
+            parent.childTime += inclusiveTime;
+            parent.childBytes += inclusiveBytes;
+        }
+    }
+
+    private Stack getStack() {
+        Stack stack = (Stack) stacks.get();
+        if (stack == null) {
+            stack = new Stack();
+            stacks.set(stack);
+        }
+        return stack;
+    }
+
+    /**
+     * Forgets the measures. The evaluations in progress are still measured.
+     */
+    public synchronized void clear() {
+        final Iterator it = root.children.values().iterator();
+        while (it.hasNext()) {
+            ((Node) it.next()).clear();
+        }
+    }
+
+    /**
+     * Writes the collapsed stacks and the report in "path.collapsed" and
+     * "path.txt".
+     *
+     * @param path
+     *            is the path of the files, without extension
+     * @throws IOException
+     *             if a file can't be written
+     */
+    public void write(String path) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(path + ".collapsed")), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            writeCollapsedStacks(writer, false);
+        } finally {
+            writer.close();
+        }
+        writer = new OutputStreamWriter(new FileOutputStream(new File(path + ".txt")), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            writeReport(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the call tree as collapsed stacks : one line for each path of the
+     * tree, the labels of the elements separated by ';', then the exclusive
+     * time in microseconds or the exclusive allocated bytes. The lines can be
+     * given to the flame graph tools.
+     *
+     * @param writer
+     *            is the output, it isn't closed
+     * @param allocations
+     *            indicates if the allocated bytes are written instead of the
+     *            time
+     * @throws IOException
+     *             if the output can't be written
+     */
+    public synchronized void writeCollapsedStacks(Writer writer, boolean allocations) throws IOException {
+        final Iterator it = root.children.values().iterator();
+        while (it.hasNext()) {
+            ((Node) it.next()).writeCollapsedStacks(writer, "", allocations); //$NON-NLS-1$
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the text report : the elements sorted by exclusive time, then the
+     * call tree, each child sorted by inclusive time.
+     *
+     * @param writer
+     *            is the output, it isn't closed
+     * @throws IOException
+     *             if the output can't be written
+     */
+    public synchronized void writeReport(Writer writer) throws IOException {
+        final Map label2Total = new HashMap();
+        final Iterator children = root.children.values().iterator();
+        while (children.hasNext()) {
+            ((Node) children.next()).addTo(label2Total, new HashSet());
+        }
+        final List totals = new ArrayList(label2Total.values());
+        Collections.sort(totals, new Comparator() {
+            public int compare(Object arg0, Object arg1) {
+                return Profiler.compare(((Node) arg1).exclusiveTime, ((Node) arg0).exclusiveTime);
+            }
+        });
+        final String header = "      count   incl. ms   excl. ms   incl. KB   excl. KB  element\n"; //$NON-NLS-1$
+        writer.write("Elements, by exclusive time\n\n"); //$NON-NLS-1$
+        writer.write(header);
+        final Iterator it = totals.iterator();
+        while (it.hasNext()) {
+            ((Node) it.next()).writeLine(writer, ""); //$NON-NLS-1$
+        }
+        writer.write("\nCall tree, by inclusive time\n\n"); //$NON-NLS-1$
+        writer.write(header);
+        final Iterator nodes = Node.sortByInclusiveTime(root.children.values()).iterator();
+        while (nodes.hasNext()) {
+            ((Node) nodes.next()).writeTree(writer, ""); //$NON-NLS-1$
+        }
+        writer.flush();
+    }
+
+    private static int compare(long l0, long l1) {
+        return (l0 < l1) ? -1 : ((l0 == l1) ? 0 : 1);
+    }
+
+    /**
+     * Gets the label of an element : its position, and its text.
+     */
+    private static String getLabel(Object element) {
+        final StringBuffer label = new StringBuffer();
+        String text;
+        if (element instanceof TemplateElement) {
+            final TemplateElement templateElement = (TemplateElement) element;
+            if (templateElement.getScript() != null && templateElement.getScript().getFile() != null) {
+                label.append(templateElement.getScript().getFile().getName());
+                label.append(':');
+                label.append(templateElement.getLine());
+            } else {
+                label.append(templateElement.getPos().b());
+            }
+            label.append(' ');
+            text = templateElement.toString();
+        } else if (element instanceof Method) {
+            final Method method = (Method) element;
+            label.append("service "); //$NON-NLS-1$
+            label.append(method.getDeclaringClass().getName());
+            label.append('.');
+            text = method.getName() + '(' + (method.getParameterTypes().length - 1) + ')';
+        } else {
+            text = String.valueOf(element);
+        }
+        for (int i = 0; i < text.length() && i < Profiler.TEXT_LENGTH; i++) {
+            final char c = text.charAt(i);
+            label.append(Character.isWhitespace(c) ? ' ' : c);
+        }
+        if (text.length() > Profiler.TEXT_LENGTH) {
+            label.append("..."); //$NON-NLS-1$
+        }
+        return label.toString();
+    }
+
+    private static Method getAllocatedBytesMethod() {
+        try {
+            final Class type = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+            if (type.isInstance(Profiler.THREADS)) {
+                final Method supported = type.getMethod("isThreadAllocatedMemorySupported", new Class[0]); //$NON-NLS-1$
+                final Method enabled = type.getMethod("isThreadAllocatedMemoryEnabled", new Class[0]); //$NON-NLS-1$
+                if (Boolean.TRUE.equals(supported.invoke(Profiler.THREADS, new Object[0])) && Boolean.TRUE.equals(enabled.invoke(Profiler.THREADS, new Object[0]))) {
+                    // The variant for several threads always allocates the same array
+                    return type.getMethod("getThreadAllocatedBytes", new Class[] { long[].class }); //$NON-NLS-1$
+                }
+            }
+        } catch (Exception e) {
+            // Not a HotSpot virtual machine
+        }
+        return null;
+    }
+
+    /**
+     * A node of the call tree : an element evaluated in the context of its
+     * callers.
+     */
+    private static final class Node {
+
+        final String label;
+
+        /**
+         * The children : element -> Node.
+         */
+        final Map children = new IdentityHashMap();
+
+        long count;
+
+        long inclusiveTime;
+
+        long exclusiveTime;
+
+        long inclusiveBytes;
+
+        long exclusiveBytes;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node getChild(Object element) {
+            Node child = (Node) children.get(element);
+            if (child == null) {
+                child = new Node(Profiler.getLabel(element));
+                children.put(element, child);
+            }
+            return child;
+        }
+
+        void clear() {
+            count = 0;
+            inclusiveTime = 0;
+            exclusiveTime = 0;
+            inclusiveBytes = 0;
+            exclusiveBytes = 0;
+            final Iterator it = children.values().iterator();
+            while (it.hasNext()) {
+                ((Node) it.next()).clear();
+            }
+        }
+
+        /**
+         * Adds the measures of this node and of its children to the totals of
+         * their labels. The inclusive measures of a recursive evaluation are
+         * only added once.
+         */
+        void addTo(Map label2Total, Set callers) {
+            Node total = (Node) label2Total.get(label);
+            if (total == null) {
+                total = new Node(label);
+                label2Total.put(label, total);
+            }
+            total.count += count;
+            total.exclusiveTime += exclusiveTime;
+            total.exclusiveBytes += exclusiveBytes;
+            final boolean recursive = !callers.add(label);
+            if (!recursive) {
+                total.inclusiveTime += inclusiveTime;
+                total.inclusiveBytes += inclusiveBytes;
+            }
+            final Iterator it = children.values().iterator();
+            while (it.hasNext()) {
+                ((Node) it.next()).addTo(label2Total, callers);
+            }
+            if (!recursive) {
+                callers.remove(label);
+            }
+        }
+
+        void writeCollapsedStacks(Writer writer, String prefix, boolean allocations) throws IOException {
+            final String stack = prefix + label.replace(';', ',');
+            final long value = allocations ? exclusiveBytes : exclusiveTime / 1000;
+            if (value > 0) {
+                writer.write(stack);
+                writer.write(' ');
+                writer.write(Long.toString(value));
+                writer.write('\n');
+            }
+            final Iterator it = children.values().iterator();
+            while (it.hasNext()) {
+                ((Node) it.next()).writeCollapsedStacks(writer, stack + ';', allocations);
+            }
+        }
+
+        void writeTree(Writer writer, String indent) throws IOException {
+            writeLine(writer, indent);
+            final Iterator it = Node.sortByInclusiveTime(children.values()).iterator();
+            while (it.hasNext()) {
+                ((Node) it.next()).writeTree(writer, indent + "  "); //$NON-NLS-1$
+            }
+        }
+
+        void writeLine(Writer writer, String indent) throws IOException {
+            writer.write(Node.pad(Long.toString(count)));
+            writer.write(Node.pad(Node.format(inclusiveTime, 1000000)));
+            writer.write(Node.pad(Node.format(exclusiveTime, 1000000)));
+            writer.write(Node.pad(Node.format(inclusiveBytes, 1024)));
+            writer.write(Node.pad(Node.format(exclusiveBytes, 1024)));
+            writer.write("  "); //$NON-NLS-1$
+            writer.write(indent);
+            writer.write(label);
+            writer.write('\n');
+        }
+
+        static List sortByInclusiveTime(Collection nodes) {
+            final List result = new ArrayList(nodes);
+            Collections.sort(result, new Comparator() {
+                public int compare(Object arg0, Object arg1) {
+                    return Profiler.compare(((Node) arg1).inclusiveTime, ((Node) arg0).inclusiveTime);
+                }
+            });
+            return result;
+        }
+
+        static String format(long value, int unit) {
+            final long hundredths = value * 100 / unit;
+            final long decimals = hundredths % 100;
+            return (hundredths / 100) + (decimals < 10 ? ".0" : ".") + decimals; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        static String pad(String value) {
+            final StringBuffer result = new StringBuffer();
+            for (int i = value.length(); i < 11; i++) {
+                result.append(' ');
+            }
+            return result.append(value).toString();
+        }
+
+    }
+
+    /**
+     * An evaluation in progress.
+     */
+    private static final class Frame {
+
+        Node node;
+
+        long time;
+
+        long bytes;
+
+        long reads;
+
+        long childTime;
+
+        long childBytes;
+
+    }
+
+    /**
+     * The evaluations in progress of a thread.
+     */
+    private static final class Stack {
+
+        Frame[] frames = new Frame[32];
+
+        int depth;
+
+        /**
+         * The number of reads of the allocated bytes.
+         */
+        long reads;
+
+        /**
+         * The bytes allocated by a read of the allocated bytes.
+         */
+        long readCost;
+
+        /**
+         * The arguments of the reads : the id of the thread.
+         */
+        private final Object[] threadIds = new Object[] { new long[] { Thread.currentThread().getId() } };
+
+        Stack() {
+            if (Profiler.ALLOCATED_BYTES != null) {
+                long min = Long.MAX_VALUE;
+                long last = allocatedBytes();
+                for (int i = 0; i < 32; i++) {
+                    final long next = allocatedBytes();
+                    min = Math.min(min, next - last);
+                    last = next;
+                }
+                readCost = Math.max(0, min);
+            }
+        }
+
+        Frame push(Node node) {
+            if (depth == frames.length) {
+                final Frame[] newFrames = new Frame[frames.length * 2];
+                System.arraycopy(frames, 0, newFrames, 0, frames.length);
+                frames = newFrames;
+            }
+            Frame frame = frames[depth];
+            if (frame == null) {
+                frame = new Frame();
+                frames[depth] = frame;
+            }
+            frame.node = node;
+            depth++;
+            return frame;
+        }
+
+        long allocatedBytes() {
+            reads++;
+            if (Profiler.ALLOCATED_BYTES != null) {
+                try {
+                    return ((long[]) Profiler.ALLOCATED_BYTES.invoke(Profiler.THREADS, threadIds))[0];
+                } catch (Exception e) {
+                    // The allocated bytes aren't measured
+                }
+            }
+            return 0;
+        }
+
+    }
+
+}
@@ -25,8 +25,11 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeIterator;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.JavaServiceCallSite;
 import org.eclipse.sirius.query.legacy.tools.strings.Int2;
 import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
 
@@ -44,6 +47,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateCallExpression extends TemplateExpression {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The called link that is a template, a link of the model or a java service
      * name.
@@ -160,6 +165,7 @@ public class TemplateCallExpression extends TemplateExpression {
     public void addArgument(TemplateExpression expression) {
         arguments.add(expression);
         expression.setParent(this);
+        serviceKey = null;
     }
 
     /**
@@ -184,28 +190,71 @@ public class TemplateCallExpression extends TemplateExpression {
         }
     }
 
+    /**
+     * Gets the key of the java services that can be called by this
+     * expression : the link followed by the number of parameters, the receiver
+     * included.
+     * 
+     * @return the key of the java services
+     */
+    public String getServiceKey() {
+        String key = serviceKey;
+        if (key == null) {
+            key = link + (arguments.size() + 1);
+            serviceKey = key;
+        }
+        return key;
+    }
+
+    private transient volatile String serviceKey = null;
+
+    /**
+     * @return the java services resolved for this expression
+     */
+    public JavaServiceCallSite getServiceCallSite() {
+        JavaServiceCallSite callSite = serviceCallSite;
+        if (callSite == null) {
+            callSite = new JavaServiceCallSite();
+            serviceCallSite = callSite;
+        }
+        return callSite;
+    }
+
+    private transient volatile JavaServiceCallSite serviceCallSite = null;
+
     /**
      * Now, the next evaluation will be ignored.
      */
     public void ignoreNextEval() {
-        ignoreNextEval = true;
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            evalContext.ignoreNextEval(this);
+        } else {
+            ignoreNextEval = true;
+        }
     }
 
-    private boolean ignoreNextEval = false;
+    private transient boolean ignoreNextEval = false;
 
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(ENode current, IScript script, LaunchManager mode) throws ENodeException, FactoryException {
-        ENode result = evaluateSub(current, script, mode);
-        if (filter != null) {
-            result = select(result);
+        final Profiler profiler = Profiler.enter(this, mode);
+        try {
+            ENode result = evaluateSub(current, script, mode);
+            if (filter != null) {
+                result = select(result);
+            }
+            return result;
+        } finally {
+            Profiler.exit(profiler);
         }
-        return result;
     }
 
     private ENode evaluateSub(ENode current, IScript script, LaunchManager mode) throws ENodeException, FactoryException {
         // Ignore?
-        if (ignoreNextEval) {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null ? evalContext.consumeIgnoreNextEval(this) : ignoreNextEval) {
             ignoreNextEval = false;
             return current;
         } else {
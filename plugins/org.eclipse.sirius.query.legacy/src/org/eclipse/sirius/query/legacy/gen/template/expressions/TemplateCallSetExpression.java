@@ -12,6 +12,8 @@
 
 package org.eclipse.sirius.query.legacy.gen.template.expressions;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -26,6 +28,7 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.eval.merge.MergeTools;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
 import org.eclipse.sirius.query.legacy.gen.template.statements.TemplateFeatureStatement;
@@ -43,11 +46,36 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateCallSetExpression extends TemplateExpression {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Variables call expressions.
      */
     protected List calls = new ArrayList();
 
+    /**
+     * The kind of predefined link of the first call, resolved at the first
+     * evaluation.
+     */
+    private transient volatile int firstLinkKind = LINK_UNRESOLVED;
+
+    private static final int LINK_UNRESOLVED = -1;
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        firstLinkKind = LINK_UNRESOLVED;
+    }
+
+    private static final int LINK_DYNAMIC = 0;
+
+    private static final int LINK_INDEX = 1;
+
+    private static final int LINK_ARGS = 2;
+
+    private static final int LINK_USER_BEGIN = 3;
+
+    private static final int LINK_USER_END = 4;
+
     /**
      * Constructor.
      * 
@@ -71,6 +99,26 @@ public class TemplateCallSetExpression extends TemplateExpression {
         }
         calls.add(call);
         call.setParent(this);
+        firstLinkKind = LINK_UNRESOLVED;
+    }
+
+    private int getFirstLinkKind(TemplateCallExpression call) {
+        int kind = firstLinkKind;
+        if (kind == LINK_UNRESOLVED) {
+            if (call.link.equals(TemplateConstants.LINK_NAME_INDEX) && call.arguments.size() == 0 && "".equals(call.getPrefix())) { //$NON-NLS-1$
+                kind = LINK_INDEX;
+            } else if (call.link.equals(TemplateConstants.LINK_NAME_ARGS) && call.arguments.size() == 1 && "".equals(call.getPrefix())) { //$NON-NLS-1$
+                kind = LINK_ARGS;
+            } else if (call.link.equals(TemplateConstants.USER_BEGIN_NAME) && call.arguments.size() == 0) {
+                kind = LINK_USER_BEGIN;
+            } else if (call.link.equals(TemplateConstants.USER_END_NAME) && call.arguments.size() == 0) {
+                kind = LINK_USER_END;
+            } else {
+                kind = LINK_DYNAMIC;
+            }
+            firstLinkKind = kind;
+        }
+        return kind;
     }
 
     /**
@@ -130,6 +178,15 @@ public class TemplateCallSetExpression extends TemplateExpression {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(ENode current, IScript script, LaunchManager mode) throws ENodeException, FactoryException {
+        final Profiler profiler = Profiler.enter(this, mode);
+        try {
+            return evaluateSub(current, script, mode);
+        } finally {
+            Profiler.exit(profiler);
+        }
+    }
+
+    private ENode evaluateSub(ENode current, IScript script, LaunchManager mode) throws ENodeException, FactoryException {
         script.contextPush(IScript.CURRENT_NODE, current);
         try {
             Iterator calls = this.calls.iterator();
@@ -137,14 +194,15 @@ public class TemplateCallSetExpression extends TemplateExpression {
                 TemplateCallExpression call = (TemplateCallExpression) calls.next();
                 // Predefined links
                 boolean predefined = false;
-                if (call.link.equals(TemplateConstants.LINK_NAME_INDEX) && call.arguments.size() == 0 && "".equals(call.getPrefix())) {
+                final int kind = getFirstLinkKind(call);
+                if (kind == LINK_INDEX) {
                     Integer index = (Integer) script.contextPeek(IScript.WHILE_INDEX);
                     if (index == null) {
                         index = new Integer(0);
                     }
                     current = new ENode(index.intValue(), current);
                     predefined = true;
-                } else if (call.link.equals(TemplateConstants.LINK_NAME_ARGS) && call.arguments.size() == 1 && "".equals(call.getPrefix())) {
+                } else if (kind == LINK_ARGS) {
                     ENode[] templateArgs = (ENode[]) script.contextPeek(IScript.TEMPLATE_ARGS);
                     if (templateArgs == null) {
                         templateArgs = new ENode[] {};
@@ -162,10 +220,10 @@ public class TemplateCallSetExpression extends TemplateExpression {
                     } catch (ENodeCastException e) {
                         throw new ENodeException(AcceleoGenMessages.getString("TemplateCallSetExpression.InvalidArgument"), call.getPos(), script, current, true); //$NON-NLS-1$
                     }
-                } else if (call.link.equals(TemplateConstants.USER_BEGIN_NAME) && call.arguments.size() == 0) {
+                } else if (kind == LINK_USER_BEGIN) {
                     current = new ENode(MergeTools.DEFAULT_USER_BEGIN, current);
                     predefined = true;
-                } else if (call.link.equals(TemplateConstants.USER_END_NAME) && call.arguments.size() == 0) {
+                } else if (kind == LINK_USER_END) {
                     current = new ENode(MergeTools.DEFAULT_USER_END, current);
                     predefined = true;
                 }
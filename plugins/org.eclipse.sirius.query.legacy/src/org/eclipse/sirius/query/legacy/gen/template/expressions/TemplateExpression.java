@@ -31,6 +31,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public abstract class TemplateExpression extends TemplateElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Constructor.
      * 
@@ -41,6 +41,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateLiteralExpression extends TemplateExpression {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Boolean literal : true.
      */
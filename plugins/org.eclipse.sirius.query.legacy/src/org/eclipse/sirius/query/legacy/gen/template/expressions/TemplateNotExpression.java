@@ -33,6 +33,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateNotExpression extends TemplateExpression {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The expression after the not operator.
      */
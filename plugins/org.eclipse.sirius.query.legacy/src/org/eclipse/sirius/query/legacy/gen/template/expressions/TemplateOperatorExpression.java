@@ -24,6 +24,7 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
 import org.eclipse.sirius.query.legacy.tools.strings.Int2;
 import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
@@ -45,6 +46,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateOperatorExpression extends TemplateExpression {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * Operator name.
      */
@@ -55,6 +58,37 @@ public class TemplateOperatorExpression extends TemplateExpression {
      */
     protected List children = new ArrayList();
 
+    /**
+     * The operator, resolved once at creation time.
+     */
+    private final int opcode;
+
+    private static final int OP_UNKNOWN = 0;
+
+    private static final int OP_OR = 1;
+
+    private static final int OP_AND = 2;
+
+    private static final int OP_EQUALS = 3;
+
+    private static final int OP_NOT_EQUALS = 4;
+
+    private static final int OP_SUP_EQUALS = 5;
+
+    private static final int OP_INF_EQUALS = 6;
+
+    private static final int OP_SUP = 7;
+
+    private static final int OP_INF = 8;
+
+    private static final int OP_ADD = 9;
+
+    private static final int OP_SUB = 10;
+
+    private static final int OP_DIV = 11;
+
+    private static final int OP_MUL = 12;
+
     /**
      * Constructor.
      * 
@@ -66,6 +100,37 @@ public class TemplateOperatorExpression extends TemplateExpression {
     public TemplateOperatorExpression(String operator, IScript script) {
         super(script);
         this.operator = operator;
+        this.opcode = TemplateOperatorExpression.toOpcode(operator);
+    }
+
+    private static int toOpcode(String operator) {
+        if (TemplateConstants.OPERATOR_OR.equals(operator)) {
+            return OP_OR;
+        } else if (TemplateConstants.OPERATOR_AND.equals(operator)) {
+            return OP_AND;
+        } else if (TemplateConstants.OPERATOR_EQUALS.equals(operator)) {
+            return OP_EQUALS;
+        } else if (TemplateConstants.OPERATOR_NOT_EQUALS.equals(operator)) {
+            return OP_NOT_EQUALS;
+        } else if (TemplateConstants.OPERATOR_SUP_EQUALS.equals(operator)) {
+            return OP_SUP_EQUALS;
+        } else if (TemplateConstants.OPERATOR_INF_EQUALS.equals(operator)) {
+            return OP_INF_EQUALS;
+        } else if (TemplateConstants.OPERATOR_SUP.equals(operator)) {
+            return OP_SUP;
+        } else if (TemplateConstants.OPERATOR_INF.equals(operator)) {
+            return OP_INF;
+        } else if (TemplateConstants.OPERATOR_ADD.equals(operator)) {
+            return OP_ADD;
+        } else if (TemplateConstants.OPERATOR_SUB.equals(operator)) {
+            return OP_SUB;
+        } else if (TemplateConstants.OPERATOR_DIV.equals(operator)) {
+            return OP_DIV;
+        } else if (TemplateConstants.OPERATOR_MUL.equals(operator)) {
+            return OP_MUL;
+        } else {
+            return OP_UNKNOWN;
+        }
     }
 
     /**
@@ -89,6 +154,15 @@ public class TemplateOperatorExpression extends TemplateExpression {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(ENode current, IScript script, LaunchManager mode) throws ENodeException, FactoryException {
+        final Profiler profiler = Profiler.enter(this, mode);
+        try {
+            return evaluateSub(current, script, mode);
+        } finally {
+            Profiler.exit(profiler);
+        }
+    }
+
+    private ENode evaluateSub(ENode current, IScript script, LaunchManager mode) throws ENodeException, FactoryException {
         try {
             final Iterator children = this.children.iterator();
             ENode last = null;
@@ -96,12 +170,12 @@ public class TemplateOperatorExpression extends TemplateExpression {
                 final TemplateExpression child = (TemplateExpression) children.next();
                 ENode node = child.evaluate(current, script, mode);
                 if (last == null || last.isBoolean()) {
-                    if (operator.equals(TemplateConstants.OPERATOR_OR)) {
+                    if (opcode == OP_OR) {
                         if (node.isBoolean() && node.getBoolean()) {
                             last = node;
                             break;
                         }
-                    } else if (operator.equals(TemplateConstants.OPERATOR_AND)) {
+                    } else if (opcode == OP_AND) {
                         if (node.isBoolean() && !node.getBoolean()) {
                             last = node;
                             break;
@@ -109,30 +183,45 @@ public class TemplateOperatorExpression extends TemplateExpression {
                     }
                 }
                 if (last != null) {
-                    if (operator.equals(TemplateConstants.OPERATOR_OR)) {
+                    switch (opcode) {
+                    case OP_OR:
                         node = ExpressionTools.or(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_AND)) {
+                        break;
+                    case OP_AND:
                         node = ExpressionTools.and(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_EQUALS)) {
+                        break;
+                    case OP_EQUALS:
                         node = ExpressionTools.equals(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_NOT_EQUALS)) {
+                        break;
+                    case OP_NOT_EQUALS:
                         node = ExpressionTools.notEquals(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_SUP_EQUALS)) {
+                        break;
+                    case OP_SUP_EQUALS:
                         node = ExpressionTools.supE(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_INF_EQUALS)) {
+                        break;
+                    case OP_INF_EQUALS:
                         node = ExpressionTools.infE(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_SUP)) {
+                        break;
+                    case OP_SUP:
                         node = ExpressionTools.sup(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_INF)) {
+                        break;
+                    case OP_INF:
                         node = ExpressionTools.inf(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_ADD)) {
+                        break;
+                    case OP_ADD:
                         node = ExpressionTools.add(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_SUB)) {
+                        break;
+                    case OP_SUB:
                         node = ExpressionTools.sub(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_DIV)) {
+                        break;
+                    case OP_DIV:
                         node = ExpressionTools.div(last, node);
-                    } else if (operator.equals(TemplateConstants.OPERATOR_MUL)) {
+                        break;
+                    case OP_MUL:
                         node = ExpressionTools.mul(last, node);
+                        break;
+                    default:
+                        break;
                     }
                 }
                 last = node;
@@ -32,6 +32,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateParenthesisExpression extends TemplateExpression {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The expression inside the parenthesis.
      */
@@ -31,6 +31,7 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeIterator;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateCallExpression;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.EvalJavaService;
@@ -81,7 +82,7 @@ public abstract class AbstractScript implements IScript {
                 boolean found = false;
                 final ENodeList res = new ENodeList();
                 try {
-                    if (node.getList().size() == 0 && recursiveSearch /*
+                    if (node.getList().isEmpty() && recursiveSearch /*
                                                                        * ENode
                                                                        * services
                                                                        * OK
@@ -140,7 +141,7 @@ public abstract class AbstractScript implements IScript {
                                 boolean found = false;
                                 final ENodeList res = new ENodeList();
                                 try {
-                                    if (node.getList().size() == 0 && recursiveSearch) {
+                                    if (node.getList().isEmpty() && recursiveSearch) {
                                         found = true;
                                     }
                                     final ENodeIterator it = node.getList().iterator();
@@ -319,7 +320,7 @@ public abstract class AbstractScript implements IScript {
 
     /* (non-Javadoc) */
     public Object contextPeek(Object key) {
-        final Stack stack = (Stack) context.get(key);
+        final Stack stack = (Stack) getContext().get(key);
         if (stack != null && !stack.isEmpty()) {
             final Object result = stack.peek();
             if (result instanceof ENode) {
@@ -340,7 +341,7 @@ public abstract class AbstractScript implements IScript {
 
     /* (non-Javadoc) */
     public Object contextAt(Object key, int index) {
-        final Stack stack = (Stack) context.get(key);
+        final Stack stack = (Stack) getContext().get(key);
         if (stack != null) {
             if (index >= 0 && index < stack.size()) {
                 final Object result = stack.elementAt(stack.size() - index - 1);
@@ -365,6 +366,7 @@ public abstract class AbstractScript implements IScript {
 
     /* (non-Javadoc) */
     public void contextPush(Object key, Object value) {
+        final Map context = getContext();
         Stack stack = (Stack) context.get(key);
         if (stack == null) {
             stack = new Stack();
@@ -375,7 +377,7 @@ public abstract class AbstractScript implements IScript {
 
     /* (non-Javadoc) */
     public void contextPop(Object key) {
-        final Stack stack = (Stack) context.get(key);
+        final Stack stack = (Stack) getContext().get(key);
         if (stack != null) {
             stack.pop();
         }
@@ -386,6 +388,21 @@ public abstract class AbstractScript implements IScript {
      */
     private final Map context = new HashMap();
 
+    /**
+     * Gets the context stacks of this script : the ones of the evaluation
+     * context bound to the current thread, or the shared ones.
+     * 
+     * @return the context stacks : key -> stack
+     */
+    private Map getContext() {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            return evalContext.getScriptContext(this);
+        } else {
+            return context;
+        }
+    }
+
     /**
      * Resolves the type of the next step for the type of the previous node, and
      * the new link.
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The expressions parsed against the scripts, shared by all the scripts and
+ * bounded as a whole : the least recently used expressions are removed beyond
+ * the maximum size, whatever their script.
+ * <p>
+ * An expression is identified by its script and by a key given by the caller
+ * (the text of the expression...). The script is compared by identity and not
+ * by metamodel URI : a parsed expression resolves its services and imports
+ * with the script it has been parsed against, and two interpreters may
+ * declare different imports for the same metamodel.
+ * <p>
+ * The table is split in segments, each one being a least recently used map
+ * guarded by its own lock, so that concurrent evaluations rarely contend.
+ * The parsed expressions reference their script : the expressions of a
+ * script which is no longer used have to be removed with
+ * {@link #remove(IScript)}, else they are kept until they are evicted.
+ *
+ *
+ */
+public final class ParsedExpressionTable {
+
+    /**
+     * The default maximum number of parsed expressions kept by the shared
+     * table.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 8192;
+
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAXIMUM_SEGMENT_COUNT = 16;
+
+    /**
+     * The minimum size of a segment, smaller tables aren't split.
+     */
+    private static final int MINIMUM_SEGMENT_SIZE = 64;
+
+    private static final ParsedExpressionTable INSTANCE = new ParsedExpressionTable(DEFAULT_MAXIMUM_SIZE);
+
+    private final Map[] segments;
+
+    private final int segmentSize;
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize
+     *            is the maximum number of parsed expressions kept by the table
+     */
+    public ParsedExpressionTable(int maximumSize) {
+        int size = Math.max(1, maximumSize);
+        int count = 1;
+        while (count < MAXIMUM_SEGMENT_COUNT && size / (count * 2) >= MINIMUM_SEGMENT_SIZE) {
+            count *= 2;
+        }
+        segments = new Map[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new LinkedHashMap(16, 0.75f, true);
+        }
+        segmentSize = size / count;
+    }
+
+    /**
+     * @return the table shared by all the scripts
+     */
+    public static ParsedExpressionTable getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets an expression parsed against a script.
+     *
+     * @param script
+     *            is the script
+     * @param key
+     *            identifies the expression
+     * @return the parsed expression, or null if it isn't kept
+     */
+    public Object get(IScript script, Object key) {
+        Key entryKey = new Key(script, key);
+        Map segment = segmentFor(entryKey);
+        synchronized (segment) {
+            return segment.get(entryKey);
+        }
+    }
+
+    /**
+     * Keeps an expression parsed against a script.
+     *
+     * @param script
+     *            is the script
+     * @param key
+     *            identifies the expression
+     * @param expression
+     *            is the parsed expression
+     * @return the number of expressions removed to respect the maximum size
+     */
+    public int put(IScript script, Object key, Object expression) {
+        Key entryKey = new Key(script, key);
+        Map segment = segmentFor(entryKey);
+        synchronized (segment) {
+            segment.put(entryKey, expression);
+            int removed = 0;
+            Iterator it = segment.keySet().iterator();
+            while (segment.size() > segmentSize && it.hasNext()) {
+                it.next();
+                it.remove();
+                removed++;
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Gets the expressions parsed against a script.
+     *
+     * @param script
+     *            is the script
+     * @return a copy of the expressions, by key
+     */
+    public Map getAll(IScript script) {
+        Map result = new HashMap();
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                Iterator entries = segments[i].entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry entry = (Map.Entry) entries.next();
+                    Key entryKey = (Key) entry.getKey();
+                    if (entryKey.script == script) {
+                        result.put(entryKey.key, entry.getValue());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the expressions parsed against a script.
+     *
+     * @param script
+     *            is the script
+     */
+    public void remove(IScript script) {
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                Iterator it = segments[i].keySet().iterator();
+                while (it.hasNext()) {
+                    if (((Key) it.next()).script == script) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the expressions.
+     */
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                segments[i].clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of expressions kept
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                size += segments[i].size();
+            }
+        }
+        return size;
+    }
+
+    private Map segmentFor(Key entryKey) {
+        int hash = entryKey.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Identifies an expression among the expressions of all the scripts.
+     */
+    private static final class Key {
+
+        private final IScript script;
+
+        private final Object key;
+
+        private final int hash;
+
+        Key(IScript script, Object key) {
+            this.script = script;
+            this.key = key;
+            this.hash = 31 * System.identityHashCode(script) + key.hashCode();
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return script == other.script && key.equals(other.key);
+            }
+            return false;
+        }
+
+    }
+
+}
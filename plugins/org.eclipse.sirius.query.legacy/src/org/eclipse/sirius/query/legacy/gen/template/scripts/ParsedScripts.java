@@ -0,0 +1,504 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EEnumLiteral;
+import org.eclipse.emf.ecore.EOperation;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EParameter;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.sirius.query.legacy.gen.AcceleoEcoreGenPlugin;
+
+/**
+ * The parsed scripts, kept from one session to the next in the state location
+ * of the plug-in.
+ * <p>
+ * A script is identified by a hash of everything its parsing and its check
+ * depend on : the version of the engine, the content of the script, the content
+ * of its metamodel, and its imports (the contents of the imported scripts, the
+ * signatures of the methods of the Java services, and the contents of the
+ * metamodels). Its templates, their descriptors and its file templates are
+ * serialized in one file per hash : a later session maps this file and reads
+ * the templates instead of parsing the script. The first byte of the file
+ * tells if the expressions of the script have been checked without problem.
+ *
+ *
+ */
+final class ParsedScripts {
+
+    /**
+     * The maximum number of scripts kept.
+     */
+    private static final int MAXIMUM_SIZE = 1024;
+
+    /**
+     * The name of the directory in the state location.
+     */
+    private static final String DIRECTORY_NAME = "parsedScripts"; //$NON-NLS-1$
+
+    private static final String EXTENSION = ".ser"; //$NON-NLS-1$
+
+    private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+    private static final byte UNCHECKED = 0;
+
+    private static final byte CHECKED = 1;
+
+    private ParsedScripts() {
+        // utility class
+    }
+
+    /**
+     * Computes the hash of the description of a script.
+     *
+     * @param description
+     *            is the content of the script and of its imports
+     * @return the hash, or null if it can't be computed
+     */
+    static String hash(String description) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(description.getBytes(ParsedScripts.ENCODING)); //$NON-NLS-1$
+            StringBuffer result = new StringBuffer(digest.length * 2);
+            for (int i = 0; i < digest.length; i++) {
+                result.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                result.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Describes the content of a metamodel which is used to resolve the
+     * calls : its classifiers, with their inherited features and operations,
+     * and its sub-packages.
+     *
+     * @param description
+     *            is the description to complete
+     * @param ePackage
+     *            is the metamodel
+     */
+    static void describe(StringBuffer description, EPackage ePackage) {
+        description.append("package ").append(ePackage.getName()).append(' ').append(ePackage.getNsURI()).append('\n'); //$NON-NLS-1$
+        Iterator classifiers = ePackage.getEClassifiers().iterator();
+        while (classifiers.hasNext()) {
+            EClassifier classifier = (EClassifier) classifiers.next();
+            description.append(classifier.eClass().getName()).append(' ').append(classifier.getName()).append(' ').append(classifier.getInstanceClassName()).append('\n');
+            if (classifier instanceof EClass) {
+                EClass eClass = (EClass) classifier;
+                description.append(eClass.isAbstract()).append(' ').append(eClass.isInterface()).append('\n');
+                Iterator superTypes = eClass.getEAllSuperTypes().iterator();
+                while (superTypes.hasNext()) {
+                    description.append(" super ").append(ParsedScripts.name((EClassifier) superTypes.next())).append('\n'); //$NON-NLS-1$
+                }
+                Iterator features = eClass.getEAllStructuralFeatures().iterator();
+                while (features.hasNext()) {
+                    EStructuralFeature feature = (EStructuralFeature) features.next();
+                    description.append(" feature ").append(feature.getName()).append(' ').append(ParsedScripts.name(feature.getEType())).append(' ').append(feature.getUpperBound()); //$NON-NLS-1$
+                    if (feature instanceof EReference) {
+                        description.append(' ').append(((EReference) feature).isContainment());
+                    }
+                    description.append('\n');
+                }
+                Iterator operations = eClass.getEAllOperations().iterator();
+                while (operations.hasNext()) {
+                    EOperation operation = (EOperation) operations.next();
+                    description.append(" operation ").append(operation.getName()).append(' ').append(ParsedScripts.name(operation.getEType())).append(' ').append(operation.getUpperBound()); //$NON-NLS-1$
+                    Iterator parameters = operation.getEParameters().iterator();
+                    while (parameters.hasNext()) {
+                        description.append(' ').append(ParsedScripts.name(((EParameter) parameters.next()).getEType()));
+                    }
+                    description.append('\n');
+                }
+            } else if (classifier instanceof EEnum) {
+                Iterator literals = ((EEnum) classifier).getELiterals().iterator();
+                while (literals.hasNext()) {
+                    description.append(" literal ").append(((EEnumLiteral) literals.next()).getName()).append('\n'); //$NON-NLS-1$
+                }
+            }
+        }
+        Iterator subpackages = ePackage.getESubpackages().iterator();
+        while (subpackages.hasNext()) {
+            ParsedScripts.describe(description, (EPackage) subpackages.next());
+        }
+    }
+
+    /**
+     * Describes the signatures of the public methods of a Java service.
+     *
+     * @param description
+     *            is the description to complete
+     * @param service
+     *            is the class of the service
+     */
+    static void describe(StringBuffer description, Class service) {
+        description.append("service ").append(service.getName()).append('\n'); //$NON-NLS-1$
+        Method[] methods = service.getMethods();
+        String[] signatures = new String[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            signatures[i] = methods[i].toGenericString();
+        }
+        Arrays.sort(signatures);
+        for (int i = 0; i < signatures.length; i++) {
+            description.append(' ').append(signatures[i]).append('\n');
+        }
+    }
+
+    private static String name(EClassifier classifier) {
+        if (classifier == null) {
+            return "null"; //$NON-NLS-1$
+        } else if (classifier.getEPackage() != null) {
+            return classifier.getEPackage().getNsURI() + '#' + classifier.getName();
+        } else {
+            return classifier.getName();
+        }
+    }
+
+    /**
+     * Reads the templates of a script parsed in a previous session.
+     *
+     * @param key
+     *            is the hash of the script
+     * @param script
+     *            is the script to fill
+     * @return true if the templates have been read, false if the script has
+     *         to be parsed
+     */
+    static boolean read(String key, SpecificScript script) {
+        File file = ParsedScripts.getFile(key);
+        if (file != null && file.isFile()) {
+            try {
+                ParsedScripts.read(file, script);
+                file.setLastModified(System.currentTimeMillis());
+                return true;
+            } catch (IOException e) {
+                // Incompatible or damaged : the script is parsed again
+            } catch (ClassNotFoundException e) {
+                // Incompatible : the script is parsed again
+            } catch (ClassCastException e) {
+                // Damaged : the script is parsed again
+            }
+            file.delete();
+        }
+        return false;
+    }
+
+    /**
+     * Writes the templates of a script which has been parsed without problem.
+     *
+     * @param key
+     *            is the hash of the script
+     * @param script
+     *            is the parsed script
+     */
+    static void write(String key, SpecificScript script) {
+        File file = ParsedScripts.getFile(key);
+        if (file != null) {
+            File directory = file.getParentFile();
+            try {
+                // Another session may read the file while it is written
+                File temp = File.createTempFile(key, null, directory);
+                try {
+                    ParsedScripts.write(temp, script);
+                    if (!temp.renameTo(file)) {
+                        temp.delete();
+                    }
+                } catch (IOException e) {
+                    temp.delete();
+                    throw e;
+                }
+            } catch (IOException e) {
+                // The script will be parsed again in the next session
+            }
+            ParsedScripts.evict(directory);
+        }
+    }
+
+    /**
+     * Indicates if the script has been checked without problem.
+     *
+     * @param key
+     *            is the hash of the script
+     * @return true if the script doesn't need to be checked
+     */
+    static boolean isChecked(String key) {
+        File file = ParsedScripts.getFile(key);
+        if (file != null && file.isFile()) {
+            try {
+                RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                try {
+                    return input.length() > 0 && input.readByte() == ParsedScripts.CHECKED;
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                // The script is checked again
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers that the script has been checked without problem.
+     *
+     * @param key
+     *            is the hash of the script
+     */
+    static void setChecked(String key) {
+        File file = ParsedScripts.getFile(key);
+        if (file != null && file.isFile()) {
+            try {
+                RandomAccessFile output = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+                try {
+                    if (output.length() > 0) {
+                        output.writeByte(ParsedScripts.CHECKED);
+                    }
+                } finally {
+                    output.close();
+                }
+            } catch (IOException e) {
+                // The script will be checked again in the next session
+            }
+        }
+    }
+
+    /**
+     * Writes the templates of a script in the given file.
+     *
+     * @param file
+     *            is the file
+     * @param script
+     *            is the parsed script
+     * @throws IOException
+     *             if the file can't be written, or if a template can't be
+     *             serialized
+     */
+    static void write(File file, SpecificScript script) throws IOException {
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            output.write(ParsedScripts.UNCHECKED);
+            ObjectOutputStream out = new ScriptOutputStream(output, script);
+            script.writeTemplates(out);
+            out.flush();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Reads the templates of a script in the given file.
+     *
+     * @param file
+     *            is the file
+     * @param script
+     *            is the script to fill
+     * @throws IOException
+     *             if the file can't be read
+     * @throws ClassNotFoundException
+     *             if a class of the templates doesn't exist anymore
+     */
+    static void read(File file, SpecificScript script) throws IOException, ClassNotFoundException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() < 1) {
+                throw new EOFException();
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // Skips the check flag
+            buffer.get();
+            script.readTemplates(new ScriptInputStream(new BufferInputStream(buffer), script));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Deletes the least recently used scripts.
+     */
+    private static void evict(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().endsWith(ParsedScripts.EXTENSION);
+            }
+        });
+        if (files != null && files.length > ParsedScripts.MAXIMUM_SIZE) {
+            Arrays.sort(files, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    long t1 = ((File) o1).lastModified();
+                    long t2 = ((File) o2).lastModified();
+                    return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < files.length - ParsedScripts.MAXIMUM_SIZE; i++) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private static File getFile(String key) {
+        if (key != null) {
+            try {
+                AcceleoEcoreGenPlugin plugin = AcceleoEcoreGenPlugin.getDefault();
+                if (plugin != null) {
+                    File directory = plugin.getStateLocation().append(ParsedScripts.DIRECTORY_NAME).toFile();
+                    if (directory.isDirectory() || directory.mkdirs()) {
+                        return new File(directory, key + ParsedScripts.EXTENSION);
+                    }
+                }
+            } catch (IllegalStateException e) {
+                // No state location : the scripts are parsed in every session
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stands for the script in the serialized templates.
+     */
+    private static final class ScriptReference implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+    }
+
+    /**
+     * Writes the templates of a script : the script itself is replaced by a
+     * reference.
+     */
+    private static final class ScriptOutputStream extends ObjectOutputStream {
+
+        private final IScript script;
+
+        ScriptOutputStream(OutputStream out, IScript script) throws IOException {
+            super(out);
+            this.script = script;
+            enableReplaceObject(true);
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj == script) {
+                return new ScriptReference();
+            }
+            return obj;
+        }
+
+    }
+
+    /**
+     * Reads the templates of a script : the reference is replaced by the
+     * script, and the classes are resolved from the class of the script first.
+     */
+    private static final class ScriptInputStream extends ObjectInputStream {
+
+        private final IScript script;
+
+        ScriptInputStream(InputStream in, IScript script) throws IOException {
+            super(in);
+            this.script = script;
+            enableResolveObject(true);
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, script.getClass().getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ScriptReference) {
+                return script;
+            }
+            return obj;
+        }
+
+    }
+
+    /**
+     * Reads a mapped file.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
@@ -12,6 +12,8 @@
 
 package org.eclipse.sirius.query.legacy.gen.template.scripts;
 
+import java.io.Serializable;
+
 import org.eclipse.sirius.query.legacy.gen.template.TemplateConstants;
 import org.eclipse.sirius.query.legacy.tools.strings.Int2;
 
@@ -22,7 +24,9 @@ import org.eclipse.sirius.query.legacy.tools.strings.Int2;
  * 
  * 
  */
-public class ScriptDescriptor {
+public class ScriptDescriptor implements Serializable {
+
+    private static final long serialVersionUID = 1;
 
     /**
      * The type.
@@ -14,16 +14,22 @@ package org.eclipse.sirius.query.legacy.gen.template.scripts;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
@@ -46,6 +52,7 @@ import org.osgi.framework.Bundle;
 
 import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
 import org.eclipse.sirius.query.legacy.ecore.tools.ETools;
+import org.eclipse.sirius.query.legacy.gen.AcceleoEcoreGenPlugin;
 import org.eclipse.sirius.query.legacy.gen.AcceleoGenMessages;
 import org.eclipse.sirius.query.legacy.gen.template.Template;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateConstants;
@@ -63,6 +70,7 @@ import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.EvalJavaServ
 import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.EvalModel;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.JavaServiceNotFoundException;
 import org.eclipse.sirius.query.legacy.gen.template.statements.TemplateFeatureStatement;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
 import org.eclipse.sirius.query.legacy.tools.plugins.AcceleoMetamodelProvider;
 import org.eclipse.sirius.query.legacy.tools.plugins.AcceleoModuleProvider;
 import org.eclipse.sirius.query.legacy.tools.resources.Resources;
@@ -115,6 +123,30 @@ public class SpecificScript extends AbstractScript {
      */
     protected List textTemplateNames = new ArrayList();
 
+    /**
+     * The name of the templates, for a quick lookup.
+     */
+    private final Set textTemplateNameSet = Collections.newSetFromMap(new ConcurrentHashMap());
+
+    /**
+     * The text templates resolved for each type : EClass -> (name -> Template
+     * or NO_TEMPLATE). An EClass is equal only to itself, so this index is
+     * keyed by identity. It is filled lazily and cleared when the templates
+     * change.
+     */
+    private final Map eClass2TextTemplates = new ConcurrentHashMap();
+
+    /**
+     * The types to look for a text template, in lookup order, for each type :
+     * EClass -> EClassifier[].
+     */
+    private final Map eClass2Linearization = new ConcurrentHashMap();
+
+    /**
+     * Marks a type that has no text template for a name.
+     */
+    private static final Object NO_TEMPLATE = new Object();
+
     /**
      * Map of file templates.
      */
@@ -260,7 +292,7 @@ public class SpecificScript extends AbstractScript {
 
     private void reset(List fileHierarchy) throws TemplateSyntaxExceptions {
         if (file != null) {
-            final String content = Resources.getFileContent(file).toString();
+            final String content = Resources.getFileText(file, true).toString();
             reset(fileHierarchy, content);
         }
     }
@@ -301,6 +333,9 @@ public class SpecificScript extends AbstractScript {
             checkOnly = false;
             textTemplates.clear();
             textTemplateNames.clear();
+            textTemplateNameSet.clear();
+            eClass2TextTemplates.clear();
+            eClass2Linearization.clear();
             fileTemplates.clear();
             id2TextTemplate.clear();
             id2FileTemplate.clear();
@@ -312,7 +347,14 @@ public class SpecificScript extends AbstractScript {
         }
         clearFoundProperties();
         current = null;
-        init(fileHierarchy, content, checkOnly);
+        final Object event = FlightRecorderEvent.PARSING.begin();
+        try {
+            init(fileHierarchy, content, checkOnly);
+        } finally {
+            if (event != null) {
+                FlightRecorderEvent.PARSING.commit(event, "script", (file != null) ? file.getAbsolutePath() : null, new Integer(content.length())); //$NON-NLS-1$
+            }
+        }
 
     }
 
@@ -343,29 +385,67 @@ public class SpecificScript extends AbstractScript {
 
     /* (non-Javadoc) */
     public Template getTextTemplateForEObject(EObject object, String name) throws FactoryException, ENodeException {
-        return getTextTemplateForEClass(object.eClass(), name);
+        final EClass eClass = object.eClass();
+        Map name2Template = (Map) eClass2TextTemplates.get(eClass);
+        if (name2Template == null) {
+            name2Template = new ConcurrentHashMap();
+            eClass2TextTemplates.put(eClass, name2Template);
+        }
+        Object template = name2Template.get(name);
+        if (template == null) {
+            template = getTextTemplateForEClass(eClass, name);
+            if (template == null) {
+                template = SpecificScript.NO_TEMPLATE;
+            }
+            name2Template.put(name, template);
+        }
+        if (template != SpecificScript.NO_TEMPLATE) {
+            return (Template) template;
+        } else {
+            return null;
+        }
     }
 
     private Template getTextTemplateForEClass(EClass eClass, String name) throws FactoryException, ENodeException {
-        Template template = getTextTemplateForEClassifier(eClass, name);
-        if (template == null) {
+        final EClassifier[] linearization = getLinearization(eClass);
+        Template template = null;
+        for (int i = 0; template == null && i < linearization.length; i++) {
+            template = getTextTemplateForEClassifier(linearization[i], name);
+        }
+        return template;
+    }
+
+    /**
+     * Gets the types to look for a text template of the given type, in lookup
+     * order : the type itself, then its super types depth first. A type
+     * without super type has an "artificial" specialization on EObject.
+     * 
+     * @param eClass
+     *            is the type
+     * @return the types to look for a text template
+     */
+    private EClassifier[] getLinearization(EClass eClass) {
+        EClassifier[] linearization = (EClassifier[]) eClass2Linearization.get(eClass);
+        if (linearization == null) {
+            final List result = new ArrayList();
+            linearize(eClass, result);
+            linearization = (EClassifier[]) result.toArray(new EClassifier[result.size()]);
+            eClass2Linearization.put(eClass, linearization);
+        }
+        return linearization;
+    }
+
+    private void linearize(EClass eClass, List result) {
+        if (!result.contains(eClass)) {
+            result.add(eClass);
             if (eClass.getESuperTypes().isEmpty() && eClass != EcorePackage.eINSTANCE.getEObject()) {
-                /*
-                 * We want to add an "artificial" specialization on EObject
-                 */
-                template = getTextTemplateForEClass(EcorePackage.eINSTANCE.getEObject(), name);
+                linearize(EcorePackage.eINSTANCE.getEObject(), result);
             }
             final Iterator superTypes = eClass.getESuperTypes().iterator();
-            while (template == null && superTypes.hasNext()) {
-                final EClassifier superType = (EClassifier) superTypes.next();
-                if (superType instanceof EClass) {
-                    template = getTextTemplateForEClass((EClass) superType, name);
-                } else {
-                    template = getTextTemplateForEClassifier(superType, name);
-                }
+            while (superTypes.hasNext()) {
+                linearize((EClass) superTypes.next(), result);
             }
         }
-        return template;
     }
 
     private Template getTextTemplateForEClassifier(EClassifier eClass, String name) throws FactoryException, ENodeException {
@@ -421,7 +501,7 @@ public class SpecificScript extends AbstractScript {
     /**
      * Gets the text template that corresponds to an identifiant.
      */
-    protected Map id2TextTemplate = new HashMap();
+    protected Map id2TextTemplate = new ConcurrentHashMap();
 
     /**
      * Creates a new empty text template.
@@ -468,9 +548,10 @@ public class SpecificScript extends AbstractScript {
             // Update the position of this template in the script file
             template.setPos(pos);
             textTemplates.put(descriptor, template);
-            if (!textTemplateNames.contains(descriptor.getName())) {
+            if (textTemplateNameSet.add(descriptor.getName())) {
                 textTemplateNames.add(descriptor.getName());
             }
+            eClass2TextTemplates.clear();
             current = template;
         } else {
             failure = new TemplateSyntaxException(AcceleoGenMessages.getString("TemplateSyntaxError.DuplicateEntry.Text", new Object[] { descriptor.toString(), }), this, pos); //$NON-NLS-1$
@@ -622,7 +703,7 @@ public class SpecificScript extends AbstractScript {
     /**
      * Gets the file template that corresponds to an identifiant.
      */
-    protected Map id2FileTemplate = new HashMap();
+    protected Map id2FileTemplate = new ConcurrentHashMap();
 
     /**
      * Creates a new file template.
@@ -723,6 +804,7 @@ public class SpecificScript extends AbstractScript {
             text = AbstractScript.getScriptLoader().load(text);
             if (text != null) {
                 final List problems = new ArrayList();
+                String key = null;
                 TemplateConstants.initConstants(text);
                 oldImports = new ArrayList(imports);
                 clearImports();
@@ -736,10 +818,17 @@ public class SpecificScript extends AbstractScript {
                     }
                     parseImports(fileHierarchy, text, problems);
                     getSystemServicesFactory().addImports(this, isRoot);
-                    // Parse scripts
+                    // Parse scripts, or read them if they have been parsed in a
+                    // previous session
                     if (!checkOnly) {
                         syntaxErrors.clear();
-                        parseScripts(text, syntaxErrors);
+                        key = getKey(text);
+                        if (!ParsedScripts.read(key, this)) {
+                            parseScripts(text, syntaxErrors);
+                            if (syntaxErrors.isEmpty()) {
+                                ParsedScripts.write(key, this);
+                            }
+                        }
                     }
                     problems.addAll(syntaxErrors);
                 }
@@ -748,7 +837,16 @@ public class SpecificScript extends AbstractScript {
                     final IFile workspaceFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(file.getAbsolutePath()));
                     if (workspaceFile != null && workspaceFile.exists()) {
                         if (isRoot) {
-                            checkAllExpressions(problems);
+                            if (key == null) {
+                                key = getKey(text);
+                            }
+                            if (!ParsedScripts.isChecked(key)) {
+                                final int size = problems.size();
+                                checkAllExpressions(problems);
+                                if (problems.size() == size) {
+                                    ParsedScripts.setChecked(key);
+                                }
+                            }
                         }
                     }
                 }
@@ -764,6 +862,126 @@ public class SpecificScript extends AbstractScript {
         }
     }
 
+    /**
+     * Gets the key of the script in the parsed scripts.
+     * 
+     * @param text
+     *            is the text of the script
+     * @return the key, or null if the script can't be kept
+     */
+    private String getKey(String text) {
+        final String description = getDescription(text);
+        return (description != null) ? ParsedScripts.hash(description) : null;
+    }
+
+    /**
+     * Describes everything the parsing and the check of the expressions depend
+     * on : the version of the engine, the script, its metamodel, and its
+     * imports (the imported scripts, the signatures of the methods of the Java
+     * services, and the metamodels).
+     * 
+     * @param text
+     *            is the text of the script
+     * @return the description of the script, or null if an import can't be
+     *         described : the script is then always parsed and checked
+     */
+    private String getDescription(String text) {
+        final StringBuffer description = new StringBuffer();
+        description.append(getClass().getName()).append('\n');
+        if (AcceleoEcoreGenPlugin.getDefault() != null) {
+            description.append(AcceleoEcoreGenPlugin.getDefault().getBundle().getVersion());
+        }
+        description.append('\n');
+        if (metamodel != null) {
+            ParsedScripts.describe(description, metamodel);
+        }
+        description.append('\n').append(text.length()).append('\n').append(text);
+        final Iterator it = getImports().iterator();
+        while (it.hasNext()) {
+            final Object element = it.next();
+            description.append('\n');
+            if (element instanceof SpecificScript) {
+                final SpecificScript specificImport = (SpecificScript) element;
+                final String importDescription = (specificImport.oldContent != null) ? specificImport.getDescription(specificImport.oldContent) : null;
+                if (importDescription == null) {
+                    return null;
+                }
+                description.append(specificImport.getFile()).append('\n').append(importDescription);
+            } else if (element instanceof EvalJavaService && ((EvalJavaService) element).getInstance() != null) {
+                ParsedScripts.describe(description, ((EvalJavaService) element).getInstance().getClass());
+            } else if (element instanceof EvalModel && ((EvalModel) element).getMetamodel() != null) {
+                ParsedScripts.describe(description, ((EvalModel) element).getMetamodel());
+            } else {
+                return null;
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Writes the parsed templates of this script : the text templates with
+     * their descriptors, and the file templates.
+     * 
+     * @param out
+     *            is the stream
+     * @throws IOException
+     *             if a template can't be written
+     */
+    void writeTemplates(ObjectOutputStream out) throws IOException {
+        out.writeObject(textTemplates.keySet().toArray(new ScriptDescriptor[textTemplates.size()]));
+        out.writeObject(textTemplates.values().toArray(new Template[textTemplates.size()]));
+        out.writeObject(textTemplateNames.toArray(new String[textTemplateNames.size()]));
+        final String[] typeIDs = (String[]) fileTemplates.keySet().toArray(new String[fileTemplates.size()]);
+        final Template[] fileTemplateArray = new Template[typeIDs.length];
+        final Template[] fileTextTemplates = new Template[typeIDs.length];
+        for (int i = 0; i < typeIDs.length; i++) {
+            fileTemplateArray[i] = (Template) fileTemplates.get(typeIDs[i]);
+            fileTextTemplates[i] = (Template) file2TextTemplate.get(fileTemplateArray[i]);
+        }
+        out.writeObject(typeIDs);
+        out.writeObject(fileTemplateArray);
+        out.writeObject(fileTextTemplates);
+        out.writeObject(current);
+    }
+
+    /**
+     * Reads the templates written by {@link #writeTemplates(ObjectOutputStream)}
+     * in place of the parsing. Nothing changes if they can't be read.
+     * 
+     * @param in
+     *            is the stream
+     * @throws IOException
+     *             if a template can't be read
+     * @throws ClassNotFoundException
+     *             if the class of a template doesn't exist anymore
+     */
+    void readTemplates(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ScriptDescriptor[] descriptors = (ScriptDescriptor[]) in.readObject();
+        final Template[] templates = (Template[]) in.readObject();
+        final String[] names = (String[]) in.readObject();
+        final String[] typeIDs = (String[]) in.readObject();
+        final Template[] fileTemplateArray = (Template[]) in.readObject();
+        final Template[] fileTextTemplates = (Template[]) in.readObject();
+        final Template lastTemplate = (Template) in.readObject();
+        if (descriptors.length != templates.length || typeIDs.length != fileTemplateArray.length || typeIDs.length != fileTextTemplates.length) {
+            throw new InvalidObjectException(getClass().getName());
+        }
+        for (int i = 0; i < descriptors.length; i++) {
+            textTemplates.put(descriptors[i], templates[i]);
+        }
+        textTemplateNames.addAll(Arrays.asList(names));
+        textTemplateNameSet.addAll(Arrays.asList(names));
+        eClass2TextTemplates.clear();
+        for (int i = 0; i < typeIDs.length; i++) {
+            fileTemplates.put(typeIDs[i], fileTemplateArray[i]);
+            if (fileTextTemplates[i] != null) {
+                file2TextTemplate.put(fileTemplateArray[i], fileTextTemplates[i]);
+                text2FileTemplate.put(fileTextTemplates[i], fileTemplateArray[i]);
+            }
+        }
+        current = lastTemplate;
+    }
+
     /**
      * Check for masked overrides.
      * 
@@ -1413,7 +1631,7 @@ public class SpecificScript extends AbstractScript {
     }
 
     public ENode eGetTemplateSub(ENode node, String name, ENode[] args, LaunchManager mode) throws ENodeException, FactoryException {
-        if (textTemplateNames.contains(name)) {
+        if (textTemplateNameSet.contains(name)) {
             if (node.isEObject()) {
                 try {
                     final EObject object = node.getEObject();
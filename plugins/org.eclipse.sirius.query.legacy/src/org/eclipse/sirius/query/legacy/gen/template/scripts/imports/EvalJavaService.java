@@ -16,12 +16,10 @@ import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.ResourcesPlugin;
@@ -32,6 +30,7 @@ import org.eclipse.emf.ecore.EObject;
 import org.osgi.framework.Bundle;
 
 import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.gen.AcceleoEcoreGenPlugin;
 import org.eclipse.sirius.query.legacy.gen.AcceleoGenMessages;
 import org.eclipse.sirius.query.legacy.gen.template.TemplateConstants;
@@ -39,7 +38,9 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateCallExpression;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateExpression;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateLiteralExpression;
@@ -52,6 +53,7 @@ import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services.EOb
 import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services.RequestServices;
 import org.eclipse.sirius.query.legacy.tools.classloaders.AcceleoClassLoader;
 import org.eclipse.sirius.query.legacy.tools.classloaders.AcceleoGenClassLoader;
+import org.eclipse.sirius.query.legacy.tools.log.FlightRecorderEvent;
 import org.eclipse.sirius.query.legacy.tools.plugins.AcceleoModuleProvider;
 
 /**
@@ -68,27 +70,29 @@ public class EvalJavaService implements IEvalSettings {
 
     private static List getTypeResolveList() {
         if (EvalJavaService.typeResolveList == null) {
-            EvalJavaService.typeResolveList = new ArrayList();
+            final List list = new ArrayList();
             for (String element : EvalJavaService.SERVICES_WITH_TYPE_RESOLVE) {
-                EvalJavaService.typeResolveList.add(element);
+                list.add(element);
             }
+            EvalJavaService.typeResolveList = list;
         }
         return EvalJavaService.typeResolveList;
     }
 
-    private static List typeResolveList = null;
+    private static volatile List typeResolveList = null;
 
     private static List getTypeBridgeList() {
         if (EvalJavaService.typeBridgeList == null) {
-            EvalJavaService.typeBridgeList = new ArrayList();
+            final List list = new ArrayList();
             for (String element : EvalJavaService.SERVICES_WITH_TYPE_BRIDGE) {
-                EvalJavaService.typeBridgeList.add(element);
+                list.add(element);
             }
+            EvalJavaService.typeBridgeList = list;
         }
         return EvalJavaService.typeBridgeList;
     }
 
-    private static List typeBridgeList = null;
+    private static volatile List typeBridgeList = null;
 
     /**
      * The default evaluation mode.
@@ -121,9 +125,11 @@ public class EvalJavaService implements IEvalSettings {
     private ClassLoader loader = null;
 
     /**
-     * Gets the service for the given name
+     * The services of the class of the instance, shared by the java services
+     * of all the scripts. The registry keeps them while they are referenced
+     * here.
      */
-    private final Map name2service = new HashMap();
+    private JavaServiceRegistry.Services services;
 
     /**
      * Indicates if the services have a script context.
@@ -201,7 +207,12 @@ public class EvalJavaService implements IEvalSettings {
      * @return the evaluation mode
      */
     public int getMode() {
-        return mode;
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            return evalContext.getServiceMode(this, EvalJavaService.MODE_DEFAULT);
+        } else {
+            return mode;
+        }
     }
 
     /**
@@ -209,7 +220,12 @@ public class EvalJavaService implements IEvalSettings {
      *            is the evaluation mode
      */
     public void setMode(int mode) {
-        this.mode = mode;
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            evalContext.setServiceMode(this, mode);
+        } else {
+            this.mode = mode;
+        }
     }
 
     /**
@@ -237,38 +253,15 @@ public class EvalJavaService implements IEvalSettings {
     }
 
     private void initializeName2service() {
-        name2service.clear();
         if (instance != null) {
-            final Method[] methods = instance.getClass().getMethods();
-            for (Method method : methods) {
-                if (method.getDeclaringClass() == instance.getClass() && method.getParameterTypes().length > 0) {
-                    final String key = method.getName() + method.getParameterTypes().length;
-                    final Method[] name2values = (Method[]) name2service.get(key);
-                    if (name2values == null) {
-                        name2service.put(key, new Method[] { method });
-                    } else {
-                        final List name2values_ = new ArrayList(name2values.length + 1);
-                        boolean ok = false;
-                        for (Method name2value : name2values) {
-                            if (name2value.getParameterTypes()[0].isAssignableFrom(method.getParameterTypes()[0]) || name2value.getParameterTypes()[0] == ENode.class) {
-                                name2values_.add(method);
-                                ok = true;
-                            }
-                            name2values_.add(name2value);
-                        }
-                        if (!ok) {
-                            name2values_.add(method);
-                        }
-                        name2service.put(key, name2values_.toArray(new Method[name2values_.size()]));
-                    }
-                }
-            }
+            services = JavaServiceRegistry.getServices(instance);
+        } else {
+            services = null;
         }
     }
 
     private Method[] getPotentialMethods(String name, int argsCount) {
-        final String key = name + argsCount;
-        return (Method[]) name2service.get(key);
+        return (services != null) ? services.getMethods(name, argsCount) : null;
     }
 
     /**
@@ -315,7 +308,8 @@ public class EvalJavaService implements IEvalSettings {
 
     /* (non-Javadoc) */
     public ENode eGet(TemplateCallExpression call, ENode node, ENode[] args, LaunchManager mode, boolean recursiveSearch) throws FactoryException, ENodeException {
-        if (name2service.containsKey(call.getLink() + (args.length + 1))) {
+        final String key = (args.length == call.countArguments()) ? call.getServiceKey() : call.getLink() + (args.length + 1);
+        if (services != null && services.contains(key)) {
             if (node.isEObject()) {
                 final ClassLoader old = AcceleoClassLoader.getPreferredClassLoader();
                 try {
@@ -336,44 +330,31 @@ public class EvalJavaService implements IEvalSettings {
     }
 
     private ENode eGetSub(TemplateCallExpression call, ENode node, ENode[] args, LaunchManager runMode) throws FactoryException, ENodeException {
+        final int mode = getMode();
         // ASSERT (instance != null){
         // Get the type and the value for each argument
-        final List argTypesList = new ArrayList(args.length + 1);
-        final List argValuesList = new ArrayList(args.length + 1);
-        argTypesList.add(null);
-        argValuesList.add(null);
-        for (final ENode arg : args) {
-            argTypesList.add(arg.getTypeClass());
-            argValuesList.add(arg.getValue());
+        final Class[] argTypes = new Class[args.length + 1];
+        final Object[] argValues = new Object[args.length + 1];
+        for (int i = 0; i < args.length; i++) {
+            argTypes[i + 1] = args[i].getTypeClass();
+            argValues[i + 1] = args[i].getValue();
         }
-        final Class[] argTypes = (Class[]) argTypesList.toArray(new Class[argTypesList.size()]);
-        final Object[] argValues = argValuesList.toArray();
         // Get the method
         Method m = null;
-        if (mode == EvalJavaService.MODE_DEFAULT && !node.isNull()) {
-            argTypes[0] = node.getTypeClass();
-            argValues[0] = node.getValue();
-            m = eGetMethod(call.getLink(), argTypes, argValues[0]);
-        } else if (mode == EvalJavaService.MODE_ENODE) {
-            argTypes[0] = ENode.class;
-            argValues[0] = node;
-            m = eGetMethod(call.getLink(), argTypes, argValues[0]);
-        } else if (mode == EvalJavaService.MODE_LIST && node.isList()) {
-            try {
-                argTypes[0] = ENodeList.class;
-                argValues[0] = node.getList();
-                m = eGetMethod(call.getLink(), argTypes, argValues[0]);
-            } catch (final ENodeCastException e1) {
-                m = null;
+        if (mode == EvalJavaService.MODE_DEFAULT && !node.isNull() || mode == EvalJavaService.MODE_ENODE || mode == EvalJavaService.MODE_LIST && node.isList()) {
+            // The method only depends on the shape of the call
+            final JavaServiceCallSite callSite = call.getServiceCallSite();
+            Class receiverClass = null;
+            if (mode == EvalJavaService.MODE_DEFAULT) {
+                receiverClass = node.isEObject() ? node.getValue().getClass() : node.getTypeClass();
             }
-            if (m == null) {
-                try {
-                    argTypes[0] = List.class;
-                    argValues[0] = node.getList().asList();
-                    m = eGetMethod(call.getLink(), argTypes, argValues[0]);
-                } catch (final ENodeCastException e2) {
-                    m = null;
-                }
+            final JavaServiceCallSite.Target target = callSite.lookup(this, mode, receiverClass, argTypes);
+            if (target != null) {
+                setReceiver(node, mode, target.firstType, argTypes, argValues);
+                m = target.method;
+            } else {
+                m = eGetExactMethod(call, node, mode, argTypes, argValues);
+                callSite.record(this, mode, receiverClass, argTypes, argTypes[0], m);
             }
         }
         if (m == null) {
@@ -384,9 +365,10 @@ public class EvalJavaService implements IEvalSettings {
                     for (int i = 0; m == null && i < methods.length; i++) {
                         boolean ok = true;
                         final Class[] parameterTypes = methods[i].getParameterTypes();
+                        final Class[] adapterTypes = services.getAdapterTypes(methods[i]);
                         if (parameterTypes.length > 0) {
                             if (mode == EvalJavaService.MODE_DEFAULT) {
-                                final Class parameterType = ENode.getAdapterType(parameterTypes[0]);
+                                final Class parameterType = adapterTypes[0];
                                 if (parameterType != null) {
                                     argTypes[0] = parameterType;
                                     try {
@@ -401,7 +383,7 @@ public class EvalJavaService implements IEvalSettings {
                             if (mode == EvalJavaService.MODE_DEFAULT && ok || mode == EvalJavaService.MODE_ENODE && parameterTypes[0] == ENode.class || mode == EvalJavaService.MODE_LIST
                                     && parameterTypes[0] == ENodeList.class) {
                                 for (int j = 1; j < parameterTypes.length; j++) {
-                                    final Class parameterType = ENode.getAdapterType(parameterTypes[j]);
+                                    final Class parameterType = adapterTypes[j];
                                     if (parameterType != null) {
                                         argTypes[j] = parameterType;
                                         try {
@@ -425,32 +407,18 @@ public class EvalJavaService implements IEvalSettings {
             }
         }
         if (m != null) {
-            // Display method
-            String displayString = m.getName() + " ("; //$NON-NLS-1$
-            final Class[] paramTypes = m.getParameterTypes();
-            for (int j = 1; j < paramTypes.length; j++) { // The first
-                // parameter is
-                // ignored
-                final Class paramType = paramTypes[j];
-                displayString += EvalJavaService.getSimpleName(paramType);
-                if (j + 1 < paramTypes.length) {
-                    displayString += ", "; //$NON-NLS-1$
-                }
-            }
-            displayString += ')';
-            if (m.getReturnType() != null) {
-                displayString += ' ' + EvalJavaService.getSimpleName(m.getReturnType());
-            }
-            displayString += " - " + EvalJavaService.getSimpleName(m.getDeclaringClass()); //$NON-NLS-1$
             // Invoke method on instance
             Object result;
             try {
                 if (call.getLink().equals("select") && call.getScript() instanceof AbstractScript && call.countArguments() > 0) { //$NON-NLS-1$
                     ((AbstractScript) call.getScript()).contextPush(IScript.ARGUMENT_POSITION, call.getFirstArgument().getPos());
                 }
+                EDependencyRecorder.serviceCalled(m);
+                final Profiler profiler = Profiler.enter(m, runMode);
+                final Object event = FlightRecorderEvent.SERVICE_INVOCATION.begin();
                 try {
                     // void => ""
-                    if (m.getReturnType() != null && "void".equals(EvalJavaService.getSimpleName(m.getReturnType()))) { //$NON-NLS-1$
+                    if (m.getReturnType() == void.class) {
                         m.invoke(instance, argValues);
                         result = ""; //$NON-NLS-1$
                     } else {
@@ -463,6 +431,10 @@ public class EvalJavaService implements IEvalSettings {
                         throw npe;
                     }
                 } finally {
+                    if (event != null) {
+                        FlightRecorderEvent.SERVICE_INVOCATION.commit(event, m.getDeclaringClass().getName() + '.' + m.getName());
+                    }
+                    Profiler.exit(profiler);
                     if (call.getLink().equals("select") && call.getScript() instanceof AbstractScript && call.countArguments() > 0) { //$NON-NLS-1$
                         ((AbstractScript) call.getScript()).contextPop(IScript.ARGUMENT_POSITION);
                     }
@@ -476,7 +448,7 @@ public class EvalJavaService implements IEvalSettings {
                     final StringBuffer errorMessage = new StringBuffer("\n"); //$NON-NLS-1$
                     errorMessage.append((e.getTargetException() != null ? e.getTargetException().getClass().getName() + " : " + e.getTargetException().getMessage() : "")); //$NON-NLS-1$ //$NON-NLS-2$
                     throw new ENodeException(
-                            AcceleoGenMessages.getString("EvalJavaService.RuntimeException", new Object[] { displayString, errorMessage.toString(), }), call.getPos(), call.getScript(), //$NON-NLS-1$
+                            AcceleoGenMessages.getString("EvalJavaService.RuntimeException", new Object[] { EvalJavaService.getDisplayString(m), errorMessage.toString(), }), call.getPos(), call.getScript(), //$NON-NLS-1$
                             node, true, e.getTargetException());
                 }
             } catch (final Exception e) {
@@ -485,7 +457,7 @@ public class EvalJavaService implements IEvalSettings {
                 errorMessage.append(" : "); //$NON-NLS-1$
                 errorMessage.append(e.getMessage());
                 throw new ENodeException(
-                        AcceleoGenMessages.getString("EvalJavaService.RuntimeException", new Object[] { displayString, errorMessage.toString(), }), call.getPos(), call.getScript(), node, true, //$NON-NLS-1$
+                        AcceleoGenMessages.getString("EvalJavaService.RuntimeException", new Object[] { EvalJavaService.getDisplayString(m), errorMessage.toString(), }), call.getPos(), call.getScript(), node, true, //$NON-NLS-1$
                         e);
             }
             final ENode createTry = ENode.createTry(result, node);
@@ -493,7 +465,7 @@ public class EvalJavaService implements IEvalSettings {
                 return createTry;
             } else {
                 throw new ENodeException(
-                        AcceleoGenMessages.getString("EvalJavaService.RuntimeType", new Object[] { displayString, result.getClass().getName(), }), call.getPos(), call.getScript(), node, true); //$NON-NLS-1$
+                        AcceleoGenMessages.getString("EvalJavaService.RuntimeType", new Object[] { EvalJavaService.getDisplayString(m), result.getClass().getName(), }), call.getPos(), call.getScript(), node, true); //$NON-NLS-1$
             }
         } else {
             // Service doesn't exist
@@ -501,6 +473,82 @@ public class EvalJavaService implements IEvalSettings {
         }
     }
 
+    /**
+     * Finds the method that exactly matches the types of the arguments, the
+     * receiver is given according to the evaluation mode.
+     */
+    private Method eGetExactMethod(TemplateCallExpression call, ENode node, int mode, Class[] argTypes, Object[] argValues) {
+        Method m = null;
+        if (mode == EvalJavaService.MODE_DEFAULT) {
+            setReceiver(node, mode, node.getTypeClass(), argTypes, argValues);
+            m = eGetMethod(call.getLink(), argTypes, argValues[0]);
+        } else if (mode == EvalJavaService.MODE_ENODE) {
+            setReceiver(node, mode, ENode.class, argTypes, argValues);
+            m = eGetMethod(call.getLink(), argTypes, argValues[0]);
+        } else if (mode == EvalJavaService.MODE_LIST) {
+            if (setReceiver(node, mode, ENodeList.class, argTypes, argValues)) {
+                m = eGetMethod(call.getLink(), argTypes, argValues[0]);
+            }
+            if (m == null && setReceiver(node, mode, List.class, argTypes, argValues)) {
+                m = eGetMethod(call.getLink(), argTypes, argValues[0]);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Puts the receiver as first argument, with the given type.
+     * 
+     * @return false if the receiver cannot be converted to the given type
+     */
+    private boolean setReceiver(ENode node, int mode, Class firstType, Class[] argTypes, Object[] argValues) {
+        argTypes[0] = firstType;
+        if (mode == EvalJavaService.MODE_ENODE) {
+            argValues[0] = node;
+        } else if (mode == EvalJavaService.MODE_LIST) {
+            try {
+                if (firstType == List.class) {
+                    argValues[0] = node.getList().asList();
+                } else {
+                    argValues[0] = node.getList();
+                }
+            } catch (final ENodeCastException e) {
+                return false;
+            }
+        } else {
+            argValues[0] = node.getValue();
+        }
+        return true;
+    }
+
+    /**
+     * Gets the description of the given service method, used in the error
+     * messages.
+     * 
+     * @param m
+     *            is the method
+     * @return the description of the method
+     */
+    private static String getDisplayString(Method m) {
+        final StringBuffer displayString = new StringBuffer(m.getName());
+        displayString.append(" ("); //$NON-NLS-1$
+        final Class[] paramTypes = m.getParameterTypes();
+        for (int j = 1; j < paramTypes.length; j++) { // The first
+            // parameter is
+            // ignored
+            displayString.append(EvalJavaService.getSimpleName(paramTypes[j]));
+            if (j + 1 < paramTypes.length) {
+                displayString.append(", "); //$NON-NLS-1$
+            }
+        }
+        displayString.append(')');
+        if (m.getReturnType() != null) {
+            displayString.append(' ').append(EvalJavaService.getSimpleName(m.getReturnType()));
+        }
+        displayString.append(" - ").append(EvalJavaService.getSimpleName(m.getDeclaringClass())); //$NON-NLS-1$
+        return displayString.toString();
+    }
+
     /**
      * Gets the simple name of the given class.
      * <p>
@@ -540,30 +588,16 @@ public class EvalJavaService implements IEvalSettings {
     }
 
     /**
-     * Defines if the method is deprecated.
+     * Defines if the method is deprecated : it is annotated as deprecated, or
+     * listed by the "getDeprecatedMethods" method of its class. The class
+     * isn't instantiated to call this method.
      * 
      * @param m0
      *            the method
      * @return boolean
      */
     public static boolean isDeprecatedService(Method m0) {
-        boolean isDeprecated = false;
-
-        try {
-            final Method m2 = m0.getDeclaringClass().getDeclaredMethod("getDeprecatedMethods", null); //$NON-NLS-1$
-            if (m2 != null) {
-                final Object methods = m2.invoke(m0.getDeclaringClass().newInstance(), null);
-                if (methods != null && methods instanceof Method[]) {
-                    final Method[] mts = (Method[]) methods;
-                    for (final Method m1 : mts) {
-                        isDeprecated = isDeprecated || ((m0.getName() + m0.toString()).equals(m1.getName() + m1.toString()));
-                    }
-                }
-            }
-        } catch (Exception e) {
-            AcceleoEcoreGenPlugin.getDefault().log(e.getMessage(), true);
-        }
-        return isDeprecated;
+        return JavaServiceRegistry.getServices(m0.getDeclaringClass()).isDeprecated(m0);
     }
 
     private Method eGetMethod(String name, Class[] argTypes, Object receiver) {
@@ -632,25 +666,12 @@ public class EvalJavaService implements IEvalSettings {
         }
     }
 
-    private final Map quickResolveType = new HashMap();
+    private final Map quickResolveType = Collections.synchronizedMap(new HashMap());
 
     /* (non-Javadoc) */
     public Object[] getCompletionProposals(Object type, int depth) {
         if (instance != null) {
-            final Collection result = new TreeSet(new Comparator() {
-                public int compare(Object arg0, Object arg1) {
-                    Method m0 = (Method) arg0;
-                    Method m1 = (Method) arg1;
-                    return (m0.getName() + m0.toString()).compareTo(m1.getName() + m1.toString());
-                }
-            });
-            final Method[] methods = instance.getClass().getMethods();
-            for (final Method method : methods) {
-                if (method.getDeclaringClass() == instance.getClass() && method.getParameterTypes().length >= 1) {
-                    result.add(method);
-                }
-            }
-            return result.toArray();
+            return services.getProposals();
         } else {
             return new Object[] {};
         }
@@ -117,7 +117,7 @@ public class EvalModel implements IEvalSettings {
         if (node.isEObject()) {
             try {
                 eObject = node.getEObject();
-                node = new ENode(eObject, call, mode.isSynchronize()); // for
+                node = new ENode(eObject, call, mode); // for
                 // text
                 // to model
             } catch (final ENodeCastException e) {
@@ -125,11 +125,20 @@ public class EvalModel implements IEvalSettings {
             }
         }
         ENode eval;
-        if (eObject != null && EFactory.eValid(eObject, call.getLink()) && call.countArguments() == 0) {
+        // A feature is read with a single eGet, the other links are evaluated
+        EStructuralFeature feature = null;
+        if (eObject != null && call.countArguments() == 0) {
+            feature = eObject.eClass().getEStructuralFeature(call.getLink());
+        }
+        if (feature != null || eObject != null && EFactory.eValid(eObject, call.getLink()) && call.countArguments() == 0) {
             boolean hasMetaPrefix = TemplateConstants.LINK_PREFIX_METAMODEL.equals(call.getPrefix()) || TemplateConstants.LINK_PREFIX_METAMODEL_SHORT.equals(call.getPrefix());
-            final Object object = EFactory.eGet(eObject, call.getLink(), !hasMetaPrefix);
+            final Object object;
+            if (feature != null) {
+                object = EFactory.eGet(eObject, feature, !hasMetaPrefix);
+            } else {
+                object = EFactory.eGet(eObject, call.getLink(), !hasMetaPrefix);
+            }
             eval = eGetHolder(object, node);
-            final EStructuralFeature feature = eObject.eClass().getEStructuralFeature(call.getLink());
             if (feature != null) {
                 final boolean containment = feature == null || !(feature instanceof EReference) || ((EReference) feature).isContainment();
                 eval.setContainment(containment);
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts.imports;
+
+import java.lang.reflect.Method;
+
+/**
+ * The java services resolved for a call expression.
+ * <p>
+ * It is an inline cache : for each service, evaluation mode and shape of the
+ * arguments (receiver class and argument types) met by the call, it remembers
+ * the service method which has been found, or that no method matches exactly.
+ * The number of shapes is bounded, the call is considered megamorphic beyond
+ * this bound and the new shapes are no longer recorded.
+ *
+ *
+ */
+public final class JavaServiceCallSite {
+
+    /**
+     * The maximum number of shapes recorded for a call.
+     */
+    private static final int MAX_TARGETS = 8;
+
+    /**
+     * The recorded targets, replaced as a whole when a target is added.
+     */
+    private volatile Target[] targets = new Target[0];
+
+    /**
+     * Finds the target recorded for the given shape.
+     *
+     * @param service
+     *            is the service
+     * @param mode
+     *            is the evaluation mode
+     * @param receiverClass
+     *            is the class of the receiver, or null if it is not used by
+     *            the mode
+     * @param argTypes
+     *            are the types of the arguments, the first one is ignored
+     * @return the recorded target, or null if the shape has not been met yet
+     */
+    Target lookup(EvalJavaService service, int mode, Class receiverClass, Class[] argTypes) {
+        final Target[] current = targets;
+        for (final Target target : current) {
+            if (target.matches(service, mode, receiverClass, argTypes)) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the resolution of the given shape.
+     *
+     * @param service
+     *            is the service
+     * @param mode
+     *            is the evaluation mode
+     * @param receiverClass
+     *            is the class of the receiver, or null if it is not used by
+     *            the mode
+     * @param argTypes
+     *            are the types of the arguments, the first one is ignored
+     * @param firstType
+     *            is the type of the receiver expected by the method
+     * @param method
+     *            is the method, or null if no method matches exactly
+     */
+    synchronized void record(EvalJavaService service, int mode, Class receiverClass, Class[] argTypes, Class firstType, Method method) {
+        final Target[] current = targets;
+        if (current.length < JavaServiceCallSite.MAX_TARGETS) {
+            final Target[] extended = new Target[current.length + 1];
+            System.arraycopy(current, 0, extended, 0, current.length);
+            final Class[] types = new Class[argTypes.length];
+            System.arraycopy(argTypes, 1, types, 1, argTypes.length - 1);
+            extended[current.length] = new Target(service, mode, receiverClass, types, firstType, method);
+            targets = extended;
+        }
+    }
+
+    /**
+     * A service method resolved for a shape.
+     */
+    static final class Target {
+
+        private final EvalJavaService service;
+
+        private final int mode;
+
+        private final Class receiverClass;
+
+        private final Class[] argTypes;
+
+        /**
+         * The type of the receiver expected by the method.
+         */
+        final Class firstType;
+
+        /**
+         * The method, or null if no method matches exactly.
+         */
+        final Method method;
+
+        private Target(EvalJavaService service, int mode, Class receiverClass, Class[] argTypes, Class firstType, Method method) {
+            this.service = service;
+            this.mode = mode;
+            this.receiverClass = receiverClass;
+            this.argTypes = argTypes;
+            this.firstType = firstType;
+            this.method = method;
+        }
+
+        private boolean matches(EvalJavaService otherService, int otherMode, Class otherReceiverClass, Class[] otherArgTypes) {
+            if (service != otherService || mode != otherMode || receiverClass != otherReceiverClass || argTypes.length != otherArgTypes.length) {
+                return false;
+            }
+            for (int i = 1; i < argTypes.length; i++) {
+                if (argTypes[i] != otherArgTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts.imports;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import org.eclipse.sirius.query.legacy.gen.AcceleoEcoreGenPlugin;
+import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
+
+/**
+ * The services of the java classes, computed once for each class and shared by
+ * all the java services of all the scripts.
+ * <p>
+ * The services of a class are weakly referenced : they are kept while a java
+ * service of the class uses them. Their methods reference the class, so they
+ * mustn't be strongly reachable from the table : the class and its class
+ * loader are unloaded once the java services of the class are released.
+ *
+ *
+ */
+final class JavaServiceRegistry {
+
+    /**
+     * The services of each class : Class -> WeakReference of Services. The
+     * entry of a class is removed once its services have been cleared.
+     */
+    private static final Map class2Services = new WeakHashMap();
+
+    private JavaServiceRegistry() {
+        // utility class
+    }
+
+    /**
+     * Gets the services of the class.
+     *
+     * @param c
+     *            is the class of the services instance
+     * @return the services of the class
+     */
+    static Services getServices(Class c) {
+        synchronized (JavaServiceRegistry.class2Services) {
+            final WeakReference reference = (WeakReference) JavaServiceRegistry.class2Services.get(c);
+            Services services = (reference != null) ? (Services) reference.get() : null;
+            if (services == null) {
+                services = new Services(c);
+                JavaServiceRegistry.class2Services.put(c, new WeakReference(services));
+            }
+            return services;
+        }
+    }
+
+    /**
+     * Gets the services of the class of an instance. The instance is the one
+     * asked for the deprecated methods, the class isn't instantiated by the
+     * registry.
+     *
+     * @param instance
+     *            is the services instance, it is weakly referenced
+     * @return the services of the class of the instance
+     */
+    static Services getServices(Object instance) {
+        final Services services = JavaServiceRegistry.getServices(instance.getClass());
+        services.setInstance(instance);
+        return services;
+    }
+
+    /**
+     * The services of a class. Their methods are immutable, the deprecated
+     * methods are computed the first time they are needed.
+     */
+    static final class Services {
+
+        /**
+         * The methods for each name and number of parameters : name + count ->
+         * Method[].
+         */
+        private final Map key2Methods;
+
+        /**
+         * The adapter type of each parameter of the methods, null if the
+         * parameter can't be adapted : Method -> Class[].
+         */
+        private final Map method2AdapterTypes = new IdentityHashMap();
+
+        /**
+         * The methods proposed for the completion, sorted.
+         */
+        private final Method[] proposals;
+
+        /**
+         * The deprecated methods, null until they are computed : name +
+         * signature.
+         */
+        private Set deprecated;
+
+        /**
+         * An instance of the class, null if none has been given : it is weakly
+         * referenced.
+         */
+        private WeakReference instance;
+
+        Services(Class c) {
+            final Map result = new HashMap();
+            final Method[] methods = c.getMethods();
+            for (final Method method : methods) {
+                final Class[] parameterTypes = method.getParameterTypes();
+                if (method.getDeclaringClass() == c && parameterTypes.length > 0) {
+                    final String key = method.getName() + parameterTypes.length;
+                    List values = (List) result.get(key);
+                    if (values == null) {
+                        values = new ArrayList();
+                        result.put(key, values);
+                    }
+                    // The method goes before the methods of a super type
+                    final List newValues = new ArrayList(values.size() + 1);
+                    boolean ok = false;
+                    for (int i = 0; i < values.size(); i++) {
+                        final Method value = (Method) values.get(i);
+                        final Class firstType = value.getParameterTypes()[0];
+                        if (firstType.isAssignableFrom(parameterTypes[0]) || firstType == ENode.class) {
+                            newValues.add(method);
+                            ok = true;
+                        }
+                        newValues.add(value);
+                    }
+                    if (!ok) {
+                        newValues.add(method);
+                    }
+                    result.put(key, newValues);
+                    final Class[] adapterTypes = new Class[parameterTypes.length];
+                    for (int i = 0; i < parameterTypes.length; i++) {
+                        adapterTypes[i] = ENode.getAdapterType(parameterTypes[i]);
+                    }
+                    method2AdapterTypes.put(method, adapterTypes);
+                }
+            }
+            for (final Object entry : result.entrySet()) {
+                final List values = (List) ((Map.Entry) entry).getValue();
+                ((Map.Entry) entry).setValue(values.toArray(new Method[values.size()]));
+            }
+            key2Methods = result;
+            final TreeSet sorted = new TreeSet(new Comparator() {
+                public int compare(Object arg0, Object arg1) {
+                    Method m0 = (Method) arg0;
+                    Method m1 = (Method) arg1;
+                    return (m0.getName() + m0.toString()).compareTo(m1.getName() + m1.toString());
+                }
+            });
+            sorted.addAll(method2AdapterTypes.keySet());
+            proposals = (Method[]) sorted.toArray(new Method[sorted.size()]);
+        }
+
+        /**
+         * Indicates if there are methods for the key.
+         *
+         * @param key
+         *            is the name of the service and the number of parameters
+         * @return true if the service exists
+         */
+        boolean contains(String key) {
+            return key2Methods.containsKey(key);
+        }
+
+        /**
+         * Gets the methods for the name and the number of parameters.
+         *
+         * @param name
+         *            is the name of the service
+         * @param count
+         *            is the number of parameters
+         * @return the methods, or null if there is no method
+         */
+        Method[] getMethods(String name, int count) {
+            return (Method[]) key2Methods.get(name + count);
+        }
+
+        /**
+         * Gets the adapter types of the parameters of a method.
+         *
+         * @param method
+         *            is one of the methods of these services
+         * @return the adapter type of each parameter, null for a parameter
+         *         which can't be adapted
+         */
+        Class[] getAdapterTypes(Method method) {
+            return (Class[]) method2AdapterTypes.get(method);
+        }
+
+        /**
+         * Gets the methods proposed for the completion.
+         *
+         * @return the sorted methods, a new array
+         */
+        Object[] getProposals() {
+            final Object[] result = new Object[proposals.length];
+            System.arraycopy(proposals, 0, result, 0, proposals.length);
+            return result;
+        }
+
+        /**
+         * Keeps an instance of the class, if none is kept yet.
+         *
+         * @param object
+         *            is an instance of the class
+         */
+        synchronized void setInstance(Object object) {
+            if (instance == null || instance.get() == null) {
+                instance = new WeakReference(object);
+            }
+        }
+
+        /**
+         * Indicates if the method is annotated as deprecated, or listed by the
+         * "getDeprecatedMethods" method of its class. An instance method is
+         * called on the instance given to
+         * {@link JavaServiceRegistry#getServices(Object)} : without it, only
+         * the annotation is considered.
+         *
+         * @param m0
+         *            is a method of the class
+         * @return true if the method is deprecated
+         */
+        synchronized boolean isDeprecated(Method m0) {
+            if (m0.isAnnotationPresent(Deprecated.class)) {
+                return true;
+            }
+            if (deprecated == null) {
+                final Class c = m0.getDeclaringClass();
+                try {
+                    final Method m2 = c.getDeclaredMethod("getDeprecatedMethods", null); //$NON-NLS-1$
+                    Object receiver = null;
+                    if (!Modifier.isStatic(m2.getModifiers())) {
+                        receiver = (instance != null) ? instance.get() : null;
+                        if (!c.isInstance(receiver)) {
+                            return false;
+                        }
+                    }
+                    deprecated = Services.toSignatures(m2.invoke(receiver, null));
+                } catch (NoSuchMethodException e) {
+                    deprecated = Collections.EMPTY_SET;
+                } catch (Exception e) {
+                    AcceleoEcoreGenPlugin.getDefault().log(e.getMessage(), true);
+                    deprecated = Collections.EMPTY_SET;
+                }
+            }
+            return deprecated.contains(m0.getName() + m0.toString());
+        }
+
+        private static Set toSignatures(Object methods) {
+            final Set result = new HashSet();
+            if (methods instanceof Method[]) {
+                for (final Method m1 : (Method[]) methods) {
+                    result.add(m1.getName() + m1.toString());
+                }
+            }
+            return Collections.unmodifiableSet(result);
+        }
+
+    }
+
+}
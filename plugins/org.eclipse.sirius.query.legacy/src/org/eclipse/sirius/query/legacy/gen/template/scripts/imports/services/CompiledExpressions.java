@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services;
+
+import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxException;
+import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateExpression;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
+import org.eclipse.sirius.query.legacy.gen.template.scripts.ParsedExpressionTable;
+import org.eclipse.sirius.query.legacy.tools.strings.Int2;
+
+/**
+ * The expressions given as strings to the system services (select, delete,
+ * evaluate, sort...), parsed once for each script.
+ * <p>
+ * An expression is identified by its text and by its position in the calling
+ * template. They are kept in the {@link ParsedExpressionTable} shared with the
+ * templates, and removed with the other expressions of their script.
+ *
+ *
+ */
+final class CompiledExpressions {
+
+    private CompiledExpressions() {
+        // utility class
+    }
+
+    /**
+     * Gets the parsed expression, parsing it the first time.
+     *
+     * @param script
+     *            is the script
+     * @param pos
+     *            is the position of the expression in the calling template
+     * @param call
+     *            is the text of the expression, simple quotes are replaced by
+     *            double quotes
+     * @return the parsed expression
+     * @throws TemplateSyntaxException
+     */
+    static TemplateExpression get(IScript script, int pos, String call) throws TemplateSyntaxException {
+        ParsedExpressionTable table = ParsedExpressionTable.getInstance();
+        Key key = new Key(pos, call);
+        TemplateExpression expression = (TemplateExpression) table.get(script, key);
+        if (expression == null) {
+            String text = call.replaceAll("'", "\\\""); //$NON-NLS-1$ //$NON-NLS-2$
+            expression = TemplateExpression.fromString(CompiledExpressions.computeCall(pos, text), new Int2(pos, pos + text.length()), script);
+            table.put(script, key, expression);
+        }
+        return expression;
+    }
+
+    private static String computeCall(int begin, String call) {
+        if (begin > 0) {
+            StringBuffer result = new StringBuffer(""); //$NON-NLS-1$
+            for (int i = 0; i < begin; i++) {
+                result.append(' ');
+            }
+            result.append(call);
+            return result.toString();
+        } else {
+            return call;
+        }
+    }
+
+    /**
+     * Identifies an expression of a system service among the expressions
+     * parsed against a script.
+     */
+    private static final class Key {
+
+        private final int pos;
+
+        private final String call;
+
+        Key(int pos, String call) {
+            this.pos = pos;
+            this.call = call;
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public int hashCode() {
+            return 31 * pos + call.hashCode();
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return pos == other.pos && call.equals(other.call);
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -12,11 +12,10 @@
 
 package org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
 import org.eclipse.emf.ecore.EObject;
 
@@ -85,15 +84,27 @@ public class ENodeServices {
      */
     public ENode filter(ENode node, String type) throws ENodeCastException, FactoryException {
         if (node.isList()) {
-            ENodeList res = new ENodeList();
-            ENodeIterator it = node.getList().iterator();
-            while (it.hasNext()) {
-                ENode child = filter(it.next(), type);
-                if (!child.isNull()) {
-                    res.add(child);
+            // The elements are filtered when they are pulled
+            final ENodeIterator it = node.getList().iterator();
+            final String filterType = type;
+            return new ENode(new ENodeList(new Iterator() {
+                public boolean hasNext() {
+                    return it.hasNext();
                 }
-            }
-            return new ENode(res, node);
+
+                public Object next() {
+                    ENode child = it.next();
+                    if (child.getValue() instanceof EObject && !EFactory.eInstanceOf((EObject) child.getValue(), filterType)) {
+                        return null;
+                    } else {
+                        return child;
+                    }
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }), node);
         } else if (node.isEObject()) {
             if (EFactory.eInstanceOf(node.getEObject(), type)) {
                 return node;
@@ -426,11 +437,16 @@ public class ENodeServices {
     private int trace = 0;
 
     private ENode evaluate(ENode current, String call) throws TemplateSyntaxException, FactoryException {
-        int pos = getBegin();
-        call = call.replaceAll("'", "\\\""); //$NON-NLS-1$ //$NON-NLS-2$
-        TemplateExpression expression = TemplateExpression.fromString(computeCall(pos, call), new Int2(pos, pos + call.length()), script);
+        return evaluate(current, compile(call), LaunchManager.create("run", true)); //$NON-NLS-1$
+    }
+
+    private TemplateExpression compile(String call) throws TemplateSyntaxException {
+        return CompiledExpressions.get(script, getBegin(), call);
+    }
+
+    private ENode evaluate(ENode current, TemplateExpression expression, LaunchManager mode) throws FactoryException {
         try {
-            return expression.evaluate(current, script, LaunchManager.create("run", true)); //$NON-NLS-1$
+            return expression.evaluate(current, script, mode);
         } catch (ENodeException e) {
             return new ENode(ENode.EMPTY, current);
         }
@@ -445,19 +461,6 @@ public class ENodeServices {
         }
     }
 
-    private String computeCall(int begin, String call) {
-        if (begin > 0) {
-            StringBuffer result = new StringBuffer(""); //$NON-NLS-1$
-            for (int i = 0; i < begin; i++) {
-                result.append(' ');
-            }
-            result.append(call);
-            return result.toString();
-        } else {
-            return call;
-        }
-    }
-
     /***************************************************************************
      * 
      * List Services
@@ -522,8 +525,11 @@ public class ENodeServices {
         if (node.isList()) {
             ENodeList list = node.getList();
             ENodeList result = new ENodeList();
-            for (int i = begin; i < list.size() && (i < end || end == -1); i++) {
+            for (int i = Math.max(begin, 0); i < end || end == -1; i++) {
                 ENode child = list.get(i);
+                if (child == null) {
+                    break;
+                }
                 result.add(child);
             }
             return new ENode(result, node);
@@ -730,37 +736,38 @@ public class ENodeServices {
      * @throws ENodeCastException
      */
     public ENode nSort(ENode current, String call) throws ENodeCastException {
-        final String template = call;
         if (current.isList()) {
-            Set set = new TreeSet(new Comparator() {
-                public int compare(Object arg0, Object arg1) {
-                    ENode n0;
-                    try {
-                        n0 = evaluate((ENode) arg0, template);
-                    } catch (TemplateSyntaxException e) {
-                        n0 = new ENode(ENode.EMPTY, (ENode) arg0);
-                    } catch (FactoryException e) {
-                        n0 = new ENode(ENode.EMPTY, (ENode) arg0);
-                    }
-                    ENode n1;
+            ENodeList list = current.getList();
+            TemplateExpression expression;
+            try {
+                expression = compile(call);
+            } catch (TemplateSyntaxException e) {
+                expression = null;
+            }
+            LaunchManager mode = LaunchManager.create("run", true); //$NON-NLS-1$
+            // Decorate : the key of each node is evaluated once
+            SortEntry[] entries = new SortEntry[list.size()];
+            ENodeIterator it = list.iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                ENode node = it.next();
+                ENode key;
+                if (expression != null) {
                     try {
-                        n1 = evaluate((ENode) arg1, template);
-                    } catch (TemplateSyntaxException e) {
-                        n1 = new ENode(ENode.EMPTY, (ENode) arg1);
+                        key = evaluate(node, expression, mode);
                     } catch (FactoryException e) {
-                        n1 = new ENode(ENode.EMPTY, (ENode) arg1);
+                        key = new ENode(ENode.EMPTY, node);
                     }
-                    return n0.compareTo(n1);
+                } else {
+                    key = new ENode(ENode.EMPTY, node);
                 }
-            });
-            ENodeIterator it = current.getList().iterator();
-            while (it.hasNext()) {
-                set.add(it.next());
+                entries[i] = new SortEntry(key, node);
             }
+            // Sort : stable, the nodes with equal keys keep their order
+            Arrays.sort(entries, SortEntry.COMPARATOR);
+            // Undecorate
             ENodeList result = new ENodeList();
-            Iterator elements = set.iterator();
-            while (elements.hasNext()) {
-                result.add((ENode) elements.next());
+            for (int i = 0; i < entries.length; i++) {
+                result.add(entries[i].node);
             }
             return new ENode(result, current);
         } else {
@@ -768,4 +775,48 @@ public class ENodeServices {
         }
     }
 
+    /**
+     * A node and its sort key.
+     */
+    private static final class SortEntry {
+
+        /**
+         * Compares the keys as ENode.compareTo does, but two equal keys are
+         * equal here.
+         */
+        static final Comparator COMPARATOR = new Comparator() {
+            public int compare(Object arg0, Object arg1) {
+                SortEntry e0 = (SortEntry) arg0;
+                SortEntry e1 = (SortEntry) arg1;
+                if (e0.value instanceof Comparable && e1.value instanceof Comparable) {
+                    return ((Comparable) e0.value).compareTo(e1.value);
+                } else {
+                    return e0.getText().compareTo(e1.getText());
+                }
+            }
+        };
+
+        final Object value;
+
+        final ENode key;
+
+        final ENode node;
+
+        private String text;
+
+        SortEntry(ENode key, ENode node) {
+            this.key = key;
+            this.value = key.getValue();
+            this.node = node;
+        }
+
+        String getText() {
+            if (text == null) {
+                text = key.toString();
+            }
+            return text;
+        }
+
+    }
+
 }
@@ -12,22 +12,12 @@
 
 package org.eclipse.sirius.query.legacy.gen.template.scripts.imports.services;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.WeakHashMap;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.emf.common.util.EList;
-import org.eclipse.emf.common.util.TreeIterator;
-import org.eclipse.emf.ecore.EClass;
-import org.eclipse.emf.ecore.EClassifier;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EPackage;
 import org.eclipse.emf.ecore.EReference;
@@ -37,6 +27,9 @@ import org.eclipse.emf.ecore.util.EcoreUtil;
 
 import org.eclipse.sirius.query.legacy.ecore.factories.EFactory;
 import org.eclipse.sirius.query.legacy.ecore.factories.FactoryException;
+import org.eclipse.sirius.query.legacy.ecore.tools.EContainmentReachability;
+import org.eclipse.sirius.query.legacy.ecore.tools.EContentTypeIndex;
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.ecore.tools.ETools;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
@@ -86,10 +79,7 @@ public class EObjectServices {
      *            the root package of a metamodel
      */
     protected void addMetamodel(EPackage metamodel) {
-        if (!eRootPackages.contains(metamodel)) {
-            listClassifiers(metamodel);
-            eRootPackages.add(metamodel);
-        }
+        reachability.addMetamodel(metamodel);
     }
 
     /**
@@ -156,6 +146,7 @@ public class EObjectServices {
      * @return the children
      */
     public EList eContents(EObject current) {
+        EDependencyRecorder.containmentsRead(current);
         return current.eContents();
     }
 
@@ -175,10 +166,8 @@ public class EObjectServices {
                     result.addAll(eAllContents(it.next()));
                 }
             } else if (current.isEObject()) {
-                TreeIterator it = current.getEObject().eAllContents();
-                while (it.hasNext()) {
-                    result.add(ENode.createTry(it.next(), current));
-                }
+                EDependencyRecorder.contentsRead(current.getEObject());
+                return ENodeList.createTry(current.getEObject().eAllContents(), current);
             }
         } catch (ENodeCastException e) {
             // Never catch
@@ -205,30 +194,9 @@ public class EObjectServices {
                     result.addAll(eAllContents(it.next(), type));
                 }
             } else if (current.isEObject()) {
-                StringBuffer buffer = new StringBuffer();
-                Resource eResource = current.getEObject().eResource();
-                if (eResource != null) {
-                    buffer.append(eResource.getURI().path());
-                    buffer.append(':');
-                    buffer.append(eResource.getURIFragment(current.getEObject()));
-                } else {
-                    buffer.append(':');
-                    buffer.append(ETools.getURI(current.getEObject()));
-                }
-                buffer.append(':');
-                buffer.append(type);
-                String uri = buffer.toString();
-                List children = (List) eAllContents.get(uri);
-                if (children == null) {
-                    int i = type.lastIndexOf("."); //$NON-NLS-1$
-                    String typeName = i > -1 ? type.substring(i + 1) : type;
-                    children = eAllContents(current.getEObject(), type, typeName);
-                    eAllContents.put(uri, children);
-                }
-                Iterator it = children.iterator();
-                while (it.hasNext()) {
-                    result.add(ENode.createTry(it.next(), current));
-                }
+                EDependencyRecorder.contentsRead(current.getEObject());
+                List children = EContentTypeIndex.getContents(current.getEObject(), type, contentsCollector);
+                return ENodeList.createTry(children.iterator(), current);
             }
         } catch (ENodeCastException e) {
             // Never catch
@@ -236,123 +204,20 @@ public class EObjectServices {
         return result;
     }
 
-    private Map eAllContents = new WeakHashMap();
-
-    private List eRootPackages = new ArrayList();
-
-    private Map eClass2containments = new HashMap();
-
-    private Map eClass2subTypes = null;
-
-    private List eAllContents(EObject object, String type, String typeName) {
-        List result = new ArrayList();
-        List containmentTypeNames = getContainmentNames(object);
-        if (containmentTypeNames.contains(typeName)) {
-            Iterator eContents = object.eContents().iterator();
-            while (eContents.hasNext()) {
-                EObject eContent = (EObject) eContents.next();
-                if (EFactory.eInstanceOf(eContent, type)) {
-                    result.add(eContent);
-                }
-                result.addAll(eAllContents(eContent, type, typeName));
-            }
-        }
-        return result;
-    }
-
-    private List getContainmentNames(EObject object) {
-        EClass eClass = object.eClass();
-        EPackage ePackage = (EPackage) getRootContainer(eClass);
-        addMetamodel(ePackage);
-        String eClassName = eClass.getName();
-        List containmentNames = (List) eClass2containments.get(eClassName);
-        if (containmentNames == null) {
-            containmentNames = new ArrayList();
-            computeContainments(new ArrayList(), containmentNames, ePackage, eClass.getEAllReferences());
-            eClass2containments.put(eClassName, containmentNames);
-        }
-        return containmentNames;
-    }
-
-    private void computeContainments(List containmentTypes, List containmentNames, EPackage ePackage, List eReferences) {
-        Iterator references = eReferences.iterator();
-        while (references.hasNext()) {
-            EReference eReference = (EReference) references.next();
-            if (eReference.isContainment()) {
-                Set types = new HashSet();
-                types.add(eReference.getEType());
-                if (eReference.getEType() instanceof EClass) {
-                    types.addAll(((EClass) eReference.getEType()).getEAllSuperTypes());
-                }
-                Iterator subTypes = eClass2subTypes(ePackage, eReference.getEType()).iterator();
-                while (subTypes.hasNext()) {
-                    EClassifier subType = (EClassifier) subTypes.next();
-                    types.add(subType);
-                    if (subType instanceof EClass) {
-                        Iterator it = ((EClass) subType).getEAllSuperTypes().iterator();
-                        while (it.hasNext()) {
-                            EClassifier superType = (EClassifier) it.next();
-                            String name = superType.getName();
-                            if (!containmentNames.contains(name)) {
-                                containmentNames.add(name);
-                            }
-                        }
-                    }
-                }
-                Iterator it = types.iterator();
-                while (it.hasNext()) {
-                    EClassifier type = (EClassifier) it.next();
-                    if (type instanceof EClass) {
-                        String name = type.getName();
-                        if (!containmentTypes.contains(type)) {
-                            containmentTypes.add(type);
-                            if (!containmentNames.contains(name)) {
-                                containmentNames.add(name);
-                            }
-                            computeContainments(containmentTypes, containmentNames, ePackage, ((EClass) type).getEReferences());
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private List eClass2subTypes(EPackage ePackage, EClassifier eClass) {
-        if (eClass2subTypes == null) {
-            eClass2subTypes = new HashMap();
-        }
-        List types = (List) eClass2subTypes.get(eClass);
-        if (types == null) {
-            types = new ArrayList();
+    /**
+     * Computes the contents of a type of the elements which aren't indexed yet.
+     */
+    private final EContentTypeIndex.Collector contentsCollector = new EContentTypeIndex.Collector() {
+        public List collect(EObject object, String type) {
+            return reachability.eAllContents(object, type);
         }
-        return types;
-    }
-
-    private void listClassifiers(EPackage ePackage) {
-        Iterator classifiers = ETools.computeAllClassifiersList(ePackage, false).iterator();
+    };
 
-        if (eClass2subTypes == null) {
-            eClass2subTypes = new HashMap();
-        }
-        while (classifiers.hasNext()) {
-            Object next = classifiers.next();
-            if (next instanceof EClass) {
-                EClass c = (EClass) next;
-                Iterator superTypes = c.getEAllSuperTypes().iterator();
-                while (superTypes.hasNext()) {
-                    EClass superType = (EClass) superTypes.next();
-                    List subTypes = (List) eClass2subTypes.get(superType);
-                    if (subTypes == null) {
-                        subTypes = new ArrayList();
-                        eClass2subTypes.put(superType, subTypes);
-                    }
-                    if (!subTypes.contains(c)) {
-                        subTypes.add(c);
-                    }
-                }
-            }
-        }
-    }
+    /**
+     * The containment reachability of the metamodels, to prune the typed
+     * traversals.
+     */
+    private final EContainmentReachability reachability = new EContainmentReachability();
 
     /**
      * Gets the containing feature of an EObject.
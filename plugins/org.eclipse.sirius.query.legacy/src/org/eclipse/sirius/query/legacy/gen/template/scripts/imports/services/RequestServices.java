@@ -83,33 +83,12 @@ public class RequestServices {
      */
     @Deprecated
     public ENode select(ENode current, String call, ENode value) throws FactoryException, ENodeCastException, TemplateSyntaxException {
-        int pos = getBegin();
-        call = call.replaceAll("'", "\\\""); //$NON-NLS-1$ //$NON-NLS-2$
-        TemplateExpression expression = TemplateExpression.fromString(computeCall(pos, call), new Int2(pos, pos + call.length()), script);
+        TemplateExpression expression = CompiledExpressions.get(script, getBegin(), call);
         return select(current, expression, value);
     }
 
     private ENode select(ENode current, TemplateExpression call, ENode value) throws FactoryException, ENodeCastException {
-        if (current.isList()) {
-            ENodeList list = current.getList();
-            ENodeList res = new ENodeList();
-            ENodeIterator it = list.iterator();
-            while (it.hasNext()) {
-                res.add(select(it.next(), call, value));
-            }
-            return new ENode(res, current);
-        } else {
-            try {
-                ENode result = call.evaluate(current, script, LaunchManager.create("run", true)); //$NON-NLS-1$
-                if (result.equals(value)) {
-                    return current;
-                } else {
-                    return new ENode(ENode.EMPTY, current);
-                }
-            } catch (ENodeException e) {
-                return new ENode(ENode.EMPTY, current);
-            }
-        }
+        return filter(current, call, value, true);
     }
 
     /**
@@ -149,35 +128,53 @@ public class RequestServices {
      */
     @Deprecated
     public ENode delete(ENode current, String call, ENode value) throws FactoryException, ENodeCastException, TemplateSyntaxException {
-        int pos = getBegin();
-        call = call.replaceAll("'", "\\\""); //$NON-NLS-1$ //$NON-NLS-2$
-        TemplateExpression expression = TemplateExpression.fromString(computeCall(pos, call), new Int2(pos, pos + call.length()), script);
+        TemplateExpression expression = CompiledExpressions.get(script, getBegin(), call);
         return delete(current, expression, value);
     }
 
     private ENode delete(ENode current, TemplateExpression call, ENode value) throws FactoryException, ENodeCastException {
+        return filter(current, call, value, false);
+    }
+
+    /**
+     * Keeps the elements of the current node whose evaluation is equal (or not
+     * equal) to the given value. The expression is evaluated on all the
+     * elements of a list with the same launch mode, and the rejected elements
+     * are skipped.
+     */
+    private ENode filter(ENode current, TemplateExpression call, ENode value, boolean equal) throws FactoryException, ENodeCastException {
+        LaunchManager mode = LaunchManager.create("run", true); //$NON-NLS-1$
         if (current.isList()) {
-            ENodeList list = current.getList();
             ENodeList res = new ENodeList();
-            ENodeIterator it = list.iterator();
-            while (it.hasNext()) {
-                res.add(delete(it.next(), call, value));
-            }
+            filter(res, current.getList(), call, value, equal, mode);
             return new ENode(res, current);
+        } else if (accept(current, call, value, equal, mode)) {
+            return current;
         } else {
-            try {
-                ENode result = call.evaluate(current, script, LaunchManager.create("run", true)); //$NON-NLS-1$
-                if (!result.equals(value)) {
-                    return current;
-                } else {
-                    return new ENode(ENode.EMPTY, current);
-                }
-            } catch (ENodeException e) {
-                return new ENode(ENode.EMPTY, current);
+            return new ENode(ENode.EMPTY, current);
+        }
+    }
+
+    private void filter(ENodeList res, ENodeList list, TemplateExpression call, ENode value, boolean equal, LaunchManager mode) throws FactoryException, ENodeCastException {
+        ENodeIterator it = list.iterator();
+        while (it.hasNext()) {
+            ENode node = it.next();
+            if (node.isList()) {
+                filter(res, node.getList(), call, value, equal, mode);
+            } else if (accept(node, call, value, equal, mode)) {
+                res.add(node);
             }
         }
     }
 
+    private boolean accept(ENode node, TemplateExpression call, ENode value, boolean equal, LaunchManager mode) throws FactoryException, ENodeCastException {
+        try {
+            return call.evaluate(node, script, mode).equals(value) == equal;
+        } catch (ENodeException e) {
+            return false;
+        }
+    }
+
     /**
      * Evaluates the given text as an acceleo expression.
      * 
@@ -190,9 +187,7 @@ public class RequestServices {
      * @throws FactoryException
      */
     public ENode evaluate(ENode current, String call) throws TemplateSyntaxException, FactoryException {
-        int pos = getBegin();
-        call = call.replaceAll("'", "\\\""); //$NON-NLS-1$ //$NON-NLS-2$
-        TemplateExpression expression = TemplateExpression.fromString(computeCall(pos, call), new Int2(pos, pos + call.length()), script);
+        TemplateExpression expression = CompiledExpressions.get(script, getBegin(), call);
         try {
             return expression.evaluate(current, script, LaunchManager.create("run", true)); //$NON-NLS-1$
         } catch (ENodeException e) {
@@ -209,17 +204,4 @@ public class RequestServices {
         }
     }
 
-    private String computeCall(int begin, String call) {
-        if (begin > 0) {
-            StringBuffer result = new StringBuffer(""); //$NON-NLS-1$
-            for (int i = 0; i < begin; i++) {
-                result.append(' ');
-            }
-            result.append(call);
-            return result.toString();
-        } else {
-            return call;
-        }
-    }
-
 }
@@ -43,7 +43,7 @@ public class ResourceServices {
     public String getFileContent(ENode node, String path) {
         IFile file = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path(path));
         if (file.exists()) {
-            return Resources.getFileContent(file).toString();
+            return Resources.getFileText(file, true).toString();
         } else {
             return ""; //$NON-NLS-1$
         }
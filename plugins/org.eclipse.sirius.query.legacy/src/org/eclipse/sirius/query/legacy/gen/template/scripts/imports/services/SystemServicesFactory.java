@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.eclipse.emf.ecore.EPackage;
 
+import org.eclipse.sirius.query.legacy.ecore.tools.EDependencyRecorder;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.SpecificScript;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.EvalJavaService;
@@ -29,6 +30,31 @@ import org.eclipse.sirius.query.legacy.gen.template.scripts.imports.EvalJavaServ
  */
 public class SystemServicesFactory {
 
+    /**
+     * The methods of the ENodeServices whose result depends only on their
+     * arguments and on the reads of the model through EFactory : "current"
+     * reads the context of the script, "debug" and "trace" print.
+     */
+    protected static final String[] TRACKED_ENODE_SERVICES = { "filter", "cast", "sep", "sepStr", "until", "toString", "adapt", "nSize", "nGet", "nFirst", "nLast", "minimize", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$
+            "nMinimize", "reverse", "nReverse", "nContains", "sort", "nSort", }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+
+    /**
+     * The methods of the EObjectServices which record their reads themselves.
+     */
+    protected static final String[] TRACKED_EOBJECT_SERVICES = { "eContents", "eAllContents", }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    static {
+        // These services read the model through EFactory, or record their
+        // reads themselves
+        EDependencyRecorder.addTrackedService(StringServices.class, new String[] { "length", "toUpperCase", "toLowerCase", "toU1Case", "toL1Case", "substring", "replaceAll", "replaceFirst", "trim", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+                "startsWith", "endsWith", "equalsIgnoreCase", "matches", "charAt", "indexOf", "lastIndexOf", "split", "indentSpace", "indentTab", }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+        EDependencyRecorder.addTrackedService(ENodeServices.class, SystemServicesFactory.TRACKED_ENODE_SERVICES);
+        // The expressions of the requests are evaluated on the same thread,
+        // their reads are recorded
+        EDependencyRecorder.addTrackedService(RequestServices.class, new String[] { "select", "delete", "evaluate", }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        EDependencyRecorder.addTrackedService(EObjectServices.class, SystemServicesFactory.TRACKED_EOBJECT_SERVICES);
+    }
+
     /**
      * The instance of the root EObjectServices.
      */
@@ -32,6 +32,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.Int2;
  */
 public class TemplateCommentStatement extends TemplateNodeElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The text of the comment.
      */
@@ -60,7 +62,7 @@ public class TemplateCommentStatement extends TemplateNodeElement {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
-        ENode result = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+        ENode result = new ENode(ENode.EMPTY, object, this, mode);
         return result;
     }
 
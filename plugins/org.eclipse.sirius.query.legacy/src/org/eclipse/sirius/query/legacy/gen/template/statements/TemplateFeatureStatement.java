@@ -22,6 +22,7 @@ import org.eclipse.sirius.query.legacy.gen.template.TemplateSyntaxException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.eval.log.EvalFailure;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateExpression;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
@@ -36,6 +37,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.Int2;
  */
 public class TemplateFeatureStatement extends TemplateNodeElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The expression.
      */
@@ -65,18 +68,21 @@ public class TemplateFeatureStatement extends TemplateNodeElement {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
+        final Profiler profiler = Profiler.enter(this, mode);
         try {
             ENode result = evaluateSub(object, mode);
             return result;
         } catch (ENodeException e) {
-            ENode result = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+            ENode result = new ENode(ENode.EMPTY, object, this, mode);
             result.log().addError(new EvalFailure(e.getMessage()));
             return result;
+        } finally {
+            Profiler.exit(profiler);
         }
     }
 
     private ENode evaluateSub(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
-        ENode current = new ENode(object, this, mode.isSynchronize());
+        ENode current = new ENode(object, this, mode);
         script.contextPush(IScript.CURRENT_NODE, current);
         try {
             ENode node = expression.evaluate(current, script, mode);
@@ -27,6 +27,7 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeIterator;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeList;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.eval.log.EvalFailure;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateExpression;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
@@ -42,6 +43,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateForStatement extends TemplateNodeElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The expression.
      */
@@ -89,19 +92,22 @@ public class TemplateForStatement extends TemplateNodeElement {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
+        final Profiler profiler = Profiler.enter(this, mode);
         try {
             final ENode result = evaluateSub(object, mode);
             return result;
         } catch (final ENodeException e) {
-            final ENode result = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+            final ENode result = new ENode(ENode.EMPTY, object, this, mode);
             result.log().addError(new EvalFailure(e.getMessage()));
             return result;
+        } finally {
+            Profiler.exit(profiler);
         }
     }
 
     private ENode evaluateSub(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
-        final ENode node = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
-        final ENode all = condition.evaluate(new ENode(object, condition, mode.isSynchronize()), script, mode);
+        final ENode node = new ENode(ENode.EMPTY, object, this, mode);
+        final ENode all = condition.evaluate(new ENode(object, condition, mode), script, mode);
         if (mode.getMode() == LaunchManager.DEBUG_MODE) {
             node.log().getAll(all.log(), false);
         }
@@ -130,7 +136,7 @@ public class TemplateForStatement extends TemplateNodeElement {
                     final ENodeList list = new ENodeList();
                     final int count = all.getInt();
                     for (int i = 0; i < count; i++) {
-                        list.add(new ENode(object, condition, mode.isSynchronize()));
+                        list.add(new ENode(object, condition, mode));
                     };
                     it = list.iterator();
                 } catch (final ENodeCastException e) {
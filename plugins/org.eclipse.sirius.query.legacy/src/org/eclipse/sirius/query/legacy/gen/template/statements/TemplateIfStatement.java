@@ -27,6 +27,7 @@ import org.eclipse.sirius.query.legacy.gen.template.eval.ENode;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeCastException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.ENodeException;
 import org.eclipse.sirius.query.legacy.gen.template.eval.LaunchManager;
+import org.eclipse.sirius.query.legacy.gen.template.eval.Profiler;
 import org.eclipse.sirius.query.legacy.gen.template.eval.log.EvalFailure;
 import org.eclipse.sirius.query.legacy.gen.template.expressions.TemplateExpression;
 import org.eclipse.sirius.query.legacy.gen.template.scripts.IScript;
@@ -43,6 +44,8 @@ import org.eclipse.sirius.query.legacy.tools.strings.TextSearch;
  */
 public class TemplateIfStatement extends TemplateNodeElement {
 
+    private static final long serialVersionUID = 1;
+
     /**
      * The conditional expression.
      */
@@ -181,20 +184,23 @@ public class TemplateIfStatement extends TemplateNodeElement {
     /* (non-Javadoc) */
     @Override
     public ENode evaluate(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
+        final Profiler profiler = Profiler.enter(this, mode);
         try {
             final ENode result = evaluateSub(object, mode);
             return result;
         } catch (final ENodeException e) {
-            final ENode result = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+            final ENode result = new ENode(ENode.EMPTY, object, this, mode);
             result.log().addError(new EvalFailure(e.getMessage()));
             return result;
+        } finally {
+            Profiler.exit(profiler);
         }
     }
 
     private ENode evaluateSub(EObject object, LaunchManager mode) throws ENodeException, FactoryException {
-        final ENode node = new ENode(ENode.EMPTY, object, this, mode.isSynchronize());
+        final ENode node = new ENode(ENode.EMPTY, object, this, mode);
         boolean testOK = false;
-        ENode test = condition.evaluate(new ENode(object, condition, mode.isSynchronize()), script, mode);
+        ENode test = condition.evaluate(new ENode(object, condition, mode), script, mode);
         if (mode.getMode() == LaunchManager.DEBUG_MODE) {
             node.log().getAll(test.log(), false);
         }
@@ -217,7 +223,7 @@ public class TemplateIfStatement extends TemplateNodeElement {
         } else {
             for (int i = 0; !testOK && i < elseIfConditions.length; i++) {
                 final TemplateExpression elseIfCondition = elseIfConditions[i];
-                test = elseIfCondition.evaluate(new ENode(object, elseIfCondition, mode.isSynchronize()), script, mode);
+                test = elseIfCondition.evaluate(new ENode(object, elseIfCondition, mode), script, mode);
                 if (mode.getMode() == LaunchManager.DEBUG_MODE) {
                     node.log().getAll(test.log(), false);
                 }
@@ -23,6 +23,8 @@ import org.eclipse.emf.ecore.EObject;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 
+import org.eclipse.sirius.query.legacy.gen.template.eval.EvalContext;
+
 /**
  * A class loader that combines plugins, acceleo services, and metamodels.
  * 
@@ -46,7 +48,10 @@ public class AcceleoClassLoader extends URLClassLoader {
      *            is the model object
      */
     public static void setPreferredLoader(EObject object) {
-        if (object != null) {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            evalContext.setPreferredClassLoader((object != null) ? object.getClass().getClassLoader() : null);
+        } else if (object != null) {
             ClassLoader loader = object.getClass().getClassLoader();
             if (AcceleoClassLoader.preferredClassLoader != loader) {
                 AcceleoClassLoader.preferedCache = new HashMap();
@@ -63,17 +68,39 @@ public class AcceleoClassLoader extends URLClassLoader {
      *            is the preferred class loader
      */
     public static void setPreferredClassLoader(ClassLoader loader) {
-        if (AcceleoClassLoader.preferredClassLoader != loader) {
-            AcceleoClassLoader.preferedCache = new HashMap();
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            evalContext.setPreferredClassLoader(loader);
+        } else {
+            if (AcceleoClassLoader.preferredClassLoader != loader) {
+                AcceleoClassLoader.preferedCache = new HashMap();
+            }
+            AcceleoClassLoader.preferredClassLoader = loader;
         }
-        AcceleoClassLoader.preferredClassLoader = loader;
     }
 
     /**
      * @return the preferred class loader
      */
     public static ClassLoader getPreferredClassLoader() {
-        return AcceleoClassLoader.preferredClassLoader;
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            return evalContext.getPreferredClassLoader();
+        } else {
+            return AcceleoClassLoader.preferredClassLoader;
+        }
+    }
+
+    /**
+     * @return the preferred class loader cache of the current evaluation
+     */
+    private static Map getPreferredCache() {
+        final EvalContext evalContext = EvalContext.getCurrent();
+        if (evalContext != null) {
+            return evalContext.getPreferredCache();
+        } else {
+            return AcceleoClassLoader.preferedCache;
+        }
     }
 
     /**
@@ -168,12 +195,14 @@ public class AcceleoClassLoader extends URLClassLoader {
     }
 
     private Class loadClassInPreferredLoader(String name) throws ClassNotFoundException {
-        Class res = (Class) AcceleoClassLoader.preferedCache.get(name);
+        final Map cache = AcceleoClassLoader.getPreferredCache();
+        Class res = (Class) cache.get(name);
 
         if (res == null) {
+            final ClassLoader preferred = AcceleoClassLoader.getPreferredClassLoader();
             try {
-                if (AcceleoClassLoader.preferredClassLoader != null && AcceleoClassLoader.preferredClassLoader != this && AcceleoClassLoader.preferredClassLoader != getParent()) {
-                    res = AcceleoClassLoader.preferredClassLoader.loadClass(name);
+                if (preferred != null && preferred != this && preferred != getParent()) {
+                    res = preferred.loadClass(name);
                 }
             } catch (ClassNotFoundException e) {
                 // continue
@@ -190,7 +219,7 @@ public class AcceleoClassLoader extends URLClassLoader {
                 }
             }
             if (res != null) {
-                AcceleoClassLoader.preferedCache.put(name, res);
+                cache.put(name, res);
             }
         }
         return res;
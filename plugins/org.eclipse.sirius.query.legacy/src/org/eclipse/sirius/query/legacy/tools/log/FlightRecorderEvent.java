@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.tools.log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A type of event of the Java Flight Recorder.
+ * <p>
+ * The event types are created when the virtual machine has a flight recorder
+ * (the "jdk.jfr" API, Java 8u262 or 11 and later), through reflection because
+ * this plug-in runs on older virtual machines. On the other machines, the
+ * events are ignored. When no recording enables an event type, its events
+ * aren't created, the cost is a call to {@link #begin()}.
+ * <p>
+ * The enabled state of each event type is kept, and it is refreshed by a
+ * listener of the flight recorder when a recording starts or stops. The
+ * settings changed during a recording are taken into account at the next
+ * change of state of a recording.
+ * <p>
+ * An event is begun, and it is committed with its values in a finally block :
+ *
+ * <pre>
+ * Object event = FlightRecorderEvent.PARSING.begin();
+ * try {
+ *     ...
+ * } finally {
+ *     FlightRecorderEvent.PARSING.commit(event, kind, source, length);
+ * }
+ * </pre>
+ *
+ *
+ */
+public final class FlightRecorderEvent {
+
+    /**
+     * The prefix of the names of the event types.
+     */
+    private static final String NAME_PREFIX = "org.eclipse.sirius.query.legacy."; //$NON-NLS-1$
+
+    /**
+     * The category of the event types, initialized before the event types.
+     */
+    private static final String[] CATEGORY = { "Sirius", "Acceleo" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    /**
+     * The arguments of the reflective calls without parameter, initialized
+     * before the event types.
+     */
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    /**
+     * The evaluation of an expression by the interpreter, recorded when it is
+     * longer than 10 ms by default : the expression and the type of the
+     * target.
+     */
+    public static final FlightRecorderEvent EVALUATION = new FlightRecorderEvent("Evaluation", "Expression Evaluation", "10 ms", true, new String[] { "expression", "target" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            new Class[] { String.class, String.class });
+
+    /**
+     * The parsing of an expression or of a script : the kind ("expression" or
+     * "script"), the expression or the path of the script, and the length of
+     * the text.
+     */
+    public static final FlightRecorderEvent PARSING = new FlightRecorderEvent("Parsing", "Parsing", null, true, new String[] { "kind", "source", "length" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            new Class[] { String.class, String.class, int.class });
+
+    /**
+     * The invocation of a java service, recorded when it is longer than 10
+     * ms by default : the class and the name of the method.
+     */
+    public static final FlightRecorderEvent SERVICE_INVOCATION = new FlightRecorderEvent("ServiceInvocation", "Service Invocation", "10 ms", true, new String[] { "service" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            new Class[] { String.class });
+
+    /**
+     * An access to a cache : the name of the cache, the expression, and
+     * whether the value was found. The accesses are numerous, this event type
+     * has to be enabled by the recording settings.
+     */
+    public static final FlightRecorderEvent CACHE_ACCESS = new FlightRecorderEvent("CacheAccess", "Cache Access", null, false, new String[] { "cache", "expression", "hit" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            new Class[] { String.class, String.class, boolean.class });
+
+    /**
+     * The creation of a script by the interpreter : the URI of the metamodel.
+     */
+    public static final FlightRecorderEvent SCRIPT_CREATION = new FlightRecorderEvent("ScriptCreation", "Script Creation", null, true, new String[] { "metamodel" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            new Class[] { String.class });
+
+    /**
+     * All the event types, refreshed together.
+     */
+    private static final FlightRecorderEvent[] ALL = { FlightRecorderEvent.EVALUATION, FlightRecorderEvent.PARSING, FlightRecorderEvent.SERVICE_INVOCATION,
+            FlightRecorderEvent.CACHE_ACCESS, FlightRecorderEvent.SCRIPT_CREATION, };
+
+    static {
+        if (FlightRecorderEvent.EVALUATION.type != null) {
+            FlightRecorderEvent.addListener();
+        }
+    }
+
+    private static Method newEvent;
+
+    private static Method isEnabled;
+
+    private static Method begin;
+
+    private static Method set;
+
+    private static Method commit;
+
+    /**
+     * The factory of the events, or null if there is no flight recorder.
+     */
+    private final Object factory;
+
+    /**
+     * The type of the events, or null if there is no flight recorder.
+     */
+    private final Object type;
+
+    /**
+     * Indicates if a recording enables this event type, refreshed by the
+     * listener of the flight recorder.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *            is the name of the type, without prefix
+     * @param label
+     *            is the label of the type
+     * @param threshold
+     *            is the default threshold of the duration, or null
+     * @param enabled
+     *            indicates if the type is enabled by default
+     * @param fieldNames
+     *            are the names of the values
+     * @param fieldTypes
+     *            are the types of the values
+     */
+    private FlightRecorderEvent(String name, String label, String threshold, boolean enabled, String[] fieldNames, Class[] fieldTypes) {
+        Object newFactory = null;
+        Object newType = null;
+        try {
+            final Class annotationElement = FlightRecorderEvent.forName("jdk.jfr.AnnotationElement"); //$NON-NLS-1$
+            final Constructor annotation = annotationElement.getConstructor(new Class[] { Class.class, Object.class });
+            final List annotations = new ArrayList();
+            annotations.add(annotation.newInstance(new Object[] { FlightRecorderEvent.forName("jdk.jfr.Name"), FlightRecorderEvent.NAME_PREFIX + name })); //$NON-NLS-1$
+            annotations.add(annotation.newInstance(new Object[] { FlightRecorderEvent.forName("jdk.jfr.Label"), label })); //$NON-NLS-1$
+            annotations.add(annotation.newInstance(new Object[] { FlightRecorderEvent.forName("jdk.jfr.Category"), FlightRecorderEvent.CATEGORY })); //$NON-NLS-1$
+            annotations.add(annotation.newInstance(new Object[] { FlightRecorderEvent.forName("jdk.jfr.Enabled"), Boolean.valueOf(enabled) })); //$NON-NLS-1$
+            if (threshold != null) {
+                annotations.add(annotation.newInstance(new Object[] { FlightRecorderEvent.forName("jdk.jfr.Threshold"), threshold })); //$NON-NLS-1$
+            }
+            final Constructor valueDescriptor = FlightRecorderEvent.forName("jdk.jfr.ValueDescriptor").getConstructor(new Class[] { Class.class, String.class }); //$NON-NLS-1$
+            final List fields = new ArrayList();
+            for (int i = 0; i < fieldNames.length; i++) {
+                fields.add(valueDescriptor.newInstance(new Object[] { fieldTypes[i], fieldNames[i] }));
+            }
+            final Class eventFactory = FlightRecorderEvent.forName("jdk.jfr.EventFactory"); //$NON-NLS-1$
+            newFactory = eventFactory.getMethod("create", new Class[] { List.class, List.class }).invoke(null, new Object[] { annotations, fields }); //$NON-NLS-1$
+            newType = eventFactory.getMethod("getEventType", new Class[0]).invoke(newFactory, FlightRecorderEvent.NO_ARGUMENTS); //$NON-NLS-1$
+            FlightRecorderEvent.initMethods(eventFactory);
+        } catch (Throwable e) {
+            // No flight recorder
+            newFactory = null;
+            newType = null;
+        }
+        factory = newFactory;
+        type = newType;
+        refresh();
+    }
+
+    private static synchronized void initMethods(Class eventFactory) throws Exception {
+        if (FlightRecorderEvent.commit == null) {
+            final Class event = FlightRecorderEvent.forName("jdk.jfr.Event"); //$NON-NLS-1$
+            FlightRecorderEvent.newEvent = eventFactory.getMethod("newEvent", new Class[0]); //$NON-NLS-1$
+            FlightRecorderEvent.isEnabled = FlightRecorderEvent.forName("jdk.jfr.EventType").getMethod("isEnabled", new Class[0]); //$NON-NLS-1$ //$NON-NLS-2$
+            FlightRecorderEvent.begin = event.getMethod("begin", new Class[0]); //$NON-NLS-1$
+            FlightRecorderEvent.set = event.getMethod("set", new Class[] { int.class, Object.class }); //$NON-NLS-1$
+            FlightRecorderEvent.commit = event.getMethod("commit", new Class[0]); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Registers a listener of the flight recorder which refreshes the enabled
+     * state of the event types when the state of a recording changes.
+     */
+    private static void addListener() {
+        try {
+            final Class listenerType = FlightRecorderEvent.forName("jdk.jfr.FlightRecorderListener"); //$NON-NLS-1$
+            final Object listener = Proxy.newProxyInstance(listenerType.getClassLoader(), new Class[] { listenerType }, new RefreshHandler());
+            FlightRecorderEvent.forName("jdk.jfr.FlightRecorder").getMethod("addListener", new Class[] { listenerType }).invoke(null, new Object[] { listener }); //$NON-NLS-1$ //$NON-NLS-2$
+        } catch (Throwable e) {
+            // The enabled states are kept as they are
+        }
+        FlightRecorderEvent.refreshAll();
+    }
+
+    private static void refreshAll() {
+        for (int i = 0; i < FlightRecorderEvent.ALL.length; i++) {
+            FlightRecorderEvent.ALL[i].refresh();
+        }
+    }
+
+    private void refresh() {
+        boolean newEnabled = false;
+        if (type != null) {
+            try {
+                newEnabled = Boolean.TRUE.equals(FlightRecorderEvent.isEnabled.invoke(type, FlightRecorderEvent.NO_ARGUMENTS));
+            } catch (Exception e) {
+                newEnabled = false;
+            }
+        }
+        enabled = newEnabled;
+    }
+
+    private static Class forName(String name) throws ClassNotFoundException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            // The bundle class loader may not delegate the jdk packages
+            return Class.forName(name, true, ClassLoader.getSystemClassLoader());
+        }
+    }
+
+    /**
+     * @return true if a recording enables this event type
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Begins an event.
+     *
+     * @return the event, or null if it isn't recorded
+     */
+    public Object begin() {
+        if (enabled) {
+            try {
+                final Object event = FlightRecorderEvent.newEvent.invoke(factory, FlightRecorderEvent.NO_ARGUMENTS);
+                FlightRecorderEvent.begin.invoke(event, FlightRecorderEvent.NO_ARGUMENTS);
+                return event;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Commits an event with one value.
+     *
+     * @param event
+     *            is the event returned by {@link #begin()}, or null
+     * @param value
+     *            is the first value
+     */
+    public void commit(Object event, Object value) {
+        if (event != null) {
+            commit(event, new Object[] { value });
+        }
+    }
+
+    /**
+     * Commits an event with two values.
+     *
+     * @param event
+     *            is the event returned by {@link #begin()}, or null
+     * @param value1
+     *            is the first value
+     * @param value2
+     *            is the second value
+     */
+    public void commit(Object event, Object value1, Object value2) {
+        if (event != null) {
+            commit(event, new Object[] { value1, value2 });
+        }
+    }
+
+    /**
+     * Commits an event with three values.
+     *
+     * @param event
+     *            is the event returned by {@link #begin()}, or null
+     * @param value1
+     *            is the first value
+     * @param value2
+     *            is the second value
+     * @param value3
+     *            is the third value
+     */
+    public void commit(Object event, Object value1, Object value2, Object value3) {
+        if (event != null) {
+            commit(event, new Object[] { value1, value2, value3 });
+        }
+    }
+
+    private void commit(Object event, Object[] values) {
+        try {
+            for (int i = 0; i < values.length; i++) {
+                FlightRecorderEvent.set.invoke(event, new Object[] { new Integer(i), values[i] });
+            }
+            // The duration is measured, and compared to the threshold
+            FlightRecorderEvent.commit.invoke(event, FlightRecorderEvent.NO_ARGUMENTS);
+        } catch (Exception e) {
+            // The event is lost
+        }
+    }
+
+    /**
+     * The handler of the listener of the flight recorder : the recorder
+     * initialization and the changes of state of the recordings refresh the
+     * enabled state of the event types.
+     */
+    private static final class RefreshHandler implements InvocationHandler {
+
+        /* (non-Javadoc) */
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("equals".equals(method.getName())) { //$NON-NLS-1$
+                return Boolean.valueOf(proxy == args[0]);
+            } else if ("hashCode".equals(method.getName())) { //$NON-NLS-1$
+                return new Integer(System.identityHashCode(proxy));
+            } else if ("toString".equals(method.getName())) { //$NON-NLS-1$
+                return FlightRecorderEvent.class.getName();
+            }
+            FlightRecorderEvent.refreshAll();
+            return null;
+        }
+
+    }
+
+}
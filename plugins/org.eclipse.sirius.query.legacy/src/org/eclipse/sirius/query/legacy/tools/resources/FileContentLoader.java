@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2005-2014 Obeo
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Obeo - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.sirius.query.legacy.tools.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and decodes the files in one pass.
+ * <p>
+ * The bytes of a file are read at once through its channel. The charset is
+ * given by the Unicode BOM, or by the "encoding=" header of a template, which
+ * is found in the bytes, or else by the default charset of the file. The bytes
+ * are decoded once.
+ * <p>
+ * The contents of the most recently read files are kept, they are identified by
+ * the path, the size, and the modification time of the file.
+ *
+ *
+ */
+final class FileContentLoader {
+
+    /**
+     * The maximum number of contents kept.
+     */
+    private static final int MAXIMUM_SIZE = 128;
+
+    /**
+     * The begin markers of the encoding header of the templates.
+     */
+    private static final String[] ENCODING_BEGIN = { "<%--encoding=", "[%--encoding=" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    /**
+     * The end markers of the encoding header of the templates.
+     */
+    private static final String[] ENCODING_END = { "--%>", "--%]" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    /**
+     * The contents kept : path|charset -> Content.
+     */
+    private static final Map path2Content = new LinkedHashMap(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > FileContentLoader.MAXIMUM_SIZE;
+        }
+    };
+
+    private FileContentLoader() {
+        // utility class
+    }
+
+    /**
+     * Returns the content of the file.
+     *
+     * @param file
+     *            is the file
+     * @param defaultCharset
+     *            is the charset used when the file has no BOM and no encoding
+     *            header, null for the platform charset
+     * @param template
+     *            indicates if the encoding header is searched
+     * @return the content of the file, it isn't a copy
+     * @throws IOException
+     *             if the file can't be read, or if the encoding of the header
+     *             isn't supported
+     */
+    static CharSequence getContent(File file, String defaultCharset, boolean template) throws IOException {
+        return FileContentLoader.getContent(file, defaultCharset, template, false);
+    }
+
+    /**
+     * Returns the content of the file, decoded with the given charset. A BOM is
+     * skipped.
+     *
+     * @param file
+     *            is the file
+     * @param charset
+     *            is the charset
+     * @return the content of the file, it isn't a copy
+     * @throws IOException
+     *             if the file can't be read, or if the charset isn't supported
+     */
+    static CharSequence getEncodedContent(File file, String charset) throws IOException {
+        return FileContentLoader.getContent(file, charset, false, true);
+    }
+
+    private static CharSequence getContent(File file, String charset, boolean template, boolean forced) throws IOException {
+        String key = file.getAbsolutePath() + '|' + charset + '|' + template + '|' + forced;
+        long size = file.length();
+        long lastModified = file.lastModified();
+        synchronized (FileContentLoader.path2Content) {
+            Content content = (Content) FileContentLoader.path2Content.get(key);
+            if (content != null && content.size == size && content.lastModified == lastModified) {
+                return content.text;
+            }
+        }
+        String text;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file.getAbsolutePath());
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining() && channel.read(bytes) > -1) {
+                // reads until the end of the file
+            }
+            bytes.flip();
+            text = FileContentLoader.decode(bytes, charset, template, forced);
+        } finally {
+            in.close();
+        }
+        // The file may have been modified while it was read
+        if (file.length() == size && file.lastModified() == lastModified) {
+            synchronized (FileContentLoader.path2Content) {
+                FileContentLoader.path2Content.put(key, new Content(size, lastModified, text));
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Returns the content of the stream, which isn't kept.
+     *
+     * @param stream
+     *            is the stream, it isn't closed
+     * @param charset
+     *            is the default charset, or the forced charset
+     * @param template
+     *            indicates if the encoding header is searched
+     * @param forced
+     *            indicates if the charset is used even if the content has a
+     *            BOM or an encoding header
+     * @return the content of the stream
+     * @throws IOException
+     *             if the stream can't be read, or if the charset isn't
+     *             supported
+     */
+    static CharSequence getContent(InputStream stream, String charset, boolean template, boolean forced) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(stream.available(), 512));
+        byte[] buffer = new byte[8192];
+        int n = stream.read(buffer);
+        while (n > -1) {
+            out.write(buffer, 0, n);
+            n = stream.read(buffer);
+        }
+        return FileContentLoader.decode(ByteBuffer.wrap(out.toByteArray()), charset, template, forced);
+    }
+
+    private static String decode(ByteBuffer bytes, String charset, boolean template, boolean forced) throws IOException {
+        String bomCharset = FileContentLoader.skipBOM(bytes);
+        Charset decoding;
+        if (forced) {
+            decoding = FileContentLoader.forName(charset);
+        } else {
+            String header = null;
+            if (template && (bomCharset == null || "UTF-8".equals(bomCharset))) { //$NON-NLS-1$
+                header = FileContentLoader.getEncoding(bytes);
+            }
+            if (header != null) {
+                decoding = FileContentLoader.forName(header);
+            } else if (bomCharset != null && Charset.isSupported(bomCharset)) {
+                decoding = Charset.forName(bomCharset);
+            } else if (charset != null && Charset.isSupported(charset)) {
+                decoding = Charset.forName(charset);
+            } else {
+                decoding = Charset.defaultCharset();
+            }
+        }
+        try {
+            return decoding.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes).toString();
+        } catch (CharacterCodingException e) {
+            // Not thrown with the REPLACE actions
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static Charset forName(String charset) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(charset);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+    }
+
+    /**
+     * Skips the Unicode BOM, as {@link UnicodeBOMInputStream}.
+     *
+     * @return the charset of the BOM, or null if there is no BOM
+     */
+    private static String skipBOM(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        int b0 = (length > 0) ? bytes.get(0) & 0xFF : -1;
+        int b1 = (length > 1) ? bytes.get(1) & 0xFF : -1;
+        int b2 = (length > 2) ? bytes.get(2) & 0xFF : -1;
+        int b3 = (length > 3) ? bytes.get(3) & 0xFF : -1;
+        if (b0 == 0xFF && b1 == 0xFE && b2 == 0x00 && b3 == 0x00) {
+            bytes.position(4);
+            return "UTF-32LE"; //$NON-NLS-1$
+        } else if (b0 == 0x00 && b1 == 0x00 && b2 == 0xFE && b3 == 0xFF) {
+            bytes.position(4);
+            return "UTF-32BE"; //$NON-NLS-1$
+        } else if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            bytes.position(3);
+            return "UTF-8"; //$NON-NLS-1$
+        } else if (b0 == 0xFF && b1 == 0xFE) {
+            bytes.position(2);
+            return "UTF-16LE"; //$NON-NLS-1$
+        } else if (b0 == 0xFE && b1 == 0xFF) {
+            bytes.position(2);
+            return "UTF-16BE"; //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * Gets the encoding of the template header, as
+     * {@link Resources#getEncoding(StringBuffer)}. The markers are ASCII, they
+     * are searched in the bytes.
+     *
+     * @return the encoding, or null if there is no encoding header
+     */
+    private static String getEncoding(ByteBuffer bytes) {
+        for (int i = 0; i < FileContentLoader.ENCODING_BEGIN.length; i++) {
+            int start = FileContentLoader.indexOf(bytes, FileContentLoader.ENCODING_BEGIN[i], bytes.position());
+            if (start != -1) {
+                start += FileContentLoader.ENCODING_BEGIN[i].length();
+                int end = FileContentLoader.indexOf(bytes, FileContentLoader.ENCODING_END[i], start);
+                if (end != -1) {
+                    StringBuffer encoding = new StringBuffer(end - start);
+                    for (int j = start; j < end; j++) {
+                        encoding.append((char) (bytes.get(j) & 0xFF));
+                    }
+                    return encoding.toString().trim().toUpperCase();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(ByteBuffer bytes, String marker, int from) {
+        int last = bytes.limit() - marker.length();
+        for (int i = from; i <= last; i++) {
+            int j = 0;
+            while (j < marker.length() && bytes.get(i + j) == (byte) marker.charAt(j)) {
+                j++;
+            }
+            if (j == marker.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A decoded content, and the state of the file when it has been read.
+     */
+    private static final class Content {
+
+        final long size;
+
+        final long lastModified;
+
+        final String text;
+
+        Content(long size, long lastModified, String text) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.text = text;
+        }
+
+    }
+
+}
@@ -13,24 +13,49 @@
 package org.eclipse.sirius.query.legacy.tools.resources;
 
 import java.io.File;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 
+import org.eclipse.sirius.query.legacy.tools.AcceleoToolsPlugin;
+
 /**
  * Gets file's content more faster.
+ * <p>
+ * The map is thread-safe, the least recently used element is removed when the
+ * max capacity is reached. The elements of the workspace files are removed
+ * when the workspace notifies that the files have changed, the gets don't read
+ * their stamps. A file given as a {@link File} is looked up in the workspace
+ * only when its content is missing. The stamps are compared by each get for
+ * the files outside of the workspace, or when the workspace notifications
+ * aren't available.
+ * <p>
+ * A file modified while its content is computed is detected when the content
+ * is put : a workspace file notified since the get which has missed it isn't
+ * put, and the stamp kept with the content of another file is the one seen by
+ * this get.
  * 
  * 
  */
@@ -42,19 +67,50 @@ public class FileContentMap {
     protected int max;
 
     /**
-     * File to content mappings.
+     * Indicates if the contents are softly referenced.
+     */
+    private final boolean weak;
+
+    /**
+     * Path to element mappings, in access order.
+     */
+    private final Map path2Element;
+
+    /**
+     * The number of missed files which are remembered.
      */
-    protected Map file2content;
+    private static final int MISSES_SIZE = 64;
 
     /**
-     * File to modification stamp mappings.
+     * The state of a missed workspace file which has been modified before its
+     * content is put.
      */
-    protected Map file2OldModificationStamp = new HashMap();
+    private static final Object MODIFIED = new Object();
 
     /**
-     * Files priorities.
+     * The state of the files seen by the gets which have missed their
+     * content, until the content is put : path -> Long stamp of a file
+     * outside of the workspace, String full path of a workspace file, or
+     * MODIFIED.
      */
-    protected List priority = new ArrayList();
+    private final Map path2Miss = new LinkedHashMap(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > FileContentMap.MISSES_SIZE;
+        }
+    };
+
+    /**
+     * The number of successful gets.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * The number of gets which didn't find a valid element.
+     */
+    private final AtomicLong missCount = new AtomicLong();
 
     /**
      * Constructor.
@@ -89,15 +145,21 @@ public class FileContentMap {
      * @param max
      *            is the max capacity
      * @param weak
-     *            to use weak hashmap
+     *            to keep the contents with soft references, which are cleared
+     *            when the memory is low
      */
     public FileContentMap(int max, boolean weak) {
         this.max = max;
-        if (weak) {
-            file2content = new WeakHashMap();
-        } else {
-            file2content = new HashMap();
-        }
+        this.weak = weak;
+        this.path2Element = new LinkedHashMap(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return FileContentMap.this.max > -1 && size() > FileContentMap.this.max;
+            }
+        };
+        FileContentMap.WorkspaceListener.register(this);
     }
 
     /**
@@ -112,22 +174,20 @@ public class FileContentMap {
     public Object get(IFile file) {
         if (file != null) {
             String path = file.getFullPath().toString();
-            Object content = file2content.get(path);
-            Double newModificationStamp = new Double(file.getModificationStamp() + file.getLocalTimeStamp());
-            Double oldModificationStamp = (Double) file2OldModificationStamp.get(path);
-            if (content != null && oldModificationStamp != null && oldModificationStamp.doubleValue() == newModificationStamp.doubleValue()) {
-                if (content instanceof EObject) {
-                    return getForEObject((EObject) content);
-                } else {
-                    return content;
-                }
-            } else {
-                // Remove the expired element
-                file2content.remove(path);
-                file2OldModificationStamp.remove(path);
-                priority.remove(path);
-                return null;
+            boolean watched = FileContentMap.WorkspaceListener.isRegistered();
+            long stamp = watched ? 0 : FileContentMap.stamp(file);
+            Element element;
+            synchronized (this) {
+                element = (Element) path2Element.get(path);
+            }
+            Object content = null;
+            if (element != null && (element.workspacePath != null || element.stamp == stamp)) {
+                content = element.getValidContent();
             }
+            if (content == null) {
+                missed(path, element, watched ? (Object) path : new Long(stamp));
+            }
+            return hitOrMiss(content);
         } else {
             return null;
         }
@@ -144,50 +204,41 @@ public class FileContentMap {
      */
     public Object get(File file) {
         if (file != null) {
-            String path = file.getAbsolutePath().toString();
-            IFile workspaceFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(path));
-            if (workspaceFile != null && workspaceFile.isAccessible()) {
-                return get(workspaceFile);
-            } else {
-                Object content = file2content.get(path);
-                Double newModificationStamp = new Double(file.lastModified());
-                Double oldModificationStamp = (Double) file2OldModificationStamp.get(path);
-                if (content != null && oldModificationStamp != null && oldModificationStamp.doubleValue() == newModificationStamp.doubleValue()) {
-                    if (content instanceof EObject) {
-                        return getForEObject((EObject) content);
-                    } else {
-                        return content;
-                    }
-                } else {
-                    // Remove the expired element
-                    file2content.remove(path);
-                    file2OldModificationStamp.remove(path);
-                    priority.remove(path);
-                    return null;
-                }
+            String path = file.getAbsolutePath();
+            Element element;
+            synchronized (this) {
+                element = (Element) path2Element.get(path);
             }
+            Object content = null;
+            if (element != null && (element.workspacePath != null || element.stamp == file.lastModified())) {
+                content = element.getValidContent();
+            }
+            if (content == null) {
+                IFile workspaceFile = FileContentMap.getWorkspaceFile(file);
+                missed(path, element, workspaceFile != null ? (Object) workspaceFile.getFullPath().toString() : new Long(file.lastModified()));
+            }
+            return hitOrMiss(content);
         } else {
             return null;
         }
     }
 
-    private EObject getForEObject(EObject content) {
-        if (content.eResource() != null && content.eResource().getResourceSet() != null) {
-            ResourceSet resourceSet = content.eResource().getResourceSet();
-            Iterator resources = resourceSet.getResources().iterator();
-            while (resources.hasNext()) {
-                Resource resource = (Resource) resources.next();
-                if (resource != content.eResource() && resource.getURI() != null) {
-                    IFile loadedFile = Resources.getIFile(resource.getURI());
-                    if (loadedFile != null && loadedFile.exists()) {
-                        Double newModificationStamp = new Double(loadedFile.getModificationStamp() + loadedFile.getLocalTimeStamp());
-                        Double oldModificationStamp = (Double) file2OldModificationStamp.get(loadedFile.getFullPath().toString());
-                        if (oldModificationStamp == null || oldModificationStamp.doubleValue() != newModificationStamp.doubleValue()) {
-                            return null;
-                        }
-                    }
-                }
-            }
+    /**
+     * Removes the expired element of a missed file, if it hasn't been replaced
+     * yet, and remembers the state of the file.
+     */
+    private synchronized void missed(String path, Element element, Object state) {
+        if (element != null && path2Element.get(path) == element) {
+            path2Element.remove(path);
+        }
+        path2Miss.put(path, state);
+    }
+
+    private Object hitOrMiss(Object content) {
+        if (content != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
         }
         return content;
     }
@@ -205,19 +256,11 @@ public class FileContentMap {
     public void put(IFile file, Object content) {
         if (file != null) {
             String path = file.getFullPath().toString();
-            if (max > -1 && size() >= max && priority.size() > 0) {
-                // Remove the oldest element
-                Object toRemove = priority.get(0);
-                file2content.remove(toRemove);
-                file2OldModificationStamp.remove(toRemove);
-                priority.remove(0);
-            }
-            file2content.put(path, content);
-            file2OldModificationStamp.put(path, new Double(file.getModificationStamp() + file.getLocalTimeStamp()));
-            if (content instanceof EObject) {
-                putForEObject((EObject) content);
+            if (FileContentMap.WorkspaceListener.isRegistered()) {
+                put(path, path, 0, content);
+            } else {
+                put(path, null, FileContentMap.stamp(file), content);
             }
-            priority.add(path);
         }
     }
 
@@ -233,41 +276,74 @@ public class FileContentMap {
      */
     public void put(File file, Object content) {
         if (file != null) {
-            String path = file.getAbsolutePath().toString();
-            IFile workspaceFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(path));
-            if (workspaceFile != null && workspaceFile.isAccessible()) {
-                put(workspaceFile, content);
+            String path = file.getAbsolutePath();
+            IFile workspaceFile = FileContentMap.getWorkspaceFile(file);
+            if (workspaceFile != null) {
+                put(path, workspaceFile.getFullPath().toString(), 0, content);
             } else {
-                if (max > -1 && size() >= max && priority.size() > 0) {
-                    // Remove the oldest element
-                    Object toRemove = priority.get(0);
-                    file2content.remove(toRemove);
-                    file2OldModificationStamp.remove(toRemove);
-                    priority.remove(0);
-                }
-                file2content.put(path, content);
-                file2OldModificationStamp.put(path, new Double(file.lastModified()));
-                if (content instanceof EObject) {
-                    putForEObject((EObject) content);
-                }
-                priority.add(path);
+                put(path, null, file.lastModified(), content);
+            }
+        }
+    }
+
+    /**
+     * Puts the content of a workspace file, watched by the workspace listener,
+     * or of a file whose stamp is checked by the gets.
+     */
+    private void put(String path, String workspacePath, long stamp, Object content) {
+        Element element = new Element(workspacePath, weak ? new SoftReference(content) : content);
+        if (content instanceof EObject) {
+            putForEObject(element, (EObject) content);
+        }
+        synchronized (this) {
+            // The content has been computed after the miss : if the file has
+            // been modified since, the next get will miss again
+            Object missState = path2Miss.remove(path);
+            if (missState == FileContentMap.MODIFIED) {
+                return;
             }
+            element.stamp = (missState instanceof Long) ? ((Long) missState).longValue() : stamp;
+            path2Element.put(path, element);
         }
     }
 
-    private void putForEObject(EObject content) {
+    /**
+     * Gets the workspace file at the location of the file, if the workspace
+     * notifies the modifications of its files.
+     */
+    private static IFile getWorkspaceFile(File file) {
+        if (FileContentMap.WorkspaceListener.isRegistered()) {
+            IFile workspaceFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(file.getAbsolutePath()));
+            if (workspaceFile != null && workspaceFile.isAccessible()) {
+                return workspaceFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remembers the workspace files of the other resources of the resource set
+     * of the content : the element expires when one of them is modified.
+     */
+    private void putForEObject(Element element, EObject content) {
         if (content.eResource() != null && content.eResource().getResourceSet() != null) {
             ResourceSet resourceSet = content.eResource().getResourceSet();
+            List loadedFiles = new ArrayList();
             Iterator resources = resourceSet.getResources().iterator();
             while (resources.hasNext()) {
                 Resource resource = (Resource) resources.next();
                 if (resource != content.eResource() && resource.getURI() != null) {
                     IFile loadedFile = Resources.getIFile(resource.getURI());
                     if (loadedFile != null && loadedFile.exists()) {
-                        file2OldModificationStamp.put(loadedFile.getFullPath().toString(), new Double(loadedFile.getModificationStamp() + loadedFile.getLocalTimeStamp()));
+                        loadedFiles.add(loadedFile);
                     }
                 }
             }
+            element.loadedFiles = (IFile[]) loadedFiles.toArray(new IFile[loadedFiles.size()]);
+            element.loadedStamps = new long[element.loadedFiles.length];
+            for (int i = 0; i < element.loadedFiles.length; i++) {
+                element.loadedStamps[i] = FileContentMap.stamp(element.loadedFiles[i]);
+            }
         }
     }
 
@@ -279,9 +355,9 @@ public class FileContentMap {
      */
     public void remove(IFile file) {
         String path = file.getFullPath().toString();
-        file2content.remove(path);
-        file2OldModificationStamp.remove(path);
-        priority.remove(path);
+        synchronized (this) {
+            path2Element.remove(path);
+        }
     }
 
     /**
@@ -291,14 +367,33 @@ public class FileContentMap {
      *            is the file
      */
     public void remove(File file) {
-        String path = file.getAbsolutePath().toString();
-        IFile workspaceFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(path));
-        if (workspaceFile != null && workspaceFile.isAccessible()) {
-            remove(workspaceFile);
-        } else {
-            file2content.remove(path);
-            file2OldModificationStamp.remove(path);
-            priority.remove(path);
+        String path = file.getAbsolutePath();
+        synchronized (this) {
+            path2Element.remove(path);
+        }
+    }
+
+    /**
+     * Removes the elements of the modified workspace files, and the elements
+     * which depend on them. The missed files which are modified won't be put.
+     * 
+     * @param paths
+     *            are the full paths of the modified files
+     */
+    private synchronized void invalidate(Set paths) {
+        Iterator elements = path2Element.values().iterator();
+        while (elements.hasNext()) {
+            Element element = (Element) elements.next();
+            if ((element.workspacePath != null && paths.contains(element.workspacePath)) || element.dependsOn(paths)) {
+                elements.remove();
+            }
+        }
+        Iterator misses = path2Miss.entrySet().iterator();
+        while (misses.hasNext()) {
+            Map.Entry miss = (Map.Entry) misses.next();
+            if (paths.contains(miss.getValue())) {
+                miss.setValue(FileContentMap.MODIFIED);
+            }
         }
     }
 
@@ -307,43 +402,230 @@ public class FileContentMap {
      * 
      * @return the number of key-value mappings in this map
      */
-    public int size() {
-        return file2content.size();
+    public synchronized int size() {
+        return path2Element.size();
     }
 
     /**
      * Removes all elements.
      */
-    public void clear() {
-        file2content.clear();
-        file2OldModificationStamp.clear();
-        priority.clear();
+    public synchronized void clear() {
+        path2Element.clear();
     }
 
     /**
-     * Returns a collection view of the values contained in this map.
+     * Returns the number of gets which have found a valid element.
+     * 
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of gets which haven't found a valid element.
+     * 
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns a collection of the values contained in this map.
      * <p>
      * For (weak == false) only.
      * <p>
      * 
-     * @return a collection view of the values contained in this map
+     * @return a collection of the values contained in this map
      */
     public Collection values() {
-        if (!(file2content instanceof WeakHashMap)) {
-            return file2content.values();
+        if (!weak) {
+            return contents().values();
         } else {
             return new ArrayList();
         }
     }
 
     /**
-     * Returns a set view of the entries contained in this map.
+     * Returns a set of the entries contained in this map : path -> value.
      * <p>
      * 
      * @return a set of the entries contained in this map
      */
     public Set entrySet() {
-        return file2content.entrySet();
+        return contents().entrySet();
+    }
+
+    private synchronized Map contents() {
+        Map result = new HashMap();
+        Iterator entries = path2Element.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry entry = (Map.Entry) entries.next();
+            Object content = ((Element) entry.getValue()).getContent();
+            if (content != null) {
+                result.put(entry.getKey(), content);
+            }
+        }
+        return result;
+    }
+
+    private static long stamp(IFile file) {
+        return file.getModificationStamp() + file.getLocalTimeStamp();
+    }
+
+    /**
+     * A value and the state of its file when it has been put.
+     */
+    private static final class Element {
+
+        /**
+         * The full path of a workspace file, whose modifications are notified,
+         * or null.
+         */
+        final String workspacePath;
+
+        /**
+         * The modification stamp of a file which isn't watched.
+         */
+        long stamp;
+
+        /**
+         * The value, or a soft reference to the value.
+         */
+        private final Object content;
+
+        /**
+         * The workspace files of the other resources of the resource set of
+         * an EObject value.
+         */
+        IFile[] loadedFiles;
+
+        /**
+         * The modification stamps of the loaded files.
+         */
+        long[] loadedStamps;
+
+        Element(String workspacePath, Object content) {
+            this.workspacePath = workspacePath;
+            this.content = content;
+        }
+
+        Object getContent() {
+            if (content instanceof SoftReference) {
+                return ((SoftReference) content).get();
+            } else {
+                return content;
+            }
+        }
+
+        /**
+         * Gets the value, or null if it has been cleared or if the files it
+         * has loaded have changed.
+         */
+        Object getValidContent() {
+            Object result = getContent();
+            if (result instanceof EObject && !isUpToDate()) {
+                return null;
+            }
+            return result;
+        }
+
+        /**
+         * Indicates if the loaded files are unchanged, when the workspace
+         * notifications aren't available.
+         */
+        boolean isUpToDate() {
+            if (loadedFiles != null && !FileContentMap.WorkspaceListener.isRegistered()) {
+                for (int i = 0; i < loadedFiles.length; i++) {
+                    if (loadedFiles[i].exists() && FileContentMap.stamp(loadedFiles[i]) != loadedStamps[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        boolean dependsOn(Set paths) {
+            if (loadedFiles != null) {
+                for (int i = 0; i < loadedFiles.length; i++) {
+                    if (paths.contains(loadedFiles[i].getFullPath().toString())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Forwards the modifications of the workspace files to all the maps.
+     */
+    private static final class WorkspaceListener implements IResourceChangeListener {
+
+        /**
+         * The listener, registered when the first map is created.
+         */
+        private static volatile WorkspaceListener instance;
+
+        /**
+         * The maps to notify : FileContentMap -> Boolean.
+         */
+        private final Map maps = new WeakHashMap();
+
+        static void register(FileContentMap map) {
+            synchronized (WorkspaceListener.class) {
+                if (WorkspaceListener.instance == null) {
+                    try {
+                        WorkspaceListener listener = new WorkspaceListener();
+                        ResourcesPlugin.getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+                        WorkspaceListener.instance = listener;
+                    } catch (IllegalStateException e) {
+                        // The workspace is closed : the stamps are checked
+                        return;
+                    }
+                }
+                WorkspaceListener.instance.maps.put(map, Boolean.TRUE);
+            }
+        }
+
+        static boolean isRegistered() {
+            return WorkspaceListener.instance != null;
+        }
+
+        /* (non-Javadoc) */
+        public void resourceChanged(IResourceChangeEvent event) {
+            IResourceDelta delta = event.getDelta();
+            if (delta == null) {
+                return;
+            }
+            final Set paths = new HashSet();
+            try {
+                delta.accept(new IResourceDeltaVisitor() {
+                    public boolean visit(IResourceDelta child) {
+                        if (child.getResource().getType() == IResource.FILE
+                                && (child.getKind() != IResourceDelta.CHANGED || (child.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED | IResourceDelta.ENCODING)) != 0)) {
+                            paths.add(child.getFullPath().toString());
+                        }
+                        return true;
+                    }
+                });
+            } catch (CoreException e) {
+                AcceleoToolsPlugin.getDefault().log(e, false);
+            }
+            if (!paths.isEmpty()) {
+                List current;
+                synchronized (WorkspaceListener.class) {
+                    current = new ArrayList(maps.keySet());
+                }
+                Iterator it = current.iterator();
+                while (it.hasNext()) {
+                    ((FileContentMap) it.next()).invalidate(paths);
+                }
+            }
+        }
+
     }
 
 }
@@ -12,13 +12,11 @@
 
 package org.eclipse.sirius.query.legacy.tools.resources;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -88,65 +86,46 @@ public class Resources {
      *         exist
      */
     public static StringBuffer getFileContent(IFile file, boolean report) {
-        StringBuffer buffer = Resources.doGetFileContent(file, report);
-        if (file != null && Resources.isTemplateFile(file.getName()) && Resources.getEncoding(buffer) != null) {
-            buffer = Resources.getEncodedFileContent(file, report, Resources.getEncoding(buffer));
-        }
-        return buffer;
+        return new StringBuffer(Resources.getFileText(file, report));
     }
 
     /**
-     * Returns the content of the file.
+     * Returns the content of the file, without copying it.
+     * <p>
+     * The file is decoded with the charset of its Unicode BOM, or with the
+     * encoding of its header if it is a template, or else with the charset of
+     * the file in the workspace.
      * 
      * @param file
      *            is the file
      * @param report
      *            indicates if an error is reported when the file doesn't exist
-     * @return the content of the file, or an empty buffer if the file doesn't
+     * @return the content of the file, or an empty sequence if the file doesn't
      *         exist
      */
-    private static StringBuffer doGetFileContent(IFile file, boolean report) {
-        StringBuffer buffer = new StringBuffer();
+    public static CharSequence getFileText(IFile file, boolean report) {
         if (file != null) {
-
-            UnicodeBOMInputStream ubis = null;
-            InputStream content = null;
             try {
-                content = file.getContents(false);
-                ubis = new UnicodeBOMInputStream(content);
-                ubis.skipBOM();
-                byte[] readBuffer = new byte[ubis.available()];
-                int n = ubis.read(readBuffer);
-                while (n > 0) {
-                    buffer.append(new String(readBuffer));
-                    n = ubis.read(readBuffer);
+                String charset = file.getCharset(false);
+                boolean template = Resources.isTemplateFile(file.getName());
+                IPath location = file.getLocation();
+                if (location != null && file.isSynchronized(IResource.DEPTH_ZERO)) {
+                    return FileContentLoader.getContent(location.toFile(), charset, template);
+                } else {
+                    InputStream content = file.getContents(false);
+                    try {
+                        return FileContentLoader.getContent(content, charset, template, false);
+                    } finally {
+                        content.close();
+                    }
                 }
             } catch (Exception e) {
                 if (report) {
                     AcceleoToolsPlugin.getDefault().log(e, true);
                 }
-            } finally {
-                if (ubis != null) {
-                    try {
-                        ubis.close();
-                    } catch (IOException e) {
-                        if (report) {
-                            AcceleoToolsPlugin.getDefault().log(e, true);
-                        }
-                    }
-                }
-                if (content != null) {
-                    try {
-                        content.close();
-                    } catch (IOException e) {
-                        if (report) {
-                            AcceleoToolsPlugin.getDefault().log(e, true);
-                        }
-                    }
-                }
             }
         }
-        return buffer;
+        return ""; //$NON-NLS-1$
     }
 
     /**
@@ -172,12 +151,36 @@ public class Resources {
      *         exist
      */
     public static StringBuffer getFileContent(File file, boolean report) {
-        StringBuffer buffer = Resources.doGetFileContent(file, report);
-        String encoding = Resources.getEncoding(buffer);
-        if (file != null && Resources.isTemplateFile(file.getName()) && encoding != null) {
-            buffer = Resources.getEncodedFileContent(file, report, encoding);
+        return new StringBuffer(Resources.getFileText(file, report));
+    }
+
+    /**
+     * Returns the content of the file, without copying it.
+     * <p>
+     * The file is decoded with the charset of its Unicode BOM, or with the
+     * encoding of its header if it is a template, or else with the platform
+     * charset.
+     * 
+     * @param file
+     *            is the file
+     * @param report
+     *            indicates if an error is reported when the file doesn't exist
+     * @return the content of the file, or an empty sequence if the file doesn't
+     *         exist
+     */
+    public static CharSequence getFileText(File file, boolean report) {
+        if (file != null) {
+            try {
+                return FileContentLoader.getContent(file, null, Resources.isTemplateFile(file.getName()));
+            } catch (UnsupportedEncodingException e) {
+                // The encoding of the header is wrong
+            } catch (IOException e) {
+                if (report) {
+                    AcceleoToolsPlugin.getDefault().log(e, true);
+                }
+            }
         }
-        return buffer;
+        return ""; //$NON-NLS-1$
     }
 
     /**
@@ -211,37 +214,13 @@ public class Resources {
      */
     public static StringBuffer getEncodedFileContent(File file, boolean report, String encodingCode) {
         StringBuffer buffer = new StringBuffer();
-        FileInputStream fiss;
-        UnicodeBOMInputStream fis;
         try {
-            fiss = new FileInputStream(file);
-            fis = new UnicodeBOMInputStream(fiss);
-            fis.skipBOM();
-            InputStreamReader in = new InputStreamReader(fis, encodingCode);
-            try {
-                char[] buff = new char[512];
-                int size = in.read(buff);
-                while (size > 0) {
-                    buffer.append(buff, 0, size);
-                    size = in.read(buff);
-                }
-            } finally {
-                if (in != null) {
-                    in.close();
-                }
-                if (fiss != null) {
-                    fiss.close();
-                }
-                if (fis != null) {
-                    fis.close();
-                }
-            }
+            buffer.append(FileContentLoader.getEncodedContent(file, encodingCode));
         } catch (IOException e) {
             if (report && !(e instanceof UnsupportedEncodingException)) {
                 AcceleoToolsPlugin.getDefault().log(e, true);
             }
         }
-
         return buffer;
     }
 
@@ -260,83 +239,22 @@ public class Resources {
     public static StringBuffer getEncodedFileContent(IFile file, boolean report, String encodingCode) {
         StringBuffer buffer = new StringBuffer();
         if (file != null) {
-            UnicodeBOMInputStream content = null;
             try {
-                content = new UnicodeBOMInputStream(file.getContents(false));
-                content.skipBOM();
-                /*
-                 * create an InputStreamReader specifying an encoding.
-                 */
-                InputStreamReader in = new InputStreamReader(content, encodingCode);
-                try {
-                    char[] buff = new char[content.available()];
-                    int size = in.read(buff);
-                    while (size > 0) {
-                        buffer.append(buff, 0, size);
-                        size = in.read(buff);
-                    }
-                } finally {
-                    if (in != null) {
-                        in.close();
+                IPath location = file.getLocation();
+                if (location != null && file.isSynchronized(IResource.DEPTH_ZERO)) {
+                    buffer.append(FileContentLoader.getEncodedContent(location.toFile(), encodingCode));
+                } else {
+                    InputStream content = file.getContents(false);
+                    try {
+                        buffer.append(FileContentLoader.getContent(content, encodingCode, false, true));
+                    } finally {
+                        content.close();
                     }
                 }
             } catch (Exception e) {
                 if (report) {
                     AcceleoToolsPlugin.getDefault().log(e, true);
                 }
-            } finally {
-                if (content != null) {
-                    try {
-                        content.close();
-                    } catch (IOException e) {
-                        if (report && !(e instanceof UnsupportedEncodingException)) {
-                            AcceleoToolsPlugin.getDefault().log(e, true);
-                        }
-                    }
-                }
-            }
-        }
-        return buffer;
-    }
-
-    /**
-     * Returns the content of the file.
-     * 
-     * @param file
-     *            is the file
-     * @param report
-     *            indicates if an error is reported when the file doesn't exist
-     * @return the content of the file, or an empty buffer if the file doesn't
-     *         exist
-     */
-    private static StringBuffer doGetFileContent(File file, boolean report) {
-        StringBuffer buffer = new StringBuffer();
-        try {
-            FileInputStream fis = new FileInputStream(file);
-            UnicodeBOMInputStream ubis = new UnicodeBOMInputStream(fis);
-            ubis.skipBOM();
-            BufferedReader in = new BufferedReader(new InputStreamReader(ubis));
-            try {
-                char[] buff = new char[512];
-                int size = in.read(buff);
-                while (size > 0) {
-                    buffer.append(buff, 0, size);
-                    size = in.read(buff);
-                }
-            } finally {
-                if (in != null) {
-                    in.close();
-                }
-                if (fis != null) {
-                    fis.close();
-                }
-                if (ubis != null) {
-                    ubis.close();
-                }
-            }
-        } catch (IOException e) {
-            if (report) {
-                AcceleoToolsPlugin.getDefault().log(e, true);
             }
         }
         return buffer;
@@ -12,6 +12,8 @@
 
 package org.eclipse.sirius.query.legacy.tools.strings;
 
+import java.io.Serializable;
+
 /**
  * Complex index in a string.
  * <p>
@@ -19,7 +21,9 @@ package org.eclipse.sirius.query.legacy.tools.strings;
  * 
  * 
  */
-public class Int2 {
+public class Int2 implements Serializable {
+
+    private static final long serialVersionUID = 1;
 
     /**
      * Index not found.
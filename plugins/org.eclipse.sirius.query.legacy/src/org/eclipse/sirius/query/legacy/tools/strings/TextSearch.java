@@ -13,7 +13,10 @@
 package org.eclipse.sirius.query.legacy.tools.strings;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -136,7 +139,7 @@ public class TextSearch {
         return pattern;
     }
 
-    private Map patternMap = new HashMap();
+    private Map patternMap = Collections.synchronizedMap(new HashMap());
 
     /**
      * Indicates if the strings are matching.
@@ -307,24 +310,31 @@ public class TextSearch {
         if (tag == null || tag.length() == 0) {
             return Int2.NOT_FOUND;
         }
-        String substring = buffer.substring(posBegin, posEnd);
         if (regex) {
             Pattern pattern = compile(tag);
-            Matcher m = pattern.matcher(substring);
+            // The region bounds anchor the pattern as for a substring
+            Matcher m = pattern.matcher(buffer).region(posBegin, posEnd);
             if (m.find()) {
-                return new Int2(posBegin + m.start(), posBegin + m.end());
+                return new Int2(m.start(), m.end());
+            } else {
+                return Int2.NOT_FOUND;
+            }
+        } else if (ignoreCase) {
+            int i = buffer.substring(posBegin, posEnd).toLowerCase().indexOf(tag.toLowerCase());
+            if (i > -1) {
+                int b = posBegin + i;
+                return new Int2(b, b + tag.length());
             } else {
                 return Int2.NOT_FOUND;
             }
         } else {
-            int i;
-            if (ignoreCase) {
-                i = substring.toLowerCase().indexOf(tag.toLowerCase());
+            int b;
+            if (buffer.length() >= TextSearch.OCCURRENCES_THRESHOLD) {
+                b = getOccurrences(buffer).indexOf(tag, posBegin);
             } else {
-                i = substring.indexOf(tag);
+                b = buffer.indexOf(tag, posBegin);
             }
-            if (i > -1) {
-                int b = posBegin + i;
+            if (b > -1 && b + tag.length() <= posEnd) {
                 return new Int2(b, b + tag.length());
             } else {
                 return Int2.NOT_FOUND;
@@ -332,6 +342,288 @@ public class TextSearch {
         }
     }
 
+    /**
+     * The minimum length of a buffer whose occurrences of the tags are indexed.
+     */
+    private static final int OCCURRENCES_THRESHOLD = 1024;
+
+    /**
+     * The number of buffers indexed by each thread.
+     */
+    private static final int OCCURRENCES_SIZE = 4;
+
+    /**
+     * Gets the positions of the tags in the buffer. The parser scans the same
+     * buffer with the same tags from many positions, the positions of a tag
+     * are computed with one pass on the buffer the first time it is searched,
+     * then each search is a binary search.
+     * 
+     * @param buffer
+     *            is the text to be explored
+     * @return the positions of the tags in the buffer
+     */
+    private Occurrences getOccurrences(String buffer) {
+        Occurrences[] recent = (Occurrences[]) occurrences.get();
+        for (int i = 0; i < recent.length; i++) {
+            if (recent[i] != null && recent[i].buffer.get() == null) {
+                // The tables of a collected buffer are released
+                recent[i] = null;
+            } else if (recent[i] != null && recent[i].buffer.get() == buffer) {
+                Occurrences result = recent[i];
+                System.arraycopy(recent, 0, recent, 1, i);
+                recent[0] = result;
+                return result;
+            }
+        }
+        Occurrences result = new Occurrences(buffer);
+        System.arraycopy(recent, 0, recent, 1, recent.length - 1);
+        recent[0] = result;
+        return result;
+    }
+
+    /**
+     * The most recently indexed buffers of the current thread. The tables of a
+     * buffer are released when it is collected, or when it is replaced by a
+     * more recent buffer.
+     */
+    private ThreadLocal occurrences = new ThreadLocal() {
+        @Override
+        protected Object initialValue() {
+            return new Occurrences[TextSearch.OCCURRENCES_SIZE];
+        }
+    };
+
+    /**
+     * The positions of the tags in a buffer.
+     */
+    private static final class Occurrences {
+
+        /**
+         * The indexed buffer, compared by identity.
+         */
+        final WeakReference buffer;
+
+        /**
+         * The sorted positions of each tag : String -> int[].
+         */
+        private final Map tag2Positions = new HashMap();
+
+        /**
+         * The token streams of the buffer : TokensKey -> Tokens.
+         */
+        private final Map tokens = new HashMap();
+
+        Occurrences(String buffer) {
+            this.buffer = new WeakReference(buffer);
+        }
+
+        /**
+         * Returns the index of the first occurrence of the tag, starting at the
+         * specified index, as String.indexOf.
+         */
+        int indexOf(String tag, int pos) {
+            int[] positions = positions(tag);
+            int index = Occurrences.firstIndex(positions, pos);
+            return (index < positions.length) ? positions[index] : -1;
+        }
+
+        /**
+         * Gets the stream of the escape sequences and of the beginnings of the
+         * inhibited blocks, computed the first time.
+         */
+        Tokens getTokens(String spec, String[][] inhibs) {
+            TokensKey key = new TokensKey(spec, inhibs);
+            Tokens result = (Tokens) tokens.get(key);
+            if (result == null) {
+                result = new Tokens(this, spec, inhibs);
+                tokens.put(key, result);
+            }
+            return result;
+        }
+
+        /**
+         * Returns the sorted positions of the tag in the buffer, computed the
+         * first time.
+         */
+        int[] positions(String tag) {
+            int[] positions = (int[]) tag2Positions.get(tag);
+            if (positions == null) {
+                String text = (String) buffer.get();
+                int size = 0;
+                positions = new int[16];
+                for (int i = text.indexOf(tag); i > -1; i = text.indexOf(tag, i + 1)) {
+                    if (size == positions.length) {
+                        int[] larger = new int[size * 2];
+                        System.arraycopy(positions, 0, larger, 0, size);
+                        positions = larger;
+                    }
+                    positions[size++] = i;
+                }
+                int[] trimmed = new int[size];
+                System.arraycopy(positions, 0, trimmed, 0, size);
+                positions = trimmed;
+                tag2Positions.put(tag, positions);
+            }
+            return positions;
+        }
+
+        /**
+         * Returns the index of the first position which isn't lower than pos.
+         */
+        static int firstIndex(int[] positions, int pos) {
+            int low = 0;
+            int high = positions.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (positions[middle] < pos) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+    }
+
+    /**
+     * Identifies a token stream : the escape sequence and the inhibs, which are
+     * constant arrays compared by identity.
+     */
+    private static final class TokensKey {
+
+        private final String spec;
+
+        private final String[][] inhibs;
+
+        TokensKey(String spec, String[][] inhibs) {
+            this.spec = spec;
+            this.inhibs = inhibs;
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(inhibs) + ((spec != null) ? spec.hashCode() : 0);
+        }
+
+        /* (non-Javadoc) */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof TokensKey) {
+                TokensKey other = (TokensKey) obj;
+                return inhibs == other.inhibs && ((spec != null) ? spec.equals(other.spec) : other.spec == null);
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * The tokens of a buffer which a search has to skip : the escape sequences
+     * and the beginnings of the inhibited blocks, in document order. The end
+     * of each inhibited block is computed the first time it is skipped, with
+     * no bound, and reused by the following searches.
+     */
+    private static final class Tokens {
+
+        /**
+         * The kind of an escape sequence, the kind of the inhibited blocks of
+         * inhibs[i] is i + 1.
+         */
+        static final int SPEC = 0;
+
+        /**
+         * The end of an inhibited block which isn't computed yet.
+         */
+        static final int UNKNOWN = -2;
+
+        /**
+         * The positions of the tokens.
+         */
+        final int[] positions;
+
+        /**
+         * The kinds of the tokens, for the same positions the order of the
+         * kinds is the order of the search.
+         */
+        final int[] kinds;
+
+        /**
+         * The end of the inhibited block of each token, or UNKNOWN.
+         */
+        final int[] ends;
+
+        /**
+         * The length of the tag of each kind.
+         */
+        private final int[] lengths;
+
+        Tokens(Occurrences occurrences, String spec, String[][] inhibs) {
+            int nbKinds = 1 + ((inhibs != null) ? inhibs.length : 0);
+            lengths = new int[nbKinds];
+            int[][] kind2Positions = new int[nbKinds][];
+            int size = 0;
+            for (int kind = 0; kind < nbKinds; kind++) {
+                String tag = (kind == Tokens.SPEC) ? spec : inhibs[kind - 1][0];
+                if (tag != null && tag.length() > 0) {
+                    lengths[kind] = tag.length();
+                    kind2Positions[kind] = occurrences.positions(tag);
+                } else {
+                    kind2Positions[kind] = new int[0];
+                }
+                size += kind2Positions[kind].length;
+            }
+            long[] sorted = new long[size];
+            int index = 0;
+            for (int kind = 0; kind < nbKinds; kind++) {
+                for (int i = 0; i < kind2Positions[kind].length; i++) {
+                    sorted[index++] = ((long) kind2Positions[kind][i] << 32) | kind;
+                }
+            }
+            Arrays.sort(sorted);
+            positions = new int[size];
+            kinds = new int[size];
+            ends = new int[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = (int) (sorted[i] >>> 32);
+                kinds[i] = (int) sorted[i];
+                ends[i] = Tokens.UNKNOWN;
+            }
+        }
+
+        /**
+         * Returns the index of the first token at or after pos which ends
+         * before posEnd, or -1.
+         */
+        int next(int pos, int posEnd) {
+            for (int i = Occurrences.firstIndex(positions, pos); i < positions.length && positions[i] < posEnd; i++) {
+                if (positions[i] + lengths[kinds[i]] <= posEnd) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the index of the token of the given kind at the given
+         * position, or -1.
+         */
+        int find(int pos, int kind) {
+            for (int i = Occurrences.firstIndex(positions, pos); i < positions.length && positions[i] == pos; i++) {
+                if (kinds[i] == kind) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int length(int kind) {
+            return lengths[kind];
+        }
+
+    }
+
     public Int2 indexIn(final String buffer, final String tag, int posBegin, int posEnd, String spec, String[][] inhibs) {
         return indexIn(buffer, tag, posBegin, posEnd, spec, null, inhibs);
     }
@@ -346,6 +638,9 @@ public class TextSearch {
         if (tag == null) {
             return Int2.NOT_FOUND;
         }
+        if (jump == null && isTokenized(buffer)) {
+            return indexInTokens(buffer, tag, posBegin, posEnd, spec, inhibs);
+        }
         int inhibs_size = 0;
         if (inhibs != null) {
             inhibs_size = inhibs.length;
@@ -390,19 +685,84 @@ public class TextSearch {
             } else if (iPositionMin == 2 /* jump */) {
                 posBegin = jump.end(buffer, positions[iPositionMin], posEnd, spec, inhibs);
             } else if (iPositionMin >= 3 /* inhibsTag */) {
-                boolean forceNotRecursive;
-                if (inhibs[iPositionMin - 3].length >= 3 && inhibs[iPositionMin - 3][2] != null) {
-                    forceNotRecursive = inhibs[iPositionMin - 3][2].indexOf(TextSearch.FORCE_NOT_RECURSIVE) > -1;
-                } else {
-                    forceNotRecursive = false;
-                }
-                posBegin = blockIndexEndIn(buffer, inhibs[iPositionMin - 3][0], inhibs[iPositionMin - 3][1], positions[iPositionMin].b(), posEnd,
-                        (recursiveInhibs && !forceNotRecursive) ? true : false, spec, jump, (recursiveInhibs && !forceNotRecursive) ? inhibs : null).e();
+                posBegin = inhibIndexEndIn(buffer, inhibs, iPositionMin - 3, positions[iPositionMin].b(), posEnd, spec, jump);
             }
         };
         return Int2.NOT_FOUND;
     }
 
+    /**
+     * Indicates if the searches in the buffer use the positions of the tags
+     * computed in one pass : the search is case sensitive and the buffer is
+     * long enough.
+     */
+    private boolean isTokenized(String buffer) {
+        return !regex && !ignoreCase && buffer.length() >= TextSearch.OCCURRENCES_THRESHOLD;
+    }
+
+    /**
+     * Searches the tag as indexIn, on the token stream of the buffer : each
+     * step is a binary search instead of a scan of the buffer for the tag, the
+     * escape sequence and each inhib.
+     */
+    private Int2 indexInTokens(final String buffer, final String tag, int posBegin, int posEnd, String spec, String[][] inhibs) {
+        Occurrences bufferOccurrences = getOccurrences(buffer);
+        Tokens tokens = bufferOccurrences.getTokens(spec, inhibs);
+        int tagLength = tag.length();
+        if (tagLength == 0) {
+            return Int2.NOT_FOUND;
+        }
+        int pos = posBegin;
+        while (pos > -1 && pos < posEnd) {
+            int b = bufferOccurrences.indexOf(tag, pos);
+            if (b + tagLength > posEnd) {
+                b = -1;
+            }
+            int token = tokens.next(pos, posEnd);
+            // For the same position, an escape sequence is before the tag and
+            // an inhib is after
+            if (token == -1 || b > -1 && (b < tokens.positions[token] || b == tokens.positions[token] && tokens.kinds[token] != Tokens.SPEC)) {
+                return (b > -1) ? new Int2(b, b + tagLength) : Int2.NOT_FOUND;
+            }
+            if (tokens.kinds[token] == Tokens.SPEC) {
+                pos = tokens.positions[token] + tokens.length(Tokens.SPEC);
+            } else {
+                pos = inhibIndexEndIn(buffer, inhibs, tokens.kinds[token] - 1, tokens.positions[token], posEnd, spec, null);
+            }
+        }
+        return Int2.NOT_FOUND;
+    }
+
+    /**
+     * Gets the end index of the inhibited block which begins at the given
+     * position. On a tokenized buffer, the end of the block is computed once
+     * with no bound : it is the same for each bound after it, and for no bound
+     * when the block isn't closed.
+     */
+    private int inhibIndexEndIn(final String buffer, String[][] inhibs, int i, int begin, int posEnd, String spec, Jump jump) {
+        boolean forceNotRecursive;
+        if (inhibs[i].length >= 3 && inhibs[i][2] != null) {
+            forceNotRecursive = inhibs[i][2].indexOf(TextSearch.FORCE_NOT_RECURSIVE) > -1;
+        } else {
+            forceNotRecursive = false;
+        }
+        boolean recursive = recursiveInhibs && !forceNotRecursive;
+        if (jump == null && isTokenized(buffer)) {
+            Tokens tokens = getOccurrences(buffer).getTokens(spec, inhibs);
+            int token = tokens.find(begin, i + 1);
+            if (token > -1) {
+                if (tokens.ends[token] == Tokens.UNKNOWN) {
+                    tokens.ends[token] = blockIndexEndIn(buffer, inhibs[i][0], inhibs[i][1], begin, buffer.length(), recursive, spec, null, recursive ? inhibs : null).e();
+                }
+                int end = tokens.ends[token];
+                if (end > -1 && end <= posEnd || posEnd == buffer.length()) {
+                    return end;
+                }
+            }
+        }
+        return blockIndexEndIn(buffer, inhibs[i][0], inhibs[i][1], begin, posEnd, recursive, spec, jump, recursive ? inhibs : null).e();
+    }
+
     /*
      * (endTag.length()==0) => buffer.length() (endTag not found || posBegin ne
      * correspond pas a beginTag) => -1 (posBegin < 0 ||
@@ -510,14 +870,7 @@ public class TextSearch {
             } else if (iPositionMin == 3 /* jump */) {
                 pos = jump.end(buffer, positions[iPositionMin], posEnd, spec, inhibs);
             } else if (iPositionMin >= 4 /* inhibsTag */) {
-                boolean forceNotRecursive;
-                if (inhibs[iPositionMin - 4].length >= 3 && inhibs[iPositionMin - 4][2] != null) {
-                    forceNotRecursive = inhibs[iPositionMin - 4][2].indexOf(TextSearch.FORCE_NOT_RECURSIVE) > -1;
-                } else {
-                    forceNotRecursive = false;
-                }
-                pos = blockIndexEndIn(buffer, inhibs[iPositionMin - 4][0], inhibs[iPositionMin - 4][1], positions[iPositionMin].b(), posEnd, (recursiveInhibs && !forceNotRecursive) ? true : false,
-                        spec, jump, (recursiveInhibs && !forceNotRecursive) ? inhibs : null).e();
+                pos = inhibIndexEndIn(buffer, inhibs, iPositionMin - 4, positions[iPositionMin].b(), posEnd, spec, jump);
             }
             if (nbBeginTagOuvert == 0) {
                 return positions[iPositionMin];
@@ -890,7 +1243,7 @@ public class TextSearch {
             object = new Object[2];
             object[0] = new HashMap();
             ((Map) object[0]).put(new Integer(0), new Integer(1));
-            String buffer = Resources.getFileContent(file).toString();
+            String buffer = Resources.getFileText(file, true).toString();
             object[1] = buffer;
             Int2[] endLines = allIndexOf(buffer, "\n"); //$NON-NLS-1$
             for (int i = 0; i < endLines.length; i++) {